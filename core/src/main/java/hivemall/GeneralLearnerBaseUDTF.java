@@ -31,22 +31,21 @@ import hivemall.optimizer.LossFunctions.LossType;
 import hivemall.optimizer.Optimizer;
 import hivemall.optimizer.OptimizerOptions;
 import hivemall.utils.collections.IMapIterator;
+import hivemall.utils.collections.maps.FloatAccumulatorTable;
+import hivemall.utils.concurrent.ExecutorFactory;
 import hivemall.utils.hadoop.HiveUtils;
-import hivemall.utils.io.FileUtils;
-import hivemall.utils.io.NIOUtils;
-import hivemall.utils.io.NioStatefulSegment;
-import hivemall.utils.lang.FloatAccumulator;
+import hivemall.utils.io.ReplayBuffer;
 import hivemall.utils.lang.NumberUtils;
 import hivemall.utils.lang.Primitives;
-import hivemall.utils.lang.SizeOf;
 
-import java.io.File;
 import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
@@ -101,18 +100,18 @@ public abstract class GeneralLearnerBaseUDTF extends LearnerBaseUDTF {
 
     /** The accumulated delta of each weight values. */
     @Nullable
-    private transient Map<Object, FloatAccumulator> accumulated;
+    private transient FloatAccumulatorTable accumulated;
     private int sampled;
 
     // -----------------------------------------
     // for iterations
 
     @Nullable
-    protected transient NioStatefulSegment fileIO;
-    @Nullable
-    protected transient ByteBuffer inputBuf;
+    protected transient ReplayBuffer replayBuffer;
     private int iterations;
     protected ConversionState cvState;
+    /** the number of threads for Hogwild!-style iterative training */
+    private int numThreads;
 
     // -----------------------------------------
 
@@ -178,6 +177,9 @@ public abstract class GeneralLearnerBaseUDTF extends LearnerBaseUDTF {
             "Whether to disable convergence check [default: OFF]");
         opts.addOption("cv_rate", "convergence_rate", true,
             "Threshold to determine convergence [default: 0.005]");
+        opts.addOption("threads", "num_threads", true,
+            "The number of threads to run the 2nd and later iterations in parallel"
+                    + " without locks (Hogwild!). Requires -dense [default: 1]");
         OptimizerOptions.setup(opts);
         return opts;
     }
@@ -190,6 +192,7 @@ public abstract class GeneralLearnerBaseUDTF extends LearnerBaseUDTF {
         int iterations = 10;
         boolean conversionCheck = true;
         double convergenceRate = 0.005d;
+        int numThreads = 1;
 
         if (cl != null) {
             if (cl.hasOption("loss_function")) {
@@ -210,11 +213,29 @@ public abstract class GeneralLearnerBaseUDTF extends LearnerBaseUDTF {
 
             conversionCheck = !cl.hasOption("disable_cvtest");
             convergenceRate = Primitives.parseDouble(cl.getOptionValue("cv_rate"), convergenceRate);
+
+            numThreads = Primitives.parseInt(cl.getOptionValue("num_threads"), numThreads);
+            if (numThreads < 1) {
+                throw new UDFArgumentException(
+                    "'-threads' must be greater than or equals to 1: " + numThreads);
+            }
+            if (numThreads > 1) {
+                if (!dense_model) {
+                    throw new UDFArgumentException("'-threads' requires '-dense'");
+                }
+                if (is_mini_batch) {
+                    throw new UDFArgumentException("'-threads' cannot be used with '-mini_batch'");
+                }
+                if (mixConnectInfo != null) {
+                    throw new UDFArgumentException("'-threads' cannot be used with '-mix'");
+                }
+            }
         }
 
         this.lossFunction = lossFunction;
         this.iterations = iterations;
         this.cvState = new ConversionState(conversionCheck, convergenceRate);
+        this.numThreads = numThreads;
 
         OptimizerOptions.processOptions(cl, optimizerOptions);
 
@@ -225,6 +246,7 @@ public abstract class GeneralLearnerBaseUDTF extends LearnerBaseUDTF {
             params.put("iterations", iterations);
             params.put("disable_cvtest", conversionCheck ? false : true);
             params.put("cv_rate", convergenceRate);
+            params.put("num_threads", numThreads);
             throw new UDFArgumentException(
                 String.format("Inspected Optimizer options ...\n%s", params.toString()));
         }
@@ -253,6 +275,11 @@ public abstract class GeneralLearnerBaseUDTF extends LearnerBaseUDTF {
         }
     }
 
+    @Override
+    protected final FeatureType getFeatureType() {
+        return featureType;
+    }
+
     @Nonnull
     protected final ObjectInspector getFeatureOutputOI(@Nonnull final FeatureType featureType)
             throws UDFArgumentException {
@@ -298,7 +325,8 @@ public abstract class GeneralLearnerBaseUDTF extends LearnerBaseUDTF {
     @Override
     public void process(Object[] args) throws HiveException {
         if (is_mini_batch && accumulated == null) {
-            this.accumulated = new HashMap<Object, FloatAccumulator>(1024);
+            this.accumulated =
+                    new FloatAccumulatorTable(1024, featureType != FeatureType.STRING);
         }
 
         List<?> features = (List<?>) featureListOI.getList(args[0]);
@@ -321,93 +349,89 @@ public abstract class GeneralLearnerBaseUDTF extends LearnerBaseUDTF {
             return;
         }
 
-        ByteBuffer buf = inputBuf;
-        NioStatefulSegment dst = fileIO;
+        ReplayBuffer dst = replayBuffer;
+        if (dst == null) {
+            this.replayBuffer =
+                    dst = new ReplayBuffer("hivemall_general_learner", 2 * 1024 * 1024); // 2 MiB
+        }
 
-        if (buf == null) {
-            final File file;
-            try {
-                file = File.createTempFile("hivemall_general_learner", ".sgmt");
-                file.deleteOnExit();
-                if (!file.canWrite()) {
+        int numFeatures = 0;
+        boolean unitValues = true;
+        for (FeatureValue f : featureVector) {
+            if (f == null) {
+                continue;
+            }
+            if (numThreads > 1) {
+                // dense arrays must not be expanded while running threads
+                int index = HiveUtils.parseInt(f.getFeature());
+                if (index >= model_dims) {
                     throw new UDFArgumentException(
-                        "Cannot write a temporary file: " + file.getAbsolutePath());
+                        "Feature index must be less than -dims for -threads: " + index);
                 }
-                logger.info("Record training samples to a file: " + file.getAbsolutePath());
-            } catch (IOException ioe) {
-                throw new UDFArgumentException(ioe);
-            } catch (Throwable e) {
-                throw new UDFArgumentException(e);
             }
-            this.inputBuf = buf = ByteBuffer.allocateDirect(2 * 1024 * 1024); // 2 MB
-            this.fileIO = dst = new NioStatefulSegment(file, false);
+            if (f.getValue() != 1.d) {
+                unitValues = false;
+            }
+            numFeatures++;
         }
 
-        int featureVectorBytes = 0;
+        // the number of features and whether feature values are omitted
+        dst.writeVInt((numFeatures << 1) | (unitValues ? 0 : 1));
+        long prevKey = 0L;
         for (FeatureValue f : featureVector) {
             if (f == null) {
                 continue;
             }
-            int featureLength = f.getFeatureAsString().length();
-
-            // feature as String (even if it is Text or Integer)
-            featureVectorBytes += SizeOf.CHAR * featureLength;
-
-            // NIOUtils.putString() first puts the length of string before string itself
-            featureVectorBytes += SizeOf.INT;
-
-            // value
-            featureVectorBytes += SizeOf.DOUBLE;
-        }
-
-        // feature length, feature 1, feature 2, ..., feature n, target
-        int recordBytes = SizeOf.INT + featureVectorBytes + SizeOf.FLOAT;
-        int requiredBytes = SizeOf.INT + recordBytes; // need to allocate space for "recordBytes" itself
-
-        int remain = buf.remaining();
-        if (remain < requiredBytes) {
-            writeBuffer(buf, dst);
-        }
-        if (requiredBytes > buf.remaining()) {
-            throw new HiveException("Buffer size (2MB) for writing training example is not enough: "
-                    + NumberUtils.prettySize(requiredBytes));
+            if (featureType == FeatureType.STRING) {
+                dst.writeString(f.getFeatureAsString());
+            } else {
+                long key = ((Number) f.getFeature()).longValue();
+                dst.writeZigZagVLong(key - prevKey); // delta from the previous feature
+                prevKey = key;
+            }
+            if (!unitValues) {
+                dst.writeDouble(f.getValue());
+            }
         }
+        dst.writeFloat(target);
 
-        buf.putInt(recordBytes);
-        buf.putInt(featureVector.length);
-        for (FeatureValue f : featureVector) {
-            writeFeatureValue(buf, f);
+        try {
+            dst.endRecord();
+        } catch (IOException e) {
+            throw new HiveException("Failed to record a training example", e);
         }
-        buf.putFloat(target);
-    }
-
-    private static void writeFeatureValue(@Nonnull final ByteBuffer buf,
-            @Nonnull final FeatureValue f) {
-        NIOUtils.putString(f.getFeatureAsString(), buf);
-        buf.putDouble(f.getValue());
     }
 
     @Nonnull
-    private static FeatureValue readFeatureValue(@Nonnull final ByteBuffer buf,
+    private static FeatureValue[] readFeatureVector(@Nonnull final ReplayBuffer.Reader src,
             @Nonnull final FeatureType featureType) {
-        final String featureStr = NIOUtils.getString(buf);
-        final Object feature;
-        switch (featureType) {
-            case STRING:
-                feature = featureStr;
-                break;
-            case INT:
-                feature = Integer.valueOf(featureStr);
-                break;
-            case LONG:
-                feature = Long.valueOf(featureStr);
-                break;
-            default:
-                throw new IllegalStateException(
-                    "Unexpected feature type " + featureType + " for feature: " + featureStr);
-        }
-        double value = buf.getDouble();
-        return new FeatureValue(feature, value);
+        final int header = src.readVInt();
+        final int numFeatures = header >>> 1;
+        final boolean unitValues = (header & 1) == 0;
+
+        final FeatureValue[] featureVector = new FeatureValue[numFeatures];
+        long key = 0L;
+        for (int j = 0; j < numFeatures; j++) {
+            final Object feature;
+            switch (featureType) {
+                case STRING:
+                    feature = src.readString();
+                    break;
+                case INT:
+                    key += src.readZigZagVLong();
+                    feature = Integer.valueOf((int) key);
+                    break;
+                case LONG:
+                    key += src.readZigZagVLong();
+                    feature = Long.valueOf(key);
+                    break;
+                default:
+                    throw new IllegalStateException("Unexpected feature type: " + featureType);
+            }
+            double value = unitValues ? 1.d : src.readDouble();
+            featureVector[j] = new FeatureValue(feature, value);
+        }
+        return featureVector;
     }
 
     @Nullable
@@ -426,8 +450,7 @@ public abstract class GeneralLearnerBaseUDTF extends LearnerBaseUDTF {
             }
             final FeatureValue fv;
             if (featureType == FeatureType.STRING) {
-                String s = f.toString();
-                fv = FeatureValue.parseFeatureAsString(s);
+                fv = FeatureValue.parseFeatureAsString(f);
             } else {
                 Object k = ObjectInspectorUtils.copyToStandardObject(f, featureInspector,
                     ObjectInspectorCopyOption.JAVA); // should be Integer or Long
@@ -438,17 +461,6 @@ public abstract class GeneralLearnerBaseUDTF extends LearnerBaseUDTF {
         return featureVector;
     }
 
-    private static void writeBuffer(@Nonnull ByteBuffer srcBuf, @Nonnull NioStatefulSegment dst)
-            throws HiveException {
-        srcBuf.flip();
-        try {
-            dst.write(srcBuf);
-        } catch (IOException e) {
-            throw new HiveException("Exception causes while writing a buffer to file", e);
-        }
-        srcBuf.clear();
-    }
-
     public float predict(@Nonnull final FeatureValue[] features) {
         float score = 0.f;
         for (FeatureValue f : features) {// a += w[i] * x[i]
@@ -505,13 +517,7 @@ public abstract class GeneralLearnerBaseUDTF extends LearnerBaseUDTF {
             float new_weight = optimizer.update(feature, weight, loss, gradient);
 
             // (w_i - eta * delta_1) + (w_i - eta * delta_2) + ... + (w_i - eta * delta_M)
-            FloatAccumulator acc = accumulated.get(feature);
-            if (acc == null) {
-                acc = new FloatAccumulator(new_weight);
-                accumulated.put(feature, acc);
-            } else {
-                acc.add(new_weight);
-            }
+            accumulated.add(feature, new_weight);
         }
         sampled++;
     }
@@ -522,10 +528,10 @@ public abstract class GeneralLearnerBaseUDTF extends LearnerBaseUDTF {
             return;
         }
 
-        for (Map.Entry<Object, FloatAccumulator> e : accumulated.entrySet()) {
-            Object feature = e.getKey();
-            FloatAccumulator v = e.getValue();
-            final float new_weight = v.get(); // w_i - (eta / M) * (delta_1 + delta_2 + ... + delta_M)
+        final FloatAccumulatorTable accumulated = this.accumulated;
+        for (int i = 0, size = accumulated.size(); i < size; i++) {
+            Object feature = accumulated.getKey(i);
+            final float new_weight = accumulated.get(i); // w_i - (eta / M) * (delta_1 + delta_2 + ... + delta_M)
             if (new_weight == 0.f) {
                 model.delete(feature);
                 continue;
@@ -539,6 +545,11 @@ public abstract class GeneralLearnerBaseUDTF extends LearnerBaseUDTF {
 
     protected void onlineUpdate(@Nonnull final FeatureValue[] features, final float loss,
             final float dloss) {
+        onlineUpdate(features, loss, dloss, optimizer);
+    }
+
+    private void onlineUpdate(@Nonnull final FeatureValue[] features, final float loss,
+            final float dloss, @Nonnull final Optimizer optimizer) {
         for (FeatureValue f : features) {
             Object feature = f.getFeature();
             float xi = f.getValueAsFloat();
@@ -553,6 +564,39 @@ public abstract class GeneralLearnerBaseUDTF extends LearnerBaseUDTF {
         }
     }
 
+    /**
+     * Converts a target value of a training example to the one given to the loss function.
+     */
+    protected float toTargetValue(final float target) {
+        return target;
+    }
+
+    /**
+     * Trains a training example by a given optimizer of a worker thread. The model is shared by
+     * workers and updated without locks.
+     *
+     * @return loss
+     */
+    private float trainConcurrently(@Nonnull final FeatureValue[] features, final float target,
+            @Nonnull final Optimizer optimizer) {
+        final float y = toTargetValue(target);
+        final float predicted = predict(features);
+        optimizer.proceedStep();
+
+        final float loss = lossFunction.loss(predicted, y);
+        float dloss = lossFunction.dloss(predicted, y);
+        if (dloss == 0.f) {
+            return loss;
+        }
+        if (dloss < MIN_DLOSS) {
+            dloss = MIN_DLOSS;
+        } else if (dloss > MAX_DLOSS) {
+            dloss = MAX_DLOSS;
+        }
+        onlineUpdate(features, loss, dloss, optimizer);
+        return loss;
+    }
+
     @Override
     public final void close() throws HiveException {
         super.close();
@@ -578,155 +622,130 @@ public abstract class GeneralLearnerBaseUDTF extends LearnerBaseUDTF {
 
     protected final void runIterativeTraining(@Nonnegative final int iterations)
             throws HiveException {
-        final ByteBuffer buf = this.inputBuf;
-        final NioStatefulSegment dst = this.fileIO;
-        assert (buf != null);
-        assert (dst != null);
+        final ReplayBuffer src = this.replayBuffer;
+        assert (src != null);
         final long numTrainingExamples = count;
 
         final Reporter reporter = getReporter();
         final Counters.Counter iterCounter = (reporter == null) ? null
                 : reporter.getCounter("hivemall.GeneralLearnerBase$Counter", "iteration");
 
+        final ConcurrentTrainer trainer =
+                (numThreads > 1) ? new ConcurrentTrainer(numThreads, optimizer) : null;
+
         try {
-            if (dst.getPosition() == 0L) {// run iterations w/o temporary file
-                if (buf.position() == 0) {
-                    return; // no training example
-                }
-                buf.flip();
+            for (int iter = 2; iter <= iterations; iter++) {
+                cvState.next();
+                setCounterValue(iterCounter, iter);
 
-                for (int iter = 2; iter <= iterations; iter++) {
-                    cvState.next();
+                src.rewind();
+                for (ReplayBuffer.Reader block; (block = src.nextBlock()) != null;) {
                     reportProgress(reporter);
-                    setCounterValue(iterCounter, iter);
-
-                    while (buf.remaining() > 0) {
-                        int recordBytes = buf.getInt();
-                        assert (recordBytes > 0) : recordBytes;
-                        int featureVectorLength = buf.getInt();
-                        final FeatureValue[] featureVector = new FeatureValue[featureVectorLength];
-                        for (int j = 0; j < featureVectorLength; j++) {
-                            featureVector[j] = readFeatureValue(buf, featureType);
-                        }
-                        float target = buf.getFloat();
-                        train(featureVector, target);
-                    }
-                    buf.rewind();
-
-                    if (is_mini_batch) { // Update model with accumulated delta
-                        batchUpdate();
+                    if (trainer != null) {
+                        trainer.train(block);
+                        continue;
                     }
-
-                    if (cvState.isConverged(numTrainingExamples)) {
-                        break;
+                    while (block.next()) {
+                        FeatureValue[] featureVector = readFeatureVector(block, featureType);
+                        float target = block.readFloat();
+                        train(featureVector, target);
                     }
                 }
-                logger.info("Performed " + cvState.getCurrentIteration() + " iterations of "
-                        + NumberUtils.formatNumber(numTrainingExamples)
-                        + " training examples on memory (thus "
-                        + NumberUtils.formatNumber(
-                            numTrainingExamples * cvState.getCurrentIteration())
-                        + " training updates in total) ");
-            } else {// read training examples in the temporary file and invoke train for each example
-                // write training examples in buffer to a temporary file
-                if (buf.remaining() > 0) {
-                    writeBuffer(buf, dst);
-                }
-                try {
-                    dst.flush();
-                } catch (IOException e) {
-                    throw new HiveException(
-                        "Failed to flush a file: " + dst.getFile().getAbsolutePath(), e);
-                }
-                if (logger.isInfoEnabled()) {
-                    File tmpFile = dst.getFile();
-                    logger.info("Wrote " + numTrainingExamples
-                            + " records to a temporary file for iterative training: "
-                            + tmpFile.getAbsolutePath() + " (" + FileUtils.prettyFileSize(tmpFile)
-                            + ")");
-                }
 
-                // run iterations
-                for (int iter = 2; iter <= iterations; iter++) {
-                    cvState.next();
-                    setCounterValue(iterCounter, iter);
-
-                    buf.clear();
-                    dst.resetPosition();
-                    while (true) {
-                        reportProgress(reporter);
-                        // TODO prefetch
-                        // writes training examples to a buffer in the temporary file
-                        final int bytesRead;
-                        try {
-                            bytesRead = dst.read(buf);
-                        } catch (IOException e) {
-                            throw new HiveException(
-                                "Failed to read a file: " + dst.getFile().getAbsolutePath(), e);
-                        }
-                        if (bytesRead == 0) { // reached file EOF
-                            break;
-                        }
-                        assert (bytesRead > 0) : bytesRead;
-
-                        // reads training examples from a buffer
-                        buf.flip();
-                        int remain = buf.remaining();
-                        if (remain < SizeOf.INT) {
-                            throw new HiveException("Illegal file format was detected");
-                        }
-                        while (remain >= SizeOf.INT) {
-                            int pos = buf.position();
-                            int recordBytes = buf.getInt();
-                            remain -= SizeOf.INT;
-
-                            if (remain < recordBytes) {
-                                buf.position(pos);
-                                break;
-                            }
-
-                            int featureVectorLength = buf.getInt();
-                            final FeatureValue[] featureVector =
-                                    new FeatureValue[featureVectorLength];
-                            for (int j = 0; j < featureVectorLength; j++) {
-                                featureVector[j] = readFeatureValue(buf, featureType);
-                            }
-                            float target = buf.getFloat();
-                            train(featureVector, target);
-
-                            remain -= recordBytes;
-                        }
-                        buf.compact();
-                    }
-
-                    if (is_mini_batch) { // Update model with accumulated delta
-                        batchUpdate();
-                    }
+                if (is_mini_batch) { // Update model with accumulated delta
+                    batchUpdate();
+                }
 
-                    if (cvState.isConverged(numTrainingExamples)) {
-                        break;
-                    }
+                if (cvState.isConverged(numTrainingExamples)) {
+                    break;
                 }
-                logger.info("Performed " + cvState.getCurrentIteration() + " iterations of "
-                        + NumberUtils.formatNumber(numTrainingExamples)
-                        + " training examples on a secondary storage (thus "
-                        + NumberUtils.formatNumber(
-                            numTrainingExamples * cvState.getCurrentIteration())
-                        + " training updates in total)");
             }
+            logger.info("Performed " + cvState.getCurrentIteration() + " iterations of "
+                    + NumberUtils.formatNumber(numTrainingExamples) + " training examples on "
+                    + (src.isSpilled() ? "a secondary storage" : "memory") + " (thus "
+                    + NumberUtils.formatNumber(numTrainingExamples * cvState.getCurrentIteration())
+                    + " training updates in total)");
         } catch (Throwable e) {
             throw new HiveException("Exception caused in the iterative training", e);
         } finally {
+            if (trainer != null) {
+                trainer.shutdown();
+            }
             // delete the temporary file and release resources
             try {
-                dst.close(true);
+                src.close();
             } catch (IOException e) {
-                throw new HiveException(
-                    "Failed to close a file: " + dst.getFile().getAbsolutePath(), e);
+                throw new HiveException("Failed to close a replay buffer: " + src.getFile(), e);
+            }
+            this.replayBuffer = null;
+        }
+    }
+
+    /**
+     * Trains recorded training examples by worker threads. Each worker has its own optimizer
+     * forked from the original one and updates the shared dense model without locks as in
+     * Hogwild!.
+     */
+    private final class ConcurrentTrainer {
+
+        @Nonnull
+        private final ExecutorService executor;
+        @Nonnull
+        private final Optimizer[] optimizers;
+        @Nonnull
+        private final List<Future<Double>> results;
+
+        ConcurrentTrainer(@Nonnegative int numThreads, @Nonnull Optimizer optimizer) {
+            this.executor = ExecutorFactory.newFixedThreadPool(numThreads,
+                "hivemall-general-learner", true);
+            this.optimizers = new Optimizer[numThreads];
+            for (int i = 0; i < numThreads; i++) {
+                optimizers[i] = optimizer.fork();
+            }
+            this.results = new ArrayList<>(numThreads);
+        }
+
+        /**
+         * Trains the records in a block by splitting them into workers. Loss of the workers is
+         * merged into {@link ConversionState}.
+         */
+        void train(@Nonnull final ReplayBuffer.Reader block) throws HiveException {
+            final ReplayBuffer.Reader[] chunks = block.split(optimizers.length);
+            for (int i = 0; i < chunks.length; i++) {
+                final ReplayBuffer.Reader chunk = chunks[i];
+                final Optimizer optimizer = optimizers[i];
+                results.add(executor.submit(new Callable<Double>() {
+                    @Override
+                    public Double call() {
+                        double loss = 0.d;
+                        while (chunk.next()) {
+                            FeatureValue[] featureVector = readFeatureVector(chunk, featureType);
+                            float target = chunk.readFloat();
+                            loss += trainConcurrently(featureVector, target, optimizer);
+                        }
+                        return Double.valueOf(loss);
+                    }
+                }));
+            }
+
+            try {
+                for (Future<Double> result : results) {
+                    cvState.incrLoss(result.get().doubleValue());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new HiveException("Interrupted while training examples", e);
+            } catch (ExecutionException e) {
+                throw new HiveException("Failed to train examples by a worker", e.getCause());
+            } finally {
+                results.clear();
             }
-            this.inputBuf = null;
-            this.fileIO = null;
         }
+
+        void shutdown() {
+            executor.shutdownNow();
+        }
+
     }
 
     protected void forwardModel() throws HiveException {
@@ -18,10 +18,13 @@
  */
 package hivemall;
 
+import hivemall.GeneralLearnerBaseUDTF.FeatureType;
 import hivemall.mix.MixMessage.MixEventName;
+import hivemall.mix.MixedModel;
 import hivemall.mix.client.MixClient;
 import hivemall.model.DenseModel;
 import hivemall.model.NewDenseModel;
+import hivemall.model.NewPrimitiveSparseModel;
 import hivemall.model.NewSpaceEfficientDenseModel;
 import hivemall.model.NewSparseModel;
 import hivemall.model.PredictionModel;
@@ -67,6 +70,7 @@ public abstract class LearnerBaseUDTF extends UDTFWithOptions {
     protected String mixConnectInfo;
     protected String mixSessionName;
     protected int mixThreshold;
+    protected int mixBatchSize;
     protected boolean mixCancel;
     protected boolean ssl;
 
@@ -96,6 +100,8 @@ public abstract class LearnerBaseUDTF extends UDTFWithOptions {
             "Mix session name [default: ${mapred.job.id}]");
         opts.addOption("mix_threshold", true,
             "Threshold to mix local updates in range (0,127] [default: 3]");
+        opts.addOption("mix_batch_size", true,
+            "The maximum number of mix requests sent in a batch [default: 64]");
         opts.addOption("mix_cancel", "enable_mix_canceling", false, "Enable mix cancel requests");
         opts.addOption("ssl", false, "Use SSL for the communication with mix servers");
         return opts;
@@ -112,6 +118,7 @@ public abstract class LearnerBaseUDTF extends UDTFWithOptions {
         String mixConnectInfo = null;
         String mixSessionName = null;
         int mixThreshold = -1;
+        int mixBatchSize = MixClient.DEFAULT_BATCH_SIZE;
         boolean mixCancel = false;
         boolean ssl = false;
 
@@ -140,6 +147,11 @@ public abstract class LearnerBaseUDTF extends UDTFWithOptions {
                 throw new UDFArgumentException(
                     "mix_threshold must be in range (0,127]: " + mixThreshold);
             }
+            mixBatchSize = Primitives.parseInt(cl.getOptionValue("mix_batch_size"), mixBatchSize);
+            if (mixBatchSize <= 0) {
+                throw new UDFArgumentException(
+                    "mix_batch_size must be greater than 0: " + mixBatchSize);
+            }
             mixCancel = cl.hasOption("mix_cancel");
             ssl = cl.hasOption("ssl");
         }
@@ -152,6 +164,7 @@ public abstract class LearnerBaseUDTF extends UDTFWithOptions {
         this.mixConnectInfo = mixConnectInfo;
         this.mixSessionName = mixSessionName;
         this.mixThreshold = mixThreshold;
+        this.mixBatchSize = mixBatchSize;
         this.mixCancel = mixCancel;
         this.ssl = ssl;
         return cl;
@@ -213,9 +226,18 @@ public abstract class LearnerBaseUDTF extends UDTFWithOptions {
             }
         } else {
             int initModelSize = getInitialModelSize();
-            logger.info(
-                "Build a sparse model with initial with " + initModelSize + " initial dimensions");
-            model = new NewSparseModel(initModelSize, useCovar);
+            final FeatureType featureType = getFeatureType();
+            if (featureType == FeatureType.INT || featureType == FeatureType.LONG) {
+                logger.info("Build a primitive sparse model for " + featureType
+                        + " features with initial with " + initModelSize + " initial dimensions"
+                        + (useCovar ? " w/ covariances" : ""));
+                model = new NewPrimitiveSparseModel(initModelSize, useCovar,
+                    featureType == FeatureType.INT);
+            } else {
+                logger.info("Build a sparse model with initial with " + initModelSize
+                        + " initial dimensions");
+                model = new NewSparseModel(initModelSize, useCovar);
+            }
         }
         if (mixConnectInfo != null) {
             model.configureClock();
@@ -242,17 +264,26 @@ public abstract class LearnerBaseUDTF extends UDTFWithOptions {
 
     @Nonnull
     protected MixClient configureMixClient(@Nonnull String connectURIs, @Nullable String label,
-            @Nonnull PredictionModel model) {
+            @Nonnull MixedModel model) {
         String jobId = (mixSessionName == null) ? MixClient.DUMMY_JOB_ID : mixSessionName;
         if (label != null) {
             jobId = jobId + '-' + label;
         }
         MixEventName event = useCovariance() ? MixEventName.argminKLD : MixEventName.average;
-        MixClient client = new MixClient(event, jobId, connectURIs, ssl, mixThreshold, model);
+        MixClient client =
+                new MixClient(event, jobId, connectURIs, ssl, mixThreshold, mixBatchSize, model);
         logger.info("Successfully configured mix client: " + connectURIs);
         return client;
     }
 
+    /**
+     * @return the type of features if it is known before the model creation, otherwise null
+     */
+    @Nullable
+    protected FeatureType getFeatureType() {
+        return null;
+    }
+
     protected int getInitialModelSize() {
         return 16384;
     }
@@ -67,8 +67,13 @@ public final class GeneralClassifierUDTF extends GeneralLearnerBaseUDTF {
     @Override
     protected void train(@Nonnull final FeatureValue[] features, final float label) {
         float predicted = predict(features);
-        float y = label > 0.f ? 1.f : -1.f;
+        float y = toTargetValue(label);
         update(features, y, predicted);
     }
 
+    @Override
+    protected float toTargetValue(final float label) {
+        return label > 0.f ? 1.f : -1.f;
+    }
+
 }
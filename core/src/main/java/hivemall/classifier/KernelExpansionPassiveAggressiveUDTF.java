@@ -20,15 +20,13 @@ package hivemall.classifier;
 
 import hivemall.annotations.Experimental;
 import hivemall.annotations.VisibleForTesting;
+import hivemall.classifier.KernelExpansionTerms.EvictionPolicy;
 import hivemall.model.FeatureValue;
 import hivemall.model.PredictionModel;
 import hivemall.model.PredictionResult;
 import hivemall.optimizer.LossFunctions;
-import hivemall.utils.collections.Fastutil;
 import hivemall.utils.hashing.HashFunction;
 import hivemall.utils.lang.Preconditions;
-import it.unimi.dsi.fastutil.ints.Int2FloatMap;
-import it.unimi.dsi.fastutil.ints.Int2FloatOpenHashMap;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -38,6 +36,8 @@ import javax.annotation.Nullable;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.Options;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.hive.ql.exec.Description;
 import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
@@ -62,10 +62,13 @@ import org.apache.hadoop.io.IntWritable;
                 + " - returns a relation <h int, hk int, float w0, float w1, float w2, float w3>")
 @Experimental
 public final class KernelExpansionPassiveAggressiveUDTF extends BinaryOnlineClassifierUDTF {
+    private static final Log logger = LogFactory.getLog(KernelExpansionPassiveAggressiveUDTF.class);
 
     // ------------------------------------
     // Hyper parameters
     private float _pkc;
+    private int _maxTerms;
+    private EvictionPolicy _evict;
     // Algorithm
     private Algorithm _algo;
 
@@ -73,14 +76,17 @@ public final class KernelExpansionPassiveAggressiveUDTF extends BinaryOnlineClas
     // Model parameters
 
     private float _w0;
-    private Int2FloatMap _w1;
-    private Int2FloatMap _w2;
-    private Int2FloatMap _w3;
+    /** W1, W2 of features and W3 of feature pairs */
+    private KernelExpansionTerms _terms;
 
     // ------------------------------------
 
     private float _loss;
 
+    // work space for the hashed features of an example
+    private int[] _h;
+    private double[] _x;
+
     public KernelExpansionPassiveAggressiveUDTF() {}
 
     @VisibleForTesting
@@ -97,6 +103,10 @@ public final class KernelExpansionPassiveAggressiveUDTF extends BinaryOnlineClas
             "Algorithm for calculating loss [pa, pa1 (default), pa2]");
         opts.addOption("c", "aggressiveness", true,
             "Aggressiveness parameter C for PA-1 and PA-2 [default 1.0]");
+        opts.addOption("max_terms", true,
+            "The maximum number of expanded terms, i.e., features and feature pairs, to keep [default: -1 (unlimited)]");
+        opts.addOption("evict", true,
+            "Eviction policy of terms beyond -max_terms [abs (default): least absolute weight, lru: least recently updated]");
         return opts;
     }
 
@@ -105,6 +115,8 @@ public final class KernelExpansionPassiveAggressiveUDTF extends BinaryOnlineClas
         float pkc = 1.f;
         float c = 1.f;
         String algo = "pa1";
+        int maxTerms = -1;
+        String evict = "abs";
 
         final CommandLine cl = super.processOptions(argOIs);
         if (cl != null) {
@@ -121,6 +133,15 @@ public final class KernelExpansionPassiveAggressiveUDTF extends BinaryOnlineClas
                 }
             }
             algo = cl.getOptionValue("algo", algo);
+            String maxTermsStr = cl.getOptionValue("max_terms");
+            if (maxTermsStr != null) {
+                maxTerms = Integer.parseInt(maxTermsStr);
+                if (maxTerms != -1 && maxTerms <= 0) {
+                    throw new UDFArgumentException(
+                        "-max_terms must be greater than 0 or -1: " + maxTerms);
+                }
+            }
+            evict = cl.getOptionValue("evict", evict);
         }
 
         if ("pa1".equalsIgnoreCase(algo)) {
@@ -133,6 +154,12 @@ public final class KernelExpansionPassiveAggressiveUDTF extends BinaryOnlineClas
             throw new UDFArgumentException("Unsupported algorithm: " + algo);
         }
         this._pkc = pkc;
+        this._maxTerms = maxTerms;
+        try {
+            this._evict = EvictionPolicy.resolve(evict);
+        } catch (IllegalArgumentException e) {
+            throw new UDFArgumentException(e.getMessage());
+        }
 
         return cl;
     }
@@ -184,12 +211,9 @@ public final class KernelExpansionPassiveAggressiveUDTF extends BinaryOnlineClas
     @Override
     protected PredictionModel createModel() {
         this._w0 = 0.f;
-        this._w1 = new Int2FloatOpenHashMap(16384);
-        _w1.defaultReturnValue(0.f);
-        this._w2 = new Int2FloatOpenHashMap(16384);
-        _w2.defaultReturnValue(0.f);
-        this._w3 = new Int2FloatOpenHashMap(16384);
-        _w3.defaultReturnValue(0.f);
+        this._terms = new KernelExpansionTerms(_maxTerms, _evict);
+        this._h = new int[64];
+        this._x = new double[64];
 
         return null;
     }
@@ -237,104 +261,120 @@ public final class KernelExpansionPassiveAggressiveUDTF extends BinaryOnlineClas
     @Override
     protected void train(@Nonnull final FeatureValue[] features, final int label) {
         final float y = label > 0 ? 1.f : -1.f;
+        _terms.tick();
 
-        PredictionResult margin = calcScoreWithKernelAndNorm(features);
+        final int size = prepare(features);
+        PredictionResult margin = calcScoreWithKernelAndNorm(size);
         float p = margin.getScore();
         float loss = LossFunctions.hingeLoss(p, y); // 1.0 - y * p
         this._loss = loss;
 
         if (loss > 0.f) { // y * p < 1
-            updateKernel(y, loss, margin, features);
+            updateKernel(y, loss, margin, size);
         }
     }
 
-    @Override
-    float predict(@Nonnull final FeatureValue[] features) {
-        float score = 0.f;
-
-        for (int i = 0; i < features.length; ++i) {
-            if (features[i] == null) {
+    /**
+     * Unboxes the non-null features into the work space once so that the O(n^2) loop over feature
+     * pairs touches primitive arrays only.
+     *
+     * @return the number of non-null features
+     */
+    private int prepare(@Nonnull final FeatureValue[] features) {
+        if (_h.length < features.length) {
+            this._h = new int[features.length * 2];
+            this._x = new double[features.length * 2];
+        }
+        final int[] hs = _h;
+        final double[] xs = _x;
+        int size = 0;
+        for (FeatureValue f : features) {
+            if (f == null) {
                 continue;
             }
-            int h = features[i].getFeatureAsInt();
-            float w1 = _w1.get(h);
-            float w2 = _w2.get(h);
-            double xi = features[i].getValue();
-            double xx = xi * xi;
-            score += w1 * xi;
-            score += w2 * xx;
-            for (int j = i + 1; j < features.length; ++j) {
-                int k = features[j].getFeatureAsInt();
-                int hk = HashFunction.hash(h, k, true);
-                float w3 = _w3.get(hk);
-                double xj = features[j].getValue();
-                score += xi * xj * w3;
-            }
+            hs[size] = f.getFeatureAsInt();
+            xs[size] = f.getValue();
+            size++;
         }
+        return size;
+    }
 
-        return score;
+    @Override
+    float predict(@Nonnull final FeatureValue[] features) {
+        final int size = prepare(features);
+        return calcScore(size, 0.f);
     }
 
     @Nonnull
-    final PredictionResult calcScoreWithKernelAndNorm(@Nonnull final FeatureValue[] features) {
-        float score = _w0;
+    private PredictionResult calcScoreWithKernelAndNorm(final int size) {
+        final double[] xs = _x;
         float norm = 0.f;
-        for (int i = 0; i < features.length; ++i) {
-            if (features[i] == null) {
-                continue;
+        for (int i = 0; i < size; ++i) {
+            double xi = xs[i];
+            norm += xi * xi;
+        }
+        float score = calcScore(size, _w0);
+        return new PredictionResult(score).squaredNorm(norm);
+    }
+
+    private float calcScore(final int size, final float w0) {
+        final KernelExpansionTerms terms = _terms;
+        final int[] hs = _h;
+        final double[] xs = _x;
+
+        float score = w0;
+        for (int i = 0; i < size; ++i) {
+            final int h = hs[i];
+            final double xi = xs[i];
+            final int slot = terms.getFeature(h);
+            if (slot != -1) {
+                score += terms.w1(slot) * xi;
+                score += terms.w2(slot) * (xi * xi);
             }
-            int h = features[i].getFeatureAsInt();
-            float w1 = _w1.get(h);
-            float w2 = _w2.get(h);
-            double xi = features[i].getValue();
-            double xx = xi * xi;
-            score += w1 * xi;
-            score += w2 * xx;
-            norm += xx;
-            for (int j = i + 1; j < features.length; ++j) {
-                int k = features[j].getFeatureAsInt();
-                int hk = HashFunction.hash(h, k, true);
-                float w3 = _w3.get(hk);
-                double xj = features[j].getValue();
-                score += xi * xj * w3;
+            for (int j = i + 1; j < size; ++j) {
+                int hk = HashFunction.hash(h, hs[j], true);
+                int pair = terms.getPair(hk);
+                if (pair != -1) {
+                    double xj = xs[j];
+                    score += xi * xj * terms.w1(pair);
+                }
             }
         }
-        return new PredictionResult(score).squaredNorm(norm);
+        return score;
     }
 
     protected void updateKernel(final float label, final float loss,
-            @Nonnull final PredictionResult margin, @Nonnull final FeatureValue[] features) {
+            @Nonnull final PredictionResult margin, final int size) {
         float eta = _algo.eta(loss, margin);
         float coeff = eta * label;
-        expandKernel(features, coeff);
+        expandKernel(size, coeff);
     }
 
-    private void expandKernel(@Nonnull final FeatureValue[] supportVector, final float alpha) {
+    private void expandKernel(final int size, final float alpha) {
+        final KernelExpansionTerms terms = _terms;
+        final int[] hs = _h;
+        final double[] xs = _x;
+
         final float pkc = _pkc;
         // W0 += α c^2
         this._w0 += alpha * pkc * pkc;
 
-        for (int i = 0; i < supportVector.length; ++i) {
-            final FeatureValue si = supportVector[i];
-            final int h = si.getFeatureAsInt();
-            float Zih = si.getValueAsFloat();
+        for (int i = 0; i < size; ++i) {
+            final int h = hs[i];
+            final float Zih = (float) xs[i];
 
-            float alphaZih = alpha * Zih;
+            final float alphaZih = alpha * Zih;
             final float alphaZih2 = alphaZih * 2.f;
 
-            // W1[h] += 2 c α Zi[h]
-            _w1.put(h, _w1.get(h) + pkc * alphaZih2);
-            // W2[h] += α Zi[h]^2
-            _w2.put(h, _w2.get(h) + alphaZih * Zih);
+            // W1[h] += 2 c α Zi[h], W2[h] += α Zi[h]^2
+            terms.addFeature(h, pkc * alphaZih2, alphaZih * Zih);
 
-            for (int j = i + 1; j < supportVector.length; ++j) {
-                FeatureValue sj = supportVector[j];
-                int k = sj.getFeatureAsInt();
-                int hk = HashFunction.hash(h, k, true);
-                float Zjk = sj.getValueAsFloat();
+            for (int j = i + 1; j < size; ++j) {
+                int hk = HashFunction.hash(h, hs[j], true);
+                float Zjk = (float) xs[j];
 
                 // W3 += 2 α Zi[h] Zi[k]
-                _w3.put(hk, _w3.get(hk) + alphaZih2 * Zjk);
+                terms.addPair(hk, alphaZih2 * Zjk);
             }
         }
     }
@@ -353,17 +393,19 @@ public final class KernelExpansionPassiveAggressiveUDTF extends BinaryOnlineClas
 
         row[2] = w1;
         row[3] = w2;
-        final Int2FloatMap w2map = _w2;
-        for (Int2FloatMap.Entry e : Fastutil.fastIterable(_w1)) {
-            int k = e.getIntKey();
+        final KernelExpansionTerms terms = _terms;
+        final int numSlots = terms.numSlots();
+        for (int slot = 0; slot < numSlots; slot++) {
+            if (!terms.isFeatureTerm(slot)) {
+                continue;
+            }
+            int k = terms.getKey(slot);
             Preconditions.checkArgument(k > 0, HiveException.class);
             h.set(k);
-            w1.set(e.getFloatValue());
-            w2.set(w2map.get(k));
+            w1.set(terms.w1(slot));
+            w2.set(terms.w2(slot));
             forward(row); // h(f), w1, w2
         }
-        this._w1 = null;
-        this._w2 = null;
 
         row[0] = null;
         row[2] = null;
@@ -371,15 +413,22 @@ public final class KernelExpansionPassiveAggressiveUDTF extends BinaryOnlineClas
         row[4] = hk;
         row[5] = w3;
 
-        _w3.int2FloatEntrySet();
-        for (Int2FloatMap.Entry e : Fastutil.fastIterable(_w3)) {
-            int k = e.getIntKey();
+        for (int slot = 0; slot < numSlots; slot++) {
+            if (!terms.isPairTerm(slot)) {
+                continue;
+            }
+            int k = terms.getKey(slot);
             Preconditions.checkArgument(k > 0, HiveException.class);
             hk.set(k);
-            w3.set(e.getFloatValue());
+            w3.set(terms.w1(slot));
             forward(row); // hk(f), w3
         }
-        this._w3 = null;
+
+        if (terms.getNumEvicted() > 0L) {
+            logger.info("Evicted " + terms.getNumEvicted() + " terms to keep at most "
+                    + _maxTerms + " terms");
+        }
+        this._terms = null;
     }
 
 }
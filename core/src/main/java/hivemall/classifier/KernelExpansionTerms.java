@@ -0,0 +1,363 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.classifier;
+
+import hivemall.utils.collections.maps.Long2IntOpenHashTable;
+import hivemall.utils.lang.Preconditions;
+
+import java.util.Arrays;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Terms of the degree-2 polynomial kernel expansion, optionally bounded by a budget.
+ *
+ * A feature term holds the weights W1[h] and W2[h] of a feature h and a pair term holds the weight
+ * W3[hk] of a hashed feature pair hk. Both are kept in primitive slots indexed by a single hash
+ * table keyed by a packed long. When the number of terms exceeds the budget, a tenth of the budget
+ * is evicted at once, choosing the terms of the least absolute weight or the least recently updated
+ * ones.
+ */
+@NotThreadSafe
+final class KernelExpansionTerms {
+
+    private static final long PAIR_TERM = 1L << 32;
+    /** key of a slot freed by eviction */
+    private static final long FREE_KEY = -1L;
+
+    enum EvictionPolicy {
+        /** evicts the terms of the least absolute weight */
+        abs,
+        /** evicts the least recently updated terms */
+        lru;
+
+        @Nonnull
+        static EvictionPolicy resolve(@Nonnull final String name) {
+            if ("abs".equalsIgnoreCase(name)) {
+                return abs;
+            } else if ("lru".equalsIgnoreCase(name)) {
+                return lru;
+            }
+            throw new IllegalArgumentException("Unsupported eviction policy: " + name);
+        }
+    }
+
+    private final int maxTerms;
+
+    /** packed key to slot */
+    @Nonnull
+    private final Long2IntOpenHashTable index;
+
+    // slots
+    @Nonnull
+    private long[] keys;
+    /** W1 of a feature term or W3 of a pair term */
+    @Nonnull
+    private float[] weights1;
+    /** W2 of a feature term */
+    @Nonnull
+    private float[] weights2;
+    /** clock of the last update */
+    @Nullable
+    private long[] updated;
+    private int numSlots;
+    /** stack of the slots freed by eviction */
+    @Nonnull
+    private int[] freeSlots;
+    private int numFreeSlots;
+
+    private long clock;
+    private long numEvicted;
+
+    /** work space for eviction */
+    @Nullable
+    private double[] priorities;
+
+    /**
+     * @param maxTerms the maximum number of terms, or -1 for no limit
+     */
+    KernelExpansionTerms(final int maxTerms, @Nonnull final EvictionPolicy policy) {
+        Preconditions.checkArgument(maxTerms == -1 || maxTerms > 0, "Invalid maxTerms: %s",
+            maxTerms);
+        this.maxTerms = maxTerms;
+        final int capacity = (maxTerms == -1) ? 16384 : Math.min(maxTerms, 16384);
+        this.index = new Long2IntOpenHashTable(capacity);
+        index.defaultReturnValue(-1);
+        this.keys = new long[capacity];
+        this.weights1 = new float[capacity];
+        this.weights2 = new float[capacity];
+        this.updated = (policy == EvictionPolicy.lru) ? new long[capacity] : null;
+        this.numSlots = 0;
+        this.freeSlots = new int[0];
+        this.numFreeSlots = 0;
+        this.clock = 0L;
+        this.numEvicted = 0L;
+    }
+
+    int size() {
+        return numSlots - numFreeSlots;
+    }
+
+    long getNumEvicted() {
+        return numEvicted;
+    }
+
+    /**
+     * Advances the clock used for the LRU policy. Called once for each training example.
+     */
+    void tick() {
+        clock++;
+    }
+
+    /**
+     * @return the slot of the feature h, or -1 if the feature has no term
+     */
+    int getFeature(final int h) {
+        return index.get(featureKey(h));
+    }
+
+    /**
+     * @return the slot of the feature pair hk, or -1 if the pair has no term
+     */
+    int getPair(final int hk) {
+        return index.get(pairKey(hk));
+    }
+
+    /**
+     * @return W1 of a feature slot or W3 of a pair slot
+     */
+    float w1(@Nonnegative final int slot) {
+        return weights1[slot];
+    }
+
+    /**
+     * @return W2 of a feature slot
+     */
+    float w2(@Nonnegative final int slot) {
+        return weights2[slot];
+    }
+
+    /**
+     * W1[h] += delta1, W2[h] += delta2
+     */
+    void addFeature(final int h, final float delta1, final float delta2) {
+        final int slot = acquire(featureKey(h));
+        weights1[slot] += delta1;
+        weights2[slot] += delta2;
+    }
+
+    /**
+     * W3[hk] += delta
+     */
+    void addPair(final int hk, final float delta) {
+        final int slot = acquire(pairKey(hk));
+        weights1[slot] += delta;
+    }
+
+    private int acquire(final long key) {
+        int slot = index.get(key);
+        if (slot == -1) {
+            if (maxTerms != -1 && size() >= maxTerms) {
+                evict(Math.max(1, maxTerms / 10));
+            }
+            slot = allocate(key);
+            index.put(key, slot);
+        }
+        if (updated != null) {
+            updated[slot] = clock;
+        }
+        return slot;
+    }
+
+    private int allocate(final long key) {
+        final int slot;
+        if (numFreeSlots > 0) {
+            slot = freeSlots[--numFreeSlots];
+        } else {
+            slot = numSlots;
+            if (slot == keys.length) {
+                final int newCapacity = (maxTerms == -1) ? slot * 2
+                        : Math.min(slot * 2, maxTerms);
+                this.keys = Arrays.copyOf(keys, newCapacity);
+                this.weights1 = Arrays.copyOf(weights1, newCapacity);
+                this.weights2 = Arrays.copyOf(weights2, newCapacity);
+                if (updated != null) {
+                    this.updated = Arrays.copyOf(updated, newCapacity);
+                }
+            }
+            numSlots++;
+        }
+        keys[slot] = key;
+        weights1[slot] = 0.f;
+        weights2[slot] = 0.f;
+        return slot;
+    }
+
+    /**
+     * Evicts the given number of terms of the lowest priority.
+     */
+    private void evict(final int numToEvict) {
+        final int numTerms = size();
+        if (numToEvict >= numTerms) {
+            for (int slot = 0; slot < numSlots; slot++) {
+                if (isLive(slot)) {
+                    release(slot);
+                }
+            }
+            return;
+        }
+
+        // the numToEvict-th smallest priority is the threshold, found in linear time so that
+        // eviction stays amortized constant time per insertion
+        double[] priorities = this.priorities;
+        if (priorities == null || priorities.length < numTerms) {
+            priorities = new double[numTerms];
+            this.priorities = priorities;
+        }
+        for (int slot = 0, i = 0; slot < numSlots; slot++) {
+            if (isLive(slot)) {
+                priorities[i++] = priority(slot);
+            }
+        }
+        final double threshold = select(priorities, numTerms, numToEvict - 1);
+
+        // evicts terms below the threshold first and then ties
+        int evicted = 0;
+        for (int slot = 0; slot < numSlots; slot++) {
+            if (isLive(slot) && priority(slot) < threshold) {
+                release(slot);
+                evicted++;
+            }
+        }
+        for (int slot = 0; slot < numSlots && evicted < numToEvict; slot++) {
+            if (isLive(slot) && priority(slot) == threshold) {
+                release(slot);
+                evicted++;
+            }
+        }
+    }
+
+    /**
+     * Finds the k-th (0-based) smallest of the first size values by quickselect in expected
+     * linear time, reordering the values in place.
+     */
+    private static double select(@Nonnull final double[] a, final int size, final int k) {
+        int lo = 0, hi = size - 1;
+        while (lo < hi) {
+            // median of three as the pivot
+            final int mid = (lo + hi) >>> 1;
+            if (a[mid] < a[lo]) {
+                swap(a, lo, mid);
+            }
+            if (a[hi] < a[lo]) {
+                swap(a, lo, hi);
+            }
+            if (a[hi] < a[mid]) {
+                swap(a, mid, hi);
+            }
+            final double pivot = a[mid];
+
+            int i = lo, j = hi;
+            while (i <= j) {
+                while (a[i] < pivot) {
+                    i++;
+                }
+                while (a[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(a, i, j);
+                    i++;
+                    j--;
+                }
+            }
+            // a[lo..j] <= pivot <= a[i..hi] and a[j+1..i-1] == pivot
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return a[k];
+            }
+        }
+        return a[k];
+    }
+
+    private static void swap(@Nonnull final double[] a, final int i, final int j) {
+        final double tmp = a[i];
+        a[i] = a[j];
+        a[j] = tmp;
+    }
+
+    private double priority(final int slot) {
+        if (updated != null) {
+            return updated[slot];
+        }
+        return Math.max(Math.abs(weights1[slot]), Math.abs(weights2[slot]));
+    }
+
+    private boolean isLive(final int slot) {
+        return keys[slot] != FREE_KEY;
+    }
+
+    private void release(final int slot) {
+        index.remove(keys[slot]);
+        keys[slot] = FREE_KEY;
+        if (numFreeSlots == freeSlots.length) {
+            this.freeSlots = Arrays.copyOf(freeSlots, Math.max(16, numFreeSlots * 2));
+        }
+        freeSlots[numFreeSlots++] = slot;
+        numEvicted++;
+    }
+
+    /**
+     * @return the number of slots to iterate over with {@link #isFeatureTerm(int)} and
+     *         {@link #isPairTerm(int)}
+     */
+    int numSlots() {
+        return numSlots;
+    }
+
+    boolean isFeatureTerm(@Nonnegative final int slot) {
+        return isLive(slot) && (keys[slot] & PAIR_TERM) == 0L;
+    }
+
+    boolean isPairTerm(@Nonnegative final int slot) {
+        return isLive(slot) && (keys[slot] & PAIR_TERM) != 0L;
+    }
+
+    /**
+     * @return the feature h of a feature slot or the feature pair hk of a pair slot
+     */
+    int getKey(@Nonnegative final int slot) {
+        return (int) keys[slot];
+    }
+
+    private static long featureKey(final int h) {
+        return h & 0xFFFFFFFFL;
+    }
+
+    private static long pairKey(final int hk) {
+        return PAIR_TERM | (hk & 0xFFFFFFFFL);
+    }
+
+}
@@ -19,10 +19,7 @@
 package hivemall.classifier.multiclass;
 
 import hivemall.model.FeatureValue;
-import hivemall.model.IWeightValue;
 import hivemall.model.Margin;
-import hivemall.model.PredictionModel;
-import hivemall.model.WeightValue.WeightValueWithCovar;
 import hivemall.utils.math.StatsUtils;
 
 import javax.annotation.Nonnull;
@@ -140,55 +137,35 @@ public class MulticlassConfidenceWeightedUDTF extends MulticlassOnlineClassifier
                 "Actual label equals to missed label: " + actual_label);
         }
 
-        PredictionModel model2add = label2model.get(actual_label);
-        if (model2add == null) {
-            model2add = createModel();
-            label2model.put(actual_label, model2add);
-        }
-        PredictionModel model2sub = null;
-        if (missed_label != null) {
-            model2sub = label2model.get(missed_label);
-            if (model2sub == null) {
-                model2sub = createModel();
-                label2model.put(missed_label, model2sub);
-            }
-        }
+        final MulticlassWeightMatrix model = this.model;
+        final int labelToAdd = model.addLabel(actual_label);
+        final int labelToSub = (missed_label == null) ? -1 : model.addLabel(missed_label);
 
         for (FeatureValue f : features) {// w[f] += y * x[f]
             if (f == null) {
                 continue;
             }
-            final Object k = f.getFeature();
+            final int row = model.addRow(f.getFeature());
             final float v = f.getValueAsFloat();
 
-            IWeightValue old_correctclass_w = model2add.get(k);
-            IWeightValue new_correctclass_w = getNewWeight(old_correctclass_w, v, alpha, phi, true);
-            model2add.set(k, new_correctclass_w);
-
-            if (model2sub != null) {
-                IWeightValue old_wrongclass_w = model2sub.get(k);
-                IWeightValue new_wrongclass_w =
-                        getNewWeight(old_wrongclass_w, v, alpha, phi, false);
-                model2sub.set(k, new_wrongclass_w);
+            updateWeight(model, row, labelToAdd, v, alpha, phi, true);
+            if (labelToSub != -1) {
+                updateWeight(model, row, labelToSub, v, alpha, phi, false);
             }
         }
     }
 
-    private static IWeightValue getNewWeight(final IWeightValue old, final float x,
-            final float alpha, final float phi, final boolean positive) {
-        final float old_w, old_cov;
-        if (old == null) {
-            old_w = 0.f;
-            old_cov = 1.f;
-        } else {
-            old_w = old.get();
-            old_cov = old.getCovariance();
-        }
+    private static void updateWeight(@Nonnull final MulticlassWeightMatrix model, final int row,
+            final int label, final float x, final float alpha, final float phi,
+            final boolean positive) {
+        final float old_w = model.getWeight(row, label);
+        final float old_cov = model.getCovariance(row, label);
 
         float delta_w = alpha * old_cov * x;
         float new_w = positive ? old_w + delta_w : old_w - delta_w;
         float new_cov = 1.f / (1.f / old_cov + (2.f * alpha * phi * x * x));
-        return new WeightValueWithCovar(new_w, new_cov);
+
+        model.set(row, label, new_w, new_cov);
     }
 
 }
@@ -0,0 +1,132 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.classifier.multiclass;
+
+import hivemall.mix.MixedModel;
+import hivemall.mix.MixedWeight;
+import hivemall.mix.MixedWeight.WeightWithCovar;
+import hivemall.mix.MixedWeight.WeightWithDelta;
+import hivemall.model.ModelUpdateHandler;
+import it.unimi.dsi.fastutil.objects.Object2ObjectMap;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * The model of a label in a {@link MulticlassWeightMatrix}, which is mixed in its own MIX session.
+ *
+ * Mixed weights are written from the threads of the MIX client, so the accesses to the matrix are
+ * synchronized on the matrix.
+ */
+final class MulticlassMixedModel implements MixedModel {
+
+    @Nonnull
+    private final MulticlassWeightMatrix model;
+    private final int label;
+
+    @Nullable
+    private ModelUpdateHandler handler;
+    @Nullable
+    private Object2ObjectMap<Object, MixedWeight> mixedRequests;
+
+    private long numMixed;
+
+    MulticlassMixedModel(@Nonnull MulticlassWeightMatrix model, @Nonnegative int label) {
+        this.model = model;
+        this.label = label;
+        this.numMixed = 0L;
+    }
+
+    void configureMix(@Nonnull ModelUpdateHandler handler, boolean cancelMixRequest) {
+        this.handler = handler;
+        if (cancelMixRequest) {
+            this.mixedRequests = new Object2ObjectOpenHashMap<Object, MixedWeight>(8192);
+        }
+    }
+
+    long getNumMixed() {
+        return numMixed;
+    }
+
+    /**
+     * Sends a mix request of the given row if it has been updated enough.
+     *
+     * @see hivemall.model.AbstractPredictionModel#onUpdate(Object, hivemall.model.IWeightValue)
+     */
+    void onUpdate(@Nonnegative final int row) {
+        if (handler == null) {
+            return;
+        }
+        final Object feature = model.getFeature(row);
+        final float weight = model.getWeight(row, label);
+        final float covar = model.hasCovariance() ? model.getCovariance(row, label) : 1.f;
+        final short clock = model.getClock(row, label);
+        final int deltaUpdates = model.getDeltaUpdates(row, label);
+        if (deltaUpdates < 1) {
+            return;
+        }
+
+        final boolean requestSent;
+        try {
+            requestSent = handler.onUpdate(feature, weight, covar, clock, deltaUpdates);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        if (!requestSent) {
+            return;
+        }
+        if (mixedRequests != null) {
+            MixedWeight prevMixed = mixedRequests.get(feature);
+            if (prevMixed == null) {
+                prevMixed = model.hasCovariance() ? new WeightWithCovar(weight, covar)
+                        : new WeightWithDelta(weight, deltaUpdates);
+                mixedRequests.put(feature, prevMixed);
+            } else {
+                try {
+                    handler.sendCancelRequest(feature, prevMixed);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+                prevMixed.setWeight(weight);
+                if (model.hasCovariance()) {
+                    prevMixed.setCovar(covar);
+                } else {
+                    prevMixed.setDeltaUpdates(deltaUpdates);
+                }
+            }
+        }
+        model.resetDeltaUpdates(row, label);
+    }
+
+    @Override
+    public void set(@Nonnull final Object feature, final float weight, final float covar,
+            final short clock) {
+        synchronized (model) {
+            final int row = model.getRow(feature);
+            if (row == -1) {
+                throw new IllegalStateException("Previous weight not found: " + feature);
+            }
+            model.mix(row, label, weight, covar, clock);
+            numMixed++;
+        }
+    }
+
+}
@@ -23,14 +23,11 @@ import static hivemall.HivemallConstants.INT_TYPE_NAME;
 import static hivemall.HivemallConstants.STRING_TYPE_NAME;
 import static org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory.writableFloatObjectInspector;
 import hivemall.LearnerBaseUDTF;
+import hivemall.mix.client.MixClient;
 import hivemall.model.FeatureValue;
-import hivemall.model.IWeightValue;
 import hivemall.model.Margin;
-import hivemall.model.PredictionModel;
 import hivemall.model.PredictionResult;
-import hivemall.model.WeightValue;
 import hivemall.model.WeightValue.WeightValueWithCovar;
-import hivemall.utils.collections.IMapIterator;
 import hivemall.utils.datetime.StopWatch;
 import hivemall.utils.hadoop.HadoopUtils;
 import hivemall.utils.hadoop.HiveUtils;
@@ -40,9 +37,8 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -74,9 +70,19 @@ public abstract class MulticlassOnlineClassifierUDTF extends LearnerBaseUDTF {
     private boolean parseFeature;
     private PrimitiveObjectInspector labelInputOI;
 
-    protected Map<Object, PredictionModel> label2model;
+    protected MulticlassWeightMatrix model;
     protected int count;
 
+    /** models of labels mixed in their own MIX sessions */
+    @Nullable
+    private MulticlassMixedModel[] mixedModels;
+    @Nullable
+    private List<MixClient> mixClients;
+
+    // work space
+    private float[] scores;
+    private float[] variances;
+
     public MulticlassOnlineClassifierUDTF() {
         this(false);
     }
@@ -102,8 +108,21 @@ public abstract class MulticlassOnlineClassifierUDTF extends LearnerBaseUDTF {
 
         processOptions(argOIs);
 
-        this.label2model = new HashMap<Object, PredictionModel>(64);
+        this.model =
+                new MulticlassWeightMatrix(useCovariance(), dense_model, getInitialModelSize());
+        if (mixConnectInfo != null) {
+            this.mixedModels = new MulticlassMixedModel[16];
+            this.mixClients = new ArrayList<MixClient>();
+            model.configureMix(new MulticlassWeightMatrix.UpdateHandler() {
+                @Override
+                public void onUpdate(int row, int label) {
+                    getMixedModel(label).onUpdate(row);
+                }
+            });
+        }
         this.count = 0;
+        this.scores = new float[16];
+        this.variances = new float[16];
 
         return getReturnOI(labelInputOI, getFeatureOutputOI(featureInputOI));
     }
@@ -162,7 +181,35 @@ public abstract class MulticlassOnlineClassifierUDTF extends LearnerBaseUDTF {
         }
 
         count++;
-        train(featureVector, label);
+        if (mixedModels == null) {
+            train(featureVector, label);
+        } else {
+            synchronized (model) {// mixed weights are written by MIX clients
+                train(featureVector, label);
+            }
+        }
+    }
+
+    /**
+     * Each label is mixed in its own MIX session so that the weights of different labels are not
+     * mixed each other.
+     */
+    @Nonnull
+    private MulticlassMixedModel getMixedModel(final int label) {
+        if (label >= mixedModels.length) {
+            this.mixedModels =
+                    Arrays.copyOf(mixedModels, Math.max(label + 1, mixedModels.length * 2));
+        }
+        MulticlassMixedModel mixed = mixedModels[label];
+        if (mixed == null) {
+            mixed = new MulticlassMixedModel(model, label);
+            MixClient client =
+                    configureMixClient(mixConnectInfo, model.getLabel(label).toString(), mixed);
+            mixed.configureMix(client, mixCancel);
+            mixClients.add(client);
+            mixedModels[label] = mixed;
+        }
+        return mixed;
     }
 
     @Nullable
@@ -195,41 +242,47 @@ public abstract class MulticlassOnlineClassifierUDTF extends LearnerBaseUDTF {
             @Nonnull final Object actual_label);
 
     protected final PredictionResult classify(@Nonnull final FeatureValue[] features) {
-        float maxScore = Float.MIN_VALUE;
-        Object maxScoredLabel = null;
+        final int numLabels = model.numLabels();
+        final float[] scores = scores(numLabels);
+        model.scores(features, scores);
 
-        for (Map.Entry<Object, PredictionModel> label2map : label2model.entrySet()) {// for each class
-            Object label = label2map.getKey();
-            PredictionModel model = label2map.getValue();
-            float score = calcScore(model, features);
-            if (maxScoredLabel == null || score > maxScore) {
+        float maxScore = Float.MIN_VALUE;
+        int maxScoredLabel = -1;
+        for (int j = 0; j < numLabels; j++) {// for each class
+            float score = scores[j];
+            if (maxScoredLabel == -1 || score > maxScore) {
                 maxScore = score;
-                maxScoredLabel = label;
+                maxScoredLabel = j;
             }
         }
 
-        return new PredictionResult(maxScoredLabel, maxScore);
+        Object label = (maxScoredLabel == -1) ? null : model.getLabel(maxScoredLabel);
+        return new PredictionResult(label, maxScore);
     }
 
     protected Margin getMargin(@Nonnull final FeatureValue[] features, final Object actual_label) {
+        final int numLabels = model.numLabels();
+        final float[] scores = scores(numLabels);
+        model.scores(features, scores);
+
+        final int actual = model.getLabelIndex(actual_label);
         float correctScore = 0.f;
-        Object maxAnotherLabel = null;
+        int maxAnotherLabel = -1;
         float maxAnotherScore = 0.f;
-
-        for (Map.Entry<Object, PredictionModel> label2map : label2model.entrySet()) {// for each class
-            Object label = label2map.getKey();
-            PredictionModel model = label2map.getValue();
-            float score = calcScore(model, features);
-            if (label.equals(actual_label)) {
+        for (int j = 0; j < numLabels; j++) {// for each class
+            float score = scores[j];
+            if (j == actual) {
                 correctScore = score;
             } else {
-                if (maxAnotherLabel == null || score > maxAnotherScore) {
-                    maxAnotherLabel = label;
+                if (maxAnotherLabel == -1 || score > maxAnotherScore) {
+                    maxAnotherLabel = j;
                     maxAnotherScore = score;
                 }
             }
         }
-        return new Margin(correctScore, maxAnotherLabel, maxAnotherScore);
+
+        Object label = (maxAnotherLabel == -1) ? null : model.getLabel(maxAnotherLabel);
+        return new Margin(correctScore, label, maxAnotherScore);
     }
 
     protected Margin getMarginAndVariance(@Nonnull final FeatureValue[] features,
@@ -241,35 +294,58 @@ public abstract class MulticlassOnlineClassifierUDTF extends LearnerBaseUDTF {
             final Object actual_label, boolean nonZeroVariance) {
         float correctScore = 0.f;
         float correctVariance = 0.f;
-        Object maxAnotherLabel = null;
+        int maxAnotherLabel = -1;
         float maxAnotherScore = 0.f;
         float maxAnotherVariance = 0.f;
 
-        if (nonZeroVariance && label2model.isEmpty()) {// for initial call
+        if (nonZeroVariance && model.isEmpty()) {// for initial call
             float var = 2.f * calcVariance(features);
-            return new Margin(correctScore, maxAnotherLabel, maxAnotherScore).variance(var);
+            return new Margin(correctScore, null, maxAnotherScore).variance(var);
         }
 
-        for (Map.Entry<Object, PredictionModel> label2map : label2model.entrySet()) {// for each class
-            Object label = label2map.getKey();
-            PredictionModel model = label2map.getValue();
-            PredictionResult predicted = calcScoreAndVariance(model, features);
-            float score = predicted.getScore();
+        final int numLabels = model.numLabels();
+        final float[] scores = scores(numLabels);
+        final float[] variances = variances(numLabels);
+        model.scoresAndVariances(features, scores, variances);
 
-            if (label.equals(actual_label)) {
+        final int actual = model.getLabelIndex(actual_label);
+        for (int j = 0; j < numLabels; j++) {// for each class
+            float score = scores[j];
+            if (j == actual) {
                 correctScore = score;
-                correctVariance = predicted.getVariance();
+                correctVariance = variances[j];
             } else {
-                if (maxAnotherLabel == null || score > maxAnotherScore) {
-                    maxAnotherLabel = label;
+                if (maxAnotherLabel == -1 || score > maxAnotherScore) {
+                    maxAnotherLabel = j;
                     maxAnotherScore = score;
-                    maxAnotherVariance = predicted.getVariance();
+                    maxAnotherVariance = variances[j];
                 }
             }
         }
 
         float var = correctVariance + maxAnotherVariance;
-        return new Margin(correctScore, maxAnotherLabel, maxAnotherScore).variance(var);
+        Object label = (maxAnotherLabel == -1) ? null : model.getLabel(maxAnotherLabel);
+        return new Margin(correctScore, label, maxAnotherScore).variance(var);
+    }
+
+    @Nonnull
+    private float[] scores(final int numLabels) {
+        float[] scores = this.scores;
+        if (scores.length < numLabels) {
+            scores = new float[Math.max(numLabels, scores.length * 2)];
+            this.scores = scores;
+        }
+        return scores;
+    }
+
+    @Nonnull
+    private float[] variances(final int numLabels) {
+        float[] variances = this.variances;
+        if (variances.length < numLabels) {
+            variances = new float[Math.max(numLabels, variances.length * 2)];
+            this.variances = variances;
+        }
+        return variances;
     }
 
     protected final float squaredNorm(@Nonnull final FeatureValue[] features) {
@@ -284,24 +360,6 @@ public abstract class MulticlassOnlineClassifierUDTF extends LearnerBaseUDTF {
         return squared_norm;
     }
 
-    protected final float calcScore(@Nonnull final PredictionModel model,
-            @Nonnull final FeatureValue[] features) {
-        float score = 0.f;
-        for (FeatureValue f : features) {// a += w[i] * x[i]
-            if (f == null) {
-                continue;
-            }
-            final Object k = f.getFeature();
-            final float v = f.getValueAsFloat();
-
-            float old_w = model.getWeight(k);
-            if (old_w != 0f) {
-                score += (old_w * v);
-            }
-        }
-        return score;
-    }
-
     protected final float calcVariance(@Nonnull final FeatureValue[] features) {
         float variance = 0.f;
         for (FeatureValue f : features) {// a += w[i] * x[i]
@@ -314,30 +372,6 @@ public abstract class MulticlassOnlineClassifierUDTF extends LearnerBaseUDTF {
         return variance;
     }
 
-    protected final PredictionResult calcScoreAndVariance(@Nonnull final PredictionModel model,
-            @Nonnull final FeatureValue[] features) {
-        float score = 0.f;
-        float variance = 0.f;
-
-        for (FeatureValue f : features) {// a += w[i] * x[i]
-            if (f == null) {
-                continue;
-            }
-            final Object k = f.getFeature();
-            final float v = f.getValueAsFloat();
-
-            IWeightValue old_w = model.get(k);
-            if (old_w == null) {
-                variance += (1.f * v * v);
-            } else {
-                score += (old_w.get() * v);
-                variance += (old_w.getCovariance() * v * v);
-            }
-        }
-
-        return new PredictionResult(score).variance(variance);
-    }
-
     protected void update(@Nonnull final FeatureValue[] features, float coeff, Object actual_label,
             Object missed_label) {
         assert (actual_label != null);
@@ -346,35 +380,25 @@ public abstract class MulticlassOnlineClassifierUDTF extends LearnerBaseUDTF {
                 "Actual label equals to missed label: " + actual_label);
         }
 
-        PredictionModel model2add = label2model.get(actual_label);
-        if (model2add == null) {
-            model2add = createModel();
-            label2model.put(actual_label, model2add);
-        }
-        PredictionModel model2sub = null;
-        if (missed_label != null) {
-            model2sub = label2model.get(missed_label);
-            if (model2sub == null) {
-                model2sub = createModel();
-                label2model.put(missed_label, model2sub);
-            }
-        }
+        final MulticlassWeightMatrix model = this.model;
+        final int labelToAdd = model.addLabel(actual_label);
+        final int labelToSub = (missed_label == null) ? -1 : model.addLabel(missed_label);
 
         for (FeatureValue f : features) {// w[f] += y * x[f]
             if (f == null) {
                 continue;
             }
-            final Object k = f.getFeature();
+            final int row = model.addRow(f.getFeature());
             final float v = f.getValueAsFloat();
 
-            float old_trueclass_w = model2add.getWeight(k);
+            float old_trueclass_w = model.getWeight(row, labelToAdd);
             float add_w = old_trueclass_w + (coeff * v);
-            model2add.set(k, new WeightValue(add_w));
+            model.set(row, labelToAdd, add_w);
 
-            if (model2sub != null) {
-                float old_falseclass_w = model2sub.getWeight(k);
+            if (labelToSub != -1) {
+                float old_falseclass_w = model.getWeight(row, labelToSub);
                 float sub_w = old_falseclass_w - (coeff * v);
-                model2sub.set(k, new WeightValue(sub_w));
+                model.set(row, labelToSub, sub_w);
             }
         }
     }
@@ -382,76 +406,64 @@ public abstract class MulticlassOnlineClassifierUDTF extends LearnerBaseUDTF {
     @Override
     public final void close() throws HiveException {
         super.close();
-        if (label2model != null) {
+        long numMixed = 0L;
+        if (mixClients != null) {
+            for (MixClient client : mixClients) {
+                IOUtils.closeQuietly(client);
+            }
+            for (MulticlassMixedModel mixed : mixedModels) {
+                if (mixed != null) {
+                    numMixed += mixed.getNumMixed();
+                }
+            }
+            this.mixClients = null;
+            this.mixedModels = null;
+        }
+        if (model != null) {
+            final MulticlassWeightMatrix model = this.model;
+            final boolean useCovar = useCovariance();
+            final Object[] forwardMapObj = new Object[useCovar ? 4 : 3];
+            final FloatWritable fv = new FloatWritable();
+            final FloatWritable cov = new FloatWritable();
             long numForwarded = 0L;
-            long numMixed = 0L;
-            if (useCovariance()) {
-                final WeightValueWithCovar probe = new WeightValueWithCovar();
-                final Object[] forwardMapObj = new Object[4];
-                final FloatWritable fv = new FloatWritable();
-                final FloatWritable cov = new FloatWritable();
-                for (Map.Entry<Object, PredictionModel> entry : label2model.entrySet()) {
-                    Object label = entry.getKey();
-                    forwardMapObj[0] = label;
-                    PredictionModel model = entry.getValue();
-                    numMixed += model.getNumMixed();
-                    IMapIterator<Object, IWeightValue> itor = model.entries();
-                    while (itor.next() != -1) {
-                        itor.getValue(probe);
-                        if (!probe.isTouched()) {
-                            continue; // skip outputting untouched weights
-                        }
-                        Object k = itor.getKey();
-                        fv.set(probe.get());
-                        cov.set(probe.getCovariance());
-                        forwardMapObj[1] = k;
-                        forwardMapObj[2] = fv;
-                        forwardMapObj[3] = cov;
-                        forward(forwardMapObj);
-                        numForwarded++;
+            for (int row = 0, numRows = model.numRows(); row < numRows; row++) {
+                final Object k = model.getFeature(row);
+                for (int j = 0, numLabels = model.numLabels(); j < numLabels; j++) {
+                    if (!model.isTouched(row, j)) {
+                        continue; // skip outputting untouched weights
                     }
-                }
-            } else {
-                final WeightValue probe = new WeightValue();
-                final Object[] forwardMapObj = new Object[3];
-                final FloatWritable fv = new FloatWritable();
-                for (Map.Entry<Object, PredictionModel> entry : label2model.entrySet()) {
-                    Object label = entry.getKey();
-                    forwardMapObj[0] = label;
-                    PredictionModel model = entry.getValue();
-                    numMixed += model.getNumMixed();
-                    IMapIterator<Object, IWeightValue> itor = model.entries();
-                    while (itor.next() != -1) {
-                        itor.getValue(probe);
-                        if (!probe.isTouched()) {
-                            continue; // skip outputting untouched weights
-                        }
-                        Object k = itor.getKey();
-                        fv.set(probe.get());
-                        forwardMapObj[1] = k;
-                        forwardMapObj[2] = fv;
-                        forward(forwardMapObj);
-                        numForwarded++;
+                    fv.set(model.getWeight(row, j));
+                    forwardMapObj[0] = model.getLabel(j);
+                    forwardMapObj[1] = k;
+                    forwardMapObj[2] = fv;
+                    if (useCovar) {
+                        cov.set(model.getCovariance(row, j));
+                        forwardMapObj[3] = cov;
                     }
+                    forward(forwardMapObj);
+                    numForwarded++;
                 }
             }
-            this.label2model = null;
-            logger.info("Trained a prediction model using " + count + " training examples"
+            logger.info("Trained a prediction model of " + model.numLabels() + " labels and "
+                    + model.numRows() + " features using " + count + " training examples"
                     + (numMixed > 0 ? "( numMixed: " + numMixed + " )" : ""));
             logger.info("Forwarded the prediction model of " + numForwarded + " rows");
+            this.model = null;
+            this.scores = null;
+            this.variances = null;
         }
     }
 
-    protected void loadPredictionModel(Map<Object, PredictionModel> label2model, String filename,
+    protected void loadPredictionModel(@Nonnull MulticlassWeightMatrix model, String filename,
             PrimitiveObjectInspector labelOI, PrimitiveObjectInspector featureOI) {
         final StopWatch elapsed = new StopWatch();
         final long lines;
         try {
             if (useCovariance()) {
-                lines = loadPredictionModel(label2model, new File(filename), labelOI, featureOI,
+                lines = loadPredictionModel(model, new File(filename), labelOI, featureOI,
                     writableFloatObjectInspector, writableFloatObjectInspector);
             } else {
-                lines = loadPredictionModel(label2model, new File(filename), labelOI, featureOI,
+                lines = loadPredictionModel(model, new File(filename), labelOI, featureOI,
                     writableFloatObjectInspector);
             }
         } catch (IOException e) {
@@ -459,25 +471,14 @@ public abstract class MulticlassOnlineClassifierUDTF extends LearnerBaseUDTF {
         } catch (SerDeException e) {
             throw new RuntimeException("Failed to load a model: " + filename, e);
         }
-        if (!label2model.isEmpty()) {
-            long totalFeatures = 0L;
-            StringBuilder statsBuf = new StringBuilder(256);
-            for (Map.Entry<Object, PredictionModel> e : label2model.entrySet()) {
-                Object label = e.getKey();
-                int numFeatures = e.getValue().size();
-                statsBuf.append('\n')
-                        .append("Label: ")
-                        .append(label)
-                        .append(", Number of Features: ")
-                        .append(numFeatures);
-                totalFeatures += numFeatures;
-            }
-            logger.info("Loaded total " + totalFeatures + " features from distributed cache '"
-                    + filename + "' (" + lines + " lines) in " + elapsed + statsBuf);
+        if (!model.isEmpty()) {
+            logger.info("Loaded " + model.numLabels() + " labels and " + model.numRows()
+                    + " features from distributed cache '" + filename + "' (" + lines
+                    + " lines) in " + elapsed);
         }
     }
 
-    private long loadPredictionModel(Map<Object, PredictionModel> label2model, File file,
+    private long loadPredictionModel(@Nonnull MulticlassWeightMatrix model, File file,
             PrimitiveObjectInspector labelOI, PrimitiveObjectInspector featureOI,
             WritableFloatObjectInspector weightOI) throws IOException, SerDeException {
         long count = 0L;
@@ -487,7 +488,7 @@ public abstract class MulticlassOnlineClassifierUDTF extends LearnerBaseUDTF {
         if (!file.getName().endsWith(".crc")) {
             if (file.isDirectory()) {
                 for (File f : file.listFiles()) {
-                    count += loadPredictionModel(label2model, f, labelOI, featureOI, weightOI);
+                    count += loadPredictionModel(model, f, labelOI, featureOI, weightOI);
                 }
             } else {
                 LazySimpleSerDe serde = HiveUtils.getLineSerde(labelOI, featureOI, weightOI);
@@ -518,14 +519,10 @@ public abstract class MulticlassOnlineClassifierUDTF extends LearnerBaseUDTF {
                             continue; // avoid the case that key or value is null
                         }
                         Object label = c1refOI.getPrimitiveWritableObject(c1refOI.copyObject(f0));
-                        PredictionModel model = label2model.get(label);
-                        if (model == null) {
-                            model = createModel();
-                            label2model.put(label, model);
-                        }
                         Object k = c2refOI.getPrimitiveWritableObject(c2refOI.copyObject(f1));
                         float v = c3refOI.get(f2);
-                        model.set(k, new WeightValue(v, false));
+                        model.load(model.addRow(k), model.addLabel(label), v,
+                            WeightValueWithCovar.DEFAULT_COVAR);
                     }
                 } finally {
                     IOUtils.closeQuietly(reader);
@@ -535,7 +532,7 @@ public abstract class MulticlassOnlineClassifierUDTF extends LearnerBaseUDTF {
         return count;
     }
 
-    private long loadPredictionModel(Map<Object, PredictionModel> label2model, File file,
+    private long loadPredictionModel(@Nonnull MulticlassWeightMatrix model, File file,
             PrimitiveObjectInspector labelOI, PrimitiveObjectInspector featureOI,
             WritableFloatObjectInspector weightOI, WritableFloatObjectInspector covarOI)
             throws IOException, SerDeException {
@@ -546,7 +543,7 @@ public abstract class MulticlassOnlineClassifierUDTF extends LearnerBaseUDTF {
         if (!file.getName().endsWith(".crc")) {
             if (file.isDirectory()) {
                 for (File f : file.listFiles()) {
-                    count += loadPredictionModel(label2model, f, labelOI, featureOI, weightOI,
+                    count += loadPredictionModel(model, f, labelOI, featureOI, weightOI,
                         covarOI);
                 }
             } else {
@@ -583,16 +580,11 @@ public abstract class MulticlassOnlineClassifierUDTF extends LearnerBaseUDTF {
                             continue; // avoid unexpected case
                         }
                         Object label = c1refOI.getPrimitiveWritableObject(c1refOI.copyObject(f0));
-                        PredictionModel model = label2model.get(label);
-                        if (model == null) {
-                            model = createModel();
-                            label2model.put(label, model);
-                        }
                         Object k = c2refOI.getPrimitiveWritableObject(c2refOI.copyObject(f1));
                         float v = c3refOI.get(f2);
                         float cov =
                                 (f3 == null) ? WeightValueWithCovar.DEFAULT_COVAR : c4refOI.get(f3);
-                        model.set(k, new WeightValueWithCovar(v, cov, false));
+                        model.load(model.addRow(k), model.addLabel(label), v, cov);
                     }
                 } finally {
                     IOUtils.closeQuietly(reader);
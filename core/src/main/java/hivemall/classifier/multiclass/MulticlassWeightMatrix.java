@@ -0,0 +1,443 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.classifier.multiclass;
+
+import hivemall.model.FeatureValue;
+import hivemall.model.WeightValue.WeightValueWithCovar;
+import hivemall.utils.hadoop.HiveUtils;
+import hivemall.utils.lang.Preconditions;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+
+import java.util.Arrays;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Weights (and optionally covariances) of a multiclass linear model laid out by feature.
+ *
+ * Each feature is mapped once to a row holding the weights of all the labels contiguously, so that
+ * the scores of all the labels are computed in a single pass over the features with one hash lookup
+ * per feature. Labels are numbered in the order they are added and a row is extended lazily when
+ * it is written for a label beyond its length. Missing entries have zero weight and
+ * {@link WeightValueWithCovar#DEFAULT_COVAR} covariance. For a dense model, features are converted
+ * to Integer as in {@link hivemall.model.DenseModel}.
+ */
+@NotThreadSafe
+public final class MulticlassWeightMatrix {
+
+    private final boolean useCovar;
+    private final boolean intFeature;
+
+    /** label to label index */
+    @Nonnull
+    private final Object2IntOpenHashMap<Object> labelIndex;
+    @Nonnull
+    private Object[] labels;
+    private int numLabels;
+
+    /** feature to row number */
+    @Nonnull
+    private final Object2IntOpenHashMap<Object> rowIndex;
+    @Nonnull
+    private Object[] features;
+    @Nonnull
+    private float[][] weights;
+    @Nullable
+    private float[][] covars;
+    /** bitsets of the labels updated by training for each row */
+    @Nonnull
+    private long[][] touched;
+    private int numRows;
+
+    // MIX states, which are allocated only when configured
+    @Nullable
+    private short[][] clocks;
+    /** the number of updates since the last mix */
+    @Nullable
+    private byte[][] deltaUpdates;
+    @Nullable
+    private UpdateHandler handler;
+
+    public MulticlassWeightMatrix(boolean useCovariance, @Nonnegative int expectedRows) {
+        this(useCovariance, false, expectedRows);
+    }
+
+    /**
+     * @param intFeature whether to convert features to Integer
+     */
+    public MulticlassWeightMatrix(boolean useCovariance, boolean intFeature,
+            @Nonnegative int expectedRows) {
+        Preconditions.checkArgument(expectedRows >= 0, "Invalid expectedRows: %s",
+            expectedRows);
+        this.useCovar = useCovariance;
+        this.intFeature = intFeature;
+        this.labelIndex = new Object2IntOpenHashMap<Object>(16);
+        labelIndex.defaultReturnValue(-1);
+        this.labels = new Object[16];
+        this.numLabels = 0;
+        this.rowIndex = new Object2IntOpenHashMap<Object>(expectedRows);
+        rowIndex.defaultReturnValue(-1);
+        final int capacity = Math.max(16, expectedRows);
+        this.features = new Object[capacity];
+        this.weights = new float[capacity][];
+        this.covars = useCovariance ? new float[capacity][] : null;
+        this.touched = new long[capacity][];
+        this.numRows = 0;
+    }
+
+    /**
+     * Enables the clocks and the delta updates used by MIX and notifies the handler of every update
+     * by training.
+     */
+    public void configureMix(@Nonnull final UpdateHandler handler) {
+        final int capacity = features.length;
+        this.clocks = new short[capacity][];
+        this.deltaUpdates = new byte[capacity][];
+        for (int row = 0; row < numRows; row++) {
+            final float[] w = weights[row];
+            if (w != null) {
+                clocks[row] = new short[w.length];
+                deltaUpdates[row] = new byte[w.length];
+            }
+        }
+        this.handler = handler;
+    }
+
+    public boolean hasCovariance() {
+        return useCovar;
+    }
+
+    public int numLabels() {
+        return numLabels;
+    }
+
+    public int numRows() {
+        return numRows;
+    }
+
+    public boolean isEmpty() {
+        return numLabels == 0;
+    }
+
+    @Nonnull
+    public Object getLabel(@Nonnegative final int label) {
+        Preconditions.checkElementIndex(label, numLabels);
+        return labels[label];
+    }
+
+    /**
+     * @return the index of the given label or -1 if the label has not been added
+     */
+    public int getLabelIndex(@Nonnull final Object label) {
+        return labelIndex.getInt(label);
+    }
+
+    /**
+     * @return the index of the given label, which is newly numbered if the label is unseen
+     */
+    public int addLabel(@Nonnull final Object label) {
+        int i = labelIndex.getInt(label);
+        if (i != -1) {
+            return i;
+        }
+        i = numLabels;
+        if (i == labels.length) {
+            this.labels = Arrays.copyOf(labels, i * 2);
+        }
+        labels[i] = label;
+        labelIndex.put(label, i);
+        this.numLabels = i + 1;
+        return i;
+    }
+
+    @Nonnull
+    public Object getFeature(@Nonnegative final int row) {
+        Preconditions.checkElementIndex(row, numRows);
+        return features[row];
+    }
+
+    /**
+     * @return row number of the given feature or -1 if the feature has no row
+     */
+    public int getRow(@Nonnull final Object feature) {
+        return rowIndex.getInt(toKey(feature));
+    }
+
+    /**
+     * @return row number of the given feature, which is newly allocated if the feature is unseen
+     */
+    public int addRow(@Nonnull Object feature) {
+        feature = toKey(feature);
+        int row = rowIndex.getInt(feature);
+        if (row != -1) {
+            return row;
+        }
+        row = numRows;
+        if (row == features.length) {
+            final int newCapacity = row * 2;
+            this.features = Arrays.copyOf(features, newCapacity);
+            this.weights = Arrays.copyOf(weights, newCapacity);
+            if (covars != null) {
+                this.covars = Arrays.copyOf(covars, newCapacity);
+            }
+            this.touched = Arrays.copyOf(touched, newCapacity);
+            if (clocks != null) {
+                this.clocks = Arrays.copyOf(clocks, newCapacity);
+                this.deltaUpdates = Arrays.copyOf(deltaUpdates, newCapacity);
+            }
+        }
+        features[row] = feature;
+        rowIndex.put(feature, row);
+        this.numRows = row + 1;
+        return row;
+    }
+
+    @Nonnull
+    private Object toKey(@Nonnull final Object feature) {
+        if (intFeature && !(feature instanceof Integer)) {
+            return Integer.valueOf(HiveUtils.parseInt(feature));
+        }
+        return feature;
+    }
+
+    public float getWeight(@Nonnegative final int row, @Nonnegative final int label) {
+        final float[] w = weights[row];
+        if (w == null || label >= w.length) {
+            return 0.f;
+        }
+        return w[label];
+    }
+
+    public float getCovariance(@Nonnegative final int row, @Nonnegative final int label) {
+        Preconditions.checkArgument(useCovar, "Covariance is not used");
+        final float[] c = covars[row];
+        if (c == null || label >= c.length) {
+            return WeightValueWithCovar.DEFAULT_COVAR;
+        }
+        return c[label];
+    }
+
+    public boolean isTouched(@Nonnegative final int row, @Nonnegative final int label) {
+        final long[] bits = touched[row];
+        final int word = label >>> 6;
+        if (bits == null || word >= bits.length) {
+            return false;
+        }
+        return (bits[word] & (1L << label)) != 0L;
+    }
+
+    /**
+     * Sets a weight updated by training.
+     */
+    public void set(@Nonnegative final int row, @Nonnegative final int label, final float weight) {
+        ensureCapacity(row, label);
+        weights[row][label] = weight;
+        touch(row, label);
+    }
+
+    /**
+     * Sets a weight and its covariance updated by training.
+     */
+    public void set(@Nonnegative final int row, @Nonnegative final int label, final float weight,
+            final float covar) {
+        ensureCapacity(row, label);
+        weights[row][label] = weight;
+        covars[row][label] = covar;
+        touch(row, label);
+    }
+
+    /**
+     * Sets a weight and its covariance loaded from an existing model, which is not regarded as
+     * touched.
+     */
+    public void load(@Nonnegative final int row, @Nonnegative final int label, final float weight,
+            final float covar) {
+        ensureCapacity(row, label);
+        weights[row][label] = weight;
+        if (useCovar) {
+            covars[row][label] = covar;
+        }
+    }
+
+    /**
+     * Sets a weight and its covariance mixed by MIX servers. The delta updates are reset.
+     */
+    public void mix(@Nonnegative final int row, @Nonnegative final int label, final float weight,
+            final float covar, final short clock) {
+        Preconditions.checkNotNull(clocks, "MIX is not configured");
+        ensureCapacity(row, label);
+        weights[row][label] = weight;
+        if (useCovar) {
+            covars[row][label] = covar;
+        }
+        clocks[row][label] = clock;
+        deltaUpdates[row][label] = 0;
+    }
+
+    public short getClock(@Nonnegative final int row, @Nonnegative final int label) {
+        final short[] c = clocks[row];
+        if (c == null || label >= c.length) {
+            return 0;
+        }
+        return c[label];
+    }
+
+    public int getDeltaUpdates(@Nonnegative final int row, @Nonnegative final int label) {
+        final byte[] d = deltaUpdates[row];
+        if (d == null || label >= d.length) {
+            return 0;
+        }
+        return d[label];
+    }
+
+    public void resetDeltaUpdates(@Nonnegative final int row, @Nonnegative final int label) {
+        final byte[] d = deltaUpdates[row];
+        if (d != null && label < d.length) {
+            d[label] = 0;
+        }
+    }
+
+    private void touch(final int row, final int label) {
+        final long[] bits = touched[row];
+        final int word = label >>> 6;
+        final long mask = 1L << label;
+        if (clocks != null && (bits[word] & mask) != 0L) {// the same as SparseModel
+            clocks[row][label]++;
+            final byte delta = deltaUpdates[row][label];
+            if (delta < Byte.MAX_VALUE) {
+                deltaUpdates[row][label] = (byte) (delta + 1);
+            }
+        }
+        bits[word] |= mask;
+        if (handler != null) {
+            handler.onUpdate(row, label);
+        }
+    }
+
+    private void ensureCapacity(final int row, final int label) {
+        Preconditions.checkElementIndex(row, numRows);
+        Preconditions.checkElementIndex(label, numLabels);
+
+        final float[] w = weights[row];
+        final int oldLength = (w == null) ? 0 : w.length;
+        if (label < oldLength) {
+            return;
+        }
+        // the labels are likely to be all known after a while; allocate up to the current ones
+        final int newLength = Math.max(numLabels, Math.min(oldLength * 2, labels.length));
+        weights[row] = (w == null) ? new float[newLength] : Arrays.copyOf(w, newLength);
+        if (useCovar) {
+            final float[] c = covars[row];
+            final float[] newCovars = (c == null) ? new float[newLength] : Arrays.copyOf(c, newLength);
+            Arrays.fill(newCovars, oldLength, newLength, WeightValueWithCovar.DEFAULT_COVAR);
+            covars[row] = newCovars;
+        }
+        if (clocks != null) {
+            final short[] c = clocks[row];
+            clocks[row] = (c == null) ? new short[newLength] : Arrays.copyOf(c, newLength);
+            final byte[] d = deltaUpdates[row];
+            deltaUpdates[row] = (d == null) ? new byte[newLength] : Arrays.copyOf(d, newLength);
+        }
+        final long[] bits = touched[row];
+        final int words = ((newLength - 1) >>> 6) + 1;
+        if (bits == null) {
+            touched[row] = new long[words];
+        } else if (bits.length < words) {
+            touched[row] = Arrays.copyOf(bits, words);
+        }
+    }
+
+    /**
+     * Computes the scores of all the labels in a single pass over the features.
+     *
+     * @param scores an array of at least {@link #numLabels()} length to store the scores
+     */
+    public void scores(@Nonnull final FeatureValue[] features, @Nonnull final float[] scores) {
+        final int numLabels = this.numLabels;
+        Arrays.fill(scores, 0, numLabels, 0.f);
+
+        for (FeatureValue f : features) {// a += w[i] * x[i]
+            if (f == null) {
+                continue;
+            }
+            final int row = getRow(f.getFeature());
+            if (row == -1) {
+                continue;
+            }
+            final float[] w = weights[row];
+            if (w == null) {
+                continue;
+            }
+            final float v = f.getValueAsFloat();
+            final int len = Math.min(w.length, numLabels);
+            for (int j = 0; j < len; j++) {
+                scores[j] += w[j] * v;
+            }
+        }
+    }
+
+    /**
+     * Computes the scores and the variances of all the labels in a single pass over the features.
+     *
+     * @param scores an array of at least {@link #numLabels()} length to store the scores
+     * @param variances an array of at least {@link #numLabels()} length to store the variances
+     */
+    public void scoresAndVariances(@Nonnull final FeatureValue[] features,
+            @Nonnull final float[] scores, @Nonnull final float[] variances) {
+        Preconditions.checkArgument(useCovar, "Covariance is not used");
+        final int numLabels = this.numLabels;
+        Arrays.fill(scores, 0, numLabels, 0.f);
+        Arrays.fill(variances, 0, numLabels, 0.f);
+
+        for (FeatureValue f : features) {// a += w[i] * x[i]
+            if (f == null) {
+                continue;
+            }
+            final float v = f.getValueAsFloat();
+            final int row = getRow(f.getFeature());
+            final float[] w = (row == -1) ? null : weights[row];
+            int len = 0;
+            if (w != null) {
+                final float[] c = covars[row];
+                len = Math.min(w.length, numLabels);
+                for (int j = 0; j < len; j++) {
+                    scores[j] += w[j] * v;
+                    variances[j] += c[j] * v * v;
+                }
+            }
+            final float defaultVariance = WeightValueWithCovar.DEFAULT_COVAR * v * v;
+            for (int j = len; j < numLabels; j++) {
+                variances[j] += defaultVariance;
+            }
+        }
+    }
+
+    /**
+     * Handler of the updates by training.
+     */
+    public interface UpdateHandler {
+
+        void onUpdate(@Nonnegative int row, @Nonnegative int label);
+
+    }
+
+}
@@ -0,0 +1,493 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.evaluation;
+
+import hivemall.UDAFEvaluatorWithOptions;
+import hivemall.utils.hadoop.HiveUtils;
+import hivemall.utils.lang.Primitives;
+import hivemall.utils.lang.SizeOf;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Options;
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.parse.SemanticException;
+import org.apache.hadoop.hive.ql.udf.generic.AbstractGenericUDAFResolver;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.AbstractAggregationBuffer;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.AggregationType;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.BooleanObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.IntObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.LongObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.io.BooleanWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+
+/**
+ * Approximates ROC-AUC or PR-AUC (average precision) from fixed-resolution score histograms of
+ * positive and negative examples.
+ *
+ * Unlike {@link AUCUDAF}, input does not need to be sorted by score and partial aggregates are
+ * merged by just adding up the histograms. The order of examples within a bin is unknown, so the
+ * result is the midpoint between the metric under the worst and the best order inside every bin,
+ * and half of that range is an upper bound of the absolute error that is returned by the
+ * `-error` option.
+ */
+@Description(name = "approx_auc",
+        value = "_FUNC_(double score, int label [, const string options])"
+                + " - Returns an approximated AUC (or PR-AUC by `-pr`) of scores in range [0,1]"
+                + " computed from score histograms without sorting")
+public final class ApproxAUCUDAF extends AbstractGenericUDAFResolver {
+
+    private static final double EULER_GAMMA = 0.5772156649015329d;
+
+    @Override
+    public GenericUDAFEvaluator getEvaluator(@Nonnull TypeInfo[] typeInfo)
+            throws SemanticException {
+        if (typeInfo.length != 2 && typeInfo.length != 3) {
+            throw new UDFArgumentTypeException(typeInfo.length - 1,
+                "_FUNC_ takes two or three arguments");
+        }
+        if (!HiveUtils.isNumberTypeInfo(typeInfo[0])) {
+            throw new UDFArgumentTypeException(0,
+                "The first argument `double score` is invalid form: " + typeInfo[0]);
+        }
+        if (!HiveUtils.isIntegerTypeInfo(typeInfo[1])) {
+            throw new UDFArgumentTypeException(1,
+                "The second argument `int label` is invalid form: " + typeInfo[1]);
+        }
+        if (typeInfo.length == 3 && !HiveUtils.isStringTypeInfo(typeInfo[2])) {
+            throw new UDFArgumentTypeException(2,
+                "The third argument type expected to be const string: " + typeInfo[2]);
+        }
+
+        return new Evaluator();
+    }
+
+    public static final class Evaluator extends UDAFEvaluatorWithOptions {
+
+        private PrimitiveObjectInspector scoreOI;
+        private PrimitiveObjectInspector labelOI;
+
+        private StructObjectInspector internalMergeOI;
+        private StructField binsField;
+        private StructField prField;
+        private StructField errorField;
+        private StructField indicesField;
+        private StructField posField;
+        private StructField negField;
+
+        private int bins;
+        private boolean pr;
+        private boolean error;
+
+        public Evaluator() {}
+
+        @Override
+        protected Options getOptions() {
+            Options opts = new Options();
+            opts.addOption("bins", true,
+                "The number of histogram bins over the score range [0,1] [default: 10000]");
+            opts.addOption("pr", false,
+                "Returns the area under the precision-recall curve, i.e., average precision");
+            opts.addOption("error", false,
+                "Returns the upper bound of the absolute approximation error instead of AUC");
+            return opts;
+        }
+
+        @Override
+        protected CommandLine processOptions(@Nonnull ObjectInspector[] argOIs)
+                throws UDFArgumentException {
+            CommandLine cl = null;
+
+            int bins = 10000;
+            boolean pr = false, error = false;
+            if (argOIs.length == 3) {
+                cl = parseOptions(HiveUtils.getConstString(argOIs[2]));
+                bins = Primitives.parseInt(cl.getOptionValue("bins"), bins);
+                if (bins < 1) {
+                    throw new UDFArgumentException("-bins must be greater than 0: " + bins);
+                }
+                pr = cl.hasOption("pr");
+                error = cl.hasOption("error");
+            }
+
+            this.bins = bins;
+            this.pr = pr;
+            this.error = error;
+            return cl;
+        }
+
+        @Override
+        public ObjectInspector init(@Nonnull Mode mode, @Nonnull ObjectInspector[] parameters)
+                throws HiveException {
+            assert (parameters.length >= 1 && parameters.length <= 3) : parameters.length;
+            super.init(mode, parameters);
+
+            // initialize input
+            if (mode == Mode.PARTIAL1 || mode == Mode.COMPLETE) {// from original data
+                processOptions(parameters);
+                this.scoreOI = HiveUtils.asDoubleCompatibleOI(parameters[0]);
+                this.labelOI = HiveUtils.asIntegerOI(parameters[1]);
+            } else {// from partial aggregation
+                StructObjectInspector soi = (StructObjectInspector) parameters[0];
+                this.internalMergeOI = soi;
+                this.binsField = soi.getStructFieldRef("bins");
+                this.prField = soi.getStructFieldRef("pr");
+                this.errorField = soi.getStructFieldRef("error");
+                this.indicesField = soi.getStructFieldRef("indices");
+                this.posField = soi.getStructFieldRef("pos");
+                this.negField = soi.getStructFieldRef("neg");
+            }
+
+            // initialize output
+            final ObjectInspector outputOI;
+            if (mode == Mode.PARTIAL1 || mode == Mode.PARTIAL2) {// terminatePartial
+                outputOI = internalMergeOI();
+            } else {// terminate
+                outputOI = PrimitiveObjectInspectorFactory.writableDoubleObjectInspector;
+            }
+            return outputOI;
+        }
+
+        @Nonnull
+        private static StructObjectInspector internalMergeOI() {
+            List<String> fieldNames = new ArrayList<>();
+            List<ObjectInspector> fieldOIs = new ArrayList<>();
+
+            fieldNames.add("bins");
+            fieldOIs.add(PrimitiveObjectInspectorFactory.writableIntObjectInspector);
+            fieldNames.add("pr");
+            fieldOIs.add(PrimitiveObjectInspectorFactory.writableBooleanObjectInspector);
+            fieldNames.add("error");
+            fieldOIs.add(PrimitiveObjectInspectorFactory.writableBooleanObjectInspector);
+            // non-empty bins only
+            fieldNames.add("indices");
+            fieldOIs.add(ObjectInspectorFactory.getStandardListObjectInspector(
+                PrimitiveObjectInspectorFactory.writableIntObjectInspector));
+            fieldNames.add("pos");
+            fieldOIs.add(ObjectInspectorFactory.getStandardListObjectInspector(
+                PrimitiveObjectInspectorFactory.writableLongObjectInspector));
+            fieldNames.add("neg");
+            fieldOIs.add(ObjectInspectorFactory.getStandardListObjectInspector(
+                PrimitiveObjectInspectorFactory.writableLongObjectInspector));
+
+            return ObjectInspectorFactory.getStandardStructObjectInspector(fieldNames, fieldOIs);
+        }
+
+        @Override
+        public HistogramBuffer getNewAggregationBuffer() throws HiveException {
+            HistogramBuffer buf = new HistogramBuffer();
+            reset(buf);
+            return buf;
+        }
+
+        @SuppressWarnings("deprecation")
+        @Override
+        public void reset(@Nonnull AggregationBuffer agg) throws HiveException {
+            HistogramBuffer buf = (HistogramBuffer) agg;
+            if (bins > 0) {
+                buf.reset(bins, pr, error);
+            } else {
+                buf.clear();
+            }
+        }
+
+        @SuppressWarnings("deprecation")
+        @Override
+        public void iterate(@Nonnull AggregationBuffer agg, @Nonnull Object[] parameters)
+                throws HiveException {
+            if (parameters[0] == null || parameters[1] == null) {
+                return;
+            }
+
+            double score = HiveUtils.getDouble(parameters[0], scoreOI);
+            if (score < 0.0d || score > 1.0d) {
+                throw new UDFArgumentException("score value MUST be in range [0,1]: " + score);
+            }
+
+            int label = PrimitiveObjectInspectorUtils.getInt(parameters[1], labelOI);
+            if (label == -1) {
+                label = 0;
+            } else if (label != 0 && label != 1) {
+                throw new UDFArgumentException("label MUST be 0/1 or -1/1: " + label);
+            }
+
+            HistogramBuffer buf = (HistogramBuffer) agg;
+            buf.iterate(score, label == 1);
+        }
+
+        @SuppressWarnings("deprecation")
+        @Override
+        @Nullable
+        public Object terminatePartial(@Nonnull AggregationBuffer agg) throws HiveException {
+            HistogramBuffer buf = (HistogramBuffer) agg;
+            if (buf.pos == null) {
+                return null;
+            }
+
+            final long[] pos = buf.pos;
+            final long[] neg = buf.neg;
+            final List<IntWritable> indices = new ArrayList<>();
+            final List<LongWritable> posList = new ArrayList<>();
+            final List<LongWritable> negList = new ArrayList<>();
+            for (int i = 0; i < pos.length; i++) {
+                if (pos[i] == 0L && neg[i] == 0L) {
+                    continue;
+                }
+                indices.add(new IntWritable(i));
+                posList.add(new LongWritable(pos[i]));
+                negList.add(new LongWritable(neg[i]));
+            }
+
+            Object[] partial = new Object[6];
+            partial[0] = new IntWritable(pos.length);
+            partial[1] = new BooleanWritable(buf.pr);
+            partial[2] = new BooleanWritable(buf.error);
+            partial[3] = indices;
+            partial[4] = posList;
+            partial[5] = negList;
+            return partial;
+        }
+
+        @SuppressWarnings("deprecation")
+        @Override
+        public void merge(@Nonnull AggregationBuffer agg, @Nullable Object partial)
+                throws HiveException {
+            if (partial == null) {
+                return;
+            }
+
+            Object binsObj = internalMergeOI.getStructFieldData(partial, binsField);
+            Object prObj = internalMergeOI.getStructFieldData(partial, prField);
+            Object errorObj = internalMergeOI.getStructFieldData(partial, errorField);
+            Object indicesObj = internalMergeOI.getStructFieldData(partial, indicesField);
+            Object posObj = internalMergeOI.getStructFieldData(partial, posField);
+            Object negObj = internalMergeOI.getStructFieldData(partial, negField);
+
+            int bins = ((IntObjectInspector) binsField.getFieldObjectInspector()).get(binsObj);
+            boolean pr = ((BooleanObjectInspector) prField.getFieldObjectInspector()).get(prObj);
+            boolean error =
+                    ((BooleanObjectInspector) errorField.getFieldObjectInspector()).get(errorObj);
+
+            HistogramBuffer buf = (HistogramBuffer) agg;
+            if (buf.pos == null) {
+                buf.reset(bins, pr, error);
+            } else if (buf.pos.length != bins) {
+                throw new HiveException(
+                    "Cannot merge histograms of different bins: " + buf.pos.length + ", " + bins);
+            }
+
+            ListObjectInspector indicesOI =
+                    (ListObjectInspector) indicesField.getFieldObjectInspector();
+            ListObjectInspector posOI = (ListObjectInspector) posField.getFieldObjectInspector();
+            ListObjectInspector negOI = (ListObjectInspector) negField.getFieldObjectInspector();
+            IntObjectInspector indexOI =
+                    (IntObjectInspector) indicesOI.getListElementObjectInspector();
+            LongObjectInspector posElemOI =
+                    (LongObjectInspector) posOI.getListElementObjectInspector();
+            LongObjectInspector negElemOI =
+                    (LongObjectInspector) negOI.getListElementObjectInspector();
+
+            final int size = indicesOI.getListLength(indicesObj);
+            for (int i = 0; i < size; i++) {
+                int index = indexOI.get(indicesOI.getListElement(indicesObj, i));
+                buf.pos[index] += posElemOI.get(posOI.getListElement(posObj, i));
+                buf.neg[index] += negElemOI.get(negOI.getListElement(negObj, i));
+            }
+        }
+
+        @SuppressWarnings("deprecation")
+        @Override
+        @Nullable
+        public DoubleWritable terminate(@Nonnull AggregationBuffer agg) throws HiveException {
+            HistogramBuffer buf = (HistogramBuffer) agg;
+            if (buf.pos == null) {
+                return null;
+            }
+            final double[] result = buf.pr ? prAUC(buf.pos, buf.neg) : rocAUC(buf.pos, buf.neg);
+            if (result == null) {
+                return null;
+            }
+            return new DoubleWritable(buf.error ? result[1] : result[0]);
+        }
+
+    }
+
+    @AggregationType(estimable = true)
+    public static final class HistogramBuffer extends AbstractAggregationBuffer {
+
+        @Nullable
+        long[] pos, neg;
+        boolean pr, error;
+
+        HistogramBuffer() {
+            super();
+        }
+
+        @Override
+        public int estimate() {
+            return (pos == null) ? 0 : 2 * SizeOf.LONG * pos.length;
+        }
+
+        void reset(@Nonnegative int bins, boolean pr, boolean error) {
+            this.pos = new long[bins];
+            this.neg = new long[bins];
+            this.pr = pr;
+            this.error = error;
+        }
+
+        void clear() {
+            this.pos = null;
+            this.neg = null;
+        }
+
+        void iterate(final double score, final boolean positive) {
+            assert (pos != null);
+            final int bins = pos.length;
+            final int i = Math.min((int) (score * bins), bins - 1);
+            if (positive) {
+                pos[i]++;
+            } else {
+                neg[i]++;
+            }
+        }
+
+    }
+
+    /**
+     * Pairs of a positive and a negative in the same bin are counted as a half.
+     *
+     * @return {AUC, error bound} or null if there is no positive or negative
+     */
+    @Nullable
+    static double[] rocAUC(@Nonnull final long[] pos, @Nonnull final long[] neg) {
+        double area = 0.d, ties = 0.d;
+        long negBelow = 0L, numPos = 0L;
+        for (int i = 0; i < pos.length; i++) {
+            final long p = pos[i], n = neg[i];
+            area += (double) p * negBelow;
+            ties += (double) p * n;
+            negBelow += n;
+            numPos += p;
+        }
+        if (numPos == 0L || negBelow == 0L) {
+            return null;
+        }
+        final double pairs = (double) numPos * negBelow;
+        return new double[] {(area + 0.5d * ties) / pairs, 0.5d * ties / pairs};
+    }
+
+    /**
+     * Average precision, i.e., the mean of the precision at each positive in the descending order
+     * of scores. The precision at the positives of a bin is bounded by putting all the negatives
+     * of the bin after (best) or before (worst) them.
+     *
+     * @return {PR-AUC, error bound} or null if there is no positive
+     */
+    @Nullable
+    static double[] prAUC(@Nonnull final long[] pos, @Nonnull final long[] neg) {
+        double best = 0.d, worst = 0.d;
+        long tp = 0L, fp = 0L;
+        for (int i = pos.length - 1; i >= 0; i--) {
+            final long p = pos[i], n = neg[i];
+            if (p != 0L) {
+                best += sumOfPrecisions(tp, tp + fp, p);
+                worst += sumOfPrecisions(tp, tp + fp + n, p);
+            }
+            tp += p;
+            fp += n;
+        }
+        if (tp == 0L) {
+            return null;
+        }
+        return new double[] {0.5d * (best + worst) / tp, 0.5d * (best - worst) / tp};
+    }
+
+    /**
+     * @return sum_{j=1}^{p} (a + j) / (b + j) = p - (b - a) * sum_{j=1}^{p} 1 / (b + j)
+     */
+    private static double sumOfPrecisions(final long a, final long b, final long p) {
+        assert (a <= b) : a + " > " + b;
+        if (a == b) {
+            return p;
+        }
+        return p - (b - a) * harmonicDiff(b, p);
+    }
+
+    /**
+     * @return H(b + p) - H(b) = sum_{j=1}^{p} 1 / (b + j) where H(n) is the n-th harmonic number
+     */
+    private static double harmonicDiff(final long b, final long p) {
+        if (p < 64L) {
+            double h = 0.d;
+            for (long j = p; j >= 1L; j--) {
+                h += 1.d / (b + j);
+            }
+            return h;
+        }
+        if (b < 64L) {
+            return harmonic(b + p) - harmonic(b);
+        }
+        // difference of the asymptotic expansions to avoid cancellation of the log terms
+        final double x = b, y = b + p;
+        final double x2 = x * x, y2 = y * y;
+        return Math.log1p((double) p / b) + (1.d / (2.d * y) - 1.d / (2.d * x))
+                - (1.d / (12.d * y2) - 1.d / (12.d * x2))
+                + (1.d / (120.d * y2 * y2) - 1.d / (120.d * x2 * x2));
+    }
+
+    /**
+     * @return the n-th harmonic number
+     */
+    private static double harmonic(final long n) {
+        if (n < 64L) {
+            double h = 0.d;
+            for (long i = n; i >= 1L; i--) {
+                h += 1.d / i;
+            }
+            return h;
+        }
+        // asymptotic expansion whose error is less than 1/(252n^6)
+        final double x = n;
+        final double x2 = x * x;
+        return Math.log(x) + EULER_GAMMA + 1.d / (2.d * x) - 1.d / (12.d * x2)
+                + 1.d / (120.d * x2 * x2);
+    }
+
+}
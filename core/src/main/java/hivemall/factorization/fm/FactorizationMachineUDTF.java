@@ -33,15 +33,11 @@ import hivemall.optimizer.LossFunctions.LossFunction;
 import hivemall.optimizer.LossFunctions.LossType;
 import hivemall.utils.collections.Fastutil;
 import hivemall.utils.hadoop.HiveUtils;
-import hivemall.utils.io.FileUtils;
-import hivemall.utils.io.NioStatefulSegment;
+import hivemall.utils.io.ReplayBuffer;
 import hivemall.utils.lang.NumberUtils;
-import hivemall.utils.lang.SizeOf;
 import hivemall.utils.math.MathUtils;
 
-import java.io.File;
 import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Map;
@@ -123,9 +119,9 @@ public class FactorizationMachineUDTF extends UDTFWithOptions {
      */
     protected long _numValidations;
 
-    // file IO
-    private transient ByteBuffer _inputBuf;
-    private transient NioStatefulSegment _fileIO;
+    // for iterations
+    @Nullable
+    private transient ReplayBuffer _replayBuffer;
 
     @Override
     protected Options getOptions() {
@@ -337,59 +333,28 @@ public class FactorizationMachineUDTF extends UDTFWithOptions {
             return;
         }
 
-        ByteBuffer inputBuf = _inputBuf;
-        NioStatefulSegment dst = _fileIO;
-        if (inputBuf == null) {
-            final File file;
-            try {
-                file = File.createTempFile("hivemall_fm", ".sgmt");
-                file.deleteOnExit();
-                if (!file.canWrite()) {
-                    throw new UDFArgumentException(
-                        "Cannot write a temporary file: " + file.getAbsolutePath());
-                }
-                LOG.info("Record training examples to a file: " + file.getAbsolutePath());
-            } catch (IOException ioe) {
-                throw new UDFArgumentException(ioe);
-            } catch (Throwable e) {
-                throw new UDFArgumentException(e);
-            }
-
-            this._inputBuf = inputBuf = ByteBuffer.allocateDirect(1024 * 1024); // 1 MiB
-            this._fileIO = dst = new NioStatefulSegment(file, false);
-        }
-
-        int xBytes = Feature.requiredBytes(x);
-        int recordBytes = SizeOf.INT + SizeOf.DOUBLE + xBytes + SizeOf.BYTE;
-        int requiredBytes = SizeOf.INT + recordBytes;
-        int remain = inputBuf.remaining();
-        if (remain < requiredBytes) {
-            writeBuffer(inputBuf, dst);
+        ReplayBuffer dst = _replayBuffer;
+        if (dst == null) {
+            this._replayBuffer = dst = new ReplayBuffer("hivemall_fm", 1024 * 1024); // 1 MiB
         }
 
-        inputBuf.putInt(recordBytes);
-        inputBuf.putInt(x.length);
+        dst.writeVInt(x.length);
         for (Feature f : x) {
-            f.writeTo(inputBuf);
+            f.writeTo(dst);
         }
-        inputBuf.putDouble(y);
+        dst.writeDouble(y);
         if (validation) {
             ++_numValidations;
-            inputBuf.put(TRUE_BYTE);
+            dst.writeByte(TRUE_BYTE);
         } else {
-            inputBuf.put(FALSE_BYTE);
+            dst.writeByte(FALSE_BYTE);
         }
-    }
 
-    private static void writeBuffer(@Nonnull ByteBuffer srcBuf, @Nonnull NioStatefulSegment dst)
-            throws HiveException {
-        srcBuf.flip();
         try {
-            dst.write(srcBuf);
+            dst.endRecord();
         } catch (IOException e) {
-            throw new HiveException("Exception causes while writing a buffer to file", e);
+            throw new HiveException("Failed to record a training example", e);
         }
-        srcBuf.clear();
     }
 
     private void train(@Nonnull final Feature[] x, final double y, final boolean validation)
@@ -580,8 +545,7 @@ public class FactorizationMachineUDTF extends UDTFWithOptions {
     }
 
     protected void runTrainingIteration(int iterations) throws HiveException {
-        final ByteBuffer inputBuf = Preconditions.checkNotNull(this._inputBuf);
-        final NioStatefulSegment fileIO = Preconditions.checkNotNull(this._fileIO);
+        final ReplayBuffer src = Preconditions.checkNotNull(this._replayBuffer);
 
         final long numTrainingExamples = _t;
         boolean lossIncreasedLastIter = false;
@@ -592,149 +556,56 @@ public class FactorizationMachineUDTF extends UDTFWithOptions {
                     "iteration");
 
         try {
-            if (fileIO.getPosition() == 0L) {// run iterations w/o temporary file
-                if (inputBuf.position() == 0) {
-                    return; // no training example
-                }
-                inputBuf.flip();
+            for (int iter = 2; iter <= iterations; iter++) {
+                _validationState.next();
+                _cvState.next();
+                setCounterValue(iterCounter, iter);
 
-                for (int iter = 2; iter <= iterations; iter++) {
-                    _validationState.next();
-                    _cvState.next();
+                src.rewind();
+                for (ReplayBuffer.Reader block; (block = src.nextBlock()) != null;) {
                     reportProgress(reporter);
-                    setCounterValue(iterCounter, iter);
-
-                    while (inputBuf.remaining() > 0) {
-                        int bytes = inputBuf.getInt();
-                        assert (bytes > 0) : bytes;
-                        int xLength = inputBuf.getInt();
+                    while (block.next()) {
+                        final int xLength = block.readVInt();
                         final Feature[] x = new Feature[xLength];
                         for (int j = 0; j < xLength; j++) {
-                            x[j] = instantiateFeature(inputBuf);
+                            x[j] = instantiateFeature(block);
                         }
-                        double y = inputBuf.getDouble();
-                        boolean validation = (inputBuf.get() == TRUE_BYTE);
+                        double y = block.readDouble();
+                        boolean validation = (block.readByte() == TRUE_BYTE);
 
-                        // invoke train
+                        // invoke training
                         train(x, y, validation);
                     }
-                    // stop if validation loss is consecutively increased over recent 2 iterations
-                    final boolean lossIncreased = _validationState.isLossIncreased();
-                    if ((lossIncreasedLastIter && lossIncreased)
-                            || _cvState.isConverged(numTrainingExamples)) {
-                        break;
-                    }
-                    lossIncreasedLastIter = lossIncreased;
-                    inputBuf.rewind();
                 }
-                LOG.info("Performed " + _cvState.getCurrentIteration() + " iterations of "
-                        + NumberUtils.formatNumber(numTrainingExamples)
-                        + " training examples on memory (thus " + NumberUtils.formatNumber(_t)
-                        + " training updates in total), used " + _numValidations
-                        + " validation examples");
-            } else {// read training examples in the temporary file and invoke train for each example
-
-                // write training examples in buffer to a temporary file
-                if (inputBuf.remaining() > 0) {
-                    writeBuffer(inputBuf, fileIO);
-                }
-                try {
-                    fileIO.flush();
-                } catch (IOException e) {
-                    throw new HiveException(
-                        "Failed to flush a file: " + fileIO.getFile().getAbsolutePath(), e);
-                }
-                if (LOG.isInfoEnabled()) {
-                    File tmpFile = fileIO.getFile();
-                    LOG.info("Wrote " + numTrainingExamples
-                            + " records to a temporary file for iterative training: "
-                            + tmpFile.getAbsolutePath() + " (" + FileUtils.prettyFileSize(tmpFile)
-                            + ")");
-                }
-
-                // run iterations
-                for (int iter = 2; iter <= iterations; iter++) {
-                    _validationState.next();
-                    _cvState.next();
-                    setCounterValue(iterCounter, iter);
-
-                    inputBuf.clear();
-                    fileIO.resetPosition();
-                    while (true) {
-                        reportProgress(reporter);
-                        // TODO prefetch
-                        // writes training examples to a buffer in the temporary file
-                        final int bytesRead;
-                        try {
-                            bytesRead = fileIO.read(inputBuf);
-                        } catch (IOException e) {
-                            throw new HiveException(
-                                "Failed to read a file: " + fileIO.getFile().getAbsolutePath(), e);
-                        }
-                        if (bytesRead == 0) { // reached file EOF
-                            break;
-                        }
-                        assert (bytesRead > 0) : bytesRead;
 
-                        // reads training examples from a buffer
-                        inputBuf.flip();
-                        int remain = inputBuf.remaining();
-                        if (remain < SizeOf.INT) {
-                            throw new HiveException("Illegal file format was detected");
-                        }
-                        while (remain >= SizeOf.INT) {
-                            int pos = inputBuf.position();
-                            int recordBytes = inputBuf.getInt();
-                            remain -= SizeOf.INT;
-                            if (remain < recordBytes) {
-                                inputBuf.position(pos);
-                                break;
-                            }
-
-                            final int xLength = inputBuf.getInt();
-                            final Feature[] x = new Feature[xLength];
-                            for (int j = 0; j < xLength; j++) {
-                                x[j] = instantiateFeature(inputBuf);
-                            }
-                            double y = inputBuf.getDouble();
-                            boolean validation = (inputBuf.get() == TRUE_BYTE);
-
-                            // invoke training
-                            train(x, y, validation);
-
-                            remain -= recordBytes;
-                        }
-                        inputBuf.compact();
-                    }
-                    // stop if validation loss is consecutively increased over recent 2 iterations
-                    final boolean lossIncreased = _validationState.isLossIncreased();
-                    if ((lossIncreasedLastIter && lossIncreased)
-                            || _cvState.isConverged(numTrainingExamples)) {
-                        break;
-                    }
-                    lossIncreasedLastIter = lossIncreased;
+                // stop if validation loss is consecutively increased over recent 2 iterations
+                final boolean lossIncreased = _validationState.isLossIncreased();
+                if ((lossIncreasedLastIter && lossIncreased)
+                        || _cvState.isConverged(numTrainingExamples)) {
+                    break;
                 }
-                LOG.info("Performed " + _cvState.getCurrentIteration() + " iterations of "
-                        + NumberUtils.formatNumber(numTrainingExamples)
-                        + " training examples on a secondary storage (thus "
-                        + NumberUtils.formatNumber(_t) + " training updates in total), used "
-                        + _numValidations + " validation examples");
+                lossIncreasedLastIter = lossIncreased;
             }
+            LOG.info("Performed " + _cvState.getCurrentIteration() + " iterations of "
+                    + NumberUtils.formatNumber(numTrainingExamples) + " training examples on "
+                    + (src.isSpilled() ? "a secondary storage" : "memory") + " (thus "
+                    + NumberUtils.formatNumber(_t) + " training updates in total), used "
+                    + _numValidations + " validation examples");
+        } catch (IOException e) {
+            throw new HiveException("Failed to read training examples: " + src.getFile(), e);
         } finally {
             // delete the temporary file and release resources
             try {
-                fileIO.close(true);
+                src.close();
             } catch (IOException e) {
-                throw new HiveException(
-                    "Failed to close a file: " + fileIO.getFile().getAbsolutePath(), e);
+                throw new HiveException("Failed to close a replay buffer: " + src.getFile(), e);
             }
-            this._inputBuf = null;
-            this._fileIO = null;
+            this._replayBuffer = null;
         }
     }
 
     @Nonnull
-    protected Feature instantiateFeature(@Nonnull final ByteBuffer input) {
+    protected Feature instantiateFeature(@Nonnull final ReplayBuffer.Reader input) {
         if (_parseFeatureAsInt) {
             return new IntFeature(input);
         } else {
@@ -18,10 +18,13 @@
  */
 package hivemall.factorization.fm;
 
+import hivemall.utils.hadoop.FeatureParser;
 import hivemall.utils.hashing.MurmurHash3;
+import hivemall.utils.io.ReplayBuffer;
 import hivemall.utils.lang.NumberUtils;
 
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
@@ -29,6 +32,7 @@ import javax.annotation.Nullable;
 
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
+import org.apache.hadoop.io.Text;
 
 public abstract class Feature {
     public static final int DEFAULT_NUM_FIELDS = 256;
@@ -79,6 +83,10 @@ public abstract class Feature {
 
     public abstract void readFrom(@Nonnull ByteBuffer src);
 
+    public abstract void writeTo(@Nonnull ReplayBuffer dst);
+
+    public abstract void readFrom(@Nonnull ReplayBuffer.Reader src);
+
     public static int requiredBytes(@Nonnull final Feature[] x) {
         int ret = 0;
         for (Feature f : x) {
@@ -110,12 +118,21 @@ public abstract class Feature {
             if (o == null) {
                 continue;
             }
-            String s = o.toString();
             Feature f = ary[j];
-            if (f == null) {
-                f = parseFeature(s, asIntFeature);
+            if (o instanceof Text) {
+                Text t = (Text) o;
+                if (f == null) {
+                    f = parseFeature(t, asIntFeature);
+                } else {
+                    parseFeature(t, f, asIntFeature);
+                }
             } else {
-                parseFeature(s, f, asIntFeature);
+                String s = o.toString();
+                if (f == null) {
+                    f = parseFeature(s, asIntFeature);
+                } else {
+                    parseFeature(s, f, asIntFeature);
+                }
             }
             ary[j] = f;
             j++;
@@ -151,12 +168,19 @@ public abstract class Feature {
             if (o == null) {
                 continue;
             }
-            String s = o.toString();
             Feature f = ary[j];
-            if (f == null) {
-                f = parseFFMFeature(s, numFeatures, numFields);
+            if (o instanceof Text) {
+                if (f == null) {
+                    f = new IntFeature(0, 0.d);
+                }
+                parseFFMFeature((Text) o, f, numFeatures, numFields);
             } else {
-                parseFFMFeature(s, f, numFeatures, numFields);
+                String s = o.toString();
+                if (f == null) {
+                    f = parseFFMFeature(s, numFeatures, numFields);
+                } else {
+                    parseFFMFeature(s, f, numFeatures, numFields);
+                }
             }
             ary[j] = f;
             j++;
@@ -201,6 +225,21 @@ public abstract class Feature {
         }
     }
 
+    @Nonnull
+    static Feature parseFeature(@Nonnull final Text fv, final boolean asIntFeature)
+            throws HiveException {
+        final int pos1 = FeatureParser.indexOf(fv.getBytes(), 0, fv.getLength(), (byte) ':');
+        if (asIntFeature) {
+            int index = parseFeatureIndex(fv, pos1);
+            double value = parseFeatureValue(fv, pos1);
+            return new IntFeature(index, value);
+        } else {
+            String index = parseFeatureName(fv, pos1);
+            double value = parseFeatureValue(fv, pos1);
+            return new StringFeature(index, value);
+        }
+    }
+
     @Nonnull
     static IntFeature parseFFMFeature(@Nonnull final String fv) throws HiveException {
         return parseFFMFeature(fv, DEFAULT_NUM_FEATURES, DEFAULT_NUM_FIELDS);
@@ -280,6 +319,18 @@ public abstract class Feature {
         }
     }
 
+    static void parseFeature(@Nonnull final Text fv, @Nonnull final Feature probe,
+            final boolean asIntFeature) throws HiveException {
+        final int pos1 = FeatureParser.indexOf(fv.getBytes(), 0, fv.getLength(), (byte) ':');
+        if (asIntFeature) {
+            int index = parseFeatureIndex(fv, pos1);
+            probe.setFeatureIndex(index);
+        } else {
+            probe.setFeature(parseFeatureName(fv, pos1));
+        }
+        probe.value = parseFeatureValue(fv, pos1);
+    }
+
     static void parseFFMFeature(@Nonnull final String fv, @Nonnull final Feature probe)
             throws HiveException {
         parseFFMFeature(fv, probe, DEFAULT_NUM_FEATURES, DEFAULT_NUM_FIELDS);
@@ -321,6 +372,78 @@ public abstract class Feature {
         probe.value = parseFeatureValue(valueStr);
     }
 
+    static void parseFFMFeature(@Nonnull final Text fv, @Nonnull final Feature probe,
+            final int numFeatures, final int numFields) throws HiveException {
+        final byte[] b = fv.getBytes();
+        final int len = fv.getLength();
+        final int pos1 = FeatureParser.indexOf(b, 0, len, (byte) ':');
+        final int pos2 = (pos1 == -1) ? -1 : FeatureParser.indexOf(b, pos1 + 1, len, (byte) ':');
+        if (pos2 == -1 || !isAscii(b, 0, pos2)) {
+            // errors and non-ASCII digits are handled by the String version
+            parseFFMFeature(fv.toString(), probe, numFeatures, numFields);
+            return;
+        }
+
+        final short field;
+        if (isDigits(b, 0, pos1)) {
+            final int i;
+            try {
+                i = FeatureParser.parseInt(b, 0, pos1);
+            } catch (NumberFormatException e) {
+                throw new HiveException("Invalid field value: " + fv, e);
+            }
+            if (i < 0 || i >= numFields || i > Short.MAX_VALUE) {
+                throw new HiveException("Invalid field value: " + fv);
+            }
+            field = (short) i;
+        } else {
+            field = NumberUtils.castToShort(MurmurHash3.murmurhash3(b, 0, pos1, numFields));
+        }
+        final int index;
+        if (numFeatures == -1 && isDigits(b, pos1 + 1, pos2)) {
+            try {
+                index = FeatureParser.parseInt(b, pos1 + 1, pos2);
+            } catch (NumberFormatException e) {
+                throw new HiveException("Invalid index value: " + fv, e);
+            }
+            if (index <= 0) {
+                throw new HiveException("Feature index MUST be greater than 0: " + fv);
+            }
+        } else {
+            // +NUM_FIELD to avoid conflict to quantitative features
+            index = MurmurHash3.murmurhash3(b, pos1 + 1, pos2 - pos1 - 1, numFeatures) + numFields;
+        }
+        probe.setField(field);
+        probe.setFeatureIndex(index);
+
+        try {
+            probe.value = FeatureParser.parseDouble(b, pos2 + 1, len);
+        } catch (NumberFormatException e) {
+            throw new HiveException("Invalid feature value: " + fv, e);
+        }
+    }
+
+    private static boolean isAscii(@Nonnull final byte[] b, final int start, final int end) {
+        for (int i = start; i < end; i++) {
+            if (b[i] < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isDigits(@Nonnull final byte[] b, final int start, final int end) {
+        if (start >= end) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            if (b[i] < '0' || b[i] > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private static int parseFeatureIndex(@Nonnull final String indexStr) throws HiveException {
         final int index;
         try {
@@ -334,6 +457,45 @@ public abstract class Feature {
         return index;
     }
 
+    private static int parseFeatureIndex(@Nonnull final Text fv, final int pos)
+            throws HiveException {
+        final int index;
+        try {
+            index = FeatureParser.parseFeatureAsInt(fv, pos);
+        } catch (NumberFormatException e) {
+            throw new HiveException(
+                "Invalid index value: " + FeatureParser.parseFeatureAsString(fv, pos), e);
+        }
+        if (index <= 0) {
+            throw new HiveException("Feature index MUST be greater than 0: "
+                    + FeatureParser.parseFeatureAsString(fv, pos));
+        }
+        return index;
+    }
+
+    @Nonnull
+    private static String parseFeatureName(@Nonnull final Text fv, final int pos)
+            throws HiveException {
+        final byte[] b = fv.getBytes();
+        final int end = (pos == -1) ? fv.getLength() : pos;
+        if (end == 1 && b[0] == '0') {
+            throw new HiveException("Index value should not be 0: " + fv);
+        }
+        return FeatureParser.parseFeatureAsString(fv, pos);
+    }
+
+    private static double parseFeatureValue(@Nonnull final Text fv, final int pos)
+            throws HiveException {
+        try {
+            return FeatureParser.parseValue(fv, pos);
+        } catch (NumberFormatException e) {
+            throw new HiveException("Invalid feature value: "
+                    + new String(fv.getBytes(), pos + 1, fv.getLength() - pos - 1,
+                        StandardCharsets.UTF_8),
+                e);
+        }
+    }
+
     private static double parseFeatureValue(@Nonnull final String value) throws HiveException {
         try {
             return Double.parseDouble(value);
@@ -24,10 +24,10 @@ import hivemall.utils.collections.arrays.DoubleArray3D;
 import hivemall.utils.collections.lists.IntArrayList;
 import hivemall.utils.hadoop.HadoopUtils;
 import hivemall.utils.hadoop.HiveUtils;
+import hivemall.utils.io.ReplayBuffer;
 import hivemall.utils.math.MathUtils;
 import it.unimi.dsi.fastutil.ints.Int2LongMap;
 
-import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -248,7 +248,7 @@ public final class FieldAwareFactorizationMachineUDTF extends FactorizationMachi
     }
 
     @Override
-    protected IntFeature instantiateFeature(@Nonnull final ByteBuffer input) {
+    protected IntFeature instantiateFeature(@Nonnull final ReplayBuffer.Reader input) {
         return new IntFeature(input);
     }
 
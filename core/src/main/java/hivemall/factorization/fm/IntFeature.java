@@ -18,6 +18,7 @@
  */
 package hivemall.factorization.fm;
 
+import hivemall.utils.io.ReplayBuffer;
 import hivemall.utils.lang.SizeOf;
 
 import java.nio.ByteBuffer;
@@ -47,6 +48,11 @@ public final class IntFeature extends Feature {
         readFrom(src);
     }
 
+    public IntFeature(@Nonnull ReplayBuffer.Reader src) {
+        super();
+        readFrom(src);
+    }
+
     @Override
     public String getFeature() {
         return Integer.toString(index);
@@ -91,6 +97,25 @@ public final class IntFeature extends Feature {
         this.value = src.getDouble();
     }
 
+    @Override
+    public void writeTo(@Nonnull final ReplayBuffer dst) {
+        dst.writeVInt(index);
+        // field + 1 and whether the value is omitted
+        final boolean unitValue = (value == 1.d);
+        dst.writeVInt(((field + 1) << 1) | (unitValue ? 0 : 1));
+        if (!unitValue) {
+            dst.writeDouble(value);
+        }
+    }
+
+    @Override
+    public void readFrom(@Nonnull final ReplayBuffer.Reader src) {
+        this.index = src.readVInt();
+        final int header = src.readVInt();
+        this.field = (short) ((header >>> 1) - 1);
+        this.value = ((header & 1) == 0) ? 1.d : src.readDouble();
+    }
+
     @Override
     public String toString() {
         if (field == -1) {
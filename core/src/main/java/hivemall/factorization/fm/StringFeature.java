@@ -18,7 +18,11 @@
  */
 package hivemall.factorization.fm;
 
+import static hivemall.utils.lang.Primitives.FALSE_BYTE;
+import static hivemall.utils.lang.Primitives.TRUE_BYTE;
+
 import hivemall.utils.io.NIOUtils;
+import hivemall.utils.io.ReplayBuffer;
 
 import java.nio.ByteBuffer;
 
@@ -44,6 +48,11 @@ public class StringFeature extends Feature {
         readFrom(src);
     }
 
+    public StringFeature(@Nonnull ReplayBuffer.Reader src) {
+        super();
+        readFrom(src);
+    }
+
     @Override
     public String getFeature() {
         return feature;
@@ -71,6 +80,23 @@ public class StringFeature extends Feature {
         this.value = src.getDouble();
     }
 
+    @Override
+    public void writeTo(@Nonnull final ReplayBuffer dst) {
+        dst.writeString(feature);
+        if (value == 1.d) {
+            dst.writeByte(FALSE_BYTE); // omit the value
+        } else {
+            dst.writeByte(TRUE_BYTE);
+            dst.writeDouble(value);
+        }
+    }
+
+    @Override
+    public void readFrom(@Nonnull final ReplayBuffer.Reader src) {
+        this.feature = src.readString();
+        this.value = (src.readByte() == TRUE_BYTE) ? src.readDouble() : 1.d;
+    }
+
     @Override
     public String toString() {
         return feature + ':' + value;
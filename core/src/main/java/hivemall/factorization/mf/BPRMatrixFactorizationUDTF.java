@@ -326,13 +326,15 @@ public final class BPRMatrixFactorizationUDTF extends UDTFWithOptions implements
     }
 
     protected void train(final int u, final int i, final int j) {
-        Rating[] user = model.getUserVector(u, true);
-        Rating[] itemI = model.getItemVector(i, true);
-        Rating[] itemJ = model.getItemVector(j, true);
+        final int userRow = model.getUserRow(u, true);
+        final int itemIRow = model.getItemRow(i, true);
+        final int itemJRow = model.getItemRow(j, true);
 
-        copyToProbe(user, uProbe);
-        copyToProbe(itemI, iProbe);
-        copyToProbe(itemJ, jProbe);
+        final FactorMatrix users = model.getUsers();
+        final FactorMatrix items = model.getItems();
+        users.copyTo(userRow, uProbe);
+        items.copyTo(itemIRow, iProbe);
+        items.copyTo(itemJRow, jProbe);
 
         double x_uij = predict(u, i, uProbe, iProbe) - predict(u, j, uProbe, jProbe);
 
@@ -343,9 +345,9 @@ public final class BPRMatrixFactorizationUDTF extends UDTFWithOptions implements
             float h_if = iProbe[k];
             float h_jf = jProbe[k];
 
-            updateUserRating(user[k], w_uf, h_if, h_jf, dloss, eta);
-            updateItemRating(itemI[k], w_uf, h_if, dloss, eta, regI); // positive item
-            updateItemRating(itemJ[k], w_uf, h_jf, -dloss, eta, regJ); // negative item
+            updateUserRating(users, userRow, k, w_uf, h_if, h_jf, dloss, eta);
+            updateItemRating(items, itemIRow, k, w_uf, h_if, dloss, eta, regI); // positive item
+            updateItemRating(items, itemJRow, k, w_uf, h_jf, -dloss, eta, regJ); // negative item
         }
         if (useBiasClause) {
             updateBias(i, j, dloss, eta);
@@ -388,27 +390,29 @@ public final class BPRMatrixFactorizationUDTF extends UDTFWithOptions implements
         return etaEstimator.eta(count);
     }
 
-    protected void updateUserRating(final Rating rating, final float w_uf, final float h_if,
-            final float h_jf, final double dloss, final float eta) {
+    protected void updateUserRating(@Nonnull final FactorMatrix users, final int row,
+            final int k, final float w_uf, final float h_if, final float h_jf, final double dloss,
+            final float eta) {
         double grad = dloss * (h_if - h_jf) - regU * w_uf;
         float delta = (float) (eta * grad);
         float newWeight = w_uf + delta;
         if (!NumberUtils.isFinite(newWeight)) {
             throw new IllegalStateException("Detected " + newWeight + " for w_uf");
         }
-        rating.setWeight(newWeight);
+        users.set(row, k, newWeight);
         cvState.incrLoss(regU * w_uf * w_uf);
     }
 
-    protected void updateItemRating(final Rating rating, final float w_uf, final float h_f,
-            final double dloss, final float eta, final float reg) {
+    protected void updateItemRating(@Nonnull final FactorMatrix items, final int row,
+            final int k, final float w_uf, final float h_f, final double dloss, final float eta,
+            final float reg) {
         double grad = dloss * w_uf - reg * h_f;
         float delta = (float) (eta * grad);
         float newWeight = h_f + delta;
         if (!NumberUtils.isFinite(newWeight)) {
             throw new IllegalStateException("Detected " + newWeight + " for h_f");
         }
-        rating.setWeight(newWeight);
+        items.set(row, k, newWeight);
         cvState.incrLoss(reg * h_f * h_f);
     }
 
@@ -449,22 +453,24 @@ public final class BPRMatrixFactorizationUDTF extends UDTFWithOptions implements
             final FloatWritable Bi = useBiasClause ? new FloatWritable() : null;
             final Object[] forwardObj = new Object[] {idx, Pu, Qi, Bi};
 
+            final FactorMatrix users = model.getUsers();
+            final FactorMatrix items = model.getItems();
             int numForwarded = 0;
             for (int i = model.getMinIndex(), maxIdx = model.getMaxIndex(); i <= maxIdx; i++) {
                 idx.set(i);
-                Rating[] userRatings = model.getUserVector(i);
-                if (userRatings == null) {
+                int userRow = users.getRow(i);
+                if (userRow == -1) {
                     forwardObj[1] = null;
                 } else {
                     forwardObj[1] = Pu;
-                    copyTo(userRatings, Pu);
+                    copyTo(users, userRow, Pu);
                 }
-                Rating[] itemRatings = model.getItemVector(i);
-                if (itemRatings == null) {
+                int itemRow = items.getRow(i);
+                if (itemRow == -1) {
                     forwardObj[2] = null;
                 } else {
                     forwardObj[2] = Qi;
-                    copyTo(itemRatings, Qi);
+                    copyTo(items, itemRow, Qi);
                 }
                 if (useBiasClause) {
                     Bi.set(model.getItemBias(i));
@@ -646,16 +652,10 @@ public final class BPRMatrixFactorizationUDTF extends UDTFWithOptions implements
         srcBuf.clear();
     }
 
-    @Nonnull
-    private final void copyToProbe(@Nonnull final Rating[] rating, @Nonnull float[] probe) {
-        for (int k = 0, size = factor; k < size; k++) {
-            probe[k] = rating[k].getWeight();
-        }
-    }
-
-    private static void copyTo(@Nonnull final Rating[] rating, @Nonnull final FloatWritable[] dst) {
-        for (int k = 0, size = rating.length; k < size; k++) {
-            float w = rating[k].getWeight();
+    private static void copyTo(@Nonnull final FactorMatrix matrix, final int row,
+            @Nonnull final FloatWritable[] dst) {
+        for (int k = 0, size = matrix.dims(); k < size; k++) {
+            float w = matrix.get(row, k);
             dst[k].set(w);
         }
     }
@@ -0,0 +1,193 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.factorization.mf;
+
+import hivemall.utils.lang.NumberUtils;
+import hivemall.utils.lang.Preconditions;
+import hivemall.utils.lang.SizeOf;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * A dense matrix of fixed-length float rows addressed by an arbitrary int ID.
+ *
+ * Rows are packed contiguously into chunked float slabs in allocation order and an ID is mapped
+ * to its row number by an open-addressing int-to-int map. The sum of squared gradients used by
+ * AdaGrad is optionally kept in a parallel double slab with the same layout.
+ */
+@NotThreadSafe
+public final class FactorMatrix {
+    /** 256 * 1024 = 256K entries per chunk, i.e., 1 MiB of floats */
+    public static final int DEFAULT_CHUNK_SIZE = 256 * 1024;
+
+    @Nonnegative
+    private final int dims;
+    @Nonnegative
+    private final int rowsPerChunk;
+    @Nonnegative
+    private final int chunkSize;
+
+    /** ID to row number */
+    @Nonnull
+    private final Int2IntOpenHashMap index;
+    @Nonnull
+    private float[][] weights;
+    @Nullable
+    private double[][] sqgrads;
+    /** the number of chunks created */
+    private int initializedChunks;
+    /** the number of rows allocated */
+    private int numRows;
+
+    public FactorMatrix(@Nonnegative int dims, boolean sumOfSquaredGradients,
+            @Nonnegative int expectedRows) {
+        this(dims, sumOfSquaredGradients, expectedRows, DEFAULT_CHUNK_SIZE);
+    }
+
+    public FactorMatrix(@Nonnegative int dims, boolean sumOfSquaredGradients,
+            @Nonnegative int expectedRows, @Nonnegative int chunkSize) {
+        Preconditions.checkArgument(dims > 0, "dims must be greater than 0: %s", dims);
+        Preconditions.checkArgument(chunkSize > 0, "chunkSize must be greater than 0: %s",
+            chunkSize);
+        this.dims = dims;
+        this.rowsPerChunk = Math.max(1, chunkSize / dims);
+        this.chunkSize = rowsPerChunk * dims;
+        this.index = new Int2IntOpenHashMap(expectedRows);
+        index.defaultReturnValue(-1);
+        this.weights = new float[8][];
+        this.sqgrads = sumOfSquaredGradients ? new double[8][] : null;
+        this.initializedChunks = 0;
+        this.numRows = 0;
+    }
+
+    public int dims() {
+        return dims;
+    }
+
+    public int size() {
+        return numRows;
+    }
+
+    public boolean hasSumOfSquaredGradients() {
+        return sqgrads != null;
+    }
+
+    /**
+     * @return row number of the given ID or -1 if the ID has no row
+     */
+    public int getRow(final int id) {
+        return index.get(id);
+    }
+
+    /**
+     * Allocates a zero-filled row for the given ID.
+     *
+     * @return row number of the new row
+     */
+    public int addRow(final int id) {
+        final int row = numRows;
+        final int prev = index.put(id, row);
+        if (prev != -1) {
+            index.put(id, prev);
+            throw new IllegalStateException("Row is already allocated for ID: " + id);
+        }
+        grow(row / rowsPerChunk);
+        this.numRows = row + 1;
+        return row;
+    }
+
+    private void grow(final int chunkIndex) {
+        if (chunkIndex < initializedChunks) {
+            return; // no need to grow
+        }
+
+        if (chunkIndex >= weights.length) {
+            int newSize = Math.max(chunkIndex + 1, weights.length * 2);
+            float[][] newWeights = new float[newSize][];
+            System.arraycopy(weights, 0, newWeights, 0, weights.length);
+            this.weights = newWeights;
+            if (sqgrads != null) {
+                double[][] newSqgrads = new double[newSize][];
+                System.arraycopy(sqgrads, 0, newSqgrads, 0, sqgrads.length);
+                this.sqgrads = newSqgrads;
+            }
+        }
+        for (int i = initializedChunks; i <= chunkIndex; i++) {
+            weights[i] = new float[chunkSize];
+            if (sqgrads != null) {
+                sqgrads[i] = new double[chunkSize];
+            }
+        }
+        this.initializedChunks = chunkIndex + 1;
+    }
+
+    private int offset(final int row, final int k) {
+        assert (row >= 0 && row < numRows) : row;
+        assert (k >= 0 && k < dims) : k;
+        return (row % rowsPerChunk) * dims + k;
+    }
+
+    public float get(final int row, final int k) {
+        return weights[row / rowsPerChunk][offset(row, k)];
+    }
+
+    public void set(final int row, final int k, final float value) {
+        weights[row / rowsPerChunk][offset(row, k)] = value;
+    }
+
+    public double getSumOfSquaredGradients(final int row, final int k) {
+        if (sqgrads == null) {
+            throw new IllegalStateException("sum of squared gradients is not allocated");
+        }
+        return sqgrads[row / rowsPerChunk][offset(row, k)];
+    }
+
+    public void setSumOfSquaredGradients(final int row, final int k, final double sqgrad) {
+        if (sqgrads == null) {
+            throw new IllegalStateException("sum of squared gradients is not allocated");
+        }
+        sqgrads[row / rowsPerChunk][offset(row, k)] = sqgrad;
+    }
+
+    /**
+     * Copies the weights of a row into the given array.
+     */
+    public void copyTo(final int row, @Nonnull final float[] dst) {
+        final float[] chunk = weights[row / rowsPerChunk];
+        final int base = offset(row, 0);
+        System.arraycopy(chunk, base, dst, 0, dims);
+    }
+
+    public long consumedBytes() {
+        long bytesPerEntry = (sqgrads == null) ? SizeOf.FLOAT : (SizeOf.FLOAT + SizeOf.DOUBLE);
+        return bytesPerEntry * chunkSize * initializedChunks;
+    }
+
+    @Override
+    public String toString() {
+        return "FactorMatrix [dims=" + dims + ", #rows=" + NumberUtils.formatNumber(numRows)
+                + ", #chunks=" + initializedChunks + ", #consumed="
+                + NumberUtils.prettySize(consumedBytes()) + "]";
+    }
+
+}
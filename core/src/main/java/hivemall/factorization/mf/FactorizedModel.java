@@ -19,8 +19,6 @@
 package hivemall.factorization.mf;
 
 import hivemall.utils.math.MathUtils;
-import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
-import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 
 import java.util.Random;
 
@@ -29,6 +27,11 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
 
+/**
+ * A factorized model of MF/BPR. User/item factors and biases are kept in {@link FactorMatrix}
+ * slabs and addressed by row numbers returned from {@link #getUserRow(int, boolean)} and
+ * {@link #getItemRow(int, boolean)}.
+ */
 @NotThreadSafe
 public final class FactorizedModel {
 
@@ -43,35 +46,49 @@ public final class FactorizedModel {
     private int minIndex, maxIndex;
     @Nonnull
     private Rating meanRating;
-    private Int2ObjectMap<Rating[]> users;
-    private Int2ObjectMap<Rating[]> items;
-    private Int2ObjectMap<Rating> userBias;
-    private Int2ObjectMap<Rating> itemBias;
+    @Nonnull
+    private final FactorMatrix users;
+    @Nonnull
+    private final FactorMatrix items;
+    @Nonnull
+    private final FactorMatrix userBias;
+    @Nonnull
+    private final FactorMatrix itemBias;
 
     private final Random[] randU, randI;
 
     public FactorizedModel(@Nonnull RatingInitializer ratingInitializer, @Nonnegative int factor,
             @Nonnull RankInitScheme initScheme) {
-        this(ratingInitializer, factor, 0.f, initScheme, 136861);
+        this(ratingInitializer, factor, 0.f, initScheme, false, 136861);
     }
 
     public FactorizedModel(@Nonnull RatingInitializer ratingInitializer, @Nonnegative int factor,
             float meanRating, @Nonnull RankInitScheme initScheme) {
-        this(ratingInitializer, factor, meanRating, initScheme, 136861);
+        this(ratingInitializer, factor, meanRating, initScheme, false, 136861);
+    }
+
+    public FactorizedModel(@Nonnull RatingInitializer ratingInitializer, @Nonnegative int factor,
+            float meanRating, @Nonnull RankInitScheme initScheme, boolean sumOfSquaredGradients) {
+        this(ratingInitializer, factor, meanRating, initScheme, sumOfSquaredGradients, 136861);
     }
 
+    /**
+     * @param sumOfSquaredGradients whether to keep the sum of squared gradients (for AdaGrad) of
+     *        each factor and bias in a slab parallel to the weights
+     */
     public FactorizedModel(@Nonnull RatingInitializer ratingInitializer, @Nonnegative int factor,
-            float meanRating, @Nonnull RankInitScheme initScheme, int expectedSize) {
+            float meanRating, @Nonnull RankInitScheme initScheme, boolean sumOfSquaredGradients,
+            int expectedSize) {
         this.ratingInitializer = ratingInitializer;
         this.factor = factor;
         this.initScheme = initScheme;
         this.minIndex = 0;
         this.maxIndex = 0;
         this.meanRating = ratingInitializer.newRating(meanRating);
-        this.users = new Int2ObjectOpenHashMap<Rating[]>(expectedSize);
-        this.items = new Int2ObjectOpenHashMap<Rating[]>(expectedSize);
-        this.userBias = new Int2ObjectOpenHashMap<Rating>(expectedSize);
-        this.itemBias = new Int2ObjectOpenHashMap<Rating>(expectedSize);
+        this.users = new FactorMatrix(factor, sumOfSquaredGradients, expectedSize);
+        this.items = new FactorMatrix(factor, sumOfSquaredGradients, expectedSize);
+        this.userBias = new FactorMatrix(1, sumOfSquaredGradients, expectedSize);
+        this.itemBias = new FactorMatrix(1, sumOfSquaredGradients, expectedSize);
         this.randU = newRandoms(factor, 31L);
         this.randI = newRandoms(factor, 41L);
     }
@@ -136,136 +153,136 @@ public final class FactorizedModel {
         meanRating.setWeight(rating);
     }
 
-    @Nullable
-    public Rating[] getUserVector(final int u) {
-        return getUserVector(u, false);
+    @Nonnull
+    public FactorMatrix getUsers() {
+        return users;
     }
 
-    @Nullable
-    public Rating[] getUserVector(final int u, final boolean init) {
-        Rating[] v = users.get(u);
-        if (init && v == null) {
-            v = new Rating[factor];
-            switch (initScheme) {
-                case random:
-                    uniformFill(v, randU[0], initScheme.maxInitValue, ratingInitializer);
-                    break;
-                case gaussian:
-                    gaussianFill(v, randU, initScheme.initStdDev, ratingInitializer);
-                    break;
-                default:
-                    throw new IllegalStateException(
-                        "Unsupported rank initialization scheme: " + initScheme);
+    @Nonnull
+    public FactorMatrix getItems() {
+        return items;
+    }
 
-            }
-            users.put(u, v);
+    @Nonnull
+    public FactorMatrix getUserBiases() {
+        return userBias;
+    }
+
+    @Nonnull
+    public FactorMatrix getItemBiases() {
+        return itemBias;
+    }
+
+    /**
+     * @return row of the user in {@link #getUsers()} or -1 if not found
+     */
+    public int getUserRow(final int u) {
+        return getUserRow(u, false);
+    }
+
+    public int getUserRow(final int u, final boolean init) {
+        int row = users.getRow(u);
+        if (init && row == -1) {
+            row = users.addRow(u);
+            initRow(users, row, randU);
             this.maxIndex = Math.max(maxIndex, u);
             this.minIndex = Math.min(minIndex, u);
         }
-        return v;
+        return row;
     }
 
-    @Nullable
-    public Rating[] getItemVector(final int i) {
-        return getItemVector(i, false);
+    /**
+     * @return row of the item in {@link #getItems()} or -1 if not found
+     */
+    public int getItemRow(final int i) {
+        return getItemRow(i, false);
     }
 
-    @Nullable
-    public Rating[] getItemVector(int i, boolean init) {
-        Rating[] v = items.get(i);
-        if (init && v == null) {
-            v = new Rating[factor];
-            switch (initScheme) {
-                case random:
-                    uniformFill(v, randI[0], initScheme.maxInitValue, ratingInitializer);
-                    break;
-                case gaussian:
-                    gaussianFill(v, randI, initScheme.initStdDev, ratingInitializer);
-                    break;
-                default:
-                    throw new IllegalStateException(
-                        "Unsupported rank initialization scheme: " + initScheme);
-
-            }
-            items.put(i, v);
+    public int getItemRow(final int i, final boolean init) {
+        int row = items.getRow(i);
+        if (init && row == -1) {
+            row = items.addRow(i);
+            initRow(items, row, randI);
             this.maxIndex = Math.max(maxIndex, i);
             this.minIndex = Math.min(minIndex, i);
         }
-        return v;
+        return row;
     }
 
-    @Nonnull
-    public Rating userBias(final int u) {
-        Rating b = userBias.get(u);
-        if (b == null) {
-            b = ratingInitializer.newRating(0.f); // dummy
-            userBias.put(u, b);
+    private void initRow(@Nonnull final FactorMatrix matrix, final int row,
+            @Nonnull final Random[] rand) {
+        switch (initScheme) {
+            case random:
+                uniformFill(matrix, row, rand[0], initScheme.maxInitValue);
+                break;
+            case gaussian:
+                gaussianFill(matrix, row, rand, initScheme.initStdDev);
+                break;
+            default:
+                throw new IllegalStateException(
+                    "Unsupported rank initialization scheme: " + initScheme);
         }
-        return b;
+    }
+
+    /**
+     * @return row of the user bias in {@link #getUserBiases()}
+     */
+    public int userBiasRow(final int u) {
+        int row = userBias.getRow(u);
+        if (row == -1) {
+            row = userBias.addRow(u);
+        }
+        return row;
     }
 
     public float getUserBias(final int u) {
-        final Rating b = userBias.get(u);
-        if (b == null) {
+        final int row = userBias.getRow(u);
+        if (row == -1) {
             return 0.f;
         }
-        return b.getWeight();
+        return userBias.get(row, 0);
     }
 
     public void setUserBias(final int u, final float value) {
-        Rating b = userBias.get(u);
-        if (b == null) {
-            b = ratingInitializer.newRating(value);
-            userBias.put(u, b);
-        }
-        b.setWeight(value);
+        userBias.set(userBiasRow(u), 0, value);
     }
 
-    @Nonnull
-    public Rating itemBias(final int i) {
-        Rating b = itemBias.get(i);
-        if (b == null) {
-            b = ratingInitializer.newRating(0.f); // dummy
-            itemBias.put(i, b);
+    /**
+     * @return row of the item bias in {@link #getItemBiases()}
+     */
+    public int itemBiasRow(final int i) {
+        int row = itemBias.getRow(i);
+        if (row == -1) {
+            row = itemBias.addRow(i);
         }
-        return b;
-    }
-
-    @Nullable
-    public Rating getItemBiasObject(final int i) {
-        return itemBias.get(i);
+        return row;
     }
 
     public float getItemBias(final int i) {
-        final Rating b = itemBias.get(i);
-        if (b == null) {
+        final int row = itemBias.getRow(i);
+        if (row == -1) {
             return 0.f;
         }
-        return b.getWeight();
+        return itemBias.get(row, 0);
     }
 
     public void setItemBias(final int i, final float value) {
-        Rating b = itemBias.get(i);
-        if (b == null) {
-            b = ratingInitializer.newRating(value);
-            itemBias.put(i, b);
-        }
-        b.setWeight(value);
+        itemBias.set(itemBiasRow(i), 0, value);
     }
 
-    private static void uniformFill(final Rating[] a, final Random rand, final float maxInitValue,
-            final RatingInitializer init) {
-        for (int i = 0, len = a.length; i < len; i++) {
+    private static void uniformFill(final FactorMatrix matrix, final int row, final Random rand,
+            final float maxInitValue) {
+        for (int k = 0, len = matrix.dims(); k < len; k++) {
             float v = rand.nextFloat() * maxInitValue / len;
-            a[i] = init.newRating(v);
+            matrix.set(row, k, v);
         }
     }
 
-    private static void gaussianFill(final Rating[] a, final Random[] rand, final double stddev,
-            final RatingInitializer init) {
-        for (int i = 0, len = a.length; i < len; i++) {
-            float v = (float) MathUtils.gaussian(0.d, stddev, rand[i]);
-            a[i] = init.newRating(v);
+    private static void gaussianFill(final FactorMatrix matrix, final int row,
+            final Random[] rand, final double stddev) {
+        for (int k = 0, len = matrix.dims(); k < len; k++) {
+            float v = (float) MathUtils.gaussian(0.d, stddev, rand[k]);
+            matrix.set(row, k, v);
         }
     }
 
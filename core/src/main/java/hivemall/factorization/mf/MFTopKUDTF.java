@@ -0,0 +1,433 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.factorization.mf;
+
+import hivemall.UDTFWithOptions;
+import hivemall.utils.collections.BoundedPriorityQueue;
+import hivemall.utils.collections.lists.FloatArrayList;
+import hivemall.utils.collections.lists.IntArrayList;
+import hivemall.utils.hadoop.HadoopUtils;
+import hivemall.utils.hadoop.HiveUtils;
+import hivemall.utils.io.IOUtils;
+import hivemall.utils.lang.NumberUtils;
+import hivemall.utils.lang.Primitives;
+import hivemall.utils.lang.StringUtils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Options;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.MapredContext;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
+import org.apache.hadoop.io.IntWritable;
+
+/**
+ * Top-K item recommendation over the factors learnt by train_mf_sgd, train_mf_adagrad or
+ * train_bprmf.
+ *
+ * Item factors are loaded once per task from a file shipped by the distributed cache and packed
+ * into a single row-major float array. Users are buffered and scored together against blocks of
+ * items so that a block of item factors stays in the CPU cache while it is reused by every
+ * buffered user.
+ */
+@Description(name = "mf_topk",
+        value = "_FUNC_(const string item_factors_file, int user, array<float> Pu [, float Bu] [, const string options])"
+                + " - Returns top-K items of each user in <int user, int rank, int item, double score>",
+        extended = "ADD FILE /path/to/item_factors.tsv; -- lines of <int item, array<float> Qi [, float Bi]>\n"
+                + "SELECT mf_topk('item_factors.tsv', idx, Pu, Bu, '-k 10') FROM mf_model;")
+public final class MFTopKUDTF extends UDTFWithOptions {
+    private static final Log logger = LogFactory.getLog(MFTopKUDTF.class);
+
+    // Option variables
+    private int topK;
+    private float meanRating;
+    private int userBlockSize;
+    private int itemBlockSize;
+
+    private String itemFactorsFile;
+
+    // Input OIs
+    private PrimitiveObjectInspector userOI;
+    private ListObjectInspector puOI;
+    private PrimitiveObjectInspector puElemOI;
+    @Nullable
+    private PrimitiveObjectInspector buOI;
+
+    // Item factors, loaded lazily at the first process() call
+    private int numItems;
+    private int factors;
+    private int[] itemIds;
+    /** numItems * factors in row-major order */
+    private float[] itemFactors;
+    private float[] itemBiases;
+
+    // Buffered users
+    private int numUsers;
+    private int[] users;
+    private float[] userFactors;
+    /** mu + Bu of each user */
+    private double[] userBiases;
+    private BoundedPriorityQueue<ScoredItem>[] queues;
+
+    private Object[] forwardObj;
+
+    public MFTopKUDTF() {}
+
+    @Override
+    protected Options getOptions() {
+        Options opts = new Options();
+        opts.addOption("k", "topk", true, "The number of items to recommend to a user [default: 10]");
+        opts.addOption("mu", "mean_rating", true, "The mean rating [default: 0.0]");
+        opts.addOption("user_block", true,
+            "The number of users scored together against an item block [default: 64]");
+        opts.addOption("item_block", true,
+            "The number of items in a block that is scored at once [default: 1024]");
+        return opts;
+    }
+
+    @Override
+    protected CommandLine processOptions(@Nonnull ObjectInspector[] argOIs)
+            throws UDFArgumentException {
+        CommandLine cl = null;
+        int k = 10;
+        float mu = 0.f;
+        int userBlock = 64;
+        int itemBlock = 1024;
+
+        int last = argOIs.length - 1;
+        if (argOIs.length >= 4 && HiveUtils.isConstString(argOIs[last])) {
+            String rawArgs = HiveUtils.getConstString(argOIs[last]);
+            cl = parseOptions(rawArgs);
+            k = Primitives.parseInt(cl.getOptionValue("topk"), k);
+            mu = Primitives.parseFloat(cl.getOptionValue("mean_rating"), mu);
+            userBlock = Primitives.parseInt(cl.getOptionValue("user_block"), userBlock);
+            itemBlock = Primitives.parseInt(cl.getOptionValue("item_block"), itemBlock);
+        }
+        if (k < 1) {
+            throw new UDFArgumentException("-k must be greater than 0: " + k);
+        }
+        if (userBlock < 1) {
+            throw new UDFArgumentException("-user_block must be greater than 0: " + userBlock);
+        }
+        if (itemBlock < 1) {
+            throw new UDFArgumentException("-item_block must be greater than 0: " + itemBlock);
+        }
+
+        this.topK = k;
+        this.meanRating = mu;
+        this.userBlockSize = userBlock;
+        this.itemBlockSize = itemBlock;
+        return cl;
+    }
+
+    @Override
+    public StructObjectInspector initialize(ObjectInspector[] argOIs) throws UDFArgumentException {
+        final int numArgs = argOIs.length;
+        if (numArgs < 3 || numArgs > 5) {
+            showHelp(
+                "mf_topk takes 3~5 arguments: const string item_factors_file, int user, array<float> Pu [, float Bu] [, const string options]: "
+                        + numArgs);
+        }
+
+        this.itemFactorsFile = HiveUtils.getConstString(argOIs[0]);
+        this.userOI = HiveUtils.asIntCompatibleOI(argOIs[1]);
+        this.puOI = HiveUtils.asListOI(argOIs[2]);
+        this.puElemOI = HiveUtils.asFloatingPointOI(puOI.getListElementObjectInspector());
+        processOptions(argOIs);
+        final boolean hasOptions = (numArgs >= 4) && HiveUtils.isConstString(argOIs[numArgs - 1]);
+        final int numBiasArgs = numArgs - 3 - (hasOptions ? 1 : 0);
+        if (numBiasArgs == 1) {
+            this.buOI = HiveUtils.asNumberOI(argOIs[3]);
+        } else if (numBiasArgs != 0) {
+            throw new UDFArgumentException("Unexpected arguments for mf_topk: " + numArgs);
+        }
+
+        this.numItems = -1; // not loaded yet
+        this.numUsers = 0;
+
+        ArrayList<String> fieldNames = new ArrayList<String>();
+        ArrayList<ObjectInspector> fieldOIs = new ArrayList<ObjectInspector>();
+        fieldNames.add("user");
+        fieldOIs.add(PrimitiveObjectInspectorFactory.writableIntObjectInspector);
+        fieldNames.add("rank");
+        fieldOIs.add(PrimitiveObjectInspectorFactory.writableIntObjectInspector);
+        fieldNames.add("item");
+        fieldOIs.add(PrimitiveObjectInspectorFactory.writableIntObjectInspector);
+        fieldNames.add("score");
+        fieldOIs.add(PrimitiveObjectInspectorFactory.writableDoubleObjectInspector);
+        return ObjectInspectorFactory.getStandardStructObjectInspector(fieldNames, fieldOIs);
+    }
+
+    @Override
+    public void process(Object[] args) throws HiveException {
+        if (numItems == -1) {
+            loadItemFactors(itemFactorsFile, mapredContext);
+        }
+        if (numItems == 0) {
+            return;
+        }
+
+        Object arg1 = args[1];
+        if (arg1 == null) {
+            return;
+        }
+        final int user = PrimitiveObjectInspectorUtils.getInt(arg1, userOI);
+        final float[] pu = HiveUtils.asFloatArray(args[2], puOI, puElemOI);
+        if (pu == null || pu.length == 0) {
+            return; // the user only appears as an item index in the model table
+        }
+        if (pu.length != factors) {
+            throw new HiveException(
+                "|Pu| " + pu.length + " was not equal to |Qi| " + factors + " for user " + user);
+        }
+        float bu = 0.f;
+        if (buOI != null) {
+            Object arg3 = args[3];
+            if (arg3 != null) {
+                bu = PrimitiveObjectInspectorUtils.getFloat(arg3, buOI);
+            }
+        }
+
+        final int u = numUsers;
+        users[u] = user;
+        System.arraycopy(pu, 0, userFactors, u * factors, factors);
+        userBiases[u] = (double) meanRating + bu;
+        this.numUsers = u + 1;
+
+        if (numUsers == userBlockSize) {
+            recommend();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void loadItemFactors(@Nonnull final String file, @Nullable final MapredContext context)
+            throws HiveException {
+        final IntArrayList ids = new IntArrayList(8192);
+        final FloatArrayList factorList = new FloatArrayList(8192);
+        final FloatArrayList biasList = new FloatArrayList(8192);
+        final int[] dims = new int[] {-1};
+        try {
+            loadItemFactors(new File(file), context, ids, factorList, biasList, dims);
+        } catch (IOException e) {
+            throw new HiveException("Failed to load item factors from " + file, e);
+        }
+
+        this.numItems = ids.size();
+        this.factors = Math.max(dims[0], 0);
+        this.itemIds = ids.toArray(true);
+        this.itemFactors = factorList.toArray(true);
+        this.itemBiases = biasList.toArray(true);
+
+        this.users = new int[userBlockSize];
+        this.userFactors = new float[userBlockSize * factors];
+        this.userBiases = new double[userBlockSize];
+        this.queues = new BoundedPriorityQueue[userBlockSize];
+        for (int i = 0; i < userBlockSize; i++) {
+            queues[i] = new BoundedPriorityQueue<ScoredItem>(topK, ScoredItem.COMPARATOR);
+        }
+        this.forwardObj = new Object[] {new IntWritable(), new IntWritable(), new IntWritable(),
+                new DoubleWritable()};
+
+        logger.info("Loaded " + NumberUtils.formatNumber(numItems) + " items of " + factors
+                + " factors from " + file);
+    }
+
+    private static void loadItemFactors(@Nonnull final File file,
+            @Nullable final MapredContext context, @Nonnull final IntArrayList ids,
+            @Nonnull final FloatArrayList factors, @Nonnull final FloatArrayList biases,
+            @Nonnull final int[] dims) throws IOException, HiveException {
+        if (!file.exists()) {
+            throw new HiveException("Item factors file does not exist: " + file.getAbsolutePath());
+        }
+        if (file.getName().endsWith(".crc")) {
+            return;
+        }
+        if (file.isDirectory()) {
+            for (File f : file.listFiles()) {
+                loadItemFactors(f, context, ids, factors, biases, dims);
+            }
+            return;
+        }
+
+        BufferedReader reader = null;
+        try {
+            reader = (context == null) ? IOUtils.bufferedReader(new FileInputStream(file))
+                    : HadoopUtils.getBufferedReader(file, context);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                final boolean hiveFormat = line.indexOf('\u0001') != -1;
+                final String[] fields =
+                        StringUtils.split(line, hiveFormat ? '\u0001' : '\t', true);
+                if (fields.length < 2) {
+                    throw new HiveException("Invalid line in " + file.getName() + ": " + line);
+                }
+                final String qiStr = fields[1];
+                if (qiStr.isEmpty() || "\\N".equals(qiStr)) {
+                    continue; // the item only appears as a user index in the model table
+                }
+                final String[] qi = StringUtils.split(qiStr, hiveFormat ? '\u0002' : ',');
+                if (dims[0] == -1) {
+                    dims[0] = qi.length;
+                } else if (qi.length != dims[0]) {
+                    throw new HiveException("|Qi| " + qi.length + " was not equal to "
+                            + dims[0] + " in " + file.getName() + ": " + line);
+                }
+                ids.add(Integer.parseInt(fields[0]));
+                for (String q : qi) {
+                    factors.add(Float.parseFloat(q));
+                }
+                float bi = 0.f;
+                if (fields.length >= 3 && !fields[2].isEmpty() && !"\\N".equals(fields[2])) {
+                    bi = Float.parseFloat(fields[2]);
+                }
+                biases.add(bi);
+            }
+        } finally {
+            IOUtils.closeQuietly(reader);
+        }
+    }
+
+    /**
+     * Scores the buffered users against every item, block by block, and forwards their top-K
+     * items.
+     */
+    private void recommend() throws HiveException {
+        final int numUsers = this.numUsers;
+        if (numUsers == 0) {
+            return;
+        }
+        final int numItems = this.numItems;
+        final int factors = this.factors;
+        final float[] userFactors = this.userFactors;
+        final float[] itemFactors = this.itemFactors;
+        final float[] itemBiases = this.itemBiases;
+        final BoundedPriorityQueue<ScoredItem>[] queues = this.queues;
+        final int topK = this.topK;
+
+        for (int from = 0; from < numItems; from += itemBlockSize) {
+            final int to = Math.min(from + itemBlockSize, numItems);
+            for (int u = 0; u < numUsers; u++) {
+                final BoundedPriorityQueue<ScoredItem> queue = queues[u];
+                final int uOffset = u * factors;
+                final double bu = userBiases[u];
+                for (int i = from; i < to; i++) {
+                    final int iOffset = i * factors;
+                    double score = bu + itemBiases[i];
+                    for (int f = 0; f < factors; f++) {
+                        score += userFactors[uOffset + f] * itemFactors[iOffset + f];
+                    }
+                    if (queue.size() >= topK) {
+                        ScoredItem min = queue.peek();
+                        if (score < min.score || (score == min.score && i > min.index)) {
+                            continue; // avoid allocating a candidate that is dropped right away
+                        }
+                    }
+                    queue.offer(new ScoredItem(i, score));
+                }
+            }
+        }
+
+        final IntWritable userWritable = (IntWritable) forwardObj[0];
+        final IntWritable rankWritable = (IntWritable) forwardObj[1];
+        final IntWritable itemWritable = (IntWritable) forwardObj[2];
+        final DoubleWritable scoreWritable = (DoubleWritable) forwardObj[3];
+        final ScoredItem[] ranked = new ScoredItem[topK];
+        for (int u = 0; u < numUsers; u++) {
+            final BoundedPriorityQueue<ScoredItem> queue = queues[u];
+            final int size = queue.size();
+            for (int r = size - 1; r >= 0; r--) {
+                ranked[r] = queue.poll();
+            }
+            userWritable.set(users[u]);
+            for (int r = 0; r < size; r++) {
+                ScoredItem item = ranked[r];
+                rankWritable.set(r + 1);
+                itemWritable.set(itemIds[item.index]);
+                scoreWritable.set(item.score);
+                forward(forwardObj);
+                ranked[r] = null;
+            }
+        }
+        this.numUsers = 0;
+    }
+
+    @Override
+    public void close() throws HiveException {
+        if (numItems > 0) {
+            recommend();
+        }
+        this.itemIds = null;
+        this.itemFactors = null;
+        this.itemBiases = null;
+        this.users = null;
+        this.userFactors = null;
+        this.userBiases = null;
+        this.queues = null;
+    }
+
+    private static final class ScoredItem {
+
+        /** The smaller score (and, on a tie, the larger index) comes first */
+        static final Comparator<ScoredItem> COMPARATOR = new Comparator<ScoredItem>() {
+            @Override
+            public int compare(ScoredItem o1, ScoredItem o2) {
+                int cmp = Double.compare(o1.score, o2.score);
+                if (cmp != 0) {
+                    return cmp;
+                }
+                return (o1.index > o2.index) ? -1 : (o1.index == o2.index ? 0 : 1);
+            }
+        };
+
+        @Nonnegative
+        final int index;
+        final double score;
+
+        ScoredItem(@Nonnegative int index, double score) {
+            this.index = index;
+            this.score = score;
+        }
+
+    }
+
+}
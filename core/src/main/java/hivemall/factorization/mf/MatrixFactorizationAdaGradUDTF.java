@@ -55,6 +55,11 @@ public final class MatrixFactorizationAdaGradUDTF extends OnlineMatrixFactorizat
         return new RatingWithSquaredGrad(v);
     }
 
+    @Override
+    protected boolean useSumOfSquaredGradients() {
+        return true;
+    }
+
     @Override
     protected CommandLine processOptions(ObjectInspector[] argOIs) throws UDFArgumentException {
         CommandLine cl = super.processOptions(argOIs);
@@ -71,16 +76,18 @@ public final class MatrixFactorizationAdaGradUDTF extends OnlineMatrixFactorizat
     }
 
     @Override
-    protected void updateItemRating(Rating rating, float Pu, float Qi, double err, float eta) {
+    protected void updateItemRating(FactorMatrix items, int row, int k, float Pu, float Qi,
+            double err, float eta) {
         double gradient = err * Pu - lambda * Qi;
-        updateRating(rating, Qi, gradient);
+        updateRating(items, row, k, Qi, gradient);
         cvState.incrLoss(lambda * Qi * Qi);
     }
 
     @Override
-    protected void updateUserRating(Rating rating, float Pu, float Qi, double err, float eta) {
+    protected void updateUserRating(FactorMatrix users, int row, int k, float Pu, float Qi,
+            double err, float eta) {
         double gradient = err * Qi - lambda * Pu;
-        updateRating(rating, Pu, gradient);
+        updateRating(users, row, k, Pu, gradient);
         cvState.incrLoss(lambda * Pu * Pu);
     }
 
@@ -94,16 +101,18 @@ public final class MatrixFactorizationAdaGradUDTF extends OnlineMatrixFactorizat
 
     @Override
     protected void updateBias(int user, int item, double err, float eta) {
-        Rating ratingBu = model.userBias(user);
-        float Bu = ratingBu.getWeight();
+        FactorMatrix userBias = model.getUserBiases();
+        int rowBu = model.userBiasRow(user);
+        float Bu = userBias.get(rowBu, 0);
         double Gu = err - lambda * Bu;
-        updateRating(ratingBu, Bu, Gu);
+        updateRating(userBias, rowBu, 0, Bu, Gu);
         cvState.incrLoss(lambda * Bu * Bu);
 
-        Rating ratingBi = model.itemBias(item);
-        float Bi = ratingBi.getWeight();
+        FactorMatrix itemBias = model.getItemBiases();
+        int rowBi = model.itemBiasRow(item);
+        float Bi = itemBias.get(rowBi, 0);
         double Gi = err - lambda * Bi;
-        updateRating(ratingBi, Bi, Gi);
+        updateRating(itemBias, rowBi, 0, Bi, Gi);
         cvState.incrLoss(lambda * Bi * Bi);
     }
 
@@ -116,6 +125,16 @@ public final class MatrixFactorizationAdaGradUDTF extends OnlineMatrixFactorizat
         rating.setSumOfSquaredGradients(scaled_sum_gg);
     }
 
+    private void updateRating(final FactorMatrix matrix, final int row, final int k,
+            final float oldWeight, final double gradient) {
+        double gg = gradient * (gradient / scaling);
+        double scaled_sum_gg = matrix.getSumOfSquaredGradients(row, k) + gg;
+        float delta = (float) (eta(scaled_sum_gg) * gradient);
+        float newWeight = oldWeight + delta;
+        matrix.set(row, k, newWeight);
+        matrix.setSumOfSquaredGradients(row, k, scaled_sum_gg);
+    }
+
     private float eta(final double scaledSumOfSquaredGradients) {
         double sumOfSquaredGradients = scaledSumOfSquaredGradients * scaling;
         return eta / (float) Math.sqrt(eps + sumOfSquaredGradients); // always less than eta0
@@ -193,7 +193,8 @@ public abstract class OnlineMatrixFactorizationUDTF extends UDTFWithOptions
 
         processOptions(argOIs);
 
-        this.model = new FactorizedModel(this, factor, meanRating, rankInit);
+        this.model = new FactorizedModel(this, factor, meanRating, rankInit,
+            useSumOfSquaredGradients());
         this.count = 0L;
         this.lastWritePos = 0L;
         this.userProbe = new float[factor];
@@ -246,6 +247,13 @@ public abstract class OnlineMatrixFactorizationUDTF extends UDTFWithOptions
         return new Rating(v);
     }
 
+    /**
+     * @return whether the model keeps the sum of squared gradients of each factor and bias
+     */
+    protected boolean useSumOfSquaredGradients() {
+        return false;
+    }
+
     @Override
     public final void process(Object[] args) throws HiveException {
         assert (args.length >= 3) : args.length;
@@ -266,39 +274,37 @@ public abstract class OnlineMatrixFactorizationUDTF extends UDTFWithOptions
     }
 
     @Nonnull
-    protected final float[] copyToUserProbe(@Nonnull final Rating[] rating) {
-        for (int k = 0, size = factor; k < size; k++) {
-            userProbe[k] = rating[k].getWeight();
-        }
+    protected final float[] copyToUserProbe(final int userRow) {
+        model.getUsers().copyTo(userRow, userProbe);
         return userProbe;
     }
 
     @Nonnull
-    protected final float[] copyToItemProbe(@Nonnull final Rating[] rating) {
-        for (int k = 0, size = factor; k < size; k++) {
-            itemProbe[k] = rating[k].getWeight();
-        }
+    protected final float[] copyToItemProbe(final int itemRow) {
+        model.getItems().copyTo(itemRow, itemProbe);
         return itemProbe;
     }
 
     protected void train(final int user, final int item, final double rating) throws HiveException {
-        final Rating[] users = model.getUserVector(user, true);
-        assert (users != null);
-        final Rating[] items = model.getItemVector(item, true);
-        assert (items != null);
-        final float[] userProbe = copyToUserProbe(users);
-        final float[] itemProbe = copyToItemProbe(items);
+        final int userRow = model.getUserRow(user, true);
+        assert (userRow != -1);
+        final int itemRow = model.getItemRow(item, true);
+        assert (itemRow != -1);
+        final float[] userProbe = copyToUserProbe(userRow);
+        final float[] itemProbe = copyToItemProbe(itemRow);
 
         final double err = rating - predict(user, item, userProbe, itemProbe);
         cvState.incrError(Math.abs(err));
         cvState.incrLoss(err * err);
 
+        final FactorMatrix users = model.getUsers();
+        final FactorMatrix items = model.getItems();
         final float eta = eta();
         for (int k = 0, size = factor; k < size; k++) {
             float Pu = userProbe[k];
             float Qi = itemProbe[k];
-            updateItemRating(items[k], Pu, Qi, err, eta);
-            updateUserRating(users[k], Pu, Qi, err, eta);
+            updateItemRating(items, itemRow, k, Pu, Qi, err, eta);
+            updateUserRating(users, userRow, k, Pu, Qi, err, eta);
         }
         if (useBiasClause) {
             updateBias(user, item, err, eta);
@@ -307,7 +313,7 @@ public abstract class OnlineMatrixFactorizationUDTF extends UDTFWithOptions
             }
         }
 
-        onUpdate(user, item, users, items, err);
+        onUpdate(user, item, userRow, itemRow, err);
     }
 
     protected void beforeTrain(final long rowNum, final int user, final int item,
@@ -326,8 +332,8 @@ public abstract class OnlineMatrixFactorizationUDTF extends UDTFWithOptions
         }
     }
 
-    protected void onUpdate(final int user, final int item, final Rating[] users,
-            final Rating[] items, final double err) throws HiveException {}
+    protected void onUpdate(final int user, final int item, final int userRow,
+            final int itemRow, final double err) throws HiveException {}
 
     protected double predict(final int user, final int item, final float[] userProbe,
             final float[] itemProbe) {
@@ -339,17 +345,19 @@ public abstract class OnlineMatrixFactorizationUDTF extends UDTFWithOptions
     }
 
     protected double predict(final int user, final int item) throws HiveException {
-        final Rating[] users = model.getUserVector(user);
-        if (users == null) {
+        final int userRow = model.getUserRow(user);
+        if (userRow == -1) {
             throw new HiveException("User rating is not found: " + user);
         }
-        final Rating[] items = model.getItemVector(item);
-        if (items == null) {
+        final int itemRow = model.getItemRow(item);
+        if (itemRow == -1) {
             throw new HiveException("Item rating is not found: " + item);
         }
+        final FactorMatrix users = model.getUsers();
+        final FactorMatrix items = model.getItems();
         double ret = bias(user, item);
         for (int k = 0, size = factor; k < size; k++) {
-            ret += users[k].getWeight() * items[k].getWeight();
+            ret += users.get(userRow, k) * items.get(itemRow, k);
         }
         return ret;
     }
@@ -365,19 +373,19 @@ public abstract class OnlineMatrixFactorizationUDTF extends UDTFWithOptions
         return 1.f; // dummy
     }
 
-    protected void updateItemRating(final Rating rating, final float Pu, final float Qi,
-            final double err, final float eta) {
+    protected void updateItemRating(@Nonnull final FactorMatrix items, final int row, final int k,
+            final float Pu, final float Qi, final double err, final float eta) {
         double grad = err * Pu - lambda * Qi;
         float newQi = Qi + (float) (eta * grad);
-        rating.setWeight(newQi);
+        items.set(row, k, newQi);
         cvState.incrLoss(lambda * Qi * Qi);
     }
 
-    protected void updateUserRating(final Rating rating, final float Pu, final float Qi,
-            final double err, final float eta) {
+    protected void updateUserRating(@Nonnull final FactorMatrix users, final int row, final int k,
+            final float Pu, final float Qi, final double err, final float eta) {
         double grad = err * Qi - lambda * Pu;
         float newPu = Pu + (float) (eta * grad);
-        rating.setWeight(newPu);
+        users.set(row, k, newPu);
         cvState.incrLoss(lambda * Pu * Pu);
     }
 
@@ -431,22 +439,24 @@ public abstract class OnlineMatrixFactorizationUDTF extends UDTFWithOptions
                     forwardObj = new Object[] {idx, Pu, Qi};
                 }
             }
+            final FactorMatrix users = model.getUsers();
+            final FactorMatrix items = model.getItems();
             int numForwarded = 0;
             for (int i = model.getMinIndex(), maxIdx = model.getMaxIndex(); i <= maxIdx; i++) {
                 idx.set(i);
-                Rating[] userRatings = model.getUserVector(i);
-                if (userRatings == null) {
+                int userRow = users.getRow(i);
+                if (userRow == -1) {
                     forwardObj[1] = null;
                 } else {
                     forwardObj[1] = Pu;
-                    copyTo(userRatings, Pu);
+                    copyTo(users, userRow, Pu);
                 }
-                Rating[] itemRatings = model.getItemVector(i);
-                if (itemRatings == null) {
+                int itemRow = items.getRow(i);
+                if (itemRow == -1) {
                     forwardObj[2] = null;
                 } else {
                     forwardObj[2] = Qi;
-                    copyTo(itemRatings, Qi);
+                    copyTo(items, itemRow, Qi);
                 }
                 if (useBiasClause) {
                     Bu.set(model.getUserBias(i));
@@ -600,9 +610,10 @@ public abstract class OnlineMatrixFactorizationUDTF extends UDTFWithOptions
         }
     }
 
-    private static void copyTo(@Nonnull final Rating[] rating, @Nonnull final FloatWritable[] dst) {
-        for (int k = 0, size = rating.length; k < size; k++) {
-            float w = rating[k].getWeight();
+    private static void copyTo(@Nonnull final FactorMatrix matrix, final int row,
+            @Nonnull final FloatWritable[] dst) {
+        for (int k = 0, size = matrix.dims(); k < size; k++) {
+            float w = matrix.get(row, k);
             dst[k].set(w);
         }
     }
@@ -18,6 +18,7 @@
  */
 package hivemall.ftvec.binning;
 
+import hivemall.sketch.quantile.KLLSketch;
 import hivemall.utils.hadoop.HiveUtils;
 import hivemall.utils.hadoop.WritableUtils;
 import hivemall.utils.lang.Preconditions;
@@ -31,13 +32,13 @@ import org.apache.hadoop.hive.ql.udf.generic.AbstractGenericUDAFResolver;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFParameterInfo;
 import org.apache.hadoop.hive.serde2.io.DoubleWritable;
-import org.apache.hadoop.hive.serde2.lazybinary.LazyBinaryArray;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
 import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.StandardListObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.StructField;
 import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.BinaryObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.BooleanObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.DoubleObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
@@ -45,6 +46,7 @@ import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectIn
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.WritableBooleanObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.WritableDoubleObjectInspector;
 import org.apache.hadoop.io.BooleanWritable;
+import org.apache.hadoop.io.BytesWritable;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -91,14 +93,13 @@ public final class BuildBinsUDAF extends AbstractGenericUDAFResolver {
 
         // PARTIAL2 and FINAL
         private StructObjectInspector structOI;
-        private StructField autoShrinkField, histogramField, quantilesField;
+        private StructField autoShrinkField, sketchField, quantilesField;
         private BooleanObjectInspector autoShrinkOI;
-        private StandardListObjectInspector histogramOI;
-        private DoubleObjectInspector histogramElOI;
+        private BinaryObjectInspector sketchOI;
         private StandardListObjectInspector quantilesOI;
         private DoubleObjectInspector quantileOI;
 
-        private int nBGBins = 10000; // # of bins for creating histogram (background bins)
+        private int k; // accuracy parameter of the quantile sketch
         private int nBins; // # of bins for result
         private boolean autoShrink = false; // default: false
         private double[] quantiles; // for reset
@@ -106,14 +107,14 @@ public final class BuildBinsUDAF extends AbstractGenericUDAFResolver {
         @AggregationType(estimable = true)
         static final class BuildBinsAggregationBuffer extends AbstractAggregationBuffer {
             boolean autoShrink;
-            NumericHistogram histogram; // histogram used for quantile approximation
+            KLLSketch sketch; // sketch used for quantile approximation
             double[] quantiles; // the quantiles requested
 
             BuildBinsAggregationBuffer() {}
 
             @Override
             public int estimate() {
-                return (histogram != null ? histogram.lengthFor() : 0) // histogram
+                return (sketch != null ? sketch.estimateBytes() : 0) // sketch
                         + 20 + 8 * (quantiles != null ? quantiles.length : 0) // quantiles
                         + 4; // autoShrink
             }
@@ -140,19 +141,18 @@ public final class BuildBinsUDAF extends AbstractGenericUDAFResolver {
                 }
 
                 quantiles = getQuantiles();
+                // keep the rank error of the sketch well below the width of a bin
+                k = Math.max(1024, 8 * nBins);
             } else {
                 structOI = (StructObjectInspector) OIs[0];
                 autoShrinkField = structOI.getStructFieldRef("autoShrink");
-                histogramField = structOI.getStructFieldRef("histogram");
+                sketchField = structOI.getStructFieldRef("sketch");
                 quantilesField = structOI.getStructFieldRef("quantiles");
                 autoShrinkOI =
                         (WritableBooleanObjectInspector) autoShrinkField.getFieldObjectInspector();
-                histogramOI =
-                        (StandardListObjectInspector) histogramField.getFieldObjectInspector();
+                sketchOI = HiveUtils.asBinaryOI(sketchField.getFieldObjectInspector());
                 quantilesOI =
                         (StandardListObjectInspector) quantilesField.getFieldObjectInspector();
-                histogramElOI =
-                        (WritableDoubleObjectInspector) histogramOI.getListElementObjectInspector();
                 quantileOI =
                         (WritableDoubleObjectInspector) quantilesOI.getListElementObjectInspector();
             }
@@ -160,13 +160,12 @@ public final class BuildBinsUDAF extends AbstractGenericUDAFResolver {
             if (mode == Mode.PARTIAL1 || mode == Mode.PARTIAL2) {
                 final ArrayList<ObjectInspector> fieldOIs = new ArrayList<ObjectInspector>();
                 fieldOIs.add(PrimitiveObjectInspectorFactory.writableBooleanObjectInspector);
-                fieldOIs.add(ObjectInspectorFactory.getStandardListObjectInspector(
-                    PrimitiveObjectInspectorFactory.writableDoubleObjectInspector));
+                fieldOIs.add(PrimitiveObjectInspectorFactory.writableBinaryObjectInspector);
                 fieldOIs.add(ObjectInspectorFactory.getStandardListObjectInspector(
                     PrimitiveObjectInspectorFactory.writableDoubleObjectInspector));
 
                 return ObjectInspectorFactory.getStandardStructObjectInspector(
-                    Arrays.asList("autoShrink", "histogram", "quantiles"), fieldOIs);
+                    Arrays.asList("autoShrink", "sketch", "quantiles"), fieldOIs);
             } else {
                 return ObjectInspectorFactory.getStandardListObjectInspector(
                     PrimitiveObjectInspectorFactory.writableDoubleObjectInspector);
@@ -185,7 +184,6 @@ public final class BuildBinsUDAF extends AbstractGenericUDAFResolver {
         @Override
         public AbstractAggregationBuffer getNewAggregationBuffer() throws HiveException {
             final BuildBinsAggregationBuffer myAgg = new BuildBinsAggregationBuffer();
-            myAgg.histogram = new NumericHistogram();
             reset(myAgg);
             return myAgg;
         }
@@ -195,8 +193,8 @@ public final class BuildBinsUDAF extends AbstractGenericUDAFResolver {
                 throws HiveException {
             final BuildBinsAggregationBuffer myAgg = (BuildBinsAggregationBuffer) agg;
             myAgg.autoShrink = autoShrink;
-            myAgg.histogram.reset();
-            myAgg.histogram.allocate(nBGBins);
+            // k is unknown (zero) on the reduce side; it comes with the merged sketches
+            myAgg.sketch = (k == 0) ? null : new KLLSketch(k);
             myAgg.quantiles = quantiles;
         }
 
@@ -211,7 +209,7 @@ public final class BuildBinsUDAF extends AbstractGenericUDAFResolver {
             final BuildBinsAggregationBuffer myAgg = (BuildBinsAggregationBuffer) agg;
 
             // Get and process the current datum
-            myAgg.histogram.add(PrimitiveObjectInspectorUtils.getDouble(parameters[0], weightOI));
+            myAgg.sketch.update(PrimitiveObjectInspectorUtils.getDouble(parameters[0], weightOI));
         }
 
         @Override
@@ -226,9 +224,19 @@ public final class BuildBinsUDAF extends AbstractGenericUDAFResolver {
             myAgg.autoShrink =
                     autoShrinkOI.get(structOI.getStructFieldData(other, autoShrinkField));
 
-            final List<?> histogram = ((LazyBinaryArray) structOI.getStructFieldData(other,
-                histogramField)).getList();
-            myAgg.histogram.merge(histogram, histogramElOI);
+            final byte[] bytes =
+                    sketchOI.getPrimitiveJavaObject(structOI.getStructFieldData(other, sketchField));
+            final KLLSketch sketch;
+            try {
+                sketch = KLLSketch.deserialize(bytes);
+            } catch (IllegalArgumentException e) {
+                throw new HiveException("Failed to deserialize a sketch", e);
+            }
+            if (myAgg.sketch == null || myAgg.sketch.isEmpty()) {
+                myAgg.sketch = sketch;
+            } else {
+                myAgg.sketch.merge(sketch);
+            }
 
             final double[] quantiles = HiveUtils.asDoubleArray(
                 structOI.getStructFieldData(other, quantilesField), quantilesOI, quantileOI);
@@ -243,7 +251,8 @@ public final class BuildBinsUDAF extends AbstractGenericUDAFResolver {
             final BuildBinsAggregationBuffer myAgg = (BuildBinsAggregationBuffer) agg;
             final Object[] partialResult = new Object[3];
             partialResult[0] = new BooleanWritable(myAgg.autoShrink);
-            partialResult[1] = myAgg.histogram.serialize();
+            partialResult[1] = new BytesWritable(
+                (myAgg.sketch != null) ? myAgg.sketch.serialize() : new KLLSketch().serialize());
             partialResult[2] =
                     (myAgg.quantiles != null) ? WritableUtils.toWritableList(myAgg.quantiles)
                             : Collections.singletonList(new DoubleWritable(0));
@@ -255,7 +264,8 @@ public final class BuildBinsUDAF extends AbstractGenericUDAFResolver {
                 throws HiveException {
             final BuildBinsAggregationBuffer myAgg = (BuildBinsAggregationBuffer) agg;
 
-            if (myAgg.histogram.getUsedBins() < 1) { // SQL standard - return null for zero elements
+            if (myAgg.sketch == null || myAgg.sketch.isEmpty()) {
+                // SQL standard - return null for zero elements
                 return null;
             } else {
                 Preconditions.checkNotNull(myAgg.quantiles);
@@ -265,8 +275,9 @@ public final class BuildBinsUDAF extends AbstractGenericUDAFResolver {
                 double prev = Double.NEGATIVE_INFINITY;
 
                 result.add(new DoubleWritable(Double.NEGATIVE_INFINITY));
-                for (int i = 0; i < myAgg.quantiles.length; i++) {
-                    final double val = myAgg.histogram.quantile(myAgg.quantiles[i]);
+                final double[] values = myAgg.sketch.quantiles(myAgg.quantiles);
+                for (int i = 0; i < values.length; i++) {
+                    final double val = values[i];
 
                     // check duplication
                     if (prev == val) {
@@ -0,0 +1,905 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.knn.ann;
+
+import hivemall.utils.collections.lists.FloatArrayList;
+import hivemall.utils.collections.lists.IntArrayList;
+import hivemall.utils.collections.lists.LongArrayList;
+import hivemall.utils.lang.Preconditions;
+import hivemall.utils.lang.SizeOf;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * An approximate nearest neighbor index over sparse vectors based on Hierarchical Navigable Small
+ * World graphs.
+ *
+ * Yu. A. Malkov and D. A. Yashunin, "Efficient and robust approximate nearest neighbor search using
+ * Hierarchical Navigable Small World graphs", IEEE TPAMI, 2018.
+ *
+ * Vectors and links are kept in flat primitive arrays so that the index serializes into a compact
+ * binary form and a query visits O(log N) nodes on average. Feature indices are renumbered into a
+ * dense dictionary so that a vector is scattered into a dense array once and its distances to other
+ * vectors are computed without merging sorted index lists.
+ */
+@NotThreadSafe
+public final class HNSWIndex {
+
+    private static final int MAGIC = 0x484E5357; // "HNSW"
+    private static final int MAX_LEVEL = 16;
+
+    public enum Metric {
+        cosine, euclid;
+
+        @Nonnull
+        public static Metric resolve(@Nullable String name) {
+            if (name == null || "cosine".equalsIgnoreCase(name)) {
+                return cosine;
+            } else if ("euclid".equalsIgnoreCase(name) || "euclidean".equalsIgnoreCase(name)) {
+                return euclid;
+            }
+            throw new IllegalArgumentException("Unsupported distance: " + name);
+        }
+    }
+
+    /** identifies an index build so that a deserialized index can be reused across rows */
+    private final long uid;
+    @Nonnull
+    private final Metric metric;
+    /** # of links per node on the upper levels; twice as many on the bottom level */
+    private final int M;
+
+    /** original feature indices sorted in ascending order; position is the dense feature number */
+    @Nonnull
+    private final int[] features;
+    // vectors of the i-th node are indices/values[offsets[i], offsets[i + 1])
+    private final int size;
+    @Nonnull
+    private final long[] ids;
+    @Nonnull
+    private final int[] offsets;
+    @Nonnull
+    private final int[] indices;
+    @Nonnull
+    private final float[] values;
+    @Nonnull
+    private final float[] sqnorms;
+
+    // graph: each link list is a count followed by node numbers
+    @Nonnull
+    private final int[] levels;
+    @Nonnull
+    private final int[] links0;
+    @Nonnull
+    private final int[][] upperLinks;
+    private int entryPoint;
+    private int maxLevel;
+
+    // work space for searches
+    @Nonnull
+    private final float[] queryVector, probeVector;
+    @Nonnull
+    private final int[] visited;
+    private int visitTag;
+    @Nonnull
+    private final NodeHeap candidates;
+    @Nonnull
+    private final NodeHeap results;
+
+    private HNSWIndex(long uid, @Nonnull Metric metric, int M, @Nonnull int[] features,
+            @Nonnull long[] ids, @Nonnull int[] offsets, @Nonnull int[] indices,
+            @Nonnull float[] values, @Nonnull float[] sqnorms) {
+        this.uid = uid;
+        this.metric = metric;
+        this.M = M;
+        this.features = features;
+        this.size = ids.length;
+        this.ids = ids;
+        this.offsets = offsets;
+        this.indices = indices;
+        this.values = values;
+        this.sqnorms = sqnorms;
+        this.levels = new int[size];
+        this.links0 = new int[size * (2 * M + 1)];
+        this.upperLinks = new int[size][];
+        this.entryPoint = -1;
+        this.maxLevel = -1;
+        this.queryVector = new float[features.length];
+        this.probeVector = new float[features.length];
+        this.visited = new int[size];
+        this.visitTag = 0;
+        this.candidates = new NodeHeap(64);
+        this.results = new NodeHeap(64);
+    }
+
+    @Nonnull
+    public Metric getMetric() {
+        return metric;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getUid() {
+        return uid;
+    }
+
+    /**
+     * Finds the k nearest neighbors of the given vector.
+     *
+     * @param idx feature indices sorted in ascending order without duplicates
+     * @param val feature values
+     * @param len # of features
+     * @param ef size of the dynamic candidate list; larger is more accurate
+     * @param outIds ids of the neighbors, the nearest first
+     * @param outDistances distances to the neighbors, the nearest first
+     * @return # of neighbors found
+     */
+    public int search(@Nonnull final int[] idx, @Nonnull final float[] val, final int len,
+            final int k, final int ef, @Nonnull final long[] outIds,
+            @Nonnull final double[] outDistances) {
+        if (entryPoint == -1 || k <= 0) {
+            return 0;
+        }
+        double sqnorm = 0.d;
+        for (int i = 0; i < len; i++) {
+            sqnorm += val[i] * val[i];
+            // features unknown to the index do not contribute to dot products
+            final int f = Arrays.binarySearch(features, idx[i]);
+            if (f >= 0) {
+                queryVector[f] = val[i];
+            }
+        }
+        final double qnorm = Math.sqrt(sqnorm);
+
+        int ep = entryPoint;
+        float epDist = distance(qnorm, ep);
+        for (int lc = maxLevel; lc > 0; lc--) {
+            ep = greedySearch(qnorm, ep, epDist, lc);
+            epDist = distance(qnorm, ep);
+        }
+
+        newVisit();
+        candidates.clear();
+        results.clear();
+        visit(ep);
+        candidates.push(epDist, ep);
+        results.push(-epDist, ep);
+        searchLayer(qnorm, Math.max(ef, k), 0);
+
+        for (int i = 0; i < len; i++) {
+            final int f = Arrays.binarySearch(features, idx[i]);
+            if (f >= 0) {
+                queryVector[f] = 0.f;
+            }
+        }
+
+        while (results.size() > k) {
+            results.pop();
+        }
+        final int found = results.size();
+        for (int i = found - 1; i >= 0; i--) {
+            int node = results.peekNode();
+            float d = -results.peekKey();
+            results.pop();
+            outIds[i] = ids[node];
+            outDistances[i] = (metric == Metric.euclid) ? Math.sqrt(d) : d;
+        }
+        return found;
+    }
+
+    /**
+     * @return the distance between the vector in {@link #queryVector} and the node
+     */
+    private float distance(final double qnorm, final int node) {
+        final double dot = dot(queryVector, node);
+        return distance(qnorm, dot, node);
+    }
+
+    private float distance(final double qnorm, final double dot, final int node) {
+        if (metric == Metric.cosine) {
+            if (qnorm == 0.d || sqnorms[node] == 0.f) {
+                return 1.f;
+            }
+            return (float) (1.d - dot / qnorm);
+        } else {
+            return (float) Math.max(0.d, qnorm * qnorm + sqnorms[node] - 2.d * dot);
+        }
+    }
+
+    private double dot(@Nonnull final float[] scattered, final int node) {
+        double dot = 0.d;
+        for (int j = offsets[node], end = offsets[node + 1]; j < end; j++) {
+            dot += values[j] * scattered[indices[j]];
+        }
+        return dot;
+    }
+
+    private void scatter(@Nonnull final float[] dst, final int node) {
+        for (int j = offsets[node], end = offsets[node + 1]; j < end; j++) {
+            dst[indices[j]] = values[j];
+        }
+    }
+
+    private void unscatter(@Nonnull final float[] dst, final int node) {
+        for (int j = offsets[node], end = offsets[node + 1]; j < end; j++) {
+            dst[indices[j]] = 0.f;
+        }
+    }
+
+    private double norm(final int node) {
+        return (metric == Metric.cosine) ? 1.d : Math.sqrt(sqnorms[node]);
+    }
+
+    private int greedySearch(final double qnorm, int ep, float epDist, final int level) {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            final int[] links = links(ep, level);
+            final int base = linkBase(ep, level);
+            final int count = links[base];
+            for (int i = 1; i <= count; i++) {
+                final int e = links[base + i];
+                final float d = distance(qnorm, e);
+                if (d < epDist) {
+                    epDist = d;
+                    ep = e;
+                    changed = true;
+                }
+            }
+        }
+        return ep;
+    }
+
+    /**
+     * Expands the candidates to the ef nearest nodes on the given level. The entry points are
+     * expected to be pushed in both the candidates and the results (with negated distances) and
+     * marked visited.
+     */
+    private void searchLayer(final double qnorm, final int ef, final int level) {
+        while (candidates.size() > 0) {
+            final float cDist = candidates.peekKey();
+            final int c = candidates.peekNode();
+            if (results.size() >= ef && cDist > -results.peekKey()) {
+                break;
+            }
+            candidates.pop();
+
+            final int[] links = links(c, level);
+            final int base = linkBase(c, level);
+            final int count = links[base];
+            for (int i = 1; i <= count; i++) {
+                final int e = links[base + i];
+                if (!visit(e)) {
+                    continue;
+                }
+                final float d = distance(qnorm, e);
+                if (results.size() < ef || d < -results.peekKey()) {
+                    candidates.push(d, e);
+                    results.push(-d, e);
+                    if (results.size() > ef) {
+                        results.pop();
+                    }
+                }
+            }
+        }
+    }
+
+    private void insert(final int node, final int efConstruction, @Nonnull final Random rnd) {
+        final int level = randomLevel(rnd);
+        levels[node] = level;
+        if (level > 0) {
+            upperLinks[node] = new int[level * (M + 1)];
+        }
+        if (entryPoint == -1) {
+            this.entryPoint = node;
+            this.maxLevel = level;
+            return;
+        }
+
+        scatter(queryVector, node);
+        final double qnorm = norm(node);
+        int ep = entryPoint;
+        float epDist = distance(qnorm, ep);
+        for (int lc = maxLevel; lc > level; lc--) {
+            ep = greedySearch(qnorm, ep, epDist, lc);
+            epDist = distance(qnorm, ep);
+        }
+
+        int[] epNodes = new int[] {ep};
+        float[] epDists = new float[] {epDist};
+        int numEps = 1;
+        for (int lc = Math.min(level, maxLevel); lc >= 0; lc--) {
+            newVisit();
+            candidates.clear();
+            results.clear();
+            for (int i = 0; i < numEps; i++) {
+                visit(epNodes[i]);
+                candidates.push(epDists[i], epNodes[i]);
+                results.push(-epDists[i], epNodes[i]);
+            }
+            searchLayer(qnorm, efConstruction, lc);
+
+            // the nearest first
+            numEps = results.size();
+            epNodes = new int[numEps];
+            epDists = new float[numEps];
+            for (int i = numEps - 1; i >= 0; i--) {
+                epNodes[i] = results.peekNode();
+                epDists[i] = -results.peekKey();
+                results.pop();
+            }
+
+            final int[] links = links(node, lc);
+            final int base = linkBase(node, lc);
+            final int selected = selectNeighbors(epNodes, epDists, numEps, M, links, base + 1);
+            links[base] = selected;
+            for (int i = 1; i <= selected; i++) {
+                connect(links[base + i], node, lc);
+            }
+        }
+
+        unscatter(queryVector, node);
+
+        if (level > maxLevel) {
+            this.entryPoint = node;
+            this.maxLevel = level;
+        }
+    }
+
+    private int randomLevel(@Nonnull final Random rnd) {
+        final double mult = 1.d / Math.log(M);
+        final int level = (int) (-Math.log(1.d - rnd.nextDouble()) * mult);
+        return Math.min(level, MAX_LEVEL);
+    }
+
+    /**
+     * Adds a link from the given node to the new neighbor, shrinking the links by the selection
+     * heuristic when it overflows.
+     */
+    private void connect(final int node, final int neighbor, final int level) {
+        final int[] links = links(node, level);
+        final int base = linkBase(node, level);
+        final int count = links[base];
+        final int maxLinks = (level == 0) ? 2 * M : M;
+        if (count < maxLinks) {
+            links[base + count + 1] = neighbor;
+            links[base] = count + 1;
+            return;
+        }
+
+        final int[] nodes = new int[count + 1];
+        final float[] dists = new float[count + 1];
+        scatter(probeVector, node);
+        final double norm = norm(node);
+        for (int i = 0; i < count; i++) {
+            nodes[i] = links[base + i + 1];
+            dists[i] = distance(norm, dot(probeVector, nodes[i]), nodes[i]);
+        }
+        nodes[count] = neighbor;
+        dists[count] = distance(norm, dot(probeVector, neighbor), neighbor);
+        unscatter(probeVector, node);
+        sort(nodes, dists, count + 1);
+        links[base] = selectNeighbors(nodes, dists, count + 1, maxLinks, links, base + 1);
+    }
+
+    /**
+     * Selects up to m neighbors among the candidates sorted by distance, preferring diverse
+     * directions, and pads the rest with the nearest pruned candidates.
+     */
+    private int selectNeighbors(@Nonnull final int[] nodes, @Nonnull final float[] dists,
+            final int numCandidates, final int m, @Nonnull final int[] out, final int outPos) {
+        final boolean[] pruned = new boolean[numCandidates];
+        int selected = 0;
+        for (int i = 0; i < numCandidates && selected < m; i++) {
+            final int c = nodes[i];
+            boolean good = true;
+            if (selected > 0) {
+                scatter(probeVector, c);
+                final double norm = norm(c);
+                for (int j = 0; j < selected; j++) {
+                    final int r = out[outPos + j];
+                    if (distance(norm, dot(probeVector, r), r) < dists[i]) {
+                        good = false;
+                        break;
+                    }
+                }
+                unscatter(probeVector, c);
+            }
+            if (good) {
+                out[outPos + selected++] = c;
+            } else {
+                pruned[i] = true;
+            }
+        }
+        for (int i = 0; i < numCandidates && selected < m; i++) {
+            if (pruned[i]) {
+                out[outPos + selected++] = nodes[i];
+            }
+        }
+        return selected;
+    }
+
+    private static void sort(@Nonnull final int[] nodes, @Nonnull final float[] dists,
+            final int n) {
+        for (int i = 1; i < n; i++) {
+            final int node = nodes[i];
+            final float dist = dists[i];
+            int j = i - 1;
+            for (; j >= 0 && dists[j] > dist; j--) {
+                nodes[j + 1] = nodes[j];
+                dists[j + 1] = dists[j];
+            }
+            nodes[j + 1] = node;
+            dists[j + 1] = dist;
+        }
+    }
+
+    @Nonnull
+    private int[] links(final int node, final int level) {
+        return (level == 0) ? links0 : upperLinks[node];
+    }
+
+    private int linkBase(final int node, final int level) {
+        return (level == 0) ? node * (2 * M + 1) : (level - 1) * (M + 1);
+    }
+
+    private void newVisit() {
+        if (++visitTag == Integer.MAX_VALUE) {
+            Arrays.fill(visited, 0);
+            this.visitTag = 1;
+        }
+    }
+
+    /**
+     * @return false if the node was already visited
+     */
+    private boolean visit(final int node) {
+        if (visited[node] == visitTag) {
+            return false;
+        }
+        visited[node] = visitTag;
+        return true;
+    }
+
+    @Nonnull
+    public byte[] serialize() {
+        int bytes = SizeOf.INT * 8 + SizeOf.LONG + SizeOf.INT * features.length;
+        final int nnz = offsets[size];
+        bytes += SizeOf.LONG * size + SizeOf.INT * (size + 1) + (SizeOf.INT + SizeOf.FLOAT) * nnz
+                + SizeOf.FLOAT * size + SizeOf.INT * size;
+        for (int node = 0; node < size; node++) {
+            for (int lc = 0; lc <= levels[node]; lc++) {
+                bytes += SizeOf.INT * (links(node, lc)[linkBase(node, lc)] + 1);
+            }
+        }
+
+        final ByteBuffer buf = ByteBuffer.allocate(bytes);
+        buf.putInt(MAGIC);
+        buf.putLong(uid);
+        buf.putInt(metric.ordinal());
+        buf.putInt(M);
+        buf.putInt(size);
+        buf.putInt(nnz);
+        buf.putInt(entryPoint);
+        buf.putInt(maxLevel);
+        buf.putInt(features.length);
+        for (int f : features) {
+            buf.putInt(f);
+        }
+        for (int i = 0; i < size; i++) {
+            buf.putLong(ids[i]);
+        }
+        for (int i = 0; i <= size; i++) {
+            buf.putInt(offsets[i]);
+        }
+        for (int i = 0; i < nnz; i++) {
+            buf.putInt(indices[i]);
+        }
+        for (int i = 0; i < nnz; i++) {
+            buf.putFloat(values[i]);
+        }
+        for (int i = 0; i < size; i++) {
+            buf.putFloat(sqnorms[i]);
+        }
+        for (int node = 0; node < size; node++) {
+            buf.putInt(levels[node]);
+            for (int lc = 0; lc <= levels[node]; lc++) {
+                final int[] links = links(node, lc);
+                final int base = linkBase(node, lc);
+                final int count = links[base];
+                for (int i = 0; i <= count; i++) {
+                    buf.putInt(links[base + i]);
+                }
+            }
+        }
+        return buf.array();
+    }
+
+    /**
+     * Reads the uid of a serialized index without deserializing it.
+     */
+    public static long peekUid(@Nonnull final byte[] bytes, final int length) {
+        final ByteBuffer buf = ByteBuffer.wrap(bytes, 0, length);
+        if (length < SizeOf.INT + SizeOf.LONG || buf.getInt() != MAGIC) {
+            throw new IllegalArgumentException("Illegal serialized HNSWIndex");
+        }
+        return buf.getLong();
+    }
+
+    @Nonnull
+    public static HNSWIndex deserialize(@Nonnull final byte[] bytes, final int length) {
+        final ByteBuffer buf = ByteBuffer.wrap(bytes, 0, length);
+        try {
+            if (buf.getInt() != MAGIC) {
+                throw new IllegalArgumentException("Illegal serialized HNSWIndex");
+            }
+            final long uid = buf.getLong();
+            final Metric metric = Metric.values()[buf.getInt()];
+            final int M = buf.getInt();
+            final int size = buf.getInt();
+            final int nnz = buf.getInt();
+            final int entryPoint = buf.getInt();
+            final int maxLevel = buf.getInt();
+
+            final int[] features = new int[buf.getInt()];
+            for (int i = 0; i < features.length; i++) {
+                features[i] = buf.getInt();
+            }
+            final long[] ids = new long[size];
+            for (int i = 0; i < size; i++) {
+                ids[i] = buf.getLong();
+            }
+            final int[] offsets = new int[size + 1];
+            for (int i = 0; i <= size; i++) {
+                offsets[i] = buf.getInt();
+            }
+            final int[] indices = new int[nnz];
+            for (int i = 0; i < nnz; i++) {
+                indices[i] = buf.getInt();
+            }
+            final float[] values = new float[nnz];
+            for (int i = 0; i < nnz; i++) {
+                values[i] = buf.getFloat();
+            }
+            final float[] sqnorms = new float[size];
+            for (int i = 0; i < size; i++) {
+                sqnorms[i] = buf.getFloat();
+            }
+
+            final HNSWIndex index =
+                    new HNSWIndex(uid, metric, M, features, ids, offsets, indices, values, sqnorms);
+            for (int node = 0; node < size; node++) {
+                final int level = buf.getInt();
+                index.levels[node] = level;
+                if (level > 0) {
+                    index.upperLinks[node] = new int[level * (M + 1)];
+                }
+                for (int lc = 0; lc <= level; lc++) {
+                    final int[] links = index.links(node, lc);
+                    final int base = index.linkBase(node, lc);
+                    final int count = buf.getInt();
+                    links[base] = count;
+                    for (int i = 1; i <= count; i++) {
+                        links[base + i] = buf.getInt();
+                    }
+                }
+            }
+            index.entryPoint = entryPoint;
+            index.maxLevel = maxLevel;
+            return index;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Illegal serialized HNSWIndex of length " + length,
+                e);
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Illegal serialized HNSWIndex", e);
+        }
+    }
+
+    /**
+     * Sorts features by index and sums up the values of duplicated indices.
+     *
+     * @return # of features after merging duplicates
+     */
+    public static int normalize(@Nonnull final int[] idx, @Nonnull final float[] val,
+            final int len) {
+        if (len <= 1) {
+            return len;
+        }
+        // pack into longs so that a primitive sort orders them by index
+        final long[] packed = new long[len];
+        for (int i = 0; i < len; i++) {
+            packed[i] = ((long) idx[i] << 32) | (Float.floatToRawIntBits(val[i]) & 0xFFFFFFFFL);
+        }
+        Arrays.sort(packed);
+
+        int n = 0;
+        for (int i = 0; i < len; i++) {
+            final int f = (int) (packed[i] >> 32);
+            final float v = Float.intBitsToFloat((int) packed[i]);
+            if (n > 0 && idx[n - 1] == f) {
+                val[n - 1] += v;
+            } else {
+                idx[n] = f;
+                val[n] = v;
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * A binary min-heap of nodes keyed by float. Push negated keys to use it as a max-heap.
+     */
+    private static final class NodeHeap {
+
+        @Nonnull
+        private float[] keys;
+        @Nonnull
+        private int[] nodes;
+        private int size;
+
+        NodeHeap(int initCapacity) {
+            this.keys = new float[initCapacity];
+            this.nodes = new int[initCapacity];
+            this.size = 0;
+        }
+
+        int size() {
+            return size;
+        }
+
+        void clear() {
+            this.size = 0;
+        }
+
+        float peekKey() {
+            return keys[0];
+        }
+
+        int peekNode() {
+            return nodes[0];
+        }
+
+        void push(final float key, final int node) {
+            if (size == keys.length) {
+                this.keys = Arrays.copyOf(keys, size * 2);
+                this.nodes = Arrays.copyOf(nodes, size * 2);
+            }
+            int i = size++;
+            while (i > 0) {
+                final int parent = (i - 1) >>> 1;
+                if (keys[parent] <= key) {
+                    break;
+                }
+                keys[i] = keys[parent];
+                nodes[i] = nodes[parent];
+                i = parent;
+            }
+            keys[i] = key;
+            nodes[i] = node;
+        }
+
+        void pop() {
+            final int last = --size;
+            if (last == 0) {
+                return;
+            }
+            final float key = keys[last];
+            final int node = nodes[last];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= last) {
+                    break;
+                }
+                if (child + 1 < last && keys[child + 1] < keys[child]) {
+                    child++;
+                }
+                if (key <= keys[child]) {
+                    break;
+                }
+                keys[i] = keys[child];
+                nodes[i] = nodes[child];
+                i = child;
+            }
+            keys[i] = key;
+            nodes[i] = node;
+        }
+    }
+
+    /**
+     * Collects sparse vectors and builds an index over them. Collected vectors can be exchanged
+     * between partial aggregations in a compact binary form.
+     */
+    @NotThreadSafe
+    public static final class Builder {
+
+        @Nonnull
+        private final Metric metric;
+        private final int M;
+        private final int efConstruction;
+        private final long seed;
+
+        @Nonnull
+        private final LongArrayList ids;
+        @Nonnull
+        private final IntArrayList offsets;
+        @Nonnull
+        private final IntArrayList indices;
+        @Nonnull
+        private final FloatArrayList values;
+
+        public Builder(@Nonnull Metric metric, @Nonnegative int M, @Nonnegative int efConstruction,
+                long seed) {
+            Preconditions.checkArgument(M >= 2, "M must be greater than 1: " + M);
+            Preconditions.checkArgument(efConstruction >= 1,
+                "efConstruction must be positive: " + efConstruction);
+            this.metric = metric;
+            this.M = M;
+            this.efConstruction = efConstruction;
+            this.seed = seed;
+            this.ids = new LongArrayList();
+            this.offsets = new IntArrayList();
+            offsets.add(0);
+            this.indices = new IntArrayList();
+            this.values = new FloatArrayList();
+        }
+
+        @Nonnull
+        public Metric getMetric() {
+            return metric;
+        }
+
+        public int getM() {
+            return M;
+        }
+
+        public int getEfConstruction() {
+            return efConstruction;
+        }
+
+        public long getSeed() {
+            return seed;
+        }
+
+        public int size() {
+            return ids.size();
+        }
+
+        public int estimateBytes() {
+            return SizeOf.LONG * ids.size() + SizeOf.INT * offsets.size()
+                    + (SizeOf.INT + SizeOf.FLOAT) * indices.size();
+        }
+
+        /**
+         * @param idx feature indices sorted in ascending order without duplicates
+         */
+        public void add(final long id, @Nonnull final int[] idx, @Nonnull final float[] val,
+                final int len) {
+            ids.add(id);
+            for (int i = 0; i < len; i++) {
+                indices.add(idx[i]);
+                values.add(val[i]);
+            }
+            offsets.add(indices.size());
+        }
+
+        @Nonnull
+        public byte[] serializeVectors() {
+            final int size = ids.size();
+            final int nnz = indices.size();
+            final ByteBuffer buf = ByteBuffer.allocate(SizeOf.INT * 2 + SizeOf.LONG * size
+                    + SizeOf.INT * size + (SizeOf.INT + SizeOf.FLOAT) * nnz);
+            buf.putInt(size);
+            buf.putInt(nnz);
+            for (int i = 0; i < size; i++) {
+                buf.putLong(ids.fastGet(i));
+                final int begin = offsets.fastGet(i), end = offsets.fastGet(i + 1);
+                buf.putInt(end - begin);
+                for (int j = begin; j < end; j++) {
+                    buf.putInt(indices.fastGet(j));
+                    buf.putFloat(values.fastGet(j));
+                }
+            }
+            return buf.array();
+        }
+
+        public void addVectors(@Nonnull final byte[] bytes, final int length) {
+            final ByteBuffer buf = ByteBuffer.wrap(bytes, 0, length);
+            try {
+                final int size = buf.getInt();
+                buf.getInt(); // nnz
+                for (int i = 0; i < size; i++) {
+                    ids.add(buf.getLong());
+                    final int len = buf.getInt();
+                    for (int j = 0; j < len; j++) {
+                        indices.add(buf.getInt());
+                        values.add(buf.getFloat());
+                    }
+                    offsets.add(indices.size());
+                }
+            } catch (BufferUnderflowException e) {
+                throw new IllegalArgumentException("Illegal serialized vectors of length "
+                        + length, e);
+            }
+        }
+
+        @Nonnull
+        public HNSWIndex build() {
+            final int size = ids.size();
+            final int[] offsets = this.offsets.toArray();
+            final float[] values = this.values.toArray();
+            final float[] sqnorms = new float[size];
+            for (int i = 0; i < size; i++) {
+                double sqnorm = 0.d;
+                for (int j = offsets[i]; j < offsets[i + 1]; j++) {
+                    sqnorm += values[j] * values[j];
+                }
+                if (metric == Metric.cosine) {
+                    // unit vectors so that the cosine distance is 1 - dot
+                    if (sqnorm > 0.d) {
+                        final double norm = Math.sqrt(sqnorm);
+                        for (int j = offsets[i]; j < offsets[i + 1]; j++) {
+                            values[j] /= norm;
+                        }
+                        sqnorms[i] = 1.f;
+                    }
+                } else {
+                    sqnorms[i] = (float) sqnorm;
+                }
+            }
+
+            // renumber feature indices into a dense dictionary
+            final int[] indices = this.indices.toArray();
+            int[] features = indices.clone();
+            Arrays.sort(features);
+            int numFeatures = 0;
+            for (int i = 0; i < features.length; i++) {
+                if (i == 0 || features[i] != features[numFeatures - 1]) {
+                    features[numFeatures++] = features[i];
+                }
+            }
+            features = Arrays.copyOf(features, numFeatures);
+            for (int j = 0; j < indices.length; j++) {
+                indices[j] = Arrays.binarySearch(features, indices[j]);
+            }
+
+            final long uid = new Random().nextLong() ^ System.nanoTime();
+            final HNSWIndex index = new HNSWIndex(uid, metric, M, features, ids.toArray(),
+                offsets, indices, values, sqnorms);
+            final Random rnd = new Random(seed);
+            for (int node = 0; node < size; node++) {
+                index.insert(node, efConstruction, rnd);
+            }
+            return index;
+        }
+
+    }
+
+}
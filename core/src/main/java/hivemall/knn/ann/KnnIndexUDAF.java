@@ -0,0 +1,390 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.knn.ann;
+
+import hivemall.UDAFEvaluatorWithOptions;
+import hivemall.knn.ann.HNSWIndex.Metric;
+import hivemall.model.FeatureValue;
+import hivemall.utils.hadoop.FeatureParser;
+import hivemall.utils.hadoop.HiveUtils;
+import hivemall.utils.hashing.MurmurHash3;
+import hivemall.utils.lang.Primitives;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Options;
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.parse.SemanticException;
+import org.apache.hadoop.hive.ql.udf.generic.AbstractGenericUDAFResolver;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.AbstractAggregationBuffer;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.AggregationType;
+import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.BinaryObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.IntObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.LongObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.StringObjectInspector;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+
+/**
+ * Builds an approximate nearest neighbor index of a reference table to be queried by
+ * {@link KnnSearchUDTF}.
+ *
+ * Partial aggregates carry the collected vectors in a compact binary form and the graph is built
+ * once in the final aggregation, so the reference table is expected to fit in a task.
+ */
+@Description(name = "knn_index",
+        value = "_FUNC_(int|bigint id, array<string> features [, const string options])"
+                + " - Returns a serialized HNSW index of the given vectors for knn_search",
+        extended = "CREATE TABLE item_index AS\n"
+                + "  SELECT knn_index(itemid, features, '-distance cosine') as model FROM items;")
+public final class KnnIndexUDAF extends AbstractGenericUDAFResolver {
+
+    @Override
+    public GenericUDAFEvaluator getEvaluator(@Nonnull TypeInfo[] typeInfo)
+            throws SemanticException {
+        if (typeInfo.length != 2 && typeInfo.length != 3) {
+            throw new UDFArgumentTypeException(typeInfo.length - 1,
+                "_FUNC_ takes two or three arguments");
+        }
+        if (!HiveUtils.isIntegerTypeInfo(typeInfo[0])) {
+            throw new UDFArgumentTypeException(0,
+                "The first argument `id` is invalid form: " + typeInfo[0]);
+        }
+        if (!HiveUtils.isListTypeInfo(typeInfo[1])) {
+            throw new UDFArgumentTypeException(1,
+                "The second argument `features` is invalid form: " + typeInfo[1]);
+        }
+        if (typeInfo.length == 3 && !HiveUtils.isStringTypeInfo(typeInfo[2])) {
+            throw new UDFArgumentTypeException(2,
+                "The third argument type expected to be const string: " + typeInfo[2]);
+        }
+
+        return new Evaluator();
+    }
+
+    public static final class Evaluator extends UDAFEvaluatorWithOptions {
+
+        // options
+        private Metric metric;
+        private int M;
+        private int efConstruction;
+        private long seed;
+
+        // PARTIAL1 and COMPLETE
+        private PrimitiveObjectInspector idOI;
+        private ListObjectInspector featuresOI;
+
+        // PARTIAL2 and FINAL
+        private StructObjectInspector internalMergeOI;
+        private StructField distanceField, mField, efConstructionField, seedField, vectorsField;
+        private StringObjectInspector distanceOI;
+        private IntObjectInspector mOI, efConstructionOI;
+        private LongObjectInspector seedOI;
+        private BinaryObjectInspector vectorsOI;
+
+        // work space
+        @Nonnull
+        private final SparseVector probe = new SparseVector();
+
+        public Evaluator() {}
+
+        @Override
+        protected Options getOptions() {
+            Options opts = new Options();
+            opts.addOption("distance", true,
+                "Distance measure [cosine (default), euclid]. cosine returns 1 - cosine similarity");
+            opts.addOption("M", true,
+                "The number of links of each node. Larger is more accurate but slower [default: 16]");
+            opts.addOption("efc", "ef_construction", true,
+                "The number of candidates examined on insertion [default: 100]");
+            opts.addOption("seed", true, "Seed value for the random level assignment");
+            return opts;
+        }
+
+        @Override
+        protected CommandLine processOptions(@Nonnull ObjectInspector[] argOIs)
+                throws UDFArgumentException {
+            CommandLine cl = null;
+
+            Metric metric = Metric.cosine;
+            int M = 16;
+            int efConstruction = 100;
+            long seed = System.nanoTime();
+            if (argOIs.length == 3) {
+                cl = parseOptions(HiveUtils.getConstString(argOIs[2]));
+                try {
+                    metric = Metric.resolve(cl.getOptionValue("distance"));
+                } catch (IllegalArgumentException e) {
+                    throw new UDFArgumentException(e.getMessage());
+                }
+                M = Primitives.parseInt(cl.getOptionValue("M"), M);
+                if (M < 2) {
+                    throw new UDFArgumentException("M must be greater than 1: " + M);
+                }
+                efConstruction =
+                        Primitives.parseInt(cl.getOptionValue("ef_construction"), efConstruction);
+                if (efConstruction < 1) {
+                    throw new UDFArgumentException(
+                        "ef_construction must be positive: " + efConstruction);
+                }
+                seed = Primitives.parseLong(cl.getOptionValue("seed"), seed);
+            }
+
+            this.metric = metric;
+            this.M = M;
+            this.efConstruction = efConstruction;
+            this.seed = seed;
+
+            return cl;
+        }
+
+        @Override
+        public ObjectInspector init(@Nonnull Mode mode, @Nonnull ObjectInspector[] parameters)
+                throws HiveException {
+            super.init(mode, parameters);
+
+            // initialize input
+            if (mode == Mode.PARTIAL1 || mode == Mode.COMPLETE) {// from original data
+                processOptions(parameters);
+                this.idOI = HiveUtils.asIntegerOI(parameters[0]);
+                this.featuresOI = HiveUtils.asListOI(parameters[1]);
+            } else {// from partial aggregation
+                StructObjectInspector soi = (StructObjectInspector) parameters[0];
+                this.internalMergeOI = soi;
+                this.distanceField = soi.getStructFieldRef("distance");
+                this.mField = soi.getStructFieldRef("M");
+                this.efConstructionField = soi.getStructFieldRef("efConstruction");
+                this.seedField = soi.getStructFieldRef("seed");
+                this.vectorsField = soi.getStructFieldRef("vectors");
+                this.distanceOI = HiveUtils.asStringOI(distanceField.getFieldObjectInspector());
+                this.mOI = HiveUtils.asIntOI(mField.getFieldObjectInspector());
+                this.efConstructionOI =
+                        HiveUtils.asIntOI(efConstructionField.getFieldObjectInspector());
+                this.seedOI = HiveUtils.asLongOI(seedField.getFieldObjectInspector());
+                this.vectorsOI = HiveUtils.asBinaryOI(vectorsField.getFieldObjectInspector());
+            }
+
+            // initialize output
+            final ObjectInspector outputOI;
+            if (mode == Mode.PARTIAL1 || mode == Mode.PARTIAL2) {// terminatePartial
+                outputOI = internalMergeOI();
+            } else {// terminate
+                outputOI = PrimitiveObjectInspectorFactory.writableBinaryObjectInspector;
+            }
+            return outputOI;
+        }
+
+        @Nonnull
+        private static StructObjectInspector internalMergeOI() {
+            List<String> fieldNames =
+                    Arrays.asList("distance", "M", "efConstruction", "seed", "vectors");
+            List<ObjectInspector> fieldOIs = new ArrayList<ObjectInspector>();
+            fieldOIs.add(PrimitiveObjectInspectorFactory.writableStringObjectInspector);
+            fieldOIs.add(PrimitiveObjectInspectorFactory.writableIntObjectInspector);
+            fieldOIs.add(PrimitiveObjectInspectorFactory.writableIntObjectInspector);
+            fieldOIs.add(PrimitiveObjectInspectorFactory.writableLongObjectInspector);
+            fieldOIs.add(PrimitiveObjectInspectorFactory.writableBinaryObjectInspector);
+            return ObjectInspectorFactory.getStandardStructObjectInspector(fieldNames, fieldOIs);
+        }
+
+        @Override
+        public IndexBuffer getNewAggregationBuffer() throws HiveException {
+            IndexBuffer buf = new IndexBuffer();
+            reset(buf);
+            return buf;
+        }
+
+        @SuppressWarnings("deprecation")
+        @Override
+        public void reset(@Nonnull AggregationBuffer agg) throws HiveException {
+            IndexBuffer buf = (IndexBuffer) agg;
+            // options are unknown on the reduce side; they come with the partial aggregates
+            buf.builder = (metric == null) ? null
+                    : new HNSWIndex.Builder(metric, M, efConstruction, seed);
+        }
+
+        @SuppressWarnings("deprecation")
+        @Override
+        public void iterate(@Nonnull AggregationBuffer agg, @Nonnull Object[] parameters)
+                throws HiveException {
+            if (parameters[0] == null || parameters[1] == null) {
+                return;
+            }
+            IndexBuffer buf = (IndexBuffer) agg;
+
+            long id = PrimitiveObjectInspectorUtils.getLong(parameters[0], idOI);
+            List<?> features = featuresOI.getList(parameters[1]);
+            probe.parse(features);
+            buf.builder.add(id, probe.indices, probe.values, probe.size);
+        }
+
+        @SuppressWarnings("deprecation")
+        @Override
+        @Nullable
+        public Object[] terminatePartial(@Nonnull AggregationBuffer agg) throws HiveException {
+            IndexBuffer buf = (IndexBuffer) agg;
+            if (buf.builder == null) {
+                return null;
+            }
+            HNSWIndex.Builder builder = buf.builder;
+            Object[] partial = new Object[5];
+            partial[0] = new Text(builder.getMetric().name());
+            partial[1] = new IntWritable(builder.getM());
+            partial[2] = new IntWritable(builder.getEfConstruction());
+            partial[3] = new LongWritable(builder.getSeed());
+            partial[4] = new BytesWritable(builder.serializeVectors());
+            return partial;
+        }
+
+        @SuppressWarnings("deprecation")
+        @Override
+        public void merge(@Nonnull AggregationBuffer agg, @Nullable Object partial)
+                throws HiveException {
+            if (partial == null) {
+                return;
+            }
+            IndexBuffer buf = (IndexBuffer) agg;
+
+            final StructObjectInspector soi = internalMergeOI;
+            if (buf.builder == null) {
+                final Metric metric;
+                try {
+                    metric = Metric.resolve(
+                        distanceOI.getPrimitiveJavaObject(soi.getStructFieldData(partial,
+                            distanceField)));
+                } catch (IllegalArgumentException e) {
+                    throw new HiveException(e);
+                }
+                int M = mOI.get(soi.getStructFieldData(partial, mField));
+                int efConstruction =
+                        efConstructionOI.get(soi.getStructFieldData(partial, efConstructionField));
+                long seed = seedOI.get(soi.getStructFieldData(partial, seedField));
+                buf.builder = new HNSWIndex.Builder(metric, M, efConstruction, seed);
+            }
+
+            BytesWritable vectors = vectorsOI.getPrimitiveWritableObject(
+                soi.getStructFieldData(partial, vectorsField));
+            try {
+                buf.builder.addVectors(vectors.getBytes(), vectors.getLength());
+            } catch (IllegalArgumentException e) {
+                throw new HiveException(e);
+            }
+        }
+
+        @SuppressWarnings("deprecation")
+        @Override
+        @Nullable
+        public BytesWritable terminate(@Nonnull AggregationBuffer agg) throws HiveException {
+            IndexBuffer buf = (IndexBuffer) agg;
+            if (buf.builder == null || buf.builder.size() == 0) {
+                return null;
+            }
+            HNSWIndex index = buf.builder.build();
+            return new BytesWritable(index.serialize());
+        }
+
+    }
+
+    @AggregationType(estimable = true)
+    static final class IndexBuffer extends AbstractAggregationBuffer {
+
+        @Nullable
+        HNSWIndex.Builder builder;
+
+        IndexBuffer() {}
+
+        @Override
+        public int estimate() {
+            return (builder == null) ? 0 : builder.estimateBytes();
+        }
+
+    }
+
+    /**
+     * A reusable holder of a feature vector parsed from `feature:value` strings where features are
+     * hashed into 32-bit indices.
+     */
+    static final class SparseVector {
+
+        @Nonnull
+        int[] indices = new int[16];
+        @Nonnull
+        float[] values = new float[16];
+        int size;
+
+        @Nonnull
+        private final FeatureValue probe = new FeatureValue();
+
+        void parse(@Nonnull final List<?> features) {
+            final int numFeatures = features.size();
+            if (indices.length < numFeatures) {
+                this.indices = new int[numFeatures];
+                this.values = new float[numFeatures];
+            }
+            int n = 0;
+            for (int i = 0; i < numFeatures; i++) {
+                Object f = features.get(i);
+                if (f == null) {
+                    continue;
+                }
+                if (f instanceof Text) {
+                    final Text t = (Text) f;
+                    final int pos = FeatureParser.indexOfValue(t);
+                    final int end = (pos == -1) ? t.getLength() : pos;
+                    indices[n] = MurmurHash3.murmurhash3_x86_32(t.getBytes(), 0, end);
+                    try {
+                        values[n] = (float) FeatureParser.parseValue(t, pos);
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException(
+                            "Failed to parse a feature value: " + t, e);
+                    }
+                } else {
+                    FeatureValue.parseFeatureAsString(f.toString(), probe);
+                    indices[n] = MurmurHash3.murmurhash3_x86_32(probe.getFeatureAsString());
+                    values[n] = probe.getValueAsFloat();
+                }
+                n++;
+            }
+            this.size = HNSWIndex.normalize(indices, values, n);
+        }
+
+    }
+
+}
@@ -0,0 +1,206 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.knn.ann;
+
+import hivemall.UDTFWithOptions;
+import hivemall.knn.ann.KnnIndexUDAF.SparseVector;
+import hivemall.utils.hadoop.HiveUtils;
+import hivemall.utils.lang.Primitives;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Options;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.BinaryObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+
+/**
+ * Queries the k nearest neighbors of each row from an index built by {@link KnnIndexUDAF}.
+ *
+ * The index is passed as a column, typically by a CROSS JOIN with a single-row index table that is
+ * broadcast to every task. It is deserialized once and reused as long as the uid in its header is
+ * unchanged, so that each row costs a graph search of O(log N) distance computations instead of N
+ * in a cross join.
+ */
+@Description(name = "knn_search",
+        value = "_FUNC_(binary index, ANY id, array<string> features [, const string options])"
+                + " - Returns the k nearest neighbors of each row in <ANY id, int rank, bigint neighbor, double distance>",
+        extended = "SELECT knn_search(r.model, l.docid, l.features, '-k 10')\n"
+                + "FROM docs l CROSS JOIN doc_index r;")
+public final class KnnSearchUDTF extends UDTFWithOptions {
+    private static final Log logger = LogFactory.getLog(KnnSearchUDTF.class);
+
+    // Option variables
+    private int topK;
+    private int ef;
+
+    // Input OIs
+    private BinaryObjectInspector indexOI;
+    private ListObjectInspector featuresOI;
+
+    @Nullable
+    private HNSWIndex index;
+    private long indexUid;
+
+    // work space
+    private SparseVector probe;
+    private long[] neighbors;
+    private double[] distances;
+    private Object[] forwardObj;
+
+    public KnnSearchUDTF() {}
+
+    @Override
+    protected Options getOptions() {
+        Options opts = new Options();
+        opts.addOption("k", "topk", true, "The number of neighbors to return [default: 10]");
+        opts.addOption("ef", true,
+            "The number of candidates examined in a search. Larger is more accurate but slower"
+                    + " [default: max(k, 64)]");
+        return opts;
+    }
+
+    @Override
+    protected CommandLine processOptions(@Nonnull ObjectInspector[] argOIs)
+            throws UDFArgumentException {
+        CommandLine cl = null;
+        int k = 10;
+        int ef = -1;
+
+        if (argOIs.length >= 4) {
+            String rawArgs = HiveUtils.getConstString(argOIs[3]);
+            cl = parseOptions(rawArgs);
+            k = Primitives.parseInt(cl.getOptionValue("topk"), k);
+            ef = Primitives.parseInt(cl.getOptionValue("ef"), ef);
+        }
+        if (k < 1) {
+            throw new UDFArgumentException("-k must be greater than 0: " + k);
+        }
+
+        this.topK = k;
+        this.ef = (ef == -1) ? Math.max(k, 64) : Math.max(ef, k);
+        return cl;
+    }
+
+    @Override
+    public StructObjectInspector initialize(ObjectInspector[] argOIs) throws UDFArgumentException {
+        final int numArgs = argOIs.length;
+        if (numArgs != 3 && numArgs != 4) {
+            showHelp(
+                "knn_search takes 3 or 4 arguments: binary index, ANY id, array<string> features [, const string options]: "
+                        + numArgs);
+        }
+
+        this.indexOI = HiveUtils.asBinaryOI(argOIs[0]);
+        ObjectInspector idOI = argOIs[1];
+        this.featuresOI = HiveUtils.asListOI(argOIs[2]);
+        processOptions(argOIs);
+
+        this.index = null;
+        this.probe = new SparseVector();
+        this.neighbors = new long[topK];
+        this.distances = new double[topK];
+        this.forwardObj = new Object[4];
+
+        ArrayList<String> fieldNames = new ArrayList<String>();
+        ArrayList<ObjectInspector> fieldOIs = new ArrayList<ObjectInspector>();
+        fieldNames.add("id");
+        fieldOIs.add(idOI);
+        fieldNames.add("rank");
+        fieldOIs.add(PrimitiveObjectInspectorFactory.writableIntObjectInspector);
+        fieldNames.add("neighbor");
+        fieldOIs.add(PrimitiveObjectInspectorFactory.writableLongObjectInspector);
+        fieldNames.add("distance");
+        fieldOIs.add(PrimitiveObjectInspectorFactory.writableDoubleObjectInspector);
+        return ObjectInspectorFactory.getStandardStructObjectInspector(fieldNames, fieldOIs);
+    }
+
+    @Override
+    public void process(Object[] args) throws HiveException {
+        if (args[0] == null || args[2] == null) {
+            return;
+        }
+        final HNSWIndex index = getIndex(indexOI.getPrimitiveWritableObject(args[0]));
+
+        List<?> features = featuresOI.getList(args[2]);
+        probe.parse(features);
+        final int found = index.search(probe.indices, probe.values, probe.size, topK, ef,
+            neighbors, distances);
+
+        final Object[] forwardObj = this.forwardObj;
+        forwardObj[0] = args[1];
+        for (int i = 0; i < found; i++) {
+            forwardObj[1] = new IntWritable(i + 1);
+            forwardObj[2] = new LongWritable(neighbors[i]);
+            forwardObj[3] = new DoubleWritable(distances[i]);
+            forward(forwardObj);
+        }
+    }
+
+    @Nonnull
+    private HNSWIndex getIndex(@Nonnull final BytesWritable bytes) throws HiveException {
+        final long uid;
+        try {
+            uid = HNSWIndex.peekUid(bytes.getBytes(), bytes.getLength());
+        } catch (IllegalArgumentException e) {
+            throw new HiveException(e);
+        }
+        if (index != null && indexUid == uid) {
+            return index;
+        }
+
+        final long startTime = System.currentTimeMillis();
+        final HNSWIndex index;
+        try {
+            index = HNSWIndex.deserialize(bytes.getBytes(), bytes.getLength());
+        } catch (IllegalArgumentException e) {
+            throw new HiveException(e);
+        }
+        logger.info("Loaded an index of " + index.size() + " vectors (" + bytes.getLength()
+                + " bytes) in " + (System.currentTimeMillis() - startTime) + " ms");
+        this.index = index;
+        this.indexUid = uid;
+        return index;
+    }
+
+    @Override
+    public void close() throws HiveException {
+        this.index = null;
+        this.probe = null;
+        this.forwardObj = null;
+    }
+
+}
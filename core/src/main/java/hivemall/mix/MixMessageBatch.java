@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.mix;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * A batch of {@link MixMessage}s sent in a frame. The group ID is shared by the messages of a batch
+ * and thus the group ID of each message is ignored.
+ */
+@NotThreadSafe
+public final class MixMessageBatch {
+
+    @Nullable
+    private final String groupID;
+    @Nonnull
+    private final MixMessage[] messages;
+    private int size;
+
+    public MixMessageBatch(@Nullable String groupID, @Nonnegative int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Illegal capacity: " + capacity);
+        }
+        this.groupID = groupID;
+        this.messages = new MixMessage[capacity];
+        this.size = 0;
+    }
+
+    @Nullable
+    public String getGroupID() {
+        return groupID;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean isFull() {
+        return size == messages.length;
+    }
+
+    public void add(@Nonnull MixMessage msg) {
+        if (size == messages.length) {
+            throw new IllegalStateException("Batch is full: " + size);
+        }
+        messages[size++] = msg;
+    }
+
+    @Nonnull
+    public MixMessage get(@Nonnegative int i) {
+        if (i >= size) {
+            throw new IndexOutOfBoundsException("Index " + i + " out of bounds " + size);
+        }
+        return messages[i];
+    }
+
+    @Override
+    public String toString() {
+        return "MixMessageBatch [groupID=" + groupID + ", size=" + size + "]";
+    }
+
+}
@@ -18,9 +18,11 @@
  */
 package hivemall.mix;
 
+import static hivemall.mix.MixMessageEncoder.BATCH_TYPE;
 import static hivemall.mix.MixMessageEncoder.INTEGER_TYPE;
 import static hivemall.mix.MixMessageEncoder.INT_WRITABLE_TYPE;
 import static hivemall.mix.MixMessageEncoder.LONG_WRITABLE_TYPE;
+import static hivemall.mix.MixMessageEncoder.SAME_GROUP_ID;
 import static hivemall.mix.MixMessageEncoder.STRING_TYPE;
 import static hivemall.mix.MixMessageEncoder.TEXT_TYPE;
 import hivemall.mix.MixMessage.MixEventName;
@@ -31,24 +33,45 @@ import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
 
 import java.io.IOException;
 
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
 
+/**
+ * Decodes a frame into a {@link MixMessage} or a {@link MixMessageBatch}.
+ *
+ * @see MixMessageEncoder
+ */
 public final class MixMessageDecoder extends LengthFieldBasedFrameDecoder {
 
+    /** The group ID received last through the connection */
+    @Nullable
+    private String lastGroupID;
+
     public MixMessageDecoder() {
         super(1048576/* 1MiB */, 0, 4, 0, 4);
     }
 
     @Override
-    protected MixMessage decode(ChannelHandlerContext ctx, ByteBuf in) throws Exception {
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        this.lastGroupID = null;
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    protected Object decode(ChannelHandlerContext ctx, ByteBuf in) throws Exception {
         ByteBuf frame = (ByteBuf) super.decode(ctx, in);
         if (frame == null) {
             return null;
         }
 
         byte b = frame.readByte();
+        if (b == BATCH_TYPE) {
+            return decodeBatch(frame);
+        }
         MixEventName event = MixEventName.resolve(b);
         Object feature = decodeObject(frame);
         float weight = frame.readFloat();
@@ -56,7 +79,7 @@ public final class MixMessageDecoder extends LengthFieldBasedFrameDecoder {
         short clock = frame.readShort();
         int deltaUpdates = frame.readInt();
         boolean cancelRequest = frame.readBoolean();
-        String groupID = readString(frame);
+        String groupID = readGroupID(frame);
 
         MixMessage msg = new MixMessage(event, feature, weight, covariance, clock, deltaUpdates,
             cancelRequest);
@@ -64,6 +87,40 @@ public final class MixMessageDecoder extends LengthFieldBasedFrameDecoder {
         return msg;
     }
 
+    @Nonnull
+    private MixMessageBatch decodeBatch(@Nonnull final ByteBuf frame) throws IOException {
+        final String groupID = readGroupID(frame);
+        final int count = frame.readInt();
+        final MixMessageBatch batch = new MixMessageBatch(groupID, count);
+        for (int i = 0; i < count; i++) {
+            MixEventName event = MixEventName.resolve(frame.readByte());
+            Object feature = decodeObject(frame);
+            float weight = frame.readFloat();
+            float covariance = frame.readFloat();
+            short clock = frame.readShort();
+            int deltaUpdates = frame.readByte();
+            boolean cancelRequest = frame.readBoolean();
+            batch.add(new MixMessage(event, feature, weight, covariance, clock, deltaUpdates,
+                cancelRequest));
+        }
+        return batch;
+    }
+
+    @Nullable
+    private String readGroupID(@Nonnull final ByteBuf in) {
+        int length = in.getInt(in.readerIndex());
+        if (length == SAME_GROUP_ID) {
+            in.skipBytes(4);
+            if (lastGroupID == null) {
+                throw new IllegalStateException("Group ID has not been received");
+            }
+            return lastGroupID;
+        }
+        String groupID = readString(in);
+        this.lastGroupID = groupID;
+        return groupID;
+    }
+
     private static Object decodeObject(final ByteBuf in) throws IOException {
         final byte type = in.readByte();
         switch (type) {
@@ -22,16 +22,35 @@ import hivemall.mix.MixMessage.MixEventName;
 import hivemall.utils.lang.StringUtils;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
 import io.netty.handler.codec.MessageToByteEncoder;
 
 import java.io.IOException;
+import java.net.SocketAddress;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
 
-public final class MixMessageEncoder extends MessageToByteEncoder<MixMessage> {
+/**
+ * Encodes a {@link MixMessage} or a {@link MixMessageBatch} into length-prefixed frames.
+ *
+ * A group ID is sent once per connection; when it is the same as the last one sent through the
+ * connection, only {@link #SAME_GROUP_ID} is written. Thus, an encoder must not be shared among
+ * channels.
+ */
+public final class MixMessageEncoder extends MessageToByteEncoder<Object> {
     private static final byte[] LENGTH_PLACEHOLDER = new byte[4];
+    /** Frames of a batch are cut at this size to stay below the limit of the decoder */
+    private static final int MAX_BATCH_FRAME_BYTES = 512 * 1024; // 512 KiB
+
+    /** Frame type of {@link MixMessageBatch} that does not conflict with event IDs */
+    static final byte BATCH_TYPE = 0;
+    /** Length written in place of a group ID that is the same as the last one */
+    static final int SAME_GROUP_ID = -2;
 
     static final byte INTEGER_TYPE = 1;
     static final byte TEXT_TYPE = 2;
@@ -39,12 +58,51 @@ public final class MixMessageEncoder extends MessageToByteEncoder<MixMessage> {
     static final byte INT_WRITABLE_TYPE = 4;
     static final byte LONG_WRITABLE_TYPE = 5;
 
+    /** The group ID sent last through the connection */
+    @Nullable
+    private String lastGroupID;
+
     public MixMessageEncoder() {
-        super(MixMessage.class, true);
+        super(true);
+    }
+
+    @Override
+    public boolean acceptOutboundMessage(Object msg) throws Exception {
+        return msg instanceof MixMessage || msg instanceof MixMessageBatch;
+    }
+
+    @Override
+    public void connect(ChannelHandlerContext ctx, SocketAddress remoteAddress,
+            SocketAddress localAddress, ChannelPromise promise) throws Exception {
+        this.lastGroupID = null; // a new connection
+        super.connect(ctx, remoteAddress, localAddress, promise);
     }
 
     @Override
-    protected void encode(ChannelHandlerContext ctx, MixMessage msg, ByteBuf out) throws Exception {
+    protected ByteBuf allocateBuffer(ChannelHandlerContext ctx, Object msg, boolean preferDirect)
+            throws Exception {
+        if (msg instanceof MixMessageBatch) {
+            int initialCapacity = 16 + ((MixMessageBatch) msg).size() * 24;
+            if (preferDirect) {
+                return ctx.alloc().ioBuffer(initialCapacity);
+            } else {
+                return ctx.alloc().heapBuffer(initialCapacity);
+            }
+        }
+        return super.allocateBuffer(ctx, msg, preferDirect);
+    }
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, Object msg, ByteBuf out) throws Exception {
+        if (msg instanceof MixMessageBatch) {
+            encodeBatch((MixMessageBatch) msg, out);
+        } else {
+            encodeMessage((MixMessage) msg, out);
+        }
+    }
+
+    private void encodeMessage(@Nonnull final MixMessage msg, @Nonnull final ByteBuf out)
+            throws IOException {
         int startIdx = out.writerIndex();
         out.writeBytes(LENGTH_PLACEHOLDER);
 
@@ -71,12 +129,60 @@ public final class MixMessageEncoder extends MessageToByteEncoder<MixMessage> {
         out.writeBoolean(cancelRequest);
 
         String groupId = msg.getGroupID();
-        writeString(groupId, out);
+        writeGroupID(groupId, out);
 
         int endIdx = out.writerIndex();
         out.setInt(startIdx, endIdx - startIdx - 4);
     }
 
+    /**
+     * A batch is written as frames of [BATCH_TYPE, group ID, # of entries, entries...].
+     */
+    private void encodeBatch(@Nonnull final MixMessageBatch batch, @Nonnull final ByteBuf out)
+            throws IOException {
+        final String groupId = batch.getGroupID();
+        final int size = batch.size();
+        int i = 0;
+        do {
+            final int startIdx = out.writerIndex();
+            out.writeBytes(LENGTH_PLACEHOLDER);
+            out.writeByte(BATCH_TYPE);
+            writeGroupID(groupId, out);
+            final int countIdx = out.writerIndex();
+            out.writeInt(0);
+
+            int count = 0;
+            while (i < size && out.writerIndex() - startIdx < MAX_BATCH_FRAME_BYTES) {
+                encodeEntry(batch.get(i++), out);
+                count++;
+            }
+
+            out.setInt(countIdx, count);
+            int endIdx = out.writerIndex();
+            out.setInt(startIdx, endIdx - startIdx - 4);
+        } while (i < size);
+    }
+
+    private static void encodeEntry(@Nonnull final MixMessage msg, @Nonnull final ByteBuf out)
+            throws IOException {
+        out.writeByte(msg.getEvent().getID());
+        encodeObject(msg.getFeature(), out);
+        out.writeFloat(msg.getWeight());
+        out.writeFloat(msg.getCovariance());
+        out.writeShort(msg.getClock());
+        out.writeByte(msg.getDeltaUpdates()); // deltaUpdates is in range [0,127]
+        out.writeBoolean(msg.isCancelRequest());
+    }
+
+    private void writeGroupID(@Nullable final String groupId, @Nonnull final ByteBuf buf) {
+        if (groupId != null && groupId.equals(lastGroupID)) {
+            buf.writeInt(SAME_GROUP_ID);
+            return;
+        }
+        writeString(groupId, buf);
+        this.lastGroupID = groupId;
+    }
+
     private static void encodeObject(final Object obj, final ByteBuf buf) throws IOException {
         assert (obj != null);
         if (obj instanceof Integer) {
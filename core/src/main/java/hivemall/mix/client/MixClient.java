@@ -21,6 +21,7 @@ package hivemall.mix.client;
 import hivemall.model.ModelUpdateHandler;
 import hivemall.mix.MixMessage;
 import hivemall.mix.MixMessage.MixEventName;
+import hivemall.mix.MixMessageBatch;
 import hivemall.mix.MixedModel;
 import hivemall.mix.MixedWeight;
 import hivemall.mix.NodeInfo;
@@ -34,46 +35,72 @@ import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.handler.ssl.SslContext;
 import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
+import io.netty.util.concurrent.ScheduledFuture;
 
 import java.io.Closeable;
 import java.io.IOException;
 import java.net.SocketAddress;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.CheckForNull;
+import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
 import javax.net.ssl.SSLException;
 
+/**
+ * A client of MIX servers. Requests to a MIX server are buffered in a {@link MixMessageBatch} and
+ * sent (and flushed) in a frame when the batch becomes full or has been kept for
+ * {@link #MAX_PENDING_MILLIS}. The latter is enforced by a flush scheduled on the event loop of the
+ * connection, so that requests are not held back when no more updates follow.
+ */
+@NotThreadSafe
 public final class MixClient implements ModelUpdateHandler, Closeable {
     public static final String DUMMY_JOB_ID = "__DUMMY_JOB_ID__";
+    public static final int DEFAULT_BATCH_SIZE = 64;
+    /** The maximum time to keep requests in a batch */
+    private static final long MAX_PENDING_MILLIS = 100L;
 
     private final MixEventName event;
     private String groupID;
     private final boolean ssl;
     private final int mixThreshold;
+    private final int batchSize;
     private final MixRequestRouter router;
     private final MixClientHandler msgHandler;
-    private final Map<NodeInfo, Channel> channelMap;
+    private final Map<NodeInfo, Connection> connections;
 
     private boolean initialized = false;
     private EventLoopGroup workers;
 
     public MixClient(@Nonnull MixEventName event, @CheckForNull String groupID,
             @Nonnull String connectURIs, boolean ssl, int mixThreshold, @Nonnull MixedModel model) {
+        this(event, groupID, connectURIs, ssl, mixThreshold, DEFAULT_BATCH_SIZE, model);
+    }
+
+    public MixClient(@Nonnull MixEventName event, @CheckForNull String groupID,
+            @Nonnull String connectURIs, boolean ssl, int mixThreshold,
+            @Nonnegative int batchSize, @Nonnull MixedModel model) {
         if (groupID == null) {
             throw new IllegalArgumentException("groupID is null");
         }
         if (mixThreshold < 1 || mixThreshold > Byte.MAX_VALUE) {
             throw new IllegalArgumentException("Invalid mixThreshold: " + mixThreshold);
         }
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Invalid batchSize: " + batchSize);
+        }
         this.event = event;
         this.groupID = groupID;
         this.router = new MixRequestRouter(connectURIs);
         this.ssl = ssl;
         this.mixThreshold = mixThreshold;
+        this.batchSize = batchSize;
         this.msgHandler = new MixClientHandler(model);
-        this.channelMap = new HashMap<NodeInfo, Channel>();
+        this.connections = new HashMap<NodeInfo, Connection>();
     }
 
     private void initialize() throws Exception {
@@ -107,7 +134,7 @@ public final class MixClient implements ModelUpdateHandler, Closeable {
         ChannelFuture channelFuture = b.connect(remoteAddr).sync();
         Channel channel = channelFuture.channel();
 
-        channelMap.put(server, channel);
+        connections.put(server, new Connection(server, channel));
     }
 
     /**
@@ -127,17 +154,7 @@ public final class MixClient implements ModelUpdateHandler, Closeable {
         }
 
         MixMessage msg = new MixMessage(event, feature, weight, covar, clock, deltaUpdates);
-        msg.setGroupID(groupID);
-
-        NodeInfo server = router.selectNode(msg);
-        Channel ch = channelMap.get(server);
-        if (!ch.isActive()) {// reconnect
-            SocketAddress remoteAddr = server.getSocketAddress();
-            ch.connect(remoteAddr).sync();
-        }
-
-        //ch.writeAndFlush(msg).sync();
-        ch.writeAndFlush(msg); // send asynchronously in the background
+        send(msg);
         return true;
     }
 
@@ -151,18 +168,79 @@ public final class MixClient implements ModelUpdateHandler, Closeable {
         int deltaUpdates = mixed.getDeltaUpdates();
 
         MixMessage msg = new MixMessage(event, feature, weight, covar, deltaUpdates, true);
-        assert (groupID != null);
-        msg.setGroupID(groupID);
 
         // TODO REVIEWME consider mix server faults (what if mix server dead? Do not send cancel request?)
+        send(msg); // sent after the requests in the same batch
+    }
+
+    private void send(@Nonnull final MixMessage msg) throws InterruptedException {
         NodeInfo server = router.selectNode(msg);
-        Channel ch = channelMap.get(server);
+        Connection conn = connections.get(server);
+        final boolean flush;
+        synchronized (conn) {
+            MixMessageBatch batch = conn.pending;
+            if (batch == null) {
+                assert (groupID != null);
+                batch = new MixMessageBatch(groupID, batchSize);
+                conn.pending = batch;
+                conn.pendingSince = System.currentTimeMillis();
+                scheduleFlush(conn, batch);
+            }
+            batch.add(msg);
+            flush = batch.isFull()
+                    || System.currentTimeMillis() - conn.pendingSince >= MAX_PENDING_MILLIS;
+        }
+        if (flush) {
+            flush(conn);
+        }
+    }
+
+    /**
+     * Flushes the given batch on the event loop of the connection after {@link #MAX_PENDING_MILLIS}
+     * unless it has been flushed by then.
+     */
+    private static void scheduleFlush(@Nonnull final Connection conn,
+            @Nonnull final MixMessageBatch batch) {
+        final Channel ch = conn.channel;
+        conn.scheduledFlush = ch.eventLoop().schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (conn) {
+                    if (conn.pending != batch) {
+                        return; // already flushed
+                    }
+                    if (!ch.isActive()) {
+                        // reconnecting blocks the event loop, so leave the batch to the next flush
+                        return;
+                    }
+                    conn.pending = null;
+                    conn.scheduledFlush = null;
+                }
+                ch.writeAndFlush(batch);
+            }
+        }, MAX_PENDING_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private static void flush(@Nonnull final Connection conn) throws InterruptedException {
+        final MixMessageBatch batch;
+        synchronized (conn) {
+            batch = conn.pending;
+            if (batch == null) {
+                return;
+            }
+            conn.pending = null;
+            if (conn.scheduledFlush != null) {
+                conn.scheduledFlush.cancel(false);
+                conn.scheduledFlush = null;
+            }
+        }
+
+        Channel ch = conn.channel;
         if (!ch.isActive()) {// reconnect
-            SocketAddress remoteAddr = server.getSocketAddress();
+            SocketAddress remoteAddr = conn.server.getSocketAddress();
             ch.connect(remoteAddr).sync();
         }
-
-        ch.writeAndFlush(msg); // send asynchronously in the background
+        ch.writeAndFlush(batch); // send asynchronously in the background
     }
 
     private void replaceGroupIDIfRequired() {
@@ -175,13 +253,38 @@ public final class MixClient implements ModelUpdateHandler, Closeable {
     @Override
     public void close() throws IOException {
         if (workers != null) {
-            for (Channel ch : channelMap.values()) {
-                ch.close();
+            for (Connection conn : connections.values()) {
+                try {
+                    flush(conn);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                conn.channel.close();
             }
-            channelMap.clear();
+            connections.clear();
             workers.shutdownGracefully();
             this.workers = null;
         }
     }
 
+    private static final class Connection {
+        @Nonnull
+        final NodeInfo server;
+        @Nonnull
+        final Channel channel;
+
+        /** requests to be sent, guarded by this connection */
+        @Nullable
+        MixMessageBatch pending;
+        long pendingSince;
+        /** the flush of <code>pending</code> scheduled on the event loop */
+        @Nullable
+        ScheduledFuture<?> scheduledFlush;
+
+        Connection(@Nonnull NodeInfo server, @Nonnull Channel channel) {
+            this.server = server;
+            this.channel = channel;
+        }
+    }
+
 }
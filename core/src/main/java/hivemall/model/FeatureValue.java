@@ -18,6 +18,7 @@
  */
 package hivemall.model;
 
+import hivemall.utils.hadoop.FeatureParser;
 import hivemall.utils.hashing.MurmurHash3;
 import hivemall.utils.lang.Preconditions;
 
@@ -85,10 +86,23 @@ public final class FeatureValue {
         if (o == null) {
             return null;
         }
+        if (o instanceof Text) {
+            return parse((Text) o, mhash);
+        }
         String s = o.toString();
         return parse(s, mhash);
     }
 
+    @Nonnull
+    public static FeatureValue parse(@Nonnull final Text t, final boolean mhash)
+            throws IllegalArgumentException {
+        final int pos = FeatureParser.indexOfValue(t);
+        final Object feature = mhash ? Integer.valueOf(FeatureParser.parseFeatureAsHash(t, pos))
+                : FeatureParser.parseFeatureAsText(t, pos);
+        final double weight = parseValue(t, pos);
+        return new FeatureValue(feature, weight);
+    }
+
     @Nullable
     public static FeatureValue parse(@Nonnull final String s) throws IllegalArgumentException {
         return parse(s, false);
@@ -121,9 +135,21 @@ public final class FeatureValue {
     }
 
     @Nonnull
-    public static FeatureValue parseFeatureAsString(@Nonnull final Text t) {
-        String s = t.toString();
-        return parseFeatureAsString(s);
+    public static FeatureValue parseFeatureAsString(@Nonnull final Object o)
+            throws IllegalArgumentException {
+        if (o instanceof Text) {
+            return parseFeatureAsString((Text) o);
+        }
+        return parseFeatureAsString(o.toString());
+    }
+
+    @Nonnull
+    public static FeatureValue parseFeatureAsString(@Nonnull final Text t)
+            throws IllegalArgumentException {
+        final int pos = FeatureParser.indexOfValue(t);
+        final String feature = FeatureParser.parseFeatureAsString(t, pos);
+        final double weight = parseValue(t, pos);
+        return new FeatureValue(feature, weight);
     }
 
     @Nonnull
@@ -152,9 +178,10 @@ public final class FeatureValue {
     }
 
     public static void parseFeatureAsString(@Nonnull final Text t,
-            @Nonnull final FeatureValue probe) {
-        String s = t.toString();
-        parseFeatureAsString(s, probe);
+            @Nonnull final FeatureValue probe) throws IllegalArgumentException {
+        final int pos = FeatureParser.indexOfValue(t);
+        probe.feature = FeatureParser.parseFeatureAsString(t, pos);
+        probe.value = parseValue(t, pos);
     }
 
     public static void parseFeatureAsString(@Nonnull final String s,
@@ -177,6 +204,15 @@ public final class FeatureValue {
         }
     }
 
+    private static double parseValue(@Nonnull final Text t, final int pos)
+            throws IllegalArgumentException {
+        try {
+            return FeatureParser.parseValue(t, pos);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Failed to parse a feature value: " + t, e);
+        }
+    }
+
     @Override
     public String toString() {
         return feature + ":" + value;
@@ -0,0 +1,506 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.model;
+
+import hivemall.model.WeightValue.WeightValueWithCovar;
+import hivemall.model.WeightValueWithClock.WeightValueWithCovarClock;
+import hivemall.utils.collections.IMapIterator;
+import hivemall.utils.lang.Copyable;
+import hivemall.utils.math.Primes;
+
+import java.util.Arrays;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A sparse model for INT/BIGINT features.
+ *
+ * Features are kept as primitive long keys of an open-addressing hash table using double hashing,
+ * and weights, covariances, clocks and delta updates are kept in parallel primitive arrays. Thus,
+ * no object is allocated for each feature unlike {@link NewSparseModel}.
+ */
+public final class NewPrimitiveSparseModel extends AbstractPredictionModel {
+    private static final Log logger = LogFactory.getLog(NewPrimitiveSparseModel.class);
+
+    private static final byte FREE = 0;
+    private static final byte FULL = 1;
+    private static final byte REMOVED = 2;
+
+    private static final float LOAD_FACTOR = 0.75f;
+    private static final float GROW_FACTOR = 2.0f;
+    private static final float SHRINK_FACTOR = 0.1f; // at least 10% of table must be FREE
+
+    /** Whether features are returned as Integer (true) or Long (false) */
+    private final boolean intFeature;
+
+    private long[] keys;
+    private byte[] states;
+    private float[] weights;
+    @Nullable
+    private float[] covars;
+
+    // optional value for MIX
+    @Nullable
+    private short[] clocks;
+    @Nullable
+    private byte[] deltaUpdates;
+    @Nullable
+    private WeightValueWithClock mixProbe;
+
+    private int used;
+    private int freeEntries;
+    private int growThreshold;
+    private int shrinkThreshold;
+
+    public NewPrimitiveSparseModel(int size, boolean intFeature) {
+        this(size, false, intFeature);
+    }
+
+    public NewPrimitiveSparseModel(int size, boolean hasCovar, boolean intFeature) {
+        super();
+        this.intFeature = intFeature;
+        final int capacity = Primes.findLeastPrimeNumber(Math.max(size, 3));
+        this.keys = new long[capacity];
+        this.states = new byte[capacity];
+        this.weights = new float[capacity];
+        if (hasCovar) {
+            float[] covars = new float[capacity];
+            Arrays.fill(covars, 1.f);
+            this.covars = covars;
+        } else {
+            this.covars = null;
+        }
+        this.clocks = null;
+        this.deltaUpdates = null;
+        this.used = 0;
+        this.freeEntries = capacity;
+        this.growThreshold = Math.round(capacity * LOAD_FACTOR);
+        this.shrinkThreshold = Math.round(capacity * SHRINK_FACTOR);
+    }
+
+    @Override
+    protected boolean isDenseModel() {
+        return false;
+    }
+
+    @Override
+    public boolean hasCovariance() {
+        return covars != null;
+    }
+
+    @Override
+    public void configureParams(boolean sum_of_squared_gradients, boolean sum_of_squared_delta_x,
+            boolean sum_of_gradients) {}
+
+    @Override
+    public void configureClock() {
+        if (clocks == null) {
+            this.clocks = new short[keys.length];
+            this.deltaUpdates = new byte[keys.length];
+        }
+    }
+
+    @Override
+    public boolean hasClock() {
+        return clocks != null;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T extends IWeightValue> T get(@Nonnull final Object feature) {
+        final int i = findKey(toKey(feature));
+        if (i < 0) {
+            return null;
+        }
+        if (covars != null) {
+            return (T) new WeightValueWithCovar(weights[i], covars[i]);
+        } else {
+            return (T) new WeightValue(weights[i]);
+        }
+    }
+
+    @Override
+    public <T extends IWeightValue> void set(@Nonnull final Object feature,
+            @Nonnull final T value) {
+        final int i = findOrAddKey(toKey(feature));
+        weights[i] = value.get();
+        if (covars != null && value.hasCovariance()) {
+            covars[i] = value.getCovariance();
+        }
+        if (clocks != null) {
+            if (value.isTouched()) {
+                clocks[i] = (short) (clocks[i] + 1);
+                int delta = deltaUpdates[i] + 1;
+                assert (delta > 0) : delta;
+                deltaUpdates[i] = (byte) delta;
+            } else {// untouched values have no clock as in NewSparseModel
+                clocks[i] = 0;
+                deltaUpdates[i] = BYTE0;
+            }
+        }
+
+        if (handler != null) {
+            onUpdate(feature, i);
+        }
+    }
+
+    private void onUpdate(@Nonnull final Object feature, final int i) {
+        WeightValueWithClock probe = mixProbe;
+        if (probe == null) {
+            if (covars == null) {
+                probe = new WeightValueWithClock(0.f);
+            } else {
+                probe = new WeightValueWithCovarClock(0.f, 1.f);
+            }
+            this.mixProbe = probe;
+        }
+        probe.set(weights[i]);
+        if (covars != null) {
+            probe.setCovariance(covars[i]);
+        }
+        if (clocks != null) {
+            probe.setClock(clocks[i]);
+            probe.setDeltaUpdates(deltaUpdates[i]);
+        } else {
+            probe.setClock((short) 0);
+            probe.setDeltaUpdates(BYTE0);
+        }
+
+        onUpdate(feature, probe);
+
+        if (deltaUpdates != null) {
+            deltaUpdates[i] = probe.getDeltaUpdates();
+        }
+    }
+
+    @Override
+    public void delete(@Nonnull final Object feature) {
+        final int i = findKey(toKey(feature));
+        if (i < 0) {
+            return;
+        }
+        states[i] = REMOVED;
+        --used;
+    }
+
+    @Override
+    public float getWeight(@Nonnull final Object feature) {
+        final int i = findKey(toKey(feature));
+        return i < 0 ? 0.f : weights[i];
+    }
+
+    @Override
+    public void setWeight(@Nonnull final Object feature, final float value) {
+        final int i = findOrAddKey(toKey(feature));
+        weights[i] = value;
+    }
+
+    @Override
+    public float getCovariance(@Nonnull final Object feature) {
+        if (covars == null) {
+            return 1.f;
+        }
+        final int i = findKey(toKey(feature));
+        return i < 0 ? 1.f : covars[i];
+    }
+
+    @Override
+    protected void _set(@Nonnull final Object feature, final float weight, final short clock) {
+        final int i = findKey(toKey(feature));
+        if (i < 0) {
+            logger.warn("Previous weight not found: " + feature);
+            throw new IllegalStateException("Previous weight not found " + feature);
+        }
+        weights[i] = weight;
+        if (clocks != null) {
+            clocks[i] = clock;
+            deltaUpdates[i] = BYTE0;
+        }
+    }
+
+    @Override
+    protected void _set(@Nonnull final Object feature, final float weight, final float covar,
+            final short clock) {
+        final int i = findKey(toKey(feature));
+        if (i < 0) {
+            logger.warn("Previous weight not found: " + feature);
+            throw new IllegalStateException("Previous weight not found: " + feature);
+        }
+        weights[i] = weight;
+        covars[i] = covar;
+        if (clocks != null) {
+            clocks[i] = clock;
+            deltaUpdates[i] = BYTE0;
+        }
+    }
+
+    @Override
+    public int size() {
+        return used;
+    }
+
+    @Override
+    public boolean contains(@Nonnull final Object feature) {
+        return findKey(toKey(feature)) >= 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <K, V extends IWeightValue> IMapIterator<K, V> entries() {
+        return (IMapIterator<K, V>) new Itr();
+    }
+
+    private static long toKey(@Nonnull final Object feature) {
+        if (feature instanceof Number) {
+            return ((Number) feature).longValue();
+        }
+        return Long.parseLong(feature.toString());
+    }
+
+    @Nonnull
+    private Number toFeature(final long key) {
+        if (intFeature) {
+            return Integer.valueOf((int) key);
+        } else {
+            return Long.valueOf(key);
+        }
+    }
+
+    private static int keyHash(final long key) {
+        return (int) (key ^ (key >>> 32)) & 0x7FFFFFFF;
+    }
+
+    /**
+     * @return -1 if not found
+     */
+    private int findKey(final long key) {
+        final long[] keys = this.keys;
+        final byte[] states = this.states;
+        final int keyLength = keys.length;
+
+        // double hashing
+        final int hash = keyHash(key);
+        final int decr = 1 + (hash % (keyLength - 2));
+        final int startIndex = hash % keyLength;
+        for (int keyIdx = startIndex;;) {
+            final byte state = states[keyIdx];
+            if (state == FREE) {
+                return -1;
+            }
+            if (state == FULL && keys[keyIdx] == key) {
+                return keyIdx;
+            }
+            keyIdx -= decr;
+            if (keyIdx < 0) {
+                keyIdx += keyLength;
+            }
+            if (keyIdx == startIndex) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * @return the index of the given key where a new entry is initialized if not found
+     */
+    private int findOrAddKey(final long key) {
+        final int found = findKey(key);
+        if (found >= 0) {
+            return found;
+        }
+
+        if ((used + 1) >= growThreshold) {// too filled
+            rehash(Math.round(keys.length * GROW_FACTOR));
+        } else if (freeEntries <= shrinkThreshold) {// too many REMOVED entries
+            rehash(keys.length);
+        }
+
+        final long[] keys = this.keys;
+        final byte[] states = this.states;
+        final int keyLength = keys.length;
+        final int hash = keyHash(key);
+        int keyIdx = hash % keyLength;
+        if (states[keyIdx] == FULL) {// second hashing
+            final int decr = 1 + (hash % (keyLength - 2));
+            final int loopIndex = keyIdx;
+            do {
+                keyIdx -= decr;
+                if (keyIdx < 0) {
+                    keyIdx += keyLength;
+                }
+                if (keyIdx == loopIndex) {
+                    throw new IllegalStateException(
+                        "Detected infinite loop where key=" + key + ", keyIdx=" + keyIdx);
+                }
+            } while (states[keyIdx] == FULL);
+        }
+
+        if (states[keyIdx] == FREE) {
+            --freeEntries;
+        }
+        keys[keyIdx] = key;
+        states[keyIdx] = FULL;
+        weights[keyIdx] = 0.f;
+        if (covars != null) {
+            covars[keyIdx] = 1.f;
+        }
+        if (clocks != null) {
+            clocks[keyIdx] = 0;
+            deltaUpdates[keyIdx] = BYTE0;
+        }
+        ++used;
+        return keyIdx;
+    }
+
+    private void rehash(final int capacity) {
+        final int newCapacity = Primes.findLeastPrimeNumber(capacity);
+        if (logger.isDebugEnabled()) {
+            logger.debug(
+                "Rehash internal arrays from " + keys.length + " to " + newCapacity + " entries");
+        }
+
+        final long[] oldKeys = keys;
+        final byte[] oldStates = states;
+        final float[] oldWeights = weights;
+        final float[] oldCovars = covars;
+        final short[] oldClocks = clocks;
+        final byte[] oldDeltaUpdates = deltaUpdates;
+
+        final long[] newKeys = new long[newCapacity];
+        final byte[] newStates = new byte[newCapacity];
+        final float[] newWeights = new float[newCapacity];
+        final float[] newCovars = (oldCovars == null) ? null : new float[newCapacity];
+        final short[] newClocks = (oldClocks == null) ? null : new short[newCapacity];
+        final byte[] newDeltaUpdates = (oldDeltaUpdates == null) ? null : new byte[newCapacity];
+
+        int used = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldStates[i] != FULL) {
+                continue;
+            }
+            final long k = oldKeys[i];
+            final int hash = keyHash(k);
+            int keyIdx = hash % newCapacity;
+            if (newStates[keyIdx] == FULL) {// second hashing
+                final int decr = 1 + (hash % (newCapacity - 2));
+                final int loopIndex = keyIdx;
+                do {
+                    keyIdx -= decr;
+                    if (keyIdx < 0) {
+                        keyIdx += newCapacity;
+                    }
+                    if (keyIdx == loopIndex) {
+                        throw new IllegalStateException(
+                            "Detected infinite loop where key=" + k + ", keyIdx=" + keyIdx);
+                    }
+                } while (newStates[keyIdx] != FREE);
+            }
+            newKeys[keyIdx] = k;
+            newStates[keyIdx] = FULL;
+            newWeights[keyIdx] = oldWeights[i];
+            if (newCovars != null) {
+                newCovars[keyIdx] = oldCovars[i];
+            }
+            if (newClocks != null) {
+                newClocks[keyIdx] = oldClocks[i];
+                newDeltaUpdates[keyIdx] = oldDeltaUpdates[i];
+            }
+            used++;
+        }
+
+        this.keys = newKeys;
+        this.states = newStates;
+        this.weights = newWeights;
+        this.covars = newCovars;
+        this.clocks = newClocks;
+        this.deltaUpdates = newDeltaUpdates;
+        this.used = used;
+        this.freeEntries = newCapacity - used;
+        this.growThreshold = Math.round(newCapacity * LOAD_FACTOR);
+        this.shrinkThreshold = Math.round(newCapacity * SHRINK_FACTOR);
+    }
+
+    private final class Itr implements IMapIterator<Number, IWeightValue> {
+
+        private int nextEntry;
+        private int lastEntry;
+        private final WeightValueWithCovar tmpWeight;
+
+        private Itr() {
+            this.nextEntry = nextEntry(0);
+            this.lastEntry = -1;
+            this.tmpWeight = new WeightValueWithCovar();
+        }
+
+        /** find the index of next full entry */
+        private int nextEntry(int index) {
+            final byte[] states = NewPrimitiveSparseModel.this.states;
+            while (index < states.length && states[index] != FULL) {
+                index++;
+            }
+            return index;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nextEntry < states.length;
+        }
+
+        @Override
+        public int next() {
+            if (!hasNext()) {
+                return -1;
+            }
+            int curEntry = nextEntry;
+            this.lastEntry = curEntry;
+            this.nextEntry = nextEntry(curEntry + 1);
+            return curEntry;
+        }
+
+        @Override
+        public Number getKey() {
+            return toFeature(keys[lastEntry]);
+        }
+
+        @Override
+        public IWeightValue getValue() {
+            if (covars == null) {
+                return new WeightValue(weights[lastEntry]);
+            } else {
+                return new WeightValueWithCovar(weights[lastEntry], covars[lastEntry]);
+            }
+        }
+
+        @Override
+        public <T extends Copyable<IWeightValue>> void getValue(@Nonnull final T probe) {
+            tmpWeight.value = weights[lastEntry];
+            if (covars != null) {
+                tmpWeight.setCovariance(covars[lastEntry]);
+            }
+            tmpWeight.setTouched(true);
+            probe.copyFrom(tmpWeight);
+        }
+
+    }
+
+}
@@ -101,7 +101,7 @@ public final class DenseOptimizerFactory {
     static final class Momentum extends Optimizer.Momentum {
 
         @Nonnull
-        private final WeightValueParamsF1 weightValueReused;
+        private WeightValueParamsF1 weightValueReused;
         @Nonnull
         private float[] delta;
 
@@ -111,6 +111,13 @@ public final class DenseOptimizerFactory {
             this.delta = new float[ndims];
         }
 
+        @Override
+        public DenseOptimizerFactory.Momentum fork() {
+            DenseOptimizerFactory.Momentum forked = (DenseOptimizerFactory.Momentum) shallowCopy();
+            forked.weightValueReused = newWeightValue(0.f);
+            return forked;
+        }
+
         @Override
         protected float update(@Nonnull final Object feature, final float weight,
                 final float gradient) {
@@ -137,7 +144,7 @@ public final class DenseOptimizerFactory {
     static final class AdaGrad extends Optimizer.AdaGrad {
 
         @Nonnull
-        private final WeightValueParamsF1 weightValueReused;
+        private WeightValueParamsF1 weightValueReused;
         @Nonnull
         private float[] sum_of_squared_gradients;
 
@@ -147,6 +154,13 @@ public final class DenseOptimizerFactory {
             this.sum_of_squared_gradients = new float[ndims];
         }
 
+        @Override
+        public DenseOptimizerFactory.AdaGrad fork() {
+            DenseOptimizerFactory.AdaGrad forked = (DenseOptimizerFactory.AdaGrad) shallowCopy();
+            forked.weightValueReused = newWeightValue(0.f);
+            return forked;
+        }
+
         @Override
         protected float update(@Nonnull final Object feature, final float weight,
                 final float gradient) {
@@ -173,7 +187,7 @@ public final class DenseOptimizerFactory {
     static final class RMSprop extends Optimizer.RMSprop {
 
         @Nonnull
-        private final WeightValueParamsF1 weightValueReused;
+        private WeightValueParamsF1 weightValueReused;
         @Nonnull
         private float[] sum_of_squared_gradients;
 
@@ -183,6 +197,13 @@ public final class DenseOptimizerFactory {
             this.sum_of_squared_gradients = new float[ndims];
         }
 
+        @Override
+        public DenseOptimizerFactory.RMSprop fork() {
+            DenseOptimizerFactory.RMSprop forked = (DenseOptimizerFactory.RMSprop) shallowCopy();
+            forked.weightValueReused = newWeightValue(0.f);
+            return forked;
+        }
+
         @Override
         protected float update(@Nonnull final Object feature, final float weight,
                 final float gradient) {
@@ -209,7 +230,7 @@ public final class DenseOptimizerFactory {
     static final class RMSpropGraves extends Optimizer.RMSpropGraves {
 
         @Nonnull
-        private final WeightValueParamsF3 weightValueReused;
+        private WeightValueParamsF3 weightValueReused;
         @Nonnull
         private float[] sum_of_gradients;
         @Nonnull
@@ -225,6 +246,14 @@ public final class DenseOptimizerFactory {
             this.delta = new float[ndims];
         }
 
+        @Override
+        public DenseOptimizerFactory.RMSpropGraves fork() {
+            DenseOptimizerFactory.RMSpropGraves forked =
+                    (DenseOptimizerFactory.RMSpropGraves) shallowCopy();
+            forked.weightValueReused = newWeightValue(0.f);
+            return forked;
+        }
+
         @Override
         protected float update(@Nonnull final Object feature, final float weight,
                 final float gradient) {
@@ -257,7 +286,7 @@ public final class DenseOptimizerFactory {
     static final class AdaDelta extends Optimizer.AdaDelta {
 
         @Nonnull
-        private final WeightValueParamsF2 weightValueReused;
+        private WeightValueParamsF2 weightValueReused;
 
         @Nonnull
         private float[] sum_of_squared_gradients;
@@ -271,6 +300,13 @@ public final class DenseOptimizerFactory {
             this.sum_of_squared_delta_x = new float[ndims];
         }
 
+        @Override
+        public DenseOptimizerFactory.AdaDelta fork() {
+            DenseOptimizerFactory.AdaDelta forked = (DenseOptimizerFactory.AdaDelta) shallowCopy();
+            forked.weightValueReused = newWeightValue(0.f);
+            return forked;
+        }
+
         @Override
         protected float update(@Nonnull final Object feature, final float weight,
                 final float gradient) {
@@ -300,7 +336,7 @@ public final class DenseOptimizerFactory {
     static final class Adam extends Optimizer.Adam {
 
         @Nonnull
-        private final WeightValueParamsF2 weightValueReused;
+        private WeightValueParamsF2 weightValueReused;
 
         @Nonnull
         private float[] val_m;
@@ -314,6 +350,13 @@ public final class DenseOptimizerFactory {
             this.val_v = new float[ndims];
         }
 
+        @Override
+        public DenseOptimizerFactory.Adam fork() {
+            DenseOptimizerFactory.Adam forked = (DenseOptimizerFactory.Adam) shallowCopy();
+            forked.weightValueReused = newWeightValue(0.f);
+            return forked;
+        }
+
         @Override
         protected float update(@Nonnull final Object feature, final float weight,
                 final float gradient) {
@@ -343,7 +386,7 @@ public final class DenseOptimizerFactory {
     static final class Nadam extends Optimizer.Nadam {
 
         @Nonnull
-        private final WeightValueParamsF2 weightValueReused;
+        private WeightValueParamsF2 weightValueReused;
 
         @Nonnull
         private float[] val_m;
@@ -357,6 +400,13 @@ public final class DenseOptimizerFactory {
             this.val_v = new float[ndims];
         }
 
+        @Override
+        public DenseOptimizerFactory.Nadam fork() {
+            DenseOptimizerFactory.Nadam forked = (DenseOptimizerFactory.Nadam) shallowCopy();
+            forked.weightValueReused = newWeightValue(0.f);
+            return forked;
+        }
+
         @Override
         protected float update(@Nonnull final Object feature, final float weight,
                 final float gradient) {
@@ -386,7 +436,7 @@ public final class DenseOptimizerFactory {
     static final class Eve extends Optimizer.Eve {
 
         @Nonnull
-        private final WeightValueParamsF2 weightValueReused;
+        private WeightValueParamsF2 weightValueReused;
 
         @Nonnull
         private float[] val_m;
@@ -400,6 +450,13 @@ public final class DenseOptimizerFactory {
             this.val_v = new float[ndims];
         }
 
+        @Override
+        public DenseOptimizerFactory.Eve fork() {
+            DenseOptimizerFactory.Eve forked = (DenseOptimizerFactory.Eve) shallowCopy();
+            forked.weightValueReused = newWeightValue(0.f);
+            return forked;
+        }
+
         @Override
         protected float update(@Nonnull final Object feature, final float weight,
                 final float gradient) {
@@ -430,7 +487,7 @@ public final class DenseOptimizerFactory {
     static final class AdamHD extends Optimizer.AdamHD {
 
         @Nonnull
-        private final WeightValueParamsF2 weightValueReused;
+        private WeightValueParamsF2 weightValueReused;
 
         @Nonnull
         private float[] val_m;
@@ -444,6 +501,13 @@ public final class DenseOptimizerFactory {
             this.val_v = new float[ndims];
         }
 
+        @Override
+        public DenseOptimizerFactory.AdamHD fork() {
+            DenseOptimizerFactory.AdamHD forked = (DenseOptimizerFactory.AdamHD) shallowCopy();
+            forked.weightValueReused = newWeightValue(0.f);
+            return forked;
+        }
+
         @Override
         protected float update(@Nonnull final Object feature, final float weight,
                 final float gradient) {
@@ -472,7 +536,7 @@ public final class DenseOptimizerFactory {
     static final class AdagradRDA extends Optimizer.AdagradRDA {
 
         @Nonnull
-        private final WeightValueParamsF2 weightValueReused;
+        private WeightValueParamsF2 weightValueReused;
 
         @Nonnull
         private float[] sum_of_gradients;
@@ -484,6 +548,14 @@ public final class DenseOptimizerFactory {
             this.sum_of_gradients = new float[ndims];
         }
 
+        @Override
+        public DenseOptimizerFactory.AdagradRDA fork() {
+            DenseOptimizerFactory.AdagradRDA forked =
+                    (DenseOptimizerFactory.AdagradRDA) shallowCopy();
+            forked.weightValueReused = newWeightValue(0.f);
+            return forked;
+        }
+
         @Override
         protected float update(@Nonnull final Object feature, final float weight,
                 final float gradient) {
@@ -58,8 +58,18 @@ public interface Optimizer {
     @Nonnull
     Map<String, Object> getHyperParameters();
 
+    /**
+     * Returns an optimizer for another worker thread that shares the per-feature states with this
+     * optimizer, for Hogwild!-style lock-free updates. The step count and the other global states
+     * are copied and then maintained by each optimizer.
+     *
+     * @throws UnsupportedOperationException if the optimizer does not support concurrent updates
+     */
+    @Nonnull
+    Optimizer fork();
+
     @NotThreadSafe
-    static abstract class OptimizerBase implements Optimizer {
+    static abstract class OptimizerBase implements Optimizer, Cloneable {
 
         @Nonnull
         protected final EtaEstimator _eta;
@@ -135,17 +145,42 @@ public interface Optimizer {
             return params;
         }
 
+        @Override
+        public Optimizer fork() {
+            throw new UnsupportedOperationException(
+                getOptimizerName() + " does not support concurrent updates");
+        }
+
+        /**
+         * @return a shallow copy of this optimizer that shares per-feature states
+         */
+        @Nonnull
+        protected final OptimizerBase shallowCopy() {
+            try {
+                return (OptimizerBase) clone();
+            } catch (CloneNotSupportedException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
     }
 
     static final class SGD extends OptimizerBase {
 
-        private final IWeightValue weightValueReused;
+        private IWeightValue weightValueReused;
 
         public SGD(@Nonnull Map<String, String> options) {
             super(options);
             this.weightValueReused = newWeightValue(0.f);
         }
 
+        @Override
+        public SGD fork() {
+            SGD forked = (SGD) shallowCopy();
+            forked.weightValueReused = newWeightValue(0.f);
+            return forked;
+        }
+
         @Override
         protected WeightValue newWeightValue(final float weight) {
             return new WeightValue(weight);
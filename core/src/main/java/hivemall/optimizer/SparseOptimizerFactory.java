@@ -20,8 +20,6 @@ package hivemall.optimizer;
 
 import hivemall.model.IWeightValue;
 import hivemall.optimizer.Optimizer.OptimizerBase;
-import it.unimi.dsi.fastutil.objects.Object2ObjectMap;
-import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
 
 import java.util.Map;
 
@@ -98,24 +96,20 @@ public final class SparseOptimizerFactory {
     static final class Momentum extends Optimizer.Momentum {
 
         @Nonnull
-        private final Object2ObjectMap<Object, IWeightValue> auxWeights;
+        private final SparseOptimizerState auxWeights;
 
         public Momentum(@Nonnegative int size, @Nonnull Map<String, String> options) {
             super(options);
-            this.auxWeights = new Object2ObjectOpenHashMap<Object, IWeightValue>(size);
+            this.auxWeights = new SparseOptimizerState(this, size);
         }
 
         @Override
         protected float update(@Nonnull final Object feature, final float weight,
                 final float gradient) {
-            IWeightValue auxWeight = auxWeights.get(feature);
-            if (auxWeight == null) {
-                auxWeight = newWeightValue(weight);
-                auxWeights.put(feature, auxWeight);
-            } else {
-                auxWeight.set(weight);
-            }
-            return update(auxWeight, gradient);
+            final IWeightValue auxWeight = auxWeights.load(feature, weight);
+            final float newWeight = update(auxWeight, gradient);
+            auxWeights.store(auxWeight);
+            return newWeight;
         }
 
     }
@@ -124,24 +118,20 @@ public final class SparseOptimizerFactory {
     static final class AdaGrad extends Optimizer.AdaGrad {
 
         @Nonnull
-        private final Object2ObjectMap<Object, IWeightValue> auxWeights;
+        private final SparseOptimizerState auxWeights;
 
         public AdaGrad(@Nonnegative int size, @Nonnull Map<String, String> options) {
             super(options);
-            this.auxWeights = new Object2ObjectOpenHashMap<Object, IWeightValue>(size);
+            this.auxWeights = new SparseOptimizerState(this, size);
         }
 
         @Override
         protected float update(@Nonnull final Object feature, final float weight,
                 final float gradient) {
-            IWeightValue auxWeight = auxWeights.get(feature);
-            if (auxWeight == null) {
-                auxWeight = newWeightValue(weight);
-                auxWeights.put(feature, auxWeight);
-            } else {
-                auxWeight.set(weight);
-            }
-            return update(auxWeight, gradient);
+            final IWeightValue auxWeight = auxWeights.load(feature, weight);
+            final float newWeight = update(auxWeight, gradient);
+            auxWeights.store(auxWeight);
+            return newWeight;
         }
 
     }
@@ -150,24 +140,20 @@ public final class SparseOptimizerFactory {
     static final class RMSprop extends Optimizer.RMSprop {
 
         @Nonnull
-        private final Object2ObjectMap<Object, IWeightValue> auxWeights;
+        private final SparseOptimizerState auxWeights;
 
         public RMSprop(@Nonnegative int size, @Nonnull Map<String, String> options) {
             super(options);
-            this.auxWeights = new Object2ObjectOpenHashMap<Object, IWeightValue>(size);
+            this.auxWeights = new SparseOptimizerState(this, size);
         }
 
         @Override
         protected float update(@Nonnull final Object feature, final float weight,
                 final float gradient) {
-            IWeightValue auxWeight = auxWeights.get(feature);
-            if (auxWeight == null) {
-                auxWeight = newWeightValue(weight);
-                auxWeights.put(feature, auxWeight);
-            } else {
-                auxWeight.set(weight);
-            }
-            return update(auxWeight, gradient);
+            final IWeightValue auxWeight = auxWeights.load(feature, weight);
+            final float newWeight = update(auxWeight, gradient);
+            auxWeights.store(auxWeight);
+            return newWeight;
         }
 
     }
@@ -176,24 +162,20 @@ public final class SparseOptimizerFactory {
     static final class RMSpropGraves extends Optimizer.RMSpropGraves {
 
         @Nonnull
-        private final Object2ObjectMap<Object, IWeightValue> auxWeights;
+        private final SparseOptimizerState auxWeights;
 
         public RMSpropGraves(@Nonnegative int size, @Nonnull Map<String, String> options) {
             super(options);
-            this.auxWeights = new Object2ObjectOpenHashMap<Object, IWeightValue>(size);
+            this.auxWeights = new SparseOptimizerState(this, size);
         }
 
         @Override
         protected float update(@Nonnull final Object feature, final float weight,
                 final float gradient) {
-            IWeightValue auxWeight = auxWeights.get(feature);
-            if (auxWeight == null) {
-                auxWeight = newWeightValue(weight);
-                auxWeights.put(feature, auxWeight);
-            } else {
-                auxWeight.set(weight);
-            }
-            return update(auxWeight, gradient);
+            final IWeightValue auxWeight = auxWeights.load(feature, weight);
+            final float newWeight = update(auxWeight, gradient);
+            auxWeights.store(auxWeight);
+            return newWeight;
         }
 
     }
@@ -202,24 +184,20 @@ public final class SparseOptimizerFactory {
     static final class AdaDelta extends Optimizer.AdaDelta {
 
         @Nonnull
-        private final Object2ObjectMap<Object, IWeightValue> auxWeights;
+        private final SparseOptimizerState auxWeights;
 
         public AdaDelta(@Nonnegative int size, @Nonnull Map<String, String> options) {
             super(options);
-            this.auxWeights = new Object2ObjectOpenHashMap<Object, IWeightValue>(size);
+            this.auxWeights = new SparseOptimizerState(this, size);
         }
 
         @Override
         protected float update(@Nonnull final Object feature, final float weight,
                 final float gradient) {
-            IWeightValue auxWeight = auxWeights.get(feature);
-            if (auxWeight == null) {
-                auxWeight = newWeightValue(weight);
-                auxWeights.put(feature, auxWeight);
-            } else {
-                auxWeight.set(weight);
-            }
-            return update(auxWeight, gradient);
+            final IWeightValue auxWeight = auxWeights.load(feature, weight);
+            final float newWeight = update(auxWeight, gradient);
+            auxWeights.store(auxWeight);
+            return newWeight;
         }
 
     }
@@ -228,24 +206,20 @@ public final class SparseOptimizerFactory {
     static final class Adam extends Optimizer.Adam {
 
         @Nonnull
-        private final Object2ObjectMap<Object, IWeightValue> auxWeights;
+        private final SparseOptimizerState auxWeights;
 
         public Adam(@Nonnegative int size, @Nonnull Map<String, String> options) {
             super(options);
-            this.auxWeights = new Object2ObjectOpenHashMap<Object, IWeightValue>(size);
+            this.auxWeights = new SparseOptimizerState(this, size);
         }
 
         @Override
         protected float update(@Nonnull final Object feature, final float weight,
                 final float gradient) {
-            IWeightValue auxWeight = auxWeights.get(feature);
-            if (auxWeight == null) {
-                auxWeight = newWeightValue(weight);
-                auxWeights.put(feature, auxWeight);
-            } else {
-                auxWeight.set(weight);
-            }
-            return update(auxWeight, gradient);
+            final IWeightValue auxWeight = auxWeights.load(feature, weight);
+            final float newWeight = update(auxWeight, gradient);
+            auxWeights.store(auxWeight);
+            return newWeight;
         }
 
     }
@@ -254,24 +228,20 @@ public final class SparseOptimizerFactory {
     static final class Nadam extends Optimizer.Nadam {
 
         @Nonnull
-        private final Object2ObjectMap<Object, IWeightValue> auxWeights;
+        private final SparseOptimizerState auxWeights;
 
         public Nadam(@Nonnegative int size, @Nonnull Map<String, String> options) {
             super(options);
-            this.auxWeights = new Object2ObjectOpenHashMap<Object, IWeightValue>(size);
+            this.auxWeights = new SparseOptimizerState(this, size);
         }
 
         @Override
         protected float update(@Nonnull final Object feature, final float weight,
                 final float gradient) {
-            IWeightValue auxWeight = auxWeights.get(feature);
-            if (auxWeight == null) {
-                auxWeight = newWeightValue(weight);
-                auxWeights.put(feature, auxWeight);
-            } else {
-                auxWeight.set(weight);
-            }
-            return update(auxWeight, gradient);
+            final IWeightValue auxWeight = auxWeights.load(feature, weight);
+            final float newWeight = update(auxWeight, gradient);
+            auxWeights.store(auxWeight);
+            return newWeight;
         }
 
     }
@@ -280,24 +250,20 @@ public final class SparseOptimizerFactory {
     static final class Eve extends Optimizer.Eve {
 
         @Nonnull
-        private final Object2ObjectMap<Object, IWeightValue> auxWeights;
+        private final SparseOptimizerState auxWeights;
 
         public Eve(@Nonnegative int size, @Nonnull Map<String, String> options) {
             super(options);
-            this.auxWeights = new Object2ObjectOpenHashMap<Object, IWeightValue>(size);
+            this.auxWeights = new SparseOptimizerState(this, size);
         }
 
         @Override
         protected float update(@Nonnull final Object feature, final float weight,
                 final float gradient) {
-            IWeightValue auxWeight = auxWeights.get(feature);
-            if (auxWeight == null) {
-                auxWeight = newWeightValue(weight);
-                auxWeights.put(feature, auxWeight);
-            } else {
-                auxWeight.set(weight);
-            }
-            return update(auxWeight, gradient);
+            final IWeightValue auxWeight = auxWeights.load(feature, weight);
+            final float newWeight = update(auxWeight, gradient);
+            auxWeights.store(auxWeight);
+            return newWeight;
         }
 
     }
@@ -306,24 +272,20 @@ public final class SparseOptimizerFactory {
     static final class AdamHD extends Optimizer.AdamHD {
 
         @Nonnull
-        private final Object2ObjectMap<Object, IWeightValue> auxWeights;
+        private final SparseOptimizerState auxWeights;
 
         public AdamHD(@Nonnegative int size, @Nonnull Map<String, String> options) {
             super(options);
-            this.auxWeights = new Object2ObjectOpenHashMap<Object, IWeightValue>(size);
+            this.auxWeights = new SparseOptimizerState(this, size);
         }
 
         @Override
         protected float update(@Nonnull final Object feature, final float weight,
                 final float gradient) {
-            IWeightValue auxWeight = auxWeights.get(feature);
-            if (auxWeight == null) {
-                auxWeight = newWeightValue(weight);
-                auxWeights.put(feature, auxWeight);
-            } else {
-                auxWeight.set(weight);
-            }
-            return update(auxWeight, gradient);
+            final IWeightValue auxWeight = auxWeights.load(feature, weight);
+            final float newWeight = update(auxWeight, gradient);
+            auxWeights.store(auxWeight);
+            return newWeight;
         }
 
     }
@@ -332,25 +294,20 @@ public final class SparseOptimizerFactory {
     static final class AdagradRDA extends Optimizer.AdagradRDA {
 
         @Nonnull
-        private final Object2ObjectMap<Object, IWeightValue> auxWeights;
+        private final SparseOptimizerState auxWeights;
 
         public AdagradRDA(@Nonnegative int size, @Nonnull Optimizer.AdaGrad optimizerImpl,
                 @Nonnull Map<String, String> options) {
             super(optimizerImpl, options);
-            this.auxWeights = new Object2ObjectOpenHashMap<Object, IWeightValue>(size);
+            this.auxWeights = new SparseOptimizerState(this, size);
         }
 
         @Override
         protected float update(@Nonnull final Object feature, final float weight,
                 final float gradient) {
-            IWeightValue auxWeight = auxWeights.get(feature);
-            if (auxWeight == null) {
-                auxWeight = newWeightValue(weight);
-                auxWeights.put(feature, auxWeight);
-            } else {
-                auxWeight.set(weight);
-            }
+            final IWeightValue auxWeight = auxWeights.load(feature, weight);
             final float newWeight = update(auxWeight, gradient);
+            auxWeights.store(auxWeight);
             if (newWeight == 0.f) {
                 auxWeights.remove(feature);
             }
@@ -0,0 +1,229 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.optimizer;
+
+import hivemall.model.IWeightValue;
+import hivemall.model.IWeightValue.WeightValueType;
+import hivemall.optimizer.Optimizer.OptimizerBase;
+import hivemall.utils.collections.maps.Long2IntOpenHashTable;
+import it.unimi.dsi.fastutil.objects.Object2ObjectMap;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+
+import java.util.Arrays;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Per-feature auxiliary parameters of a sparse optimizer.
+ *
+ * INT/BIGINT features are mapped to row indices by a primitive hash table and each auxiliary
+ * parameter is kept in its own float column, so that no {@link IWeightValue} is allocated for each
+ * feature. Other features are kept in a map of {@link IWeightValue}.
+ */
+@NotThreadSafe
+final class SparseOptimizerState {
+
+    @Nonnull
+    private final OptimizerBase optimizer;
+    @Nonnegative
+    private final int initSize;
+    /** Reused for INT/BIGINT features */
+    @Nonnull
+    private final IWeightValue probe;
+    @Nonnegative
+    private final int numParams;
+
+    // -----------------------------------------
+    // for INT/BIGINT features
+
+    @Nullable
+    private Long2IntOpenHashTable rowIndex;
+    /** float columns of auxiliary parameters */
+    @Nullable
+    private float[][] columns;
+    private int numRows;
+    /** stack of the rows freed by {@link #remove(Object)} */
+    @Nonnull
+    private int[] freeRows;
+    private int numFreeRows;
+    /** row index of the last loaded probe */
+    private int lastRow;
+
+    // -----------------------------------------
+    // for other features
+
+    @Nullable
+    private Object2ObjectMap<Object, IWeightValue> auxWeights;
+
+    SparseOptimizerState(@Nonnull OptimizerBase optimizer, @Nonnegative int size) {
+        this.optimizer = optimizer;
+        this.initSize = Math.max(size, 1);
+        this.probe = optimizer.newWeightValue(0.f);
+        this.numParams = getNumParams(probe.getType());
+        this.numRows = 0;
+        this.freeRows = new int[0];
+        this.numFreeRows = 0;
+        this.lastRow = -1;
+    }
+
+    private static int getNumParams(@Nonnull final WeightValueType type) {
+        switch (type) {
+            case NoParams:
+                return 0;
+            case ParamsF1:
+                return 1;
+            case ParamsF2:
+                return 2;
+            case ParamsF3:
+                return 3;
+            default:
+                throw new IllegalArgumentException("Unexpected weight value type: " + type);
+        }
+    }
+
+    /**
+     * Returns the auxiliary parameters of the given feature with the given weight. Call
+     * {@link #store(IWeightValue)} after updating the returned value.
+     */
+    @Nonnull
+    IWeightValue load(@Nonnull final Object feature, final float weight) {
+        if (feature instanceof Integer || feature instanceof Long) {
+            final int row = getRow(((Number) feature).longValue());
+            final IWeightValue probe = this.probe;
+            probe.set(weight);
+            final float[][] columns = this.columns;
+            for (int j = 0; j < numParams; j++) {
+                setFloatParams(probe, j + 1, columns[j][row]);
+            }
+            this.lastRow = row;
+            return probe;
+        }
+
+        this.lastRow = -1;
+        if (auxWeights == null) {
+            this.auxWeights = new Object2ObjectOpenHashMap<Object, IWeightValue>(initSize);
+        }
+        IWeightValue auxWeight = auxWeights.get(feature);
+        if (auxWeight == null) {
+            auxWeight = optimizer.newWeightValue(weight);
+            auxWeights.put(feature, auxWeight);
+        } else {
+            auxWeight.set(weight);
+        }
+        return auxWeight;
+    }
+
+    /**
+     * Writes back the auxiliary parameters returned by the last {@link #load(Object, float)}.
+     */
+    void store(@Nonnull final IWeightValue auxWeight) {
+        if (auxWeight != probe) {
+            return; // updated in place
+        }
+        final int row = lastRow;
+        assert (row >= 0) : row;
+        final float[][] columns = this.columns;
+        for (int j = 0; j < numParams; j++) {
+            columns[j][row] = auxWeight.getFloatParams(j + 1);
+        }
+    }
+
+    /**
+     * Removes the auxiliary parameters of the given feature. The row of an INT/BIGINT feature is
+     * cleared and reused for a feature added later.
+     */
+    void remove(@Nonnull final Object feature) {
+        if (feature instanceof Integer || feature instanceof Long) {
+            if (rowIndex == null) {
+                return;
+            }
+            final int row = rowIndex.remove(((Number) feature).longValue());
+            if (row == -1) {
+                return;
+            }
+            for (int j = 0; j < numParams; j++) {
+                columns[j][row] = 0.f;
+            }
+            if (numFreeRows == freeRows.length) {
+                this.freeRows = Arrays.copyOf(freeRows, Math.max(16, numFreeRows * 2));
+            }
+            freeRows[numFreeRows++] = row;
+        } else if (auxWeights != null) {
+            auxWeights.remove(feature);
+        }
+    }
+
+    private int getRow(final long key) {
+        if (rowIndex == null) {
+            this.rowIndex = new Long2IntOpenHashTable(initSize);
+            this.columns = new float[numParams][initSize];
+        }
+        int row = rowIndex.get(key);
+        if (row == -1) {
+            if (numFreeRows > 0) {
+                row = freeRows[--numFreeRows]; // already cleared
+            } else {
+                row = numRows++;
+                ensureCapacity(row);
+            }
+            rowIndex.put(key, row);
+        }
+        return row;
+    }
+
+    /**
+     * @return the number of rows allocated for INT/BIGINT features including the freed ones
+     */
+    int getNumRows() {
+        return numRows;
+    }
+
+    private void ensureCapacity(final int row) {
+        final float[][] columns = this.columns;
+        if (numParams == 0 || row < columns[0].length) {
+            return;
+        }
+        final int newSize = Math.max(row + 1, columns[0].length * 2);
+        for (int j = 0; j < numParams; j++) {
+            columns[j] = Arrays.copyOf(columns[j], newSize);
+        }
+    }
+
+    private static void setFloatParams(@Nonnull final IWeightValue weight, final int i,
+            final float value) {
+        switch (i) {
+            case 1:
+                weight.setSumOfSquaredGradients(value);
+                break;
+            case 2:
+                weight.setSumOfSquaredDeltaX(value);
+                break;
+            case 3:
+                weight.setSumOfGradients(value);
+                break;
+            default:
+                throw new IllegalArgumentException(
+                    "setFloatParams(" + i + ") should not be called");
+        }
+    }
+
+}
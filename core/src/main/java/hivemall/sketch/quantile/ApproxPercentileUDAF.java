@@ -0,0 +1,320 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.sketch.quantile;
+
+import hivemall.UDAFEvaluatorWithOptions;
+import hivemall.utils.hadoop.HiveUtils;
+import hivemall.utils.hadoop.WritableUtils;
+import hivemall.utils.lang.Primitives;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Options;
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentLengthException;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.parse.SemanticException;
+import org.apache.hadoop.hive.ql.udf.generic.AbstractGenericUDAFResolver;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.AbstractAggregationBuffer;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.AggregationType;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFParameterInfo;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.BinaryObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
+import org.apache.hadoop.io.BytesWritable;
+
+@Description(name = "approx_percentile",
+        value = "_FUNC_(number x, const double p | const array<double> ps [, const string options])"
+                + " - Returns the approximate p-th percentile(s) of x using a mergeable KLL sketch",
+        extended = "SELECT approx_percentile(x, 0.5), approx_percentile(x, array(0.25, 0.5, 0.75), '-k 1024') FROM src;\n"
+                + "The rank error is about 1.65% for k=200 (default) and 0.35% for k=1024.")
+public final class ApproxPercentileUDAF extends AbstractGenericUDAFResolver {
+
+    @Override
+    public GenericUDAFEvaluator getEvaluator(@Nonnull GenericUDAFParameterInfo info)
+            throws SemanticException {
+        final ObjectInspector[] OIs = info.getParameterObjectInspectors();
+        if (OIs.length != 2 && OIs.length != 3) {
+            throw new UDFArgumentLengthException("Specify two or three arguments: " + OIs.length);
+        }
+        if (!HiveUtils.isNumberOI(OIs[0])) {
+            throw new UDFArgumentTypeException(0,
+                "Only number type argument is acceptable but " + OIs[0].getTypeName()
+                        + " was passed as `x`");
+        }
+        final boolean multiple;
+        if (HiveUtils.isNumberOI(OIs[1])) {
+            multiple = false;
+        } else if (HiveUtils.isNumberListOI(OIs[1])) {
+            multiple = true;
+        } else {
+            throw new UDFArgumentTypeException(1,
+                "Only double or array<double> type argument is acceptable but "
+                        + OIs[1].getTypeName() + " was passed as `p`");
+        }
+        if (!ObjectInspectorUtils.isConstantObjectInspector(OIs[1])) {
+            throw new UDFArgumentTypeException(1, "`p` must be a constant value");
+        }
+        if (OIs.length == 3 && !HiveUtils.isConstString(OIs[2])) {
+            throw new UDFArgumentTypeException(2,
+                "The third argument must be a constant string: " + OIs[2].getTypeName());
+        }
+
+        return new Evaluator(multiple);
+    }
+
+    public static final class Evaluator extends UDAFEvaluatorWithOptions {
+
+        private boolean multiple;
+
+        // PARTIAL1 and COMPLETE
+        private PrimitiveObjectInspector xOI;
+        private int k;
+        @Nullable
+        private double[] percentiles;
+
+        // PARTIAL2 and FINAL
+        private StructObjectInspector internalMergeOI;
+        private StructField percentilesField, sketchField;
+        private ListObjectInspector percentilesOI;
+        private PrimitiveObjectInspector percentileOI;
+        private BinaryObjectInspector sketchOI;
+
+        public Evaluator() {} // for serialization
+
+        Evaluator(boolean multiple) {
+            this.multiple = multiple;
+        }
+
+        @Override
+        protected Options getOptions() {
+            Options opts = new Options();
+            opts.addOption("k", true,
+                "The accuracy parameter of the sketch. Larger is more accurate [default: "
+                        + KLLSketch.DEFAULT_K + "]");
+            return opts;
+        }
+
+        @Override
+        protected CommandLine processOptions(@Nonnull ObjectInspector[] argOIs)
+                throws UDFArgumentException {
+            CommandLine cl = null;
+
+            int k = KLLSketch.DEFAULT_K;
+            if (argOIs.length == 3) {
+                cl = parseOptions(HiveUtils.getConstString(argOIs[2]));
+                k = Primitives.parseInt(cl.getOptionValue("k"), k);
+                if (k < KLLSketch.MIN_K) {
+                    throw new UDFArgumentException(
+                        "k must be greater than or equal to " + KLLSketch.MIN_K + ": " + k);
+                }
+            }
+            this.k = k;
+
+            return cl;
+        }
+
+        @Override
+        public ObjectInspector init(@Nonnull Mode mode, @Nonnull ObjectInspector[] OIs)
+                throws HiveException {
+            super.init(mode, OIs);
+
+            if (mode == Mode.PARTIAL1 || mode == Mode.COMPLETE) {// from original data
+                processOptions(OIs);
+                this.xOI = HiveUtils.asDoubleCompatibleOI(OIs[0]);
+                this.percentiles = getPercentiles(OIs[1], multiple);
+            } else {// from partial aggregation
+                this.internalMergeOI = (StructObjectInspector) OIs[0];
+                this.percentilesField = internalMergeOI.getStructFieldRef("percentiles");
+                this.sketchField = internalMergeOI.getStructFieldRef("sketch");
+                this.percentilesOI = HiveUtils.asListOI(percentilesField.getFieldObjectInspector());
+                this.percentileOI =
+                        HiveUtils.asDoubleOI(percentilesOI.getListElementObjectInspector());
+                this.sketchOI = HiveUtils.asBinaryOI(sketchField.getFieldObjectInspector());
+            }
+
+            if (mode == Mode.PARTIAL1 || mode == Mode.PARTIAL2) {// terminatePartial
+                return internalMergeOI();
+            } else {// terminate
+                if (multiple) {
+                    return ObjectInspectorFactory.getStandardListObjectInspector(
+                        PrimitiveObjectInspectorFactory.writableDoubleObjectInspector);
+                } else {
+                    return PrimitiveObjectInspectorFactory.writableDoubleObjectInspector;
+                }
+            }
+        }
+
+        @Nonnull
+        private static StructObjectInspector internalMergeOI() {
+            List<String> fieldNames = Arrays.asList("percentiles", "sketch");
+            List<ObjectInspector> fieldOIs = new ArrayList<ObjectInspector>();
+            fieldOIs.add(ObjectInspectorFactory.getStandardListObjectInspector(
+                PrimitiveObjectInspectorFactory.writableDoubleObjectInspector));
+            fieldOIs.add(PrimitiveObjectInspectorFactory.writableBinaryObjectInspector);
+            return ObjectInspectorFactory.getStandardStructObjectInspector(fieldNames, fieldOIs);
+        }
+
+        @Nonnull
+        private static double[] getPercentiles(@Nonnull ObjectInspector oi, boolean multiple)
+                throws UDFArgumentException {
+            final double[] percentiles;
+            if (multiple) {
+                percentiles = HiveUtils.getConstDoubleArray(oi);
+                if (percentiles == null || percentiles.length == 0) {
+                    throw new UDFArgumentException("`ps` must not be empty");
+                }
+            } else {
+                percentiles = new double[] {HiveUtils.getAsConstDouble(oi)};
+            }
+            for (double p : percentiles) {
+                if (!(p >= 0.d && p <= 1.d)) {
+                    throw new UDFArgumentException("percentile must be in range [0,1]: " + p);
+                }
+            }
+            return percentiles;
+        }
+
+        @Override
+        public SketchBuffer getNewAggregationBuffer() throws HiveException {
+            SketchBuffer buf = new SketchBuffer();
+            reset(buf);
+            return buf;
+        }
+
+        @SuppressWarnings("deprecation")
+        @Override
+        public void reset(@Nonnull AggregationBuffer agg) throws HiveException {
+            SketchBuffer buf = (SketchBuffer) agg;
+            buf.reset(k, percentiles);
+        }
+
+        @SuppressWarnings("deprecation")
+        @Override
+        public void iterate(@Nonnull AggregationBuffer agg, @Nonnull Object[] parameters)
+                throws HiveException {
+            if (parameters[0] == null) {
+                return;
+            }
+            SketchBuffer buf = (SketchBuffer) agg;
+            buf.sketch.update(PrimitiveObjectInspectorUtils.getDouble(parameters[0], xOI));
+        }
+
+        @SuppressWarnings("deprecation")
+        @Override
+        public Object[] terminatePartial(@Nonnull AggregationBuffer agg) throws HiveException {
+            SketchBuffer buf = (SketchBuffer) agg;
+            if (buf.percentiles == null) {
+                return null;
+            }
+            Object[] partial = new Object[2];
+            partial[0] = WritableUtils.toWritableList(buf.percentiles);
+            partial[1] = new BytesWritable(buf.sketch.serialize());
+            return partial;
+        }
+
+        @SuppressWarnings("deprecation")
+        @Override
+        public void merge(@Nonnull AggregationBuffer agg, @Nullable Object partial)
+                throws HiveException {
+            if (partial == null) {
+                return;
+            }
+            SketchBuffer buf = (SketchBuffer) agg;
+
+            if (buf.percentiles == null) {
+                buf.percentiles = HiveUtils.asDoubleArray(
+                    internalMergeOI.getStructFieldData(partial, percentilesField), percentilesOI,
+                    percentileOI);
+            }
+            byte[] bytes = sketchOI.getPrimitiveJavaObject(
+                internalMergeOI.getStructFieldData(partial, sketchField));
+            final KLLSketch other;
+            try {
+                other = KLLSketch.deserialize(bytes);
+            } catch (IllegalArgumentException e) {
+                throw new HiveException("Failed to deserialize a sketch", e);
+            }
+            if (buf.sketch == null || buf.sketch.isEmpty()) {
+                buf.sketch = other;
+            } else {
+                buf.sketch.merge(other);
+            }
+        }
+
+        @SuppressWarnings("deprecation")
+        @Override
+        public Object terminate(@Nonnull AggregationBuffer agg) throws HiveException {
+            SketchBuffer buf = (SketchBuffer) agg;
+            if (buf.sketch == null || buf.sketch.isEmpty() || buf.percentiles == null) {
+                return null; // SQL standard - return null for zero elements
+            }
+
+            final double[] result = buf.sketch.quantiles(buf.percentiles);
+            if (multiple) {
+                return WritableUtils.toWritableList(result);
+            } else {
+                return new DoubleWritable(result[0]);
+            }
+        }
+
+    }
+
+    @AggregationType(estimable = true)
+    static final class SketchBuffer extends AbstractAggregationBuffer {
+
+        @Nullable
+        KLLSketch sketch;
+        @Nullable
+        double[] percentiles;
+
+        SketchBuffer() {}
+
+        void reset(int k, @Nullable double[] percentiles) {
+            // k is unknown (zero) on the reduce side; it comes with the merged sketches
+            this.sketch = (k == 0) ? null : new KLLSketch(k);
+            this.percentiles = percentiles;
+        }
+
+        @Override
+        public int estimate() {
+            return (sketch == null ? 0 : sketch.estimateBytes())
+                    + (percentiles == null ? 0 : 8 * percentiles.length);
+        }
+
+    }
+
+}
@@ -32,6 +32,7 @@ import matrix4j.vector.DenseVector;
 import matrix4j.vector.SparseVector;
 import matrix4j.vector.Vector;
 import matrix4j.vector.VectorProcedure;
+import hivemall.smile.utils.FlatTree;
 import hivemall.smile.utils.SmileExtUtils;
 import hivemall.smile.utils.VariableOrder;
 import hivemall.utils.collections.arrays.SparseIntArray;
@@ -505,6 +506,30 @@ public class DecisionTree implements Classifier<Vector> {
             return selfDepth;
         }
 
+        /**
+         * Flattens the tree rooted at this node into packed arrays for fast prediction.
+         */
+        @Nonnull
+        public FlatTree flatten() {
+            FlatTree.Builder builder = new FlatTree.Builder(true);
+            flatten(builder);
+            return builder.build();
+        }
+
+        /**
+         * @return the branch index or the leaf reference of this node
+         */
+        private int flatten(@Nonnull final FlatTree.Builder builder) {
+            if (isLeaf()) {
+                return builder.addLeaf(output, posteriori);
+            }
+            final int branch = builder.addBranch(splitFeature, quantitativeFeature, splitValue);
+            final int t = trueChild.flatten(builder);
+            final int f = falseChild.flatten(builder);
+            builder.setChildren(branch, t, f);
+            return branch;
+        }
+
         @Override
         public void writeExternal(ObjectOutput out) throws IOException {
             out.writeInt(splitFeature);
@@ -1213,6 +1238,23 @@ public class DecisionTree implements Classifier<Vector> {
     public DecisionTree(@Nullable RoaringBitmap nominalAttrs, @Nonnull Matrix x, @Nonnull int[] y,
             int numVars, int maxDepth, int maxLeafNodes, int minSamplesSplit, int minSamplesLeaf,
             @Nullable int[] samples, @Nonnull SplitRule rule, @Nullable PRNG rand) {
+        this(nominalAttrs, x, y, numVars, maxDepth, maxLeafNodes, minSamplesSplit, minSamplesLeaf,
+            samples, rule, rand, null);
+    }
+
+    /**
+     * Constructor. Learns a classification tree for random forest.
+     *
+     * @param presorted the order of all rows given by {@link SmileExtUtils#sort(RoaringBitmap,
+     *        Matrix)}, which is shared by trees and not modified. Columns are sorted for this tree
+     *        if null.
+     * @see #DecisionTree(RoaringBitmap, Matrix, int[], int, int, int, int, int, int[], SplitRule,
+     *      PRNG)
+     */
+    public DecisionTree(@Nullable RoaringBitmap nominalAttrs, @Nonnull Matrix x, @Nonnull int[] y,
+            int numVars, int maxDepth, int maxLeafNodes, int minSamplesSplit, int minSamplesLeaf,
+            @Nullable int[] samples, @Nonnull SplitRule rule, @Nullable PRNG rand,
+            @Nullable VariableOrder presorted) {
         checkArgument(x, y, numVars, maxDepth, maxLeafNodes, minSamplesSplit, minSamplesLeaf);
 
         this._X = x;
@@ -1272,7 +1314,8 @@ public class DecisionTree implements Classifier<Vector> {
             sampleIndex = positions.toArray(true);
         }
         this._samples = samples;
-        this._order = SmileExtUtils.sort(nominalAttrs, x, samples);
+        this._order = (presorted == null) ? SmileExtUtils.sort(nominalAttrs, x, samples)
+                : presorted.sample(samples);
         this._sampleIndex = sampleIndex;
 
         final double[] posteriori = new double[_k];
@@ -1413,9 +1456,22 @@ public class DecisionTree implements Classifier<Vector> {
         }
     }
 
+    /**
+     * @return the tree flattened into packed arrays, which is serialized more compactly than
+     *         {@link #serialize(boolean)} and predicts faster
+     */
+    @Nonnull
+    public FlatTree flatten() {
+        return _root.flatten();
+    }
+
     @Nonnull
     public static Node deserialize(@Nonnull final byte[] serializedObj, final int length,
             final boolean compressed) throws HiveException {
+        if (FlatTree.isFlatTree(serializedObj, length)) {
+            throw new HiveException(
+                "A model in the flat tree format is only supported by tree_predict");
+        }
         final Node root = new Node();
         try {
             if (compressed) {
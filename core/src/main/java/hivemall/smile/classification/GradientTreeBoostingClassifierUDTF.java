@@ -28,9 +28,12 @@ import matrix4j.vector.SparseVector;
 import matrix4j.vector.Vector;
 import matrix4j.vector.VectorProcedure;
 import hivemall.smile.regression.RegressionTree;
+import hivemall.smile.utils.FeatureBins;
 import hivemall.smile.utils.SmileExtUtils;
+import hivemall.smile.utils.SmileTaskExecutor;
 import hivemall.utils.codec.Base91;
 import hivemall.utils.collections.lists.IntArrayList;
+import hivemall.utils.datetime.StopWatch;
 import hivemall.utils.hadoop.HiveUtils;
 import hivemall.utils.hadoop.SerdeUtils;
 import hivemall.utils.hadoop.WritableUtils;
@@ -42,7 +45,9 @@ import hivemall.utils.random.RandomNumberGeneratorFactory;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -52,6 +57,7 @@ import org.apache.commons.cli.Options;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.MapredContextAccessor;
 import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.serde2.io.DoubleWritable;
@@ -112,6 +118,12 @@ public final class GradientTreeBoostingClassifierUDTF extends UDTFWithOptions {
     private int _minSamplesLeaf;
     private long _seed;
     private byte[] _nominalAttrs;
+    private boolean _flatTree;
+    /**
+     * The maximum number of quantile bins of each numerical feature for histogram-based split
+     * finding. 0 means exact split finding on sorted values.
+     */
+    private int _maxBins;
 
     @Nullable
     private transient Reporter _progressReporter;
@@ -143,6 +155,15 @@ public final class GradientTreeBoostingClassifierUDTF extends UDTFWithOptions {
                 + "(Q for quantitative variable and C for categorical variable. e.g., [Q,C,Q,C])");
         opts.addOption("nominal_attr_indicies", "categorical_attr_indicies", true,
             "Comma seperated indicies of categorical attributes, e.g., [3,5,6]");
+        opts.addOption("flat", "flat_tree", false,
+            "Output models in the flat tree format, which is compact and fast to evaluate by"
+                    + " tree_predict but not supported by tree_export and decision_path");
+        opts.addOption("hist", "histogram", false,
+            "Find splits on histograms of quantile bins of numerical features, which is faster"
+                    + " than exact split finding on sorted values for large data");
+        opts.addOption("bins", "max_bins", true,
+            "The maximum number of quantile bins of each numerical feature used with -hist"
+                    + " [default: 255]");
         return opts;
     }
 
@@ -154,6 +175,8 @@ public final class GradientTreeBoostingClassifierUDTF extends UDTFWithOptions {
         double eta = 0.05d, subsample = 0.7d;
         RoaringBitmap attrs = new RoaringBitmap();
         long seed = -1L;
+        boolean flatTree = false;
+        int maxBins = 0;
 
         CommandLine cl = null;
         if (argOIs.length >= 3) {
@@ -179,6 +202,13 @@ public final class GradientTreeBoostingClassifierUDTF extends UDTFWithOptions {
             minSamplesLeaf =
                     Primitives.parseInt(cl.getOptionValue("min_samples_leaf"), minSamplesLeaf);
             seed = Primitives.parseLong(cl.getOptionValue("seed"), seed);
+            flatTree = cl.hasOption("flat_tree");
+            if (cl.hasOption("histogram")) {
+                maxBins = Primitives.parseInt(cl.getOptionValue("max_bins"), 255);
+                if (maxBins < 2 || maxBins > FeatureBins.MAX_BINS) {
+                    throw new UDFArgumentException("Invalid max_bins: " + maxBins);
+                }
+            }
             String nominal_attr_indicies = cl.getOptionValue("nominal_attr_indicies");
             if (nominal_attr_indicies != null) {
                 attrs = SmileExtUtils.parseNominalAttributeIndicies(nominal_attr_indicies);
@@ -197,6 +227,8 @@ public final class GradientTreeBoostingClassifierUDTF extends UDTFWithOptions {
         this._minSamplesLeaf = minSamplesLeaf;
         this._seed = seed;
         this._nominalAttrs = SerdeUtils.serializeRoaring(attrs);
+        this._flatTree = flatTree;
+        this._maxBins = maxBins;
 
         return cl;
     }
@@ -286,8 +318,12 @@ public final class GradientTreeBoostingClassifierUDTF extends UDTFWithOptions {
                 if (o == null) {
                     continue;
                 }
-                String fv = o.toString();
-                builder.nextColumn(fv);
+                if (o instanceof Text) {
+                    SmileExtUtils.nextColumn(builder, (Text) o);
+                } else {
+                    String fv = o.toString();
+                    builder.nextColumn(fv);
+                }
             }
         }
         builder.nextRow();
@@ -351,28 +387,38 @@ public final class GradientTreeBoostingClassifierUDTF extends UDTFWithOptions {
         if (k < 2) {
             throw new UDFArgumentException("Only one class or negative class labels.");
         }
-        if (k == 2) {
-            final int[] y2 = new int[numRows];
-            for (int i = 0; i < numRows; i++) {
-                if (y[i] == 1) {
-                    y2[i] = 1;
-                } else {
-                    y2[i] = -1;
+        final SmileTaskExecutor executor = new SmileTaskExecutor(MapredContextAccessor.get());
+        try {
+            if (k == 2) {
+                final int[] y2 = new int[numRows];
+                for (int i = 0; i < numRows; i++) {
+                    if (y[i] == 1) {
+                        y2[i] = 1;
+                    } else {
+                        y2[i] = -1;
+                    }
                 }
+                train2(x, y2, executor);
+            } else {
+                traink(x, y, k, executor);
             }
-            train2(x, y2);
-        } else {
-            traink(x, y, k);
+        } finally {
+            executor.shutdown();
         }
     }
 
-    private void train2(@Nonnull final Matrix x, @Nonnull final int[] y) throws HiveException {
+    /**
+     * Train binary tree boost. Attributes of large nodes are evaluated in parallel by the
+     * executor.
+     */
+    private void train2(@Nonnull final Matrix x, @Nonnull final int[] y,
+            @Nonnull final SmileTaskExecutor executor) throws HiveException {
         final int numVars = SmileExtUtils.computeNumInputVars(_numVars, x);
         if (logger.isInfoEnabled()) {
             logger.info("k: " + 2 + ", numTrees: " + _numTrees + ", shrinkage: " + _eta
                     + ", subsample: " + _subsample + ", numVars: " + numVars + ", maxDepth: "
                     + _maxDepth + ", minSamplesSplit: " + _minSamplesSplit + ", maxLeafs: "
-                    + _maxLeafNodes + ", seed: " + _seed);
+                    + _maxLeafNodes + ", maxBins: " + _maxBins + ", seed: " + _seed);
         }
 
         final int numInstances = x.numRows();
@@ -400,6 +446,7 @@ public final class GradientTreeBoostingClassifierUDTF extends UDTFWithOptions {
 
         final RoaringBitmap nominalAttrs = SerdeUtils.deserializeRoaring(_nominalAttrs);
         this._nominalAttrs = null;
+        final FeatureBins bins = buildBins(nominalAttrs, x);
 
         final Vector xProbe = x.rowVector();
         for (int m = 0; m < _numTrees; m++) {
@@ -417,7 +464,8 @@ public final class GradientTreeBoostingClassifierUDTF extends UDTFWithOptions {
             }
 
             RegressionTree tree = new RegressionTree(nominalAttrs, x, response, numVars, _maxDepth,
-                _maxLeafNodes, _minSamplesSplit, _minSamplesLeaf, samples, output, rnd2);
+                _maxLeafNodes, _minSamplesSplit, _minSamplesLeaf, samples, output, rnd2, null,
+                bins, executor);
 
             for (int i = 0; i < numInstances; i++) {
                 x.getRow(i, xProbe);
@@ -446,15 +494,34 @@ public final class GradientTreeBoostingClassifierUDTF extends UDTFWithOptions {
     }
 
     /**
-     * Train L-k tree boost.
+     * Bins numerical features once for all trees if histogram-based split finding is enabled.
      */
-    private void traink(final Matrix x, final int[] y, final int k) throws HiveException {
+    @Nullable
+    private FeatureBins buildBins(@Nonnull final RoaringBitmap nominalAttrs,
+            @Nonnull final Matrix x) {
+        if (_maxBins == 0) {
+            return null;
+        }
+        StopWatch stopwatch = new StopWatch();
+        FeatureBins bins = FeatureBins.build(nominalAttrs, x, _maxBins);
+        if (logger.isInfoEnabled()) {
+            logger.info("Built quantile bins of " + x.numColumns() + " features in " + stopwatch);
+        }
+        return bins;
+    }
+
+    /**
+     * Train L-k tree boost. The k trees of each iteration are trained in groups of as many trees
+     * as the executor has threads, which share the sample and response buffers.
+     */
+    private void traink(@Nonnull final Matrix x, @Nonnull final int[] y, final int k,
+            @Nonnull final SmileTaskExecutor executor) throws HiveException {
         final int numVars = SmileExtUtils.computeNumInputVars(_numVars, x);
         if (logger.isInfoEnabled()) {
             logger.info("k: " + k + ", numTrees: " + _numTrees + ", shrinkage: " + _eta
                     + ", subsample: " + _subsample + ", numVars: " + numVars + ", minSamplesSplit: "
                     + _minSamplesSplit + ", maxDepth: " + _maxDepth + ", maxLeafs: " + _maxLeafNodes
-                    + ", seed: " + _seed);
+                    + ", maxBins: " + _maxBins + ", seed: " + _seed);
         }
 
         final int numInstances = x.numRows();
@@ -462,14 +529,16 @@ public final class GradientTreeBoostingClassifierUDTF extends UDTFWithOptions {
 
         final double[][] h = new double[k][numInstances]; // boost tree output.
         final double[][] p = new double[k][numInstances]; // a posteriori probabilities.
-        final double[][] response = new double[k][numInstances]; // pseudo response.
+        // the number of class trees in flight, each of which uses one slot of the buffers below
+        final int numSlots = Math.min(k, executor.getNumThreads());
+        final double[][] response = new double[numSlots][numInstances]; // pseudo response.
 
-        final RegressionTree.NodeOutput[] output = new LKNodeOutput[k];
-        for (int i = 0; i < k; i++) {
+        final RegressionTree.NodeOutput[] output = new LKNodeOutput[numSlots];
+        for (int i = 0; i < numSlots; i++) {
             output[i] = new LKNodeOutput(response[i], k);
         }
 
-        final int[] samples = new int[numInstances];
+        final int[][] samples = new int[numSlots][numInstances];
         final int[] perm = MathUtils.permutation(numInstances);
 
         long s = (this._seed == -1L) ? SmileExtUtils.generateSeed()
@@ -479,10 +548,13 @@ public final class GradientTreeBoostingClassifierUDTF extends UDTFWithOptions {
 
         final RoaringBitmap nominalAttrs = SerdeUtils.deserializeRoaring(_nominalAttrs);
         this._nominalAttrs = null;
+        final FeatureBins bins = buildBins(nominalAttrs, x);
 
         // out-of-bag prediction
         final int[] prediction = new int[numInstances];
         final Vector xProbe = x.rowVector();
+        final List<Callable<RegressionTree>> tasks =
+                new ArrayList<Callable<RegressionTree>>(numSlots);
         for (int m = 0; m < _numTrees; m++) {
             for (int i = 0; i < numInstances; i++) {
                 double max = Double.NEGATIVE_INFINITY;
@@ -503,55 +575,77 @@ public final class GradientTreeBoostingClassifierUDTF extends UDTFWithOptions {
                 }
             }
 
-            final RegressionTree[] trees = new RegressionTree[k];
-
             Arrays.fill(prediction, -1);
             double max_h = Double.NEGATIVE_INFINITY;
             int oobTests = 0, oobErrors = 0;
 
-            for (int j = 0; j < k; j++) {
-                reportProgress(_progressReporter);
-
-                final double[] response_j = response[j];
-                final double[] p_j = p[j];
-                final double[] h_j = h[j];
-
-                for (int i = 0; i < numInstances; i++) {
-                    if (y[i] == j) {
-                        response_j[i] = 1.0d;
-                    } else {
-                        response_j[i] = 0.0d;
+            // samples and random seeds are drawn in order so that trees do not depend on
+            // the number of threads
+            final RegressionTree[] trees = new RegressionTree[k];
+            for (int from = 0; from < k; from += numSlots) {
+                final int to = Math.min(from + numSlots, k);
+                tasks.clear();
+                for (int j = from; j < to; j++) {
+                    final int slot = j - from;
+                    final int[] samples_j = samples[slot];
+                    Arrays.fill(samples_j, 0);
+                    SmileExtUtils.shuffle(perm, rnd1);
+                    for (int i = 0; i < numSamples; i++) {
+                        int index = perm[i];
+                        samples_j[index] += 1;
                     }
-                    response_j[i] -= p_j[i];
+                    final PRNG rnd_j = RandomNumberGeneratorFactory.createPRNG(rnd2.nextLong());
+
+                    final int label = j;
+                    tasks.add(new Callable<RegressionTree>() {
+                        @Override
+                        public RegressionTree call() {
+                            reportProgress(_progressReporter);
+
+                            final double[] response_j = response[slot];
+                            final double[] p_j = p[label];
+                            for (int i = 0; i < numInstances; i++) {
+                                if (y[i] == label) {
+                                    response_j[i] = 1.0d;
+                                } else {
+                                    response_j[i] = 0.0d;
+                                }
+                                response_j[i] -= p_j[i];
+                            }
+                            return new RegressionTree(nominalAttrs, x, response_j, numVars,
+                                _maxDepth, _maxLeafNodes, _minSamplesSplit, _minSamplesLeaf,
+                                samples_j, output[slot], rnd_j, null, bins, executor);
+                        }
+                    });
                 }
-
-                Arrays.fill(samples, 0);
-                SmileExtUtils.shuffle(perm, rnd1);
-                for (int i = 0; i < numSamples; i++) {
-                    int index = perm[i];
-                    samples[index] += 1;
+                final List<RegressionTree> group;
+                try {
+                    group = executor.run(tasks);
+                } catch (Exception ex) {
+                    throw new HiveException(ex);
                 }
 
-                RegressionTree tree = new RegressionTree(nominalAttrs, x, response[j], numVars,
-                    _maxDepth, _maxLeafNodes, _minSamplesSplit, _minSamplesLeaf, samples, output[j],
-                    rnd2);
-                trees[j] = tree;
-
-                for (int i = 0; i < numInstances; i++) {
-                    x.getRow(i, xProbe);
-                    double h_ji = h_j[i] + _eta * tree.predict(xProbe);
-                    h_j[i] += h_ji;
-                    if (h_ji > max_h) {
-                        max_h = h_ji;
-                        prediction[i] = j;
+                for (int j = from; j < to; j++) {
+                    final double[] h_j = h[j];
+                    final RegressionTree tree = group.get(j - from);
+                    trees[j] = tree;
+
+                    for (int i = 0; i < numInstances; i++) {
+                        x.getRow(i, xProbe);
+                        double h_ji = h_j[i] + _eta * tree.predict(xProbe);
+                        h_j[i] += h_ji;
+                        if (h_ji > max_h) {
+                            max_h = h_ji;
+                            prediction[i] = j;
+                        }
                     }
-                }
-
-            } // for each k
+                } // for each k
+            } // for each group of k
 
             // out-of-bag error estimate
-            for (int i = 0; i < samples.length; i++) {
-                if (samples[i] != 0) {
+            final int[] lastSamples = samples[(k - 1) % numSlots];
+            for (int i = 0; i < lastSamples.length; i++) {
+                if (lastSamples[i] != 0) {
                     continue;
                 }
                 oobTests++;
@@ -576,7 +670,7 @@ public final class GradientTreeBoostingClassifierUDTF extends UDTFWithOptions {
     private void forward(final int m, final double intercept, final double shrinkage,
             final float oobErrorRate, final int numColumns, @Nonnull final RegressionTree... trees)
             throws HiveException {
-        Text[] models = getModel(trees);
+        Text[] models = getModel(trees, _flatTree);
 
         Vector importance = denseInput ? new DenseVector(numColumns) : new SparseVector();
         for (RegressionTree tree : trees) {
@@ -614,11 +708,12 @@ public final class GradientTreeBoostingClassifierUDTF extends UDTFWithOptions {
     }
 
     @Nonnull
-    private static Text[] getModel(@Nonnull final RegressionTree[] trees) throws HiveException {
+    private static Text[] getModel(@Nonnull final RegressionTree[] trees,
+            final boolean flatTree) throws HiveException {
         final int m = trees.length;
         final Text[] models = new Text[m];
         for (int i = 0; i < m; i++) {
-            byte[] b = trees[i].serialize(true);
+            byte[] b = flatTree ? trees[i].flatten().serialize() : trees[i].serialize(true);
             b = Base91.encode(b);
             models[i] = new Text(b);
         }
@@ -22,6 +22,7 @@ import hivemall.UDTFWithOptions;
 import hivemall.smile.classification.DecisionTree.SplitRule;
 import hivemall.smile.utils.SmileExtUtils;
 import hivemall.smile.utils.SmileTaskExecutor;
+import hivemall.smile.utils.VariableOrder;
 import hivemall.utils.codec.Base91;
 import hivemall.utils.collections.lists.IntArrayList;
 import hivemall.utils.hadoop.HiveUtils;
@@ -117,6 +118,7 @@ public final class RandomForestClassifierUDTF extends UDTFWithOptions {
     private SplitRule _splitRule;
     private boolean _stratifiedSampling;
     private double _subsample;
+    private boolean _flatTree;
 
     @Nullable
     private double[] _classWeight;
@@ -152,6 +154,9 @@ public final class RandomForestClassifierUDTF extends UDTFWithOptions {
         opts.addOption("stratified", "stratified_sampling", false,
             "Enable Stratified sampling for unbalanced data");
         opts.addOption("subsample", true, "Sampling rate in range (0.0,1.0]. [default: 1.0]");
+        opts.addOption("flat", "flat_tree", false,
+            "Output models in the flat tree format, which is compact and fast to evaluate by"
+                    + " tree_predict but not supported by tree_export and decision_path");
         return opts;
     }
 
@@ -166,6 +171,7 @@ public final class RandomForestClassifierUDTF extends UDTFWithOptions {
         double[] classWeight = null;
         boolean stratifiedSampling = false;
         double subsample = 1.0d;
+        boolean flatTree = false;
 
         CommandLine cl = null;
         if (argOIs.length >= 3) {
@@ -198,6 +204,7 @@ public final class RandomForestClassifierUDTF extends UDTFWithOptions {
             splitRule = SmileExtUtils.resolveSplitRule(cl.getOptionValue("split_rule", "GINI"));
             stratifiedSampling = cl.hasOption("stratified_sampling");
             subsample = Primitives.parseDouble(cl.getOptionValue("subsample"), 1.0d);
+            flatTree = cl.hasOption("flat_tree");
             Preconditions.checkArgument(subsample > 0.d && subsample <= 1.0d,
                 UDFArgumentException.class, "Invalid -subsample value: " + subsample);
 
@@ -229,6 +236,7 @@ public final class RandomForestClassifierUDTF extends UDTFWithOptions {
         this._splitRule = splitRule;
         this._stratifiedSampling = stratifiedSampling;
         this._subsample = subsample;
+        this._flatTree = flatTree;
         this._classWeight = classWeight;
 
         return cl;
@@ -318,8 +326,12 @@ public final class RandomForestClassifierUDTF extends UDTFWithOptions {
                 if (o == null) {
                     continue;
                 }
-                String fv = o.toString();
-                builder.nextColumn(fv);
+                if (o instanceof Text) {
+                    SmileExtUtils.nextColumn(builder, (Text) o);
+                } else {
+                    String fv = o.toString();
+                    builder.nextColumn(fv);
+                }
             }
         }
         builder.nextRow();
@@ -398,13 +410,15 @@ public final class RandomForestClassifierUDTF extends UDTFWithOptions {
 
         final RoaringBitmap nominalAttrs = SerdeUtils.deserializeRoaring(_nominalAttrs);
         this._nominalAttrs = null;
+        // sort columns once and let each tree pick its bootstrap samples from the order
+        final VariableOrder order = SmileExtUtils.sort(nominalAttrs, x);
         final IntMatrix prediction = new DoKIntMatrix(numExamples, labels.length); // placeholder for out-of-bag prediction
         final AtomicInteger remainingTasks = new AtomicInteger(_numTrees);
         final List<TrainingTask> tasks = new ArrayList<TrainingTask>();
         for (int i = 0; i < _numTrees; i++) {
             long s = (_seed == -1L) ? -1L : _seed + i;
-            tasks.add(new TrainingTask(this, i, nominalAttrs, x, y, numInputVars, prediction, s,
-                remainingTasks));
+            tasks.add(new TrainingTask(this, i, nominalAttrs, x, y, order, numInputVars, prediction,
+                s, remainingTasks));
         }
 
         MapredContext mapredContext = MapredContextAccessor.get();
@@ -488,6 +502,11 @@ public final class RandomForestClassifierUDTF extends UDTFWithOptions {
          */
         @Nonnull
         private final int[] _y;
+        /**
+         * The order of all training instances shared by tasks.
+         */
+        @Nonnull
+        private final VariableOrder _order;
         /**
          * The number of variables to pick up in each node.
          */
@@ -508,13 +527,14 @@ public final class RandomForestClassifierUDTF extends UDTFWithOptions {
 
         TrainingTask(@Nonnull RandomForestClassifierUDTF udtf, int taskId,
                 @Nonnull RoaringBitmap nominalAttrs, @Nonnull Matrix x, @Nonnull int[] y,
-                int numVars, @Nonnull IntMatrix prediction, long seed,
+                @Nonnull VariableOrder order, int numVars, @Nonnull IntMatrix prediction, long seed,
                 @Nonnull AtomicInteger remainingTasks) {
             this._udtf = udtf;
             this._taskId = taskId;
             this._nominalAttrs = nominalAttrs;
             this._x = x;
             this._y = y;
+            this._order = order;
             this._numVars = numVars;
             this._prediction = prediction;
             this._seed = seed;
@@ -534,7 +554,7 @@ public final class RandomForestClassifierUDTF extends UDTFWithOptions {
 
             DecisionTree tree = new DecisionTree(_nominalAttrs, _x, _y, _numVars, _udtf._maxDepth,
                 _udtf._maxLeafNodes, _udtf._minSamplesSplit, _udtf._minSamplesLeaf, samples,
-                _udtf._splitRule, rnd2);
+                _udtf._splitRule, rnd2, _order);
 
             // out-of-bag prediction
             int oob = 0;
@@ -555,7 +575,7 @@ public final class RandomForestClassifierUDTF extends UDTFWithOptions {
                 }
             }
 
-            Text model = getModel(tree);
+            Text model = getModel(tree, _udtf._flatTree);
             Vector importance = tree.importance();
             double accuracy = (oob == 0) ? 1.0d : (double) correct / oob;
             int remain = _remainingTasks.decrementAndGet();
@@ -617,8 +637,9 @@ public final class RandomForestClassifierUDTF extends UDTFWithOptions {
         }
 
         @Nonnull
-        private static Text getModel(@Nonnull final DecisionTree tree) throws HiveException {
-            byte[] b = tree.serialize(true);
+        private static Text getModel(@Nonnull final DecisionTree tree, final boolean flatTree)
+                throws HiveException {
+            byte[] b = flatTree ? tree.flatten().serialize() : tree.serialize(true);
             b = Base91.encode(b);
             return new Text(b);
         }
@@ -27,6 +27,7 @@ import matrix4j.vector.Vector;
 import matrix4j.vector.VectorProcedure;
 import hivemall.smile.utils.SmileExtUtils;
 import hivemall.smile.utils.SmileTaskExecutor;
+import hivemall.smile.utils.VariableOrder;
 import hivemall.utils.codec.Base91;
 import hivemall.utils.collections.lists.DoubleArrayList;
 import hivemall.utils.datetime.StopWatch;
@@ -107,6 +108,7 @@ public final class RandomForestRegressionUDTF extends UDTFWithOptions {
     private int _minSamplesLeaf;
     private long _seed;
     private byte[] _nominalAttrs;
+    private boolean _flatTree;
 
     @Nullable
     private transient Reporter _progressReporter;
@@ -141,6 +143,9 @@ public final class RandomForestRegressionUDTF extends UDTFWithOptions {
                 + "(Q for quantitative variable and C for categorical variable. e.g., [Q,C,Q,C])");
         opts.addOption("nominal_attr_indicies", "categorical_attr_indicies", true,
             "Comma seperated indicies of categorical attributes, e.g., [3,5,6]");
+        opts.addOption("flat", "flat_tree", false,
+            "Output models in the flat tree format, which is compact and fast to evaluate by"
+                    + " tree_predict but not supported by tree_export and decision_path");
         return opts;
     }
 
@@ -151,6 +156,7 @@ public final class RandomForestRegressionUDTF extends UDTFWithOptions {
         float numVars = -1.f;
         RoaringBitmap attrs = new RoaringBitmap();
         long seed = -1L;
+        boolean flatTree = false;
 
         CommandLine cl = null;
         if (argOIs.length >= 3) {
@@ -174,6 +180,7 @@ public final class RandomForestRegressionUDTF extends UDTFWithOptions {
             minSamplesLeaf =
                     Primitives.parseInt(cl.getOptionValue("min_samples_leaf"), minSamplesLeaf);
             seed = Primitives.parseLong(cl.getOptionValue("seed"), seed);
+            flatTree = cl.hasOption("flat_tree");
             String nominal_attr_indicies = cl.getOptionValue("nominal_attr_indicies");
             if (nominal_attr_indicies != null) {
                 attrs = SmileExtUtils.parseNominalAttributeIndicies(nominal_attr_indicies);
@@ -190,6 +197,7 @@ public final class RandomForestRegressionUDTF extends UDTFWithOptions {
         this._minSamplesLeaf = minSamplesLeaf;
         this._seed = seed;
         this._nominalAttrs = SerdeUtils.serializeRoaring(attrs);
+        this._flatTree = flatTree;
 
         return cl;
     }
@@ -278,8 +286,12 @@ public final class RandomForestRegressionUDTF extends UDTFWithOptions {
                 if (o == null) {
                     continue;
                 }
-                String fv = o.toString();
-                builder.nextColumn(fv);
+                if (o instanceof Text) {
+                    SmileExtUtils.nextColumn(builder, (Text) o);
+                } else {
+                    String fv = o.toString();
+                    builder.nextColumn(fv);
+                }
             }
         }
         builder.nextRow();
@@ -356,14 +368,16 @@ public final class RandomForestRegressionUDTF extends UDTFWithOptions {
 
         final RoaringBitmap nominalAttrs = SerdeUtils.deserializeRoaring(_nominalAttrs);
         this._nominalAttrs = null;
+        // sort columns once and let each tree pick its bootstrap samples from the order
+        final VariableOrder order = SmileExtUtils.sort(nominalAttrs, x);
         final double[] prediction = new double[numExamples]; // placeholder for out-of-bag prediction
         final int[] oob = new int[numExamples];
         final AtomicInteger remainingTasks = new AtomicInteger(_numTrees);
         List<TrainingTask> tasks = new ArrayList<TrainingTask>();
         for (int i = 0; i < _numTrees; i++) {
             long s = (_seed == -1L) ? -1L : _seed + i;
-            tasks.add(new TrainingTask(this, i, nominalAttrs, x, y, numInputVars, prediction, oob,
-                s, remainingTasks));
+            tasks.add(new TrainingTask(this, i, nominalAttrs, x, y, order, numInputVars, prediction,
+                oob, s, remainingTasks));
         }
 
         MapredContext mapredContext = MapredContextAccessor.get();
@@ -441,6 +455,10 @@ public final class RandomForestRegressionUDTF extends UDTFWithOptions {
          * Training sample target values.
          */
         private final double[] _y;
+        /**
+         * The order of all training instances shared by tasks.
+         */
+        private final VariableOrder _order;
         /**
          * The number of variables to pick up in each node.
          */
@@ -460,13 +478,14 @@ public final class RandomForestRegressionUDTF extends UDTFWithOptions {
         private final AtomicInteger _remainingTasks;
 
         TrainingTask(RandomForestRegressionUDTF udtf, int taskId, RoaringBitmap nominalAttrs,
-                Matrix x, double[] y, int numVars, double[] prediction, int[] oob, long seed,
-                AtomicInteger remainingTasks) {
+                Matrix x, double[] y, VariableOrder order, int numVars, double[] prediction,
+                int[] oob, long seed, AtomicInteger remainingTasks) {
             this._udtf = udtf;
             this._taskId = taskId;
             this._nominalAttrs = nominalAttrs;
             this._x = x;
             this._y = y;
+            this._order = order;
             this._numVars = numVars;
             this._prediction = prediction;
             this._oob = oob;
@@ -492,7 +511,7 @@ public final class RandomForestRegressionUDTF extends UDTFWithOptions {
             StopWatch stopwatch = new StopWatch();
             RegressionTree tree = new RegressionTree(_nominalAttrs, _x, _y, _numVars,
                 _udtf._maxDepth, _udtf._maxLeafNodes, _udtf._minSamplesSplit, _udtf._minSamplesLeaf,
-                samples, rnd2);
+                samples, null, rnd2, _order);
             incrCounter(_udtf._treeConstructionTimeCounter, stopwatch.elapsed(TimeUnit.SECONDS));
 
             // out-of-bag prediction
@@ -517,7 +536,7 @@ public final class RandomForestRegressionUDTF extends UDTFWithOptions {
             }
 
             stopwatch.reset().start();
-            Text model = getModel(tree);
+            Text model = getModel(tree, _udtf._flatTree);
             Vector importance = tree.importance();
             tree = null; // help GC
             int remain = _remainingTasks.decrementAndGet();
@@ -529,8 +548,9 @@ public final class RandomForestRegressionUDTF extends UDTFWithOptions {
         }
 
         @Nonnull
-        private static Text getModel(@Nonnull final RegressionTree tree) throws HiveException {
-            byte[] b = tree.serialize(true);
+        private static Text getModel(@Nonnull final RegressionTree tree, final boolean flatTree)
+                throws HiveException {
+            byte[] b = flatTree ? tree.flatten().serialize() : tree.serialize(true);
             b = Base91.encode(b);
             return new Text(b);
         }
@@ -32,7 +32,11 @@ import matrix4j.vector.SparseVector;
 import matrix4j.vector.Vector;
 import matrix4j.vector.VectorProcedure;
 import hivemall.smile.classification.PredictionHandler;
+import hivemall.smile.utils.FeatureBins;
+import hivemall.smile.utils.FeatureBins.Histogram;
+import hivemall.smile.utils.FlatTree;
 import hivemall.smile.utils.SmileExtUtils;
+import hivemall.smile.utils.SmileTaskExecutor;
 import hivemall.smile.utils.VariableOrder;
 import hivemall.utils.collections.arrays.SparseIntArray;
 import hivemall.utils.collections.lists.IntArrayList;
@@ -48,6 +52,7 @@ import hivemall.utils.sampling.IntReservoirSampler;
 import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
 import it.unimi.dsi.fastutil.ints.Int2IntMap.Entry;
 import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 import smile.math.Math;
 import smile.regression.GradientTreeBoost;
 import smile.regression.RandomForest;
@@ -60,6 +65,8 @@ import java.io.ObjectOutput;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -112,6 +119,12 @@ import org.roaringbitmap.RoaringBitmap;
 public final class RegressionTree implements Regression<Vector> {
     private static final Log logger = LogFactory.getLog(RegressionTree.class);
 
+    /**
+     * The minimum number of samples in a node to evaluate attributes in parallel, below which
+     * the overhead of tasks exceeds the cost of evaluation.
+     */
+    private static final int PARALLEL_SPLIT_MIN_SAMPLES = 4096;
+
     /**
      * Training dataset.
      */
@@ -129,10 +142,20 @@ public final class RegressionTree implements Regression<Vector> {
     private final int[] _samples;
     /**
      * The index of training values in ascending order. Note that only numeric attributes will be
-     * sorted.
+     * sorted. Null when splits are found on {@link #_bins}.
      */
-    @Nonnull
+    @Nullable
     private final VariableOrder _order;
+    /**
+     * Quantile bins of numerical attributes for histogram-based split finding.
+     */
+    @Nullable
+    private final FeatureBins _bins;
+    /**
+     * Executor to evaluate attributes in parallel.
+     */
+    @Nullable
+    private final SmileTaskExecutor _executor;
     /**
      * An index that maps their current position in the {@link #_order} to their original locations
      * in {@link #_samples}.
@@ -478,6 +501,30 @@ public final class RegressionTree implements Regression<Vector> {
             return selfDepth;
         }
 
+        /**
+         * Flattens the tree rooted at this node into packed arrays for fast prediction.
+         */
+        @Nonnull
+        public FlatTree flatten() {
+            FlatTree.Builder builder = new FlatTree.Builder(false);
+            flatten(builder);
+            return builder.build();
+        }
+
+        /**
+         * @return the branch index or the leaf reference of this node
+         */
+        private int flatten(@Nonnull final FlatTree.Builder builder) {
+            if (isLeaf()) {
+                return builder.addLeaf(output);
+            }
+            final int branch = builder.addBranch(splitFeature, quantitativeFeature, splitValue);
+            final int t = trueChild.flatten(builder);
+            final int f = falseChild.flatten(builder);
+            builder.setChildren(branch, t, f);
+            return branch;
+        }
+
         @Override
         public void writeExternal(ObjectOutput out) throws IOException {
             out.writeInt(splitFeature);
@@ -572,6 +619,20 @@ public final class RegressionTree implements Regression<Vector> {
         @Nullable
         int[] constFeatures;
 
+        /**
+         * Histograms of attributes evaluated at this node, used when {@link #_bins} is given.
+         */
+        @Nullable
+        Int2ObjectOpenHashMap<Histogram> histograms;
+        /**
+         * Histograms of the parent node and the sibling node evaluated before this node, from
+         * which histograms of this node are derived by subtraction.
+         */
+        @Nullable
+        Int2ObjectOpenHashMap<Histogram> parentHistograms;
+        @Nullable
+        TrainNode sibling;
+
         public TrainNode(@Nonnull Node node, int depth, int low, int high, int samples) {
             this(node, depth, low, high, samples, new int[0]);
         }
@@ -651,11 +712,13 @@ public final class RegressionTree implements Regression<Vector> {
             // Loop through features and compute the reduction of squared error,
             // which is trueCount * trueMean^2 + falseCount * falseMean^2 - count * parentMean^2
             final double sum = node.output * samples;
+            final IntArrayList vars = new IntArrayList(_numVars);
             for (int varJ : variableIndex()) {
-                if (ArrayUtils.contains(constFeatures_, varJ)) {
-                    continue;
+                if (!ArrayUtils.contains(constFeatures_, varJ)) {
+                    vars.add(varJ);
                 }
-                final Node split = findBestSplit(samples, sum, varJ);
+            }
+            for (Node split : findBestSplits(sum, vars.toArray(true))) {
                 if (split.splitScore > node.splitScore) {
                     node.splitFeature = split.splitFeature;
                     node.quantitativeFeature = split.quantitativeFeature;
@@ -669,6 +732,51 @@ public final class RegressionTree implements Regression<Vector> {
             return node.splitFeature != -1;
         }
 
+        /**
+         * Finds the best split of each attribute. Attributes are evaluated in parallel for a
+         * large node when an executor is given.
+         */
+        @Nonnull
+        private List<Node> findBestSplits(final double sum, @Nonnull final int[] vars) {
+            final SmileTaskExecutor executor = _executor;
+            if (executor == null || executor.getNumThreads() <= 1 || vars.length <= 1
+                    || samples < PARALLEL_SPLIT_MIN_SAMPLES) {
+                final List<Node> splits = new ArrayList<Node>(vars.length);
+                for (int varJ : vars) {
+                    splits.add(findBestSplit(samples, sum, varJ));
+                }
+                return splits;
+            }
+
+            final List<Callable<Node>> tasks = new ArrayList<Callable<Node>>(vars.length);
+            for (final int varJ : vars) {
+                tasks.add(new Callable<Node>() {
+                    @Override
+                    public Node call() {
+                        return findBestSplit(samples, sum, varJ);
+                    }
+                });
+            }
+            try {
+                return executor.run(tasks);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new IllegalStateException("Failed to find a split", cause);
+            } catch (Exception e) {
+                throw new IllegalStateException("Failed to find a split", e);
+            }
+        }
+
+        /**
+         * Synchronized as attributes may be evaluated in parallel.
+         */
+        private synchronized void markAsConstant(final int j) {
+            this.constFeatures = ArrayUtils.sortedArraySet(constFeatures, j);
+        }
+
         @Nonnull
         private int[] variableIndex() {
             final Matrix X = _X;
@@ -743,7 +851,7 @@ public final class RegressionTree implements Regression<Vector> {
                 }
                 final int countDistinctX = trueCount.size() + (countNaN == 0 ? 0 : 1);
                 if (countDistinctX <= 1) { // mark as a constant feature
-                    this.constFeatures = ArrayUtils.sortedArraySet(constFeatures, j);
+                    markAsConstant(j);
                 }
 
                 for (Entry e : trueCount.int2IntEntrySet()) {
@@ -774,6 +882,8 @@ public final class RegressionTree implements Regression<Vector> {
                         split.falseChildOutput = falseMean;
                     }
                 }
+            } else if (_bins != null) {
+                findBestBinnedSplit(n, sum, j, split);
             } else {
                 final MutableInt countNaN = new MutableInt(0);
                 final MutableInt replaceCount = new MutableInt(0);
@@ -845,13 +955,105 @@ public final class RegressionTree implements Regression<Vector> {
 
                 final int countDistinctX = replaceCount.get() + (countNaN.get() == 0 ? 0 : 1);
                 if (countDistinctX <= 1) { // mark as a constant feature
-                    this.constFeatures = ArrayUtils.sortedArraySet(constFeatures, j);
+                    markAsConstant(j);
                 }
             }
 
             return split;
         }
 
+        /**
+         * Finds the best split of numerical attribute j on the histogram of its bins.
+         */
+        private void findBestBinnedSplit(final int n, final double sum, final int j,
+                @Nonnull final Node split) {
+            final FeatureBins bins = _bins;
+            if (!bins.isBinned(j)) {// no value in the column
+                markAsConstant(j);
+                return;
+            }
+
+            final Histogram hist = histogram(j);
+            final double[] binSum = hist.sum;
+            final int[] binCount = hist.count;
+            final int missing = binCount.length - 1;
+
+            int lastBin = -1;
+            int countDistinctX = (binCount[missing] == 0) ? 0 : 1;
+            for (int b = 0; b < missing; b++) {
+                if (binCount[b] != 0) {
+                    lastBin = b;
+                    countDistinctX++;
+                }
+            }
+            if (countDistinctX <= 1) { // mark as a constant feature
+                markAsConstant(j);
+                return;
+            }
+
+            // split between non-empty bins as splits between distinct values
+            double trueSum = 0.d;
+            int trueCount = 0;
+            for (int b = 0; b < lastBin; b++) {
+                if (binCount[b] == 0) {
+                    continue;
+                }
+                trueSum += binSum[b];
+                trueCount += binCount[b];
+
+                final int falseCount = n - trueCount;
+                if (trueCount < _minSamplesSplit || falseCount < _minSamplesSplit) {
+                    continue;
+                }
+
+                final double trueMean = trueSum / trueCount;
+                final double falseMean = (sum - trueSum) / falseCount;
+                final double gain =
+                        (trueCount * trueMean * trueMean + falseCount * falseMean * falseMean)
+                                - n * split.output * split.output;
+                if (gain > split.splitScore) {
+                    // new best split
+                    split.splitFeature = j;
+                    split.quantitativeFeature = true;
+                    split.splitValue = bins.threshold(j, b);
+                    split.splitScore = gain;
+                    split.trueChildOutput = trueMean;
+                    split.falseChildOutput = falseMean;
+                }
+            }
+        }
+
+        /**
+         * Returns the histogram of attribute j for the samples of this node. It is derived from
+         * the histograms of the parent and the sibling if possible.
+         */
+        @Nonnull
+        private Histogram histogram(final int j) {
+            Histogram hist;
+            synchronized (this) {
+                if (histograms == null) {
+                    this.histograms = new Int2ObjectOpenHashMap<Histogram>();
+                }
+                hist = histograms.get(j);
+            }
+            if (hist != null) {
+                return hist;
+            }
+
+            final Histogram parentHist = (parentHistograms == null) ? null : parentHistograms.get(j);
+            final Histogram siblingHist = (sibling == null || sibling.histograms == null) ? null
+                    : sibling.histograms.get(j);
+            if (parentHist != null && siblingHist != null) {
+                hist = parentHist.subtract(siblingHist);
+            } else {
+                hist = _bins.histogram(j, _sampleIndex, low, high, _samples, _y);
+            }
+            synchronized (this) {
+                histograms.put(j, hist);
+            }
+            return hist;
+        }
+
         /**
          * Split the node into two children nodes. Returns true if split success.
          */
@@ -874,6 +1076,7 @@ public final class RegressionTree implements Regression<Vector> {
 
             if (tc < _minSamplesLeaf || fc < _minSamplesLeaf) {
                 node.markAsLeaf();
+                this.histograms = null;
                 return false;
             }
 
@@ -889,28 +1092,33 @@ public final class RegressionTree implements Regression<Vector> {
                     new TrainNode(node.falseChild, depth + 1, pivot, high, fc, constFeatures);
             this.constFeatures = null;
 
-            if (tc >= _minSamplesSplit && trueChild.findBestSplit()) {
-                if (nextSplits != null) {
-                    nextSplits.add(trueChild);
-                } else {
-                    if (trueChild.split(null) == false) {
-                        leaves++;
-                    }
-                }
+            if (_bins == null) {
+                leaves += splitChild(trueChild,
+                    tc >= _minSamplesSplit && trueChild.findBestSplit(), nextSplits);
+                leaves += splitChild(falseChild,
+                    fc >= _minSamplesSplit && falseChild.findBestSplit(), nextSplits);
             } else {
-                leaves++;
-            }
-
-            if (fc >= _minSamplesSplit && falseChild.findBestSplit()) {
-                if (nextSplits != null) {
-                    nextSplits.add(falseChild);
-                } else {
-                    if (falseChild.split(null) == false) {
-                        leaves++;
-                    }
+                // Find splits of the smaller child first so that the larger child derives its
+                // histograms by subtracting the smaller child's ones from this node's ones.
+                final TrainNode smaller = (tc <= fc) ? trueChild : falseChild;
+                final TrainNode larger = (tc <= fc) ? falseChild : trueChild;
+                larger.parentHistograms = histograms;
+                larger.sibling = smaller;
+                final boolean smallerSplits =
+                        smaller.samples >= _minSamplesSplit && smaller.findBestSplit();
+                final boolean largerSplits =
+                        larger.samples >= _minSamplesSplit && larger.findBestSplit();
+                this.histograms = null;
+                larger.parentHistograms = null;
+                larger.sibling = null;
+                if (!smallerSplits) {
+                    smaller.histograms = null;
                 }
-            } else {
-                leaves++;
+                if (!largerSplits) {
+                    larger.histograms = null;
+                }
+                leaves += splitChild(smaller, smallerSplits, nextSplits);
+                leaves += splitChild(larger, largerSplits, nextSplits);
             }
 
             // Prune meaningless branches
@@ -926,6 +1134,21 @@ public final class RegressionTree implements Regression<Vector> {
             return true;
         }
 
+        /**
+         * @return 1 if the child becomes a leaf, 0 otherwise
+         */
+        private int splitChild(@Nonnull final TrainNode child, final boolean splittable,
+                @Nullable final PriorityQueue<TrainNode> nextSplits) {
+            if (!splittable) {
+                return 1;
+            }
+            if (nextSplits != null) {
+                nextSplits.add(child);
+                return 0;
+            }
+            return child.split(null) ? 0 : 1;
+        }
+
         /**
          * @return Pivot to split samples
          */
@@ -963,12 +1186,14 @@ public final class RegressionTree implements Regression<Vector> {
         private void partitionOrder(final int low, final int pivot, final int high,
                 @Nonnull final IntPredicate goesLeft) {
             final int[] buf = new int[high - pivot];
-            _order.eachRow(new Consumer() {
-                @Override
-                public void accept(int col, @Nonnull final SparseIntArray row) {
-                    partitionArray(row, low, pivot, high, goesLeft, buf);
-                }
-            });
+            if (_order != null) {
+                _order.eachRow(new Consumer() {
+                    @Override
+                    public void accept(int col, @Nonnull final SparseIntArray row) {
+                        partitionArray(row, low, pivot, high, goesLeft, buf);
+                    }
+                });
+            }
             partitionArray(_sampleIndex, low, pivot, high, goesLeft, buf);
         }
 
@@ -1124,6 +1349,41 @@ public final class RegressionTree implements Regression<Vector> {
             @Nonnull double[] y, int numVars, int maxDepth, int maxLeafNodes, int minSamplesSplit,
             int minSamplesLeaf, @Nullable int[] samples, @Nullable NodeOutput output,
             @Nullable PRNG rand) {
+        this(nominalAttrs, x, y, numVars, maxDepth, maxLeafNodes, minSamplesSplit, minSamplesLeaf,
+            samples, output, rand, null);
+    }
+
+    /**
+     * Constructor. Learns a regression tree for random forest and gradient tree boosting.
+     *
+     * @param presorted the order of all rows given by {@link SmileExtUtils#sort(RoaringBitmap,
+     *        Matrix)}, which is shared by trees and not modified. Columns are sorted for this tree
+     *        if null.
+     */
+    public RegressionTree(@Nullable RoaringBitmap nominalAttrs, @Nonnull Matrix x,
+            @Nonnull double[] y, int numVars, int maxDepth, int maxLeafNodes, int minSamplesSplit,
+            int minSamplesLeaf, @Nullable int[] samples, @Nullable NodeOutput output,
+            @Nullable PRNG rand, @Nullable VariableOrder presorted) {
+        this(nominalAttrs, x, y, numVars, maxDepth, maxLeafNodes, minSamplesSplit, minSamplesLeaf,
+            samples, output, rand, presorted, null, null);
+    }
+
+    /**
+     * Constructor. Learns a regression tree for random forest and gradient tree boosting.
+     *
+     * @param presorted the order of all rows given by {@link SmileExtUtils#sort(RoaringBitmap,
+     *        Matrix)}, which is shared by trees and not modified. Columns are sorted for this tree
+     *        if null.
+     * @param bins quantile bins of x given by {@link FeatureBins#build(RoaringBitmap, Matrix, int)}.
+     *        If given, splits of numerical attributes are found on histograms of the bins instead
+     *        of sorted values, and presorted is not used.
+     * @param executor executor to evaluate attributes of large nodes in parallel
+     */
+    public RegressionTree(@Nullable RoaringBitmap nominalAttrs, @Nonnull Matrix x,
+            @Nonnull double[] y, int numVars, int maxDepth, int maxLeafNodes, int minSamplesSplit,
+            int minSamplesLeaf, @Nullable int[] samples, @Nullable NodeOutput output,
+            @Nullable PRNG rand, @Nullable VariableOrder presorted, @Nullable FeatureBins bins,
+            @Nullable SmileTaskExecutor executor) {
         checkArgument(x, y, numVars, maxDepth, maxLeafNodes, minSamplesSplit, minSamplesLeaf);
 
         this._X = x;
@@ -1176,7 +1436,20 @@ public final class RegressionTree implements Regression<Vector> {
             sampleIndex = positions.toArray(true);
         }
         this._samples = samples;
-        this._order = SmileExtUtils.sort(nominalAttrs, x, samples);
+        if (bins != null) {
+            if (bins.numRows() != x.numRows()) {
+                throw new IllegalArgumentException(String.format(
+                    "The number of rows of bins and X don't match: %d != %d", bins.numRows(),
+                    x.numRows()));
+            }
+            this._order = null;
+        } else if (presorted != null) {
+            this._order = presorted.sample(samples);
+        } else {
+            this._order = SmileExtUtils.sort(nominalAttrs, x, samples);
+        }
+        this._bins = bins;
+        this._executor = executor;
         this._sampleIndex = sampleIndex;
 
         this._root = new Node(sum / n);
@@ -1297,9 +1570,22 @@ public final class RegressionTree implements Regression<Vector> {
         }
     }
 
+    /**
+     * @return the tree flattened into packed arrays, which is serialized more compactly than
+     *         {@link #serialize(boolean)} and predicts faster
+     */
+    @Nonnull
+    public FlatTree flatten() {
+        return _root.flatten();
+    }
+
     @Nonnull
     public static Node deserialize(@Nonnull final byte[] serializedObj, final int length,
             final boolean compressed) throws HiveException {
+        if (FlatTree.isFlatTree(serializedObj, length)) {
+            throw new HiveException(
+                "A model in the flat tree format is only supported by tree_predict");
+        }
         final Node root = new Node();
         try {
             if (compressed) {
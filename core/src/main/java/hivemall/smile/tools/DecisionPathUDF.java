@@ -279,6 +279,10 @@ public final class DecisionPathUDF extends UDFWithOptions {
                 if (o == null) {
                     continue;
                 }
+                if (o instanceof Text) {
+                    TreePredictUDF.parseFeature((Text) o, probe);
+                    continue;
+                }
                 String col = o.toString();
 
                 final int pos = col.indexOf(':');
@@ -0,0 +1,498 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.smile.tools;
+
+import hivemall.UDFWithOptions;
+import hivemall.annotations.VisibleForTesting;
+import hivemall.smile.classification.DecisionTree;
+import hivemall.smile.regression.RegressionTree;
+import hivemall.smile.utils.FlatTree;
+import hivemall.utils.codec.Base91;
+import hivemall.utils.hadoop.HadoopUtils;
+import hivemall.utils.hadoop.HiveUtils;
+import hivemall.utils.hadoop.WritableUtils;
+import hivemall.utils.io.IOUtils;
+import hivemall.utils.lang.StringUtils;
+import matrix4j.vector.Vector;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Options;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.MapredContext;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.UDFType;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.StringObjectInspector;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+
+//@formatter:off
+@Description(name = "forest_predict",
+        value = "_FUNC_(array<string> models [, array<double> model_weights] | const string model_file,"
+                + " array<double|string> features [, const string options])"
+                + " - Returns a prediction result of all trees of a random forest in <int label,"
+                + " double probability, array<double> probabilities> for classification and"
+                + " <double> for regression",
+        extended = "SELECT\n" + 
+                "  t.rowid,\n" + 
+                "  forest_predict(m.models, m.weights, t.features, '-classification') as predicted\n" + 
+                "FROM (\n" + 
+                "  SELECT collect_list(model) as models, collect_list(model_weight) as weights\n" + 
+                "  FROM model\n" + 
+                ") m\n" + 
+                "CROSS JOIN test t;\n" + 
+                "\n" + 
+                "ADD FILE /path/to/rf_model.tsv; -- lines of <model_id, model_weight, model>\n" + 
+                "SELECT rowid, forest_predict('rf_model.tsv', features, '-classification')\n" + 
+                "FROM test;")
+//@formatter:on
+@UDFType(deterministic = true, stateful = false)
+public final class ForestPredictUDF extends UDFWithOptions {
+    private static final Log logger = LogFactory.getLog(ForestPredictUDF.class);
+
+    private boolean classification;
+
+    // forest given as an array
+    @Nullable
+    private ListObjectInspector modelsOI;
+    @Nullable
+    private StringObjectInspector modelOI;
+    @Nullable
+    private ListObjectInspector weightsOI;
+    @Nullable
+    private PrimitiveObjectInspector weightOI;
+    // forest given as a file
+    @Nullable
+    private String modelFile;
+
+    private int featuresIndex;
+    private ListObjectInspector featureListOI;
+    private PrimitiveObjectInspector featureElemOI;
+    private boolean denseInput;
+    @Nullable
+    private Vector featuresProbe;
+
+    @Nullable
+    private transient Forest forest;
+    @Nullable
+    private transient Object[] result;
+
+    @Override
+    protected Options getOptions() {
+        Options opts = new Options();
+        opts.addOption("c", "classification", false,
+            "Predict as classification [default: not enabled]");
+        return opts;
+    }
+
+    @Override
+    protected CommandLine processOptions(@Nonnull String optionValue) throws UDFArgumentException {
+        CommandLine cl = parseOptions(optionValue);
+
+        this.classification = cl.hasOption("classification");
+        return cl;
+    }
+
+    @Override
+    public ObjectInspector initialize(ObjectInspector[] argOIs) throws UDFArgumentException {
+        if (argOIs.length < 2 || argOIs.length > 4) {
+            showHelp("forest_predict takes 2~4 arguments");
+        }
+
+        if (HiveUtils.isConstString(argOIs[0])) {
+            this.modelFile = HiveUtils.getConstString(argOIs[0]);
+            this.featuresIndex = 1;
+        } else {
+            this.modelsOI = HiveUtils.asListOI(argOIs, 0);
+            this.modelOI = HiveUtils.asStringOI(modelsOI.getListElementObjectInspector());
+            if (argOIs.length >= 3 && HiveUtils.isListOI(argOIs[2])) {
+                this.weightsOI = HiveUtils.asListOI(argOIs, 1);
+                this.weightOI =
+                        HiveUtils.asDoubleCompatibleOI(weightsOI.getListElementObjectInspector());
+                this.featuresIndex = 2;
+            } else {
+                this.featuresIndex = 1;
+            }
+        }
+
+        ListObjectInspector listOI = HiveUtils.asListOI(argOIs, featuresIndex);
+        this.featureListOI = listOI;
+        ObjectInspector elemOI = listOI.getListElementObjectInspector();
+        if (HiveUtils.isNumberOI(elemOI)) {
+            this.featureElemOI = HiveUtils.asDoubleCompatibleOI(elemOI);
+            this.denseInput = true;
+        } else if (HiveUtils.isStringOI(elemOI)) {
+            this.featureElemOI = HiveUtils.asStringOI(elemOI);
+            this.denseInput = false;
+        } else {
+            throw new UDFArgumentException(
+                "forest_predict takes array<double> or array<string> for features: "
+                        + listOI.getTypeName());
+        }
+
+        final int optionsIndex = featuresIndex + 1;
+        if (argOIs.length > optionsIndex + 1) {
+            showHelp("Unexpected number of arguments: " + argOIs.length);
+        }
+        if (argOIs.length == optionsIndex + 1) {
+            String opts = HiveUtils.getConstString(argOIs, optionsIndex);
+            processOptions(opts);
+        } else {
+            this.classification = false;
+        }
+
+        if (classification) {
+            List<String> fieldNames = new ArrayList<String>(3);
+            List<ObjectInspector> fieldOIs = new ArrayList<ObjectInspector>(3);
+            fieldNames.add("label");
+            fieldOIs.add(PrimitiveObjectInspectorFactory.writableIntObjectInspector);
+            fieldNames.add("probability");
+            fieldOIs.add(PrimitiveObjectInspectorFactory.writableDoubleObjectInspector);
+            fieldNames.add("probabilities");
+            fieldOIs.add(ObjectInspectorFactory.getStandardListObjectInspector(
+                PrimitiveObjectInspectorFactory.writableDoubleObjectInspector));
+            return ObjectInspectorFactory.getStandardStructObjectInspector(fieldNames, fieldOIs);
+        } else {
+            return PrimitiveObjectInspectorFactory.writableDoubleObjectInspector;
+        }
+    }
+
+    @Override
+    public Object evaluate(@Nonnull DeferredObject[] arguments) throws HiveException {
+        final Forest forest;
+        if (modelFile == null) {
+            Object arg0 = arguments[0].get();
+            if (arg0 == null) {
+                return null;
+            }
+            Object weights = (weightsOI == null) ? null : arguments[1].get();
+            forest = getForest(arg0, weights);
+        } else {
+            forest = getForest(modelFile);
+        }
+
+        Object argFeatures = arguments[featuresIndex].get();
+        if (argFeatures == null) {
+            throw new HiveException("features was null");
+        }
+        final Vector features = TreePredictUDF.parseFeatures(argFeatures, featureListOI,
+            featureElemOI, denseInput, featuresProbe);
+        this.featuresProbe = features;
+
+        if (classification) {
+            return predictClassification(forest, features);
+        } else {
+            return new DoubleWritable(forest.predict(features));
+        }
+    }
+
+    @Nonnull
+    private Object[] predictClassification(@Nonnull final Forest forest,
+            @Nonnull final Vector features) {
+        final double[] posteriori = forest.predictPosteriori(features);
+        final int label = smile.math.Math.whichMax(posteriori);
+        smile.math.Math.unitize1(posteriori);
+
+        Object[] result = this.result;
+        if (result == null) {
+            result = new Object[3];
+            this.result = result;
+        }
+        result[0] = new IntWritable(label);
+        result[1] = new DoubleWritable(posteriori[label]);
+        result[2] = WritableUtils.toWritableList(posteriori);
+        return result;
+    }
+
+    /**
+     * Returns the forest of the given models, which is reloaded only when the models are changed.
+     */
+    @Nonnull
+    private Forest getForest(@Nonnull final Object modelsObj, @Nullable final Object weightsObj)
+            throws HiveException {
+        final ListObjectInspector modelsOI = this.modelsOI;
+        final StringObjectInspector modelOI = this.modelOI;
+
+        final int numTrees = modelsOI.getListLength(modelsObj);
+        final Text[] models = new Text[numTrees];
+        for (int i = 0; i < numTrees; i++) {
+            Object o = modelsOI.getListElement(modelsObj, i);
+            if (o == null) {
+                throw new HiveException("Found null model at index " + i);
+            }
+            models[i] = modelOI.getPrimitiveWritableObject(o);
+        }
+
+        Forest forest = this.forest;
+        if (forest == null || !forest.isLoadedFrom(models)) {
+            forest = new Forest(classification, models);
+            this.forest = forest;
+            if (logger.isInfoEnabled()) {
+                logger.info("Loaded a forest of " + numTrees + " trees");
+            }
+        }
+
+        if (weightsObj != null) {
+            if (weightsOI.getListLength(weightsObj) != numTrees) {
+                throw new HiveException("The number of model weights "
+                        + weightsOI.getListLength(weightsObj)
+                        + " differs from the number of models " + numTrees);
+            }
+            HiveUtils.toDoubleArray(weightsObj, weightsOI, weightOI, forest.weights, false);
+        } else if (weightsOI != null) {
+            Arrays.fill(forest.weights, 1.d);
+        }
+        return forest;
+    }
+
+    @Nonnull
+    private Forest getForest(@Nonnull final String modelFile) throws HiveException {
+        Forest forest = this.forest;
+        if (forest == null) {
+            final List<Text> models = new ArrayList<Text>();
+            final List<Double> weights = new ArrayList<Double>();
+            try {
+                loadModels(new File(modelFile), mapredContext, models, weights);
+            } catch (IOException e) {
+                throw new HiveException("Failed to load models from " + modelFile, e);
+            }
+            if (models.isEmpty()) {
+                throw new HiveException("No model is found in " + modelFile);
+            }
+            forest = new Forest(classification, models.toArray(new Text[models.size()]));
+            for (int i = 0; i < forest.weights.length; i++) {
+                forest.weights[i] = weights.get(i).doubleValue();
+            }
+            this.forest = forest;
+            if (logger.isInfoEnabled()) {
+                logger.info("Loaded a forest of " + models.size() + " trees from " + modelFile);
+            }
+        }
+        return forest;
+    }
+
+    /**
+     * Loads lines of <code>model_id, model</code> or <code>model_id, model_weight, model</code>
+     * separated by tab or ^A.
+     */
+    private static void loadModels(@Nonnull final File file,
+            @Nullable final MapredContext context, @Nonnull final List<Text> models,
+            @Nonnull final List<Double> weights) throws IOException, HiveException {
+        if (!file.exists()) {
+            throw new HiveException("Model file does not exist: " + file.getAbsolutePath());
+        }
+        if (file.getName().endsWith(".crc")) {
+            return;
+        }
+        if (file.isDirectory()) {
+            for (File f : file.listFiles()) {
+                loadModels(f, context, models, weights);
+            }
+            return;
+        }
+
+        BufferedReader reader = null;
+        try {
+            reader = (context == null) ? IOUtils.bufferedReader(new FileInputStream(file))
+                    : HadoopUtils.getBufferedReader(file, context);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                final char sep = (line.indexOf('\u0001') != -1) ? '\u0001' : '\t';
+                final String[] fields = StringUtils.split(line, sep);
+                if (fields.length == 2) {
+                    weights.add(Double.valueOf(1.d));
+                    models.add(new Text(fields[1]));
+                } else if (fields.length >= 3) {
+                    weights.add(Double.valueOf(fields[1]));
+                    models.add(new Text(fields[2]));
+                } else {
+                    throw new HiveException("Invalid line in " + file.getName() + ": " + line);
+                }
+            }
+        } finally {
+            IOUtils.closeQuietly(reader);
+        }
+    }
+
+    @VisibleForTesting
+    @Nullable
+    Forest getForest() {
+        return forest;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.forest = null;
+        this.result = null;
+        this.featuresProbe = null;
+    }
+
+    @Override
+    public String getDisplayString(String[] children) {
+        return "forest_predict(" + Arrays.toString(children) + ")";
+    }
+
+    /**
+     * Trees of a forest with their weights.
+     */
+    static final class Forest {
+
+        @Nonnull
+        final FlatTree[] trees;
+        @Nonnull
+        final double[] weights;
+
+        // fingerprints of the serialized models, i.e., the length and the tail of each model
+        @Nonnull
+        private final int[] lengths;
+        @Nonnull
+        private final int[] tails;
+
+        @Nullable
+        private final double[] posteriori;
+
+        Forest(final boolean classification, @Nonnull final Text[] models) throws HiveException {
+            final int numTrees = models.length;
+            this.trees = new FlatTree[numTrees];
+            this.weights = new double[numTrees];
+            Arrays.fill(weights, 1.d);
+            this.lengths = new int[numTrees];
+            this.tails = new int[numTrees];
+            for (int i = 0; i < numTrees; i++) {
+                final Text model = models[i];
+                trees[i] = deserialize(model, classification);
+                lengths[i] = model.getLength();
+                tails[i] = tailHash(model);
+            }
+
+            if (classification) {
+                int numClasses = 0;
+                for (FlatTree tree : trees) {
+                    numClasses = Math.max(numClasses, tree.numClasses());
+                }
+                this.posteriori = new double[numClasses];
+            } else {
+                this.posteriori = null;
+            }
+        }
+
+        @Nonnull
+        private static FlatTree deserialize(@Nonnull final Text model,
+                final boolean classification) throws HiveException {
+            final byte[] b = Base91.decode(model.getBytes(), 0, model.getLength());
+            final FlatTree tree;
+            if (FlatTree.isFlatTree(b, b.length)) {
+                tree = FlatTree.deserialize(b, b.length);
+            } else if (classification) {
+                tree = DecisionTree.deserialize(b, b.length, true).flatten();
+            } else {
+                tree = RegressionTree.deserialize(b, b.length, true).flatten();
+            }
+            if (tree.isClassification() != classification) {
+                throw new UDFArgumentException(classification
+                        ? "Cannot evaluate a regression model with -classification"
+                        : "Cannot evaluate a classification model without -classification");
+            }
+            return tree;
+        }
+
+        /**
+         * Models end with the Adler-32 checksum of their (deflated) content, so that comparing
+         * lengths and tails is enough to detect a different set of models without comparing whole
+         * models for each row.
+         */
+        boolean isLoadedFrom(@Nonnull final Text[] models) {
+            if (models.length != trees.length) {
+                return false;
+            }
+            for (int i = 0; i < models.length; i++) {
+                final Text model = models[i];
+                if (model.getLength() != lengths[i] || tailHash(model) != tails[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static int tailHash(@Nonnull final Text model) {
+            final byte[] b = model.getBytes();
+            final int end = model.getLength();
+            int h = 1;
+            for (int i = Math.max(0, end - 16); i < end; i++) {
+                h = 31 * h + b[i];
+            }
+            return h;
+        }
+
+        /**
+         * @return the weighted average of the predictions of regression trees
+         */
+        double predict(@Nonnull final Vector x) {
+            double sum = 0.d, sumWeights = 0.d;
+            for (int i = 0; i < trees.length; i++) {
+                final double w = weights[i];
+                sum += w * trees[i].predict(x);
+                sumWeights += w;
+            }
+            return sum / sumWeights;
+        }
+
+        /**
+         * Ensembles the predictions of classification trees as rf_ensemble does.
+         *
+         * @return the (unnormalized) a posteriori probabilities, reused for each call
+         */
+        @Nonnull
+        double[] predictPosteriori(@Nonnull final Vector x) {
+            final double[] posteriori = this.posteriori;
+            Arrays.fill(posteriori, 0.d);
+            for (int i = 0; i < trees.length; i++) {
+                final FlatTree tree = trees[i];
+                final int leaf = tree.predictLeaf(x);
+                final int label = tree.getLabel(leaf);
+                posteriori[label] += tree.getPosteriori(leaf, label) * weights[i];
+            }
+            return posteriori;
+        }
+
+    }
+
+}
@@ -19,27 +19,33 @@
 package hivemall.smile.tools;
 
 import hivemall.UDFWithOptions;
+import hivemall.annotations.VisibleForTesting;
 import matrix4j.vector.DenseVector;
 import matrix4j.vector.SparseVector;
 import matrix4j.vector.Vector;
 import hivemall.smile.classification.DecisionTree;
-import hivemall.smile.classification.PredictionHandler;
 import hivemall.smile.regression.RegressionTree;
+import hivemall.smile.utils.FlatTree;
 import hivemall.utils.codec.Base91;
+import hivemall.utils.collections.maps.LRUCache;
+import hivemall.utils.hadoop.FeatureParser;
 import hivemall.utils.hadoop.HiveUtils;
 import hivemall.utils.hadoop.WritableUtils;
-import hivemall.utils.lang.Preconditions;
+import hivemall.utils.lang.NumberUtils;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
+import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.Options;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.hive.ql.exec.Description;
 import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
@@ -54,6 +60,9 @@ import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectIn
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.StringObjectInspector;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.Counters.Counter;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.Reporter;
 
 @Description(name = "tree_predict",
         value = "_FUNC_(string modelId, string model, array<double|string> features [, const string options | const boolean classification=false])"
@@ -61,8 +70,15 @@ import org.apache.hadoop.io.Text;
                 + " in <int value, array<double> a posteriori> for classification and <double> for regression")
 @UDFType(deterministic = true, stateful = false)
 public final class TreePredictUDF extends UDFWithOptions {
+    private static final Log logger = LogFactory.getLog(TreePredictUDF.class);
+
+    /** JobConf key of the default model cache size */
+    public static final String CACHE_SIZE_KEY = "hivemall.smile.tree_predict.cache_size";
+    private static final String DEFAULT_CACHE_SIZE = "64m";
 
     private boolean classification;
+    @Nullable
+    private String cacheSizeOption;
     private StringObjectInspector modelOI;
     private ListObjectInspector featureListOI;
     private PrimitiveObjectInspector featureElemOI;
@@ -71,13 +87,17 @@ public final class TreePredictUDF extends UDFWithOptions {
     private Vector featuresProbe;
 
     @Nullable
-    private transient Evaluator evaluator;
+    private transient Evaluator<?> evaluator;
 
     @Override
     protected Options getOptions() {
         Options opts = new Options();
         opts.addOption("c", "classification", false,
             "Predict as classification [default: not enabled]");
+        opts.addOption("cache_size", "model_cache_size", true,
+            "Total size of Base91-encoded models to cache deserialized in bytes (k/m/g suffix is"
+                    + " allowed) [default: " + CACHE_SIZE_KEY + " of JobConf or "
+                    + DEFAULT_CACHE_SIZE + "]");
         return opts;
     }
 
@@ -86,6 +106,7 @@ public final class TreePredictUDF extends UDFWithOptions {
         CommandLine cl = parseOptions(optionValue);
 
         this.classification = cl.hasOption("classification");
+        this.cacheSizeOption = cl.getOptionValue("cache_size");
         return cl;
     }
 
@@ -160,18 +181,50 @@ public final class TreePredictUDF extends UDFWithOptions {
         if (arg2 == null) {
             throw new HiveException("features was null");
         }
-        this.featuresProbe = parseFeatures(arg2, featuresProbe);
+        this.featuresProbe =
+                parseFeatures(arg2, featureListOI, featureElemOI, denseInput, featuresProbe);
 
         if (evaluator == null) {
-            this.evaluator =
-                    classification ? new ClassificationEvaluator() : new RegressionEvaluator();
+            long cacheSize = getCacheSize();
+            this.evaluator = classification ? new ClassificationEvaluator(cacheSize)
+                    : new RegressionEvaluator(cacheSize);
         }
         return evaluator.evaluate(modelId, model, featuresProbe);
     }
 
+    @Nonnegative
+    private long getCacheSize() throws UDFArgumentException {
+        String cacheSize = cacheSizeOption;
+        if (cacheSize == null && mapredContext != null) {
+            JobConf conf = mapredContext.getJobConf();
+            if (conf != null) {
+                cacheSize = conf.get(CACHE_SIZE_KEY);
+            }
+        }
+        if (cacheSize == null) {
+            cacheSize = DEFAULT_CACHE_SIZE;
+        }
+        final long size;
+        try {
+            size = NumberUtils.parseLong(cacheSize);
+        } catch (NumberFormatException e) {
+            throw new UDFArgumentException("Invalid cache_size: " + cacheSize);
+        }
+        if (size < 0L) {
+            throw new UDFArgumentException("cache_size must not be negative: " + cacheSize);
+        }
+        return size;
+    }
+
+    /**
+     * Parses array&lt;double&gt; features into a dense vector or array&lt;string&gt; features of
+     * <code>index[:value]</code> into a sparse vector, reusing the given probe if possible.
+     */
     @Nonnull
-    private Vector parseFeatures(@Nonnull final Object argObj, @Nullable Vector probe)
-            throws UDFArgumentException {
+    static Vector parseFeatures(@Nonnull final Object argObj,
+            @Nonnull final ListObjectInspector featureListOI,
+            @Nonnull final PrimitiveObjectInspector featureElemOI, final boolean denseInput,
+            @Nullable Vector probe) throws UDFArgumentException {
         if (denseInput) {
             final int length = featureListOI.getListLength(argObj);
             if (probe == null) {
@@ -202,6 +255,10 @@ public final class TreePredictUDF extends UDFWithOptions {
                 if (o == null) {
                     continue;
                 }
+                if (o instanceof Text) {
+                    parseFeature((Text) o, probe);
+                    continue;
+                }
                 String col = o.toString();
 
                 final int pos = col.indexOf(':');
@@ -236,8 +293,48 @@ public final class TreePredictUDF extends UDFWithOptions {
         return probe;
     }
 
+    static void parseFeature(@Nonnull final Text col, @Nonnull final Vector probe)
+            throws UDFArgumentException {
+        final int pos;
+        try {
+            pos = FeatureParser.indexOfValue(col);
+        } catch (IllegalArgumentException e) {
+            throw new UDFArgumentException(e.getMessage());
+        }
+        final int colIndex = FeatureParser.parseFeatureAsInt(col, pos);
+        if (colIndex < 0) {
+            throw new UDFArgumentException(
+                "Col index MUST be greater than or equals to 0: " + colIndex);
+        }
+        final double value = FeatureParser.parseValue(col, pos);
+        probe.set(colIndex, value);
+    }
+
+    @VisibleForTesting
+    @Nullable
+    LRUCache<String, ?> getModelCache() {
+        return (evaluator == null) ? null : evaluator.cache;
+    }
+
     @Override
     public void close() throws IOException {
+        final Evaluator<?> evaluator = this.evaluator;
+        if (evaluator != null) {
+            final LRUCache<String, ?> cache = evaluator.cache;
+            if (logger.isInfoEnabled()) {
+                logger.info("Model cache of tree_predict: " + cache);
+            }
+            final Reporter reporter = getReporter();
+            if (reporter != null) {
+                Counter hits = reporter.getCounter("hivemall.smile.TreePredictUDF$Counter",
+                    "Model cache hits");
+                Counter misses = reporter.getCounter("hivemall.smile.TreePredictUDF$Counter",
+                    "Model cache misses");
+                incrCounter(hits, cache.getHits());
+                incrCounter(misses, cache.getMisses());
+            }
+            cache.clear();
+        }
         this.modelOI = null;
         this.featureElemOI = null;
         this.featureListOI = null;
@@ -249,81 +346,120 @@ public final class TreePredictUDF extends UDFWithOptions {
         return "tree_predict(" + Arrays.toString(children) + ")";
     }
 
-    interface Evaluator {
+    /**
+     * Evaluates features against deserialized models that are cached by model ID, so that a model
+     * is not deserialized for each row even when rows are not clustered by model. Models are kept
+     * as {@link FlatTree}s regardless of their serialized format.
+     */
+    abstract static class Evaluator<T> {
+
+        @Nonnull
+        final LRUCache<String, T> cache;
+
+        Evaluator(@Nonnegative long cacheSize) {
+            this.cache = new LRUCache<String, T>(cacheSize);
+        }
+
+        @Nonnull
+        abstract Object evaluate(@Nonnull String modelId, @Nonnull Text model,
+                @Nonnull Vector features) throws HiveException;
+
+        @Nonnull
+        final T getModel(@Nonnull final String modelId, @Nonnull final Text script)
+                throws HiveException {
+            T model = cache.get(modelId);
+            if (model == null) {
+                int length = script.getLength();
+                byte[] b = script.getBytes();
+                b = Base91.decode(b, 0, length);
+                model = FlatTree.isFlatTree(b, b.length) ? deserializeFlatTree(b)
+                        : deserialize(b);
+                cache.put(modelId, model, length);
+            }
+            return model;
+        }
+
+        @Nonnull
+        abstract T deserialize(@Nonnull byte[] serializedObj) throws HiveException;
 
         @Nonnull
-        Object evaluate(@Nonnull String modelId, @Nonnull Text model, @Nonnull Vector features)
-                throws HiveException;
+        abstract T deserializeFlatTree(@Nonnull byte[] serializedObj) throws HiveException;
 
     }
 
-    static final class ClassificationEvaluator implements Evaluator {
+    static final class ClassificationEvaluator extends Evaluator<FlatTree> {
 
         @Nonnull
         private final Object[] result;
 
-        @Nullable
-        private String prevModelId = null;
-        private DecisionTree.Node cNode = null;
-
-        ClassificationEvaluator() {
+        ClassificationEvaluator(@Nonnegative long cacheSize) {
+            super(cacheSize);
             this.result = new Object[2];
         }
 
         @Nonnull
         public Object[] evaluate(@Nonnull final String modelId, @Nonnull final Text script,
                 @Nonnull final Vector features) throws HiveException {
-            if (!modelId.equals(prevModelId)) {
-                this.prevModelId = modelId;
-                int length = script.getLength();
-                byte[] b = script.getBytes();
-                b = Base91.decode(b, 0, length);
-                this.cNode = DecisionTree.deserialize(b, b.length, true);
-            }
-
-            Arrays.fill(result, null);
-            Preconditions.checkNotNull(cNode);
-            cNode.predict(features, new PredictionHandler() {
-                public void visitLeaf(int output, double[] posteriori) {
-                    result[0] = new IntWritable(output);
-                    result[1] = WritableUtils.toWritableList(posteriori);
-                }
-            });
+            final FlatTree tree = getModel(modelId, script);
 
+            final int leaf = tree.predictLeaf(features);
+            result[0] = new IntWritable(tree.getLabel(leaf));
+            result[1] = WritableUtils.toWritableList(tree.getPosteriori(leaf));
             return result;
         }
 
+        @Override
+        FlatTree deserialize(@Nonnull final byte[] b) throws HiveException {
+            return DecisionTree.deserialize(b, b.length, true).flatten();
+        }
+
+        @Override
+        FlatTree deserializeFlatTree(@Nonnull final byte[] b) throws HiveException {
+            final FlatTree tree = FlatTree.deserialize(b, b.length);
+            if (!tree.isClassification()) {
+                throw new UDFArgumentException(
+                    "Cannot evaluate a regression model with -classification");
+            }
+            return tree;
+        }
+
     }
 
-    static final class RegressionEvaluator implements Evaluator {
+    static final class RegressionEvaluator extends Evaluator<FlatTree> {
 
         @Nonnull
         private final DoubleWritable result;
 
-        @Nullable
-        private String prevModelId = null;
-        private RegressionTree.Node rNode = null;
-
-        RegressionEvaluator() {
+        RegressionEvaluator(@Nonnegative long cacheSize) {
+            super(cacheSize);
             this.result = new DoubleWritable();
         }
 
         @Nonnull
         public DoubleWritable evaluate(@Nonnull final String modelId, @Nonnull final Text script,
                 @Nonnull final Vector features) throws HiveException {
-            if (!modelId.equals(prevModelId)) {
-                this.prevModelId = modelId;
-                int length = script.getLength();
-                byte[] b = script.getBytes();
-                b = Base91.decode(b, 0, length);
-                this.rNode = RegressionTree.deserialize(b, b.length, true);
-            }
-            Preconditions.checkNotNull(rNode);
+            final FlatTree tree = getModel(modelId, script);
 
-            double value = rNode.predict(features);
+            double value = tree.predict(features);
             result.set(value);
             return result;
         }
+
+        @Override
+        FlatTree deserialize(@Nonnull final byte[] b) throws HiveException {
+            return RegressionTree.deserialize(b, b.length, true).flatten();
+        }
+
+        @Override
+        FlatTree deserializeFlatTree(@Nonnull final byte[] b) throws HiveException {
+            final FlatTree tree = FlatTree.deserialize(b, b.length);
+            if (tree.isClassification()) {
+                throw new UDFArgumentException(
+                    "Cannot evaluate a classification model without -classification");
+            }
+            return tree;
+        }
+
     }
 
 }
@@ -0,0 +1,269 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.smile.utils;
+
+import hivemall.utils.collections.lists.DoubleArrayList;
+import hivemall.utils.lang.Preconditions;
+import matrix4j.matrix.ColumnMajorMatrix;
+import matrix4j.matrix.Matrix;
+import matrix4j.vector.VectorProcedure;
+
+import java.util.Arrays;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.roaringbitmap.RoaringBitmap;
+
+/**
+ * Quantile bins of numerical columns for histogram-based split finding.
+ *
+ * Each numerical column is divided into at most <code>maxBins</code> bins of almost the same
+ * number of examples, and the bin of each example is encoded in a byte (or a short for more than
+ * 255 bins) so that a split is found by accumulating a histogram of bins instead of scanning
+ * sorted values. A split after bin b corresponds to the test <code>x &lt;= threshold(j, b)</code>.
+ * Missing values are put in the last bin, which never satisfies the test as NaN does not.
+ */
+public final class FeatureBins {
+
+    public static final int MAX_BINS = 0xFFFF;
+
+    @Nonnegative
+    private final int numRows;
+    /**
+     * Upper bounds of bins for each numerical column. Null for nominal or empty columns.
+     */
+    @Nonnull
+    private final double[][] thresholds;
+    @Nullable
+    private final byte[][] byteCodes;
+    @Nullable
+    private final short[][] shortCodes;
+
+    private FeatureBins(@Nonnegative int numRows, @Nonnull double[][] thresholds,
+            @Nullable byte[][] byteCodes, @Nullable short[][] shortCodes) {
+        this.numRows = numRows;
+        this.thresholds = thresholds;
+        this.byteCodes = byteCodes;
+        this.shortCodes = shortCodes;
+    }
+
+    @Nonnull
+    public static FeatureBins build(@Nonnull final RoaringBitmap nominalAttrs,
+            @Nonnull final Matrix x, @Nonnegative final int maxBins) {
+        Preconditions.checkArgument(maxBins >= 2 && maxBins <= MAX_BINS,
+            "Invalid number of bins: " + maxBins);
+
+        final int numRows = x.numRows();
+        final int numCols = x.numColumns();
+        final double[][] thresholds = new double[numCols][];
+        final boolean useByte = maxBins <= 0xFF; // codes range over [0, maxBins] including missing
+        final byte[][] byteCodes = useByte ? new byte[numCols][] : null;
+        final short[][] shortCodes = useByte ? null : new short[numCols][];
+
+        final DoubleArrayList values = new DoubleArrayList(x.isSparse() ? 1024 : numRows);
+        final double[] column = new double[numRows];
+        final ColumnMajorMatrix x2 = x.isSparse() ? x.toColumnMajorMatrix() : null;
+        final VectorProcedure proc = new VectorProcedure() {
+            @Override
+            public void apply(final int i, final double v) {
+                column[i] = v;
+                if (!Double.isNaN(v)) {
+                    values.add(v);
+                }
+            }
+        };
+        for (int j = 0; j < numCols; j++) {
+            if (nominalAttrs.contains(j)) {
+                continue;
+            }
+            Arrays.fill(column, Double.NaN);
+            if (x2 == null) {
+                for (int i = 0; i < numRows; i++) {
+                    proc.apply(i, x.get(i, j, Double.NaN));
+                }
+            } else {
+                x2.eachNonNullInColumn(j, proc);
+            }
+            if (values.isEmpty()) {
+                continue;
+            }
+
+            final double[] sorted = values.toArray();
+            values.clear();
+            Arrays.sort(sorted);
+            final double[] cuts = quantiles(sorted, maxBins);
+            thresholds[j] = cuts;
+
+            final int missing = cuts.length + 1;
+            if (useByte) {
+                final byte[] codes = new byte[numRows];
+                for (int i = 0; i < numRows; i++) {
+                    codes[i] = (byte) binOf(cuts, column[i], missing);
+                }
+                byteCodes[j] = codes;
+            } else {
+                final short[] codes = new short[numRows];
+                for (int i = 0; i < numRows; i++) {
+                    codes[i] = (short) binOf(cuts, column[i], missing);
+                }
+                shortCodes[j] = codes;
+            }
+        }
+
+        return new FeatureBins(numRows, thresholds, byteCodes, shortCodes);
+    }
+
+    /**
+     * @param sorted non-NaN values in ascending order
+     * @return the midpoints between distinct values that divide values into at most maxBins bins
+     */
+    @Nonnull
+    static double[] quantiles(@Nonnull final double[] sorted, @Nonnegative final int maxBins) {
+        final int size = sorted.length;
+        int distinct = 1;
+        for (int i = 1; i < size; i++) {
+            if (sorted[i] != sorted[i - 1]) {
+                distinct++;
+            }
+        }
+
+        final DoubleArrayList cuts = new DoubleArrayList(Math.min(distinct, maxBins));
+        double nextBound = (distinct <= maxBins) ? 0.d : (double) size / maxBins;
+        for (int i = 1; i < size && cuts.size() < maxBins - 1; i++) {
+            final double prev = sorted[i - 1], v = sorted[i];
+            if (v == prev || i < nextBound) {
+                continue;
+            }
+            final double cut = (prev + v) / 2.d;
+            if (cuts.isEmpty() || cut > cuts.get(cuts.size() - 1)) {
+                cuts.add(cut);
+            }
+            if (nextBound != 0.d) {// spread the remaining examples over the remaining bins
+                nextBound = i + (double) (size - i) / (maxBins - cuts.size());
+            }
+        }
+        return cuts.toArray();
+    }
+
+    private static int binOf(@Nonnull final double[] cuts, final double v, final int missing) {
+        if (Double.isNaN(v)) {
+            return missing;
+        }
+        final int pos = Arrays.binarySearch(cuts, v);
+        return (pos >= 0) ? pos : -pos - 1;
+    }
+
+    public int numRows() {
+        return numRows;
+    }
+
+    /**
+     * @return true if the column is binned, i.e., numerical and not empty
+     */
+    public boolean isBinned(@Nonnegative final int col) {
+        return col < thresholds.length && thresholds[col] != null;
+    }
+
+    /**
+     * @return the number of bins of a binned column including the bin of missing values
+     */
+    public int numBins(@Nonnegative final int col) {
+        return thresholds[col].length + 2;
+    }
+
+    /**
+     * @return the upper bound (inclusive) of the values in the given bin
+     */
+    public double threshold(@Nonnegative final int col, @Nonnegative final int bin) {
+        return thresholds[col][bin];
+    }
+
+    public int bin(@Nonnegative final int row, @Nonnegative final int col) {
+        if (byteCodes != null) {
+            return byteCodes[col][row] & 0xFF;
+        } else {
+            return shortCodes[col][row] & 0xFFFF;
+        }
+    }
+
+    /**
+     * Accumulates the weighted sum of y and the sample counts of the rows
+     * <code>rows[from, to)</code> for each bin of the given column.
+     */
+    @Nonnull
+    public Histogram histogram(@Nonnegative final int col, @Nonnull final int[] rows,
+            final int from, final int to, @Nonnull final int[] samples,
+            @Nonnull final double[] y) {
+        final Histogram hist = new Histogram(numBins(col));
+        final double[] sum = hist.sum;
+        final int[] count = hist.count;
+        if (byteCodes != null) {
+            final byte[] codes = byteCodes[col];
+            for (int k = from; k < to; k++) {
+                final int i = rows[k];
+                final int n = samples[i];
+                final int b = codes[i] & 0xFF;
+                sum[b] += n * y[i];
+                count[b] += n;
+            }
+        } else {
+            final short[] codes = shortCodes[col];
+            for (int k = from; k < to; k++) {
+                final int i = rows[k];
+                final int n = samples[i];
+                final int b = codes[i] & 0xFFFF;
+                sum[b] += n * y[i];
+                count[b] += n;
+            }
+        }
+        return hist;
+    }
+
+    /**
+     * The weighted sum of responses and the sample counts for each bin of a column.
+     */
+    public static final class Histogram {
+        @Nonnull
+        public final double[] sum;
+        @Nonnull
+        public final int[] count;
+
+        Histogram(@Nonnegative int numBins) {
+            this.sum = new double[numBins];
+            this.count = new int[numBins];
+        }
+
+        /**
+         * @return the histogram of the sibling node, i.e., this (parent) minus the given child
+         */
+        @Nonnull
+        public Histogram subtract(@Nonnull final Histogram child) {
+            final int numBins = sum.length;
+            final Histogram hist = new Histogram(numBins);
+            for (int b = 0; b < numBins; b++) {
+                hist.sum[b] = sum[b] - child.sum[b];
+                hist.count[b] = count[b] - child.count[b];
+            }
+            return hist;
+        }
+    }
+
+}
@@ -0,0 +1,423 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.smile.utils;
+
+import hivemall.utils.codec.ZigZagLEB128Codec;
+import hivemall.utils.io.FastByteArrayInputStream;
+import hivemall.utils.io.FastByteArrayOutputStream;
+import hivemall.utils.io.IOUtils;
+import matrix4j.vector.Vector;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+
+/**
+ * A decision/regression tree flattened into packed arrays for fast prediction.
+ *
+ * Branch nodes are numbered in pre-order and hold a split feature, a threshold, and the indices
+ * of their children in {@link #children}. A child index <code>c &lt; 0</code> refers to the
+ * leaf <code>~c</code>. Nominal splits are encoded as negative features, i.e.,
+ * <code>~feature</code>. Prediction is an iterative loop over these arrays instead of a recursive
+ * walk over linked node objects.
+ */
+public final class FlatTree {
+
+    /**
+     * The first byte of a serialized flat tree. Models serialized by
+     * {@link hivemall.smile.classification.DecisionTree#serialize(boolean)} or
+     * {@link hivemall.smile.regression.RegressionTree#serialize(boolean)} start with a zlib header
+     * whose lower 4 bits are always 8, so that they are never confused with flat trees.
+     */
+    private static final byte MAGIC = (byte) 0xF1;
+    private static final byte VERSION = 1;
+
+    /** split feature of each branch, ~feature for a nominal split */
+    @Nonnull
+    private final int[] features;
+    @Nonnull
+    private final double[] thresholds;
+    /** true and false child of each branch */
+    @Nonnull
+    private final int[] children;
+
+    // leaves
+    private final int numLeaves;
+    /** output of each leaf for regression */
+    @Nullable
+    private final double[] values;
+    /** class label of each leaf for classification */
+    @Nullable
+    private final int[] labels;
+    /** a posteriori probabilities of each leaf for classification */
+    @Nullable
+    private final double[] posteriori;
+    private final int numClasses;
+
+    private FlatTree(@Nonnull int[] features, @Nonnull double[] thresholds,
+            @Nonnull int[] children, int numLeaves, @Nullable double[] values,
+            @Nullable int[] labels, @Nullable double[] posteriori, int numClasses) {
+        this.features = features;
+        this.thresholds = thresholds;
+        this.children = children;
+        this.numLeaves = numLeaves;
+        this.values = values;
+        this.labels = labels;
+        this.posteriori = posteriori;
+        this.numClasses = numClasses;
+    }
+
+    public boolean isClassification() {
+        return labels != null;
+    }
+
+    /**
+     * @return the number of branch nodes
+     */
+    public int numBranches() {
+        return thresholds.length;
+    }
+
+    public int numLeaves() {
+        return numLeaves;
+    }
+
+    /**
+     * @return the number of classes of a classification tree, or 0 for a regression tree
+     */
+    public int numClasses() {
+        return numClasses;
+    }
+
+    /**
+     * @return the index of the leaf that the given instance falls into
+     */
+    public int predictLeaf(@Nonnull final Vector x) {
+        final int[] features = this.features;
+        final double[] thresholds = this.thresholds;
+        final int[] children = this.children;
+        if (thresholds.length == 0) {
+            return 0;
+        }
+
+        int node = 0;
+        do {
+            final int feature = features[node];
+            final int side;
+            if (feature >= 0) {
+                side = (x.get(feature, Double.NaN) <= thresholds[node]) ? 0 : 1;
+            } else {
+                side = (x.get(~feature, Double.NaN) == thresholds[node]) ? 0 : 1;
+            }
+            node = children[(node << 1) + side];
+        } while (node >= 0);
+        return ~node;
+    }
+
+    /**
+     * Evaluates a regression tree.
+     */
+    public double predict(@Nonnull final Vector x) {
+        return getValue(predictLeaf(x));
+    }
+
+    public double getValue(@Nonnegative final int leaf) {
+        if (values == null) {
+            throw new UnsupportedOperationException("Not a regression tree");
+        }
+        return values[leaf];
+    }
+
+    public int getLabel(@Nonnegative final int leaf) {
+        if (labels == null) {
+            throw new UnsupportedOperationException("Not a classification tree");
+        }
+        return labels[leaf];
+    }
+
+    /**
+     * @return the a posteriori probability of the given class in the given leaf
+     */
+    public double getPosteriori(@Nonnegative final int leaf, @Nonnegative final int label) {
+        if (posteriori == null) {
+            throw new UnsupportedOperationException("Not a classification tree");
+        }
+        return posteriori[leaf * numClasses + label];
+    }
+
+    @Nonnull
+    public double[] getPosteriori(@Nonnegative final int leaf) {
+        if (posteriori == null) {
+            throw new UnsupportedOperationException("Not a classification tree");
+        }
+        final int from = leaf * numClasses;
+        return Arrays.copyOfRange(posteriori, from, from + numClasses);
+    }
+
+    // ------------------------------------------------------------
+    // serialization
+
+    /**
+     * @return true if the given serialized model is a flat tree
+     */
+    public static boolean isFlatTree(@Nonnull final byte[] b, final int length) {
+        return length > 0 && b[0] == MAGIC;
+    }
+
+    /**
+     * Serializes this tree. Nodes are written in pre-order so that child indices are implied by
+     * the order and not written.
+     */
+    @Nonnull
+    public byte[] serialize() throws HiveException {
+        final FastByteArrayOutputStream bos = new FastByteArrayOutputStream(1024);
+        bos.write(MAGIC);
+        bos.write(VERSION);
+        final DeflaterOutputStream dos = new DeflaterOutputStream(bos);
+        final DataOutputStream out = new DataOutputStream(dos);
+        try {
+            out.writeBoolean(isClassification());
+            if (isClassification()) {
+                ZigZagLEB128Codec.writeUnsignedInt(numClasses, out);
+            }
+            writeNode(thresholds.length == 0 ? ~0 : 0, out);
+            out.flush();
+            dos.finish();
+            return bos.toByteArray();
+        } catch (IOException e) {
+            throw new HiveException("IOException cause while serializing FlatTree object", e);
+        } finally {
+            IOUtils.closeQuietly(out);
+        }
+    }
+
+    /**
+     * Writes 0 followed by the output for a leaf, or ZigZag(feature) + 1 followed by the
+     * threshold and the children for a branch.
+     */
+    private void writeNode(final int node, @Nonnull final DataOutputStream out)
+            throws IOException {
+        if (node < 0) {
+            final int leaf = ~node;
+            out.writeByte(0);
+            if (labels == null) {
+                out.writeDouble(values[leaf]);
+            } else {
+                ZigZagLEB128Codec.writeUnsignedInt(labels[leaf], out);
+                for (int j = 0, k = leaf * numClasses; j < numClasses; j++) {
+                    out.writeDouble(posteriori[k + j]);
+                }
+            }
+        } else {
+            ZigZagLEB128Codec.writeUnsignedInt(ZigZagLEB128Codec.encode(features[node]) + 1, out);
+            out.writeDouble(thresholds[node]);
+            writeNode(children[node << 1], out);
+            writeNode(children[(node << 1) + 1], out);
+        }
+    }
+
+    @Nonnull
+    public static FlatTree deserialize(@Nonnull final byte[] b, final int length)
+            throws HiveException {
+        if (!isFlatTree(b, length)) {
+            throw new HiveException("Not a serialized FlatTree object");
+        }
+        if (length < 2 || b[1] != VERSION) {
+            throw new HiveException("Unsupported FlatTree version");
+        }
+        final DataInputStream in = new DataInputStream(
+            new InflaterInputStream(new FastByteArrayInputStream(b, 2, length - 2)));
+        try {
+            final boolean classification = in.readBoolean();
+            final Builder builder = new Builder(classification);
+            final int numClasses =
+                    classification ? ZigZagLEB128Codec.readUnsignedInt(in) : 0;
+            readNode(builder, numClasses, in);
+            return builder.build();
+        } catch (IOException e) {
+            throw new HiveException("IOException cause while deserializing FlatTree object", e);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    private static int readNode(@Nonnull final Builder builder, final int numClasses,
+            @Nonnull final DataInputStream in) throws IOException {
+        final int tag = ZigZagLEB128Codec.readUnsignedInt(in);
+        if (tag == 0) {
+            if (numClasses == 0) {
+                return builder.addLeaf(in.readDouble());
+            }
+            final int label = ZigZagLEB128Codec.readUnsignedInt(in);
+            final double[] posteriori = new double[numClasses];
+            for (int j = 0; j < numClasses; j++) {
+                posteriori[j] = in.readDouble();
+            }
+            return builder.addLeaf(label, posteriori);
+        } else {
+            final int feature = ZigZagLEB128Codec.decode(tag - 1);
+            final double threshold = in.readDouble();
+            final int branch = (feature >= 0) ? builder.addBranch(feature, true, threshold)
+                    : builder.addBranch(~feature, false, threshold);
+            final int trueChild = readNode(builder, numClasses, in);
+            final int falseChild = readNode(builder, numClasses, in);
+            builder.setChildren(branch, trueChild, falseChild);
+            return branch;
+        }
+    }
+
+    // ------------------------------------------------------------
+    // construction
+
+    /**
+     * Builds a flat tree by visiting nodes in pre-order.
+     */
+    public static final class Builder {
+
+        private final boolean classification;
+        private int numClasses;
+
+        private int[] features;
+        private double[] thresholds;
+        private int[] children;
+        private int numBranches;
+
+        private double[] values;
+        private int[] labels;
+        private double[] posteriori;
+        private int numLeaves;
+
+        public Builder(boolean classification) {
+            this.classification = classification;
+            this.numClasses = -1;
+            this.features = new int[16];
+            this.thresholds = new double[16];
+            this.children = new int[32];
+            this.numBranches = 0;
+            if (classification) {
+                this.labels = new int[16];
+                this.posteriori = new double[0];
+            } else {
+                this.values = new double[16];
+            }
+            this.numLeaves = 0;
+        }
+
+        /**
+         * @return the index of the added branch
+         */
+        public int addBranch(final int feature, final boolean quantitative,
+                final double threshold) {
+            final int i = numBranches;
+            if (i == thresholds.length) {
+                this.features = Arrays.copyOf(features, i * 2);
+                this.thresholds = Arrays.copyOf(thresholds, i * 2);
+                this.children = Arrays.copyOf(children, i * 4);
+            }
+            features[i] = quantitative ? feature : ~feature;
+            thresholds[i] = threshold;
+            numBranches++;
+            return i;
+        }
+
+        /**
+         * @param trueChild a branch index, or a leaf reference returned by addLeaf
+         * @param falseChild a branch index, or a leaf reference returned by addLeaf
+         */
+        public void setChildren(@Nonnegative final int branch, final int trueChild,
+                final int falseChild) {
+            children[branch << 1] = trueChild;
+            children[(branch << 1) + 1] = falseChild;
+        }
+
+        /**
+         * Adds a leaf of a regression tree.
+         *
+         * @return the reference to the added leaf, i.e., ~leafIndex
+         */
+        public int addLeaf(final double value) {
+            if (classification) {
+                throw new IllegalStateException("Not a regression tree");
+            }
+            final int i = numLeaves;
+            if (i == values.length) {
+                this.values = Arrays.copyOf(values, i * 2);
+            }
+            values[i] = value;
+            numLeaves++;
+            return ~i;
+        }
+
+        /**
+         * Adds a leaf of a classification tree.
+         *
+         * @return the reference to the added leaf, i.e., ~leafIndex
+         */
+        public int addLeaf(final int label, @Nonnull final double[] posteriori) {
+            if (!classification) {
+                throw new IllegalStateException("Not a classification tree");
+            }
+            if (numClasses == -1) {
+                this.numClasses = posteriori.length;
+                this.posteriori = new double[labels.length * numClasses];
+            } else if (posteriori.length != numClasses) {
+                throw new IllegalArgumentException("Expected " + numClasses
+                        + " classes but got " + posteriori.length);
+            }
+            final int i = numLeaves;
+            if (i == labels.length) {
+                this.labels = Arrays.copyOf(labels, i * 2);
+                this.posteriori = Arrays.copyOf(this.posteriori, i * 2 * numClasses);
+            }
+            labels[i] = label;
+            System.arraycopy(posteriori, 0, this.posteriori, i * numClasses, numClasses);
+            numLeaves++;
+            return ~i;
+        }
+
+        @Nonnull
+        public FlatTree build() {
+            if (numLeaves == 0) {
+                throw new IllegalStateException("No leaf is added");
+            }
+            final int n = numBranches;
+            final int[] features = Arrays.copyOf(this.features, n);
+            final double[] thresholds = Arrays.copyOf(this.thresholds, n);
+            final int[] children = Arrays.copyOf(this.children, n * 2);
+            if (classification) {
+                return new FlatTree(features, thresholds, children, numLeaves,
+                    null, Arrays.copyOf(labels, numLeaves),
+                    Arrays.copyOf(posteriori, numLeaves * numClasses), numClasses);
+            } else {
+                return new FlatTree(features, thresholds, children, numLeaves,
+                    Arrays.copyOf(values, numLeaves), null, null, 0);
+            }
+        }
+    }
+
+}
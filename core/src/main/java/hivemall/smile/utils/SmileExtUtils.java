@@ -23,6 +23,7 @@ import hivemall.smile.classification.DecisionTree.SplitRule;
 import hivemall.utils.collections.arrays.SparseIntArray;
 import hivemall.utils.collections.lists.DoubleArrayList;
 import hivemall.utils.collections.lists.IntArrayList;
+import hivemall.utils.hadoop.FeatureParser;
 import hivemall.utils.lang.NumberUtils;
 import hivemall.utils.lang.Preconditions;
 import hivemall.utils.math.MathUtils;
@@ -31,6 +32,7 @@ import hivemall.utils.random.RandomNumberGeneratorFactory;
 import matrix4j.matrix.ColumnMajorMatrix;
 import matrix4j.matrix.Matrix;
 import matrix4j.matrix.MatrixUtils;
+import matrix4j.matrix.builders.MatrixBuilder;
 import matrix4j.vector.VectorProcedure;
 import smile.data.NominalAttribute;
 import smile.data.NumericAttribute;
@@ -44,6 +46,7 @@ import javax.annotation.Nullable;
 
 import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.io.Text;
 import org.roaringbitmap.RoaringBitmap;
 
 public final class SmileExtUtils {
@@ -122,6 +125,18 @@ public final class SmileExtUtils {
         return nominalAttrs;
     }
 
+    /**
+     * Sorts all rows of each numerical column. The result can be shared by trees and sampled by
+     * {@link VariableOrder#sample(int[])}.
+     */
+    @Nonnull
+    public static VariableOrder sort(@Nonnull final RoaringBitmap nominalAttrs,
+            @Nonnull final Matrix x) {
+        final int[] samples = new int[x.numRows()];
+        Arrays.fill(samples, 1);
+        return sort(nominalAttrs, x, samples);
+    }
+
     @Nonnull
     public static VariableOrder sort(@Nonnull final RoaringBitmap nominalAttrs,
             @Nonnull final Matrix x, @Nonnull final int[] samples) {
@@ -337,6 +352,24 @@ public final class SmileExtUtils {
         return numColumns != numCategoricalCols; // contains at least one numerical column
     }
 
+    /**
+     * Adds a sparse feature of <code>index[:value]</code> to the builder, parsing it from the bytes
+     * of the given text without decoding it into a String.
+     *
+     * @throws IllegalArgumentException
+     * @throws NumberFormatException
+     */
+    public static void nextColumn(@Nonnull final MatrixBuilder builder, @Nonnull final Text col) {
+        final int pos = FeatureParser.indexOfValue(col);
+        final int colIndex = FeatureParser.parseFeatureAsInt(col, pos);
+        if (colIndex < 0) {
+            throw new IllegalArgumentException(
+                "Col index MUST be greater than or equals to 0: " + colIndex);
+        }
+        final double value = FeatureParser.parseValue(col, pos);
+        builder.nextColumn(colIndex, value);
+    }
+
     @Nonnull
     public static String resolveFeatureName(final int index, @Nullable final String[] names) {
         if (names == null) {
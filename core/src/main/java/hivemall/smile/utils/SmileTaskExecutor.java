@@ -35,13 +35,42 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.hive.ql.exec.MapredContext;
 import org.apache.hadoop.mapred.JobConf;
 
+/**
+ * Runs training tasks in a thread pool. Tasks submitted from a running task, e.g., split finding
+ * of a tree trained in the pool, are run in the caller's thread so that nested tasks never wait
+ * for pool threads blocked by their callers.
+ */
 public final class SmileTaskExecutor {
     private static final Log logger = LogFactory.getLog(SmileTaskExecutor.class);
 
+    private static final ThreadLocal<Boolean> IN_TASK = new ThreadLocal<Boolean>() {
+        @Override
+        protected Boolean initialValue() {
+            return Boolean.FALSE;
+        }
+    };
+
     @Nullable
     private final ExecutorService exec;
+    private final int threads;
 
     public SmileTaskExecutor(@Nullable MapredContext mapredContext) {
+        this(getNumThreads(mapredContext));
+    }
+
+    public SmileTaskExecutor(final int threads) {
+        if (threads > 1) {
+            logger.info("Initialized FixedThreadPool of " + threads + " threads");
+            this.exec = ExecutorFactory.newFixedThreadPool(threads, "Hivemall-SMILE", true);
+            this.threads = threads;
+        } else {
+            logger.info("Direct execution in a caller thread is selected");
+            this.exec = null;
+            this.threads = 1;
+        }
+    }
+
+    private static int getNumThreads(@Nullable final MapredContext mapredContext) {
         int nprocs = Runtime.getRuntime().availableProcessors();
         int threads = Math.max(1, nprocs - 1);
 
@@ -59,24 +88,38 @@ public final class SmileTaskExecutor {
                 }
             }
         }
+        return threads;
+    }
 
-        if (threads > 1) {
-            logger.info("Initialized FixedThreadPool of " + threads + " threads");
-            this.exec = ExecutorFactory.newFixedThreadPool(threads, "Hivemall-SMILE", true);
-        } else {
-            logger.info("Direct execution in a caller thread is selected");
-            this.exec = null;
-        }
+    /**
+     * @return the number of threads, or 1 if tasks are run in the caller's thread
+     */
+    public int getNumThreads() {
+        return (exec == null || IN_TASK.get().booleanValue()) ? 1 : threads;
     }
 
     public <T> List<T> run(Collection<? extends Callable<T>> tasks) throws Exception {
         final List<T> results = new ArrayList<T>(tasks.size());
-        if (exec == null) {
+        if (exec == null || IN_TASK.get().booleanValue()) {
             for (Callable<T> task : tasks) {
                 results.add(task.call());
             }
         } else {
-            final List<Future<T>> futures = exec.invokeAll(tasks);
+            final List<Callable<T>> wrapped = new ArrayList<Callable<T>>(tasks.size());
+            for (final Callable<T> task : tasks) {
+                wrapped.add(new Callable<T>() {
+                    @Override
+                    public T call() throws Exception {
+                        IN_TASK.set(Boolean.TRUE);
+                        try {
+                            return task.call();
+                        } finally {
+                            IN_TASK.set(Boolean.FALSE);
+                        }
+                    }
+                });
+            }
+            final List<Future<T>> futures = exec.invokeAll(wrapped);
             for (Future<T> future : futures) {
                 results.add(future.get());
             }
@@ -21,6 +21,8 @@ package hivemall.smile.utils;
 import hivemall.utils.collections.arrays.SparseIntArray;
 import hivemall.utils.function.Consumer;
 
+import java.util.Arrays;
+
 import javax.annotation.Nonnull;
 
 public final class VariableOrder {
@@ -32,6 +34,38 @@ public final class VariableOrder {
         this.cols = cols;
     }
 
+    /**
+     * Derives the order of sampled rows by scanning this order, which should cover all rows, so
+     * that columns are not sorted again for each sampling.
+     *
+     * @param samples the number of times each row is sampled
+     * @return a new order that can be modified independently of this order
+     */
+    @Nonnull
+    public VariableOrder sample(@Nonnull final int[] samples) {
+        final SparseIntArray[] cols = this.cols;
+        final SparseIntArray[] sampled = new SparseIntArray[cols.length];
+        final int[] buf = new int[samples.length];
+        for (int j = 0; j < cols.length; j++) {
+            final SparseIntArray col = cols[j];
+            if (col == null) {
+                continue;
+            }
+            final int[] rowPtrs = col.values();
+            int k = 0;
+            for (int i = 0, size = col.size(); i < size; i++) {
+                final int rowPtr = rowPtrs[i];
+                if (samples[rowPtr] != 0) {
+                    buf[k++] = rowPtr;
+                }
+            }
+            if (k != 0) {
+                sampled[j] = new SparseIntArray(Arrays.copyOf(buf, k));
+            }
+        }
+        return new VariableOrder(sampled);
+    }
+
     public void eachRow(@Nonnull final Consumer consumer) {
         for (int j = 0; j < cols.length; j++) {
             final SparseIntArray row = cols[j];
@@ -20,15 +20,23 @@ package hivemall.topicmodel;
 
 import hivemall.annotations.VisibleForTesting;
 import hivemall.model.FeatureValue;
+import hivemall.utils.concurrent.ExecutorFactory;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 import java.util.SortedMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 public abstract class AbstractProbabilisticTopicModel {
 
@@ -39,30 +47,149 @@ public abstract class AbstractProbabilisticTopicModel {
     @Nonnegative
     protected long _D;
 
-    // for mini-batch
+    // vocabulary: words are identified by their indices in `_words`
     @Nonnull
-    protected final List<Map<String, Float>> _miniBatchDocs;
+    private final Object2IntOpenHashMap<String> _wordIds;
+    @Nonnull
+    private final List<String> _words;
+
+    // for mini-batch: word IDs and their counts of each document
+    @Nonnull
+    protected int[][] _miniBatchWords;
+    @Nonnull
+    protected float[][] _miniBatchCounts;
     protected int _miniBatchSize;
 
+    // for running per-document computation in parallel
+    @Nonnegative
+    private int _numThreads;
+    @Nullable
+    private ExecutorService _executor;
+
     public AbstractProbabilisticTopicModel(@Nonnegative int K) {
         this._K = K;
         this._D = 0L;
-        this._miniBatchDocs = new ArrayList<Map<String, Float>>();
+        this._wordIds = new Object2IntOpenHashMap<String>(100);
+        _wordIds.defaultReturnValue(-1);
+        this._words = new ArrayList<String>(100);
+        this._miniBatchWords = new int[0][];
+        this._miniBatchCounts = new float[0][];
+        this._numThreads = 1;
     }
 
-    protected static void initMiniBatch(@Nonnull final String[][] miniBatch,
-            @Nonnull final List<Map<String, Float>> docs) {
-        docs.clear();
+    /**
+     * Sets the number of threads used by {@link #forEachDocument(DocumentTask)}. Worker threads
+     * are lazily started and released by {@link #close()}.
+     */
+    public void setNumThreads(@Nonnegative final int numThreads) {
+        if (numThreads < 1) {
+            throw new IllegalArgumentException("numThreads must be positive: " + numThreads);
+        }
+        close();
+        this._numThreads = numThreads;
+    }
+
+    /**
+     * Releases worker threads if any.
+     */
+    public void close() {
+        if (_executor != null) {
+            _executor.shutdownNow();
+            this._executor = null;
+        }
+    }
+
+    protected interface DocumentTask {
+        void run(@Nonnegative int d);
+    }
+
+    /**
+     * Runs the given task for each document of the current mini-batch. Documents are dispatched
+     * to worker threads one by one, so the task must only update per-document state.
+     */
+    protected final void forEachDocument(@Nonnull final DocumentTask task) {
+        final int numDocs = _miniBatchSize;
+        final int numWorkers = Math.min(_numThreads, numDocs);
+        if (numWorkers <= 1) {
+            for (int d = 0; d < numDocs; d++) {
+                task.run(d);
+            }
+            return;
+        }
+
+        ExecutorService executor = _executor;
+        if (executor == null) {
+            executor = ExecutorFactory.newFixedThreadPool(_numThreads, "hivemall-topicmodel",
+                true);
+            this._executor = executor;
+        }
+
+        final AtomicInteger nextDoc = new AtomicInteger(0);
+        final Callable<Void> worker = new Callable<Void>() {
+            @Override
+            public Void call() {
+                for (int d; (d = nextDoc.getAndIncrement()) < numDocs;) {
+                    task.run(d);
+                }
+                return null;
+            }
+        };
+        final List<Future<Void>> futures = new ArrayList<Future<Void>>(numWorkers);
+        for (int i = 0; i < numWorkers; i++) {
+            futures.add(executor.submit(worker));
+        }
+
+        try {
+            for (Future<Void> f : futures) {
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while processing a mini-batch", e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException("Failed to process a mini-batch", cause);
+        } finally {
+            for (Future<Void> f : futures) {
+                f.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Parses documents of a mini-batch into <code>_miniBatchWords</code> and
+     * <code>_miniBatchCounts</code>. A newly observed word is given the next word ID, i.e.,
+     * {@link #getNumWords()} before the word is added.
+     */
+    protected void initMiniBatch(@Nonnull final String[][] miniBatch) {
+        int[][] words = _miniBatchWords;
+        float[][] counts = _miniBatchCounts;
+        if (words.length < miniBatch.length) {
+            words = new int[miniBatch.length][];
+            counts = new float[miniBatch.length][];
+        }
 
         final FeatureValue probe = new FeatureValue();
+        final Int2IntOpenHashMap positions = new Int2IntOpenHashMap();
+        positions.defaultReturnValue(-1);
 
         // parse document
+        int size = 0;
         for (final String[] e : miniBatch) {
             if (e == null || e.length == 0) {
                 continue;
             }
 
-            final Map<String, Float> doc = new HashMap<String, Float>();
+            final int[] ids = new int[e.length];
+            final float[] values = new float[e.length];
+            int n = 0;
+            positions.clear();
 
             // parse features
             for (String fv : e) {
@@ -70,13 +197,61 @@ public abstract class AbstractProbabilisticTopicModel {
                     continue;
                 }
                 FeatureValue.parseFeatureAsString(fv, probe);
-                String label = probe.getFeatureAsString();
-                float value = probe.getValueAsFloat();
-                doc.put(label, Float.valueOf(value));
+                final int id = addWord(probe.getFeatureAsString());
+                final float value = probe.getValueAsFloat();
+                final int pos = positions.get(id);
+                if (pos == -1) {
+                    positions.put(id, n);
+                    ids[n] = id;
+                    values[n] = value;
+                    n++;
+                } else { // the last value wins
+                    values[pos] = value;
+                }
             }
 
-            docs.add(doc);
+            words[size] = (n == ids.length) ? ids : Arrays.copyOf(ids, n);
+            counts[size] = (n == values.length) ? values : Arrays.copyOf(values, n);
+            size++;
+        }
+
+        this._miniBatchWords = words;
+        this._miniBatchCounts = counts;
+        this._miniBatchSize = size;
+    }
+
+    /**
+     * @return the ID of the given word which is newly assigned if the word is not seen yet
+     */
+    @Nonnegative
+    protected final int addWord(@Nonnull final String word) {
+        int id = _wordIds.getInt(word);
+        if (id == -1) {
+            id = _words.size();
+            _words.add(word);
+            _wordIds.put(word, id);
         }
+        return id;
+    }
+
+    /**
+     * @return the ID of the given word, or -1 if the word is not seen yet
+     */
+    protected final int getWordId(@Nonnull final String word) {
+        return _wordIds.getInt(word);
+    }
+
+    @Nonnull
+    protected final String getWord(@Nonnegative final int id) {
+        return _words.get(id);
+    }
+
+    /**
+     * @return the vocabulary size
+     */
+    @Nonnegative
+    protected final int getNumWords() {
+        return _words.size();
     }
 
     protected void accumulateDocCount() {
@@ -21,16 +21,13 @@ package hivemall.topicmodel;
 import static hivemall.utils.lang.ArrayUtils.newRandomFloatArray;
 import static hivemall.utils.math.MathUtils.l1normalize;
 import hivemall.annotations.VisibleForTesting;
-import hivemall.utils.math.MathUtils;
 import hivemall.utils.random.PRNG;
 import hivemall.utils.random.RandomNumberGeneratorFactory;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeMap;
 
@@ -55,13 +52,15 @@ public final class IncrementalPLSAModel extends AbstractProbabilisticTopicModel
     private final PRNG _rnd;
 
     // optimized in the E step
-    private List<Map<String, float[]>> _p_dwz; // P(z|d,w) probability of topics for each document-word (i.e., instance-feature) pair
+    private float[][] _p_dwz; // P(z|d,w) probability of topics for each document-word (i.e., instance-feature) pair; [d][i * K + z] for the i-th word of a document d
 
     // optimized in the M step
-    private List<float[]> _p_dz; // P(z|d) probability of topics for documents
+    private float[][] _p_dz; // P(z|d) probability of topics for documents
 
     @Nonnull
-    private final Map<String, float[]> _p_zw; // P(w|z) probability of words for each topic
+    private float[] _p_zw; // P(w|z) probability of words for each topic; [w * K + z] for a word ID w
+    @Nonnegative
+    private int _numWords; // the number of words in _p_zw
 
     public IncrementalPLSAModel(int K, float alpha, double delta) {
         super(K);
@@ -71,139 +70,150 @@ public final class IncrementalPLSAModel extends AbstractProbabilisticTopicModel
 
         this._rnd = RandomNumberGeneratorFactory.createPRNG(1001);
 
-        this._p_zw = new HashMap<String, float[]>();
+        this._p_zw = new float[100 * K];
+        this._numWords = 0;
     }
 
     protected void train(@Nonnull final String[][] miniBatch) {
-        initMiniBatch(miniBatch, _miniBatchDocs);
-
-        this._miniBatchSize = _miniBatchDocs.size();
+        initMiniBatch(miniBatch);
 
         initParams();
 
-        final List<float[]> pPrev_dz = new ArrayList<float[]>();
+        final float[] pPrev_dz_d = new float[_K];
 
         for (int d = 0; d < _miniBatchSize; d++) {
             do {
-                pPrev_dz.clear();
-                for (float[] p_dz_d : _p_dz) { // deep copy
-                    pPrev_dz.add(p_dz_d.clone());
-                }
+                System.arraycopy(_p_dz[d], 0, pPrev_dz_d, 0, _K);
 
                 // Expectation
                 eStep(d);
 
                 // Maximization
                 mStep(d);
-            } while (!isPdzConverged(d, pPrev_dz, _p_dz)); // until get stable value of P(z|d)
+            } while (!isPdzConverged(pPrev_dz_d, _p_dz[d])); // until get stable value of P(z|d)
         }
     }
 
     private void initParams() {
-        final List<float[]> p_dz = new ArrayList<float[]>();
-        final List<Map<String, float[]>> p_dwz = new ArrayList<Map<String, float[]>>();
+        final float[][] p_dz = new float[_miniBatchSize][];
+        final float[][] p_dwz = new float[_miniBatchSize][];
 
         for (int d = 0; d < _miniBatchSize; d++) {
             // init P(z|d)
-            float[] p_dz_d = l1normalize(newRandomFloatArray(_K, _rnd));
-            p_dz.add(p_dz_d);
+            p_dz[d] = l1normalize(newRandomFloatArray(_K, _rnd));
 
-            final Map<String, float[]> p_dwz_d = new HashMap<String, float[]>();
-            p_dwz.add(p_dwz_d);
+            final int[] words = _miniBatchWords[d];
+            final float[] p_dwz_d = new float[words.length * _K];
+            p_dwz[d] = p_dwz_d;
 
-            for (final String w : _miniBatchDocs.get(d).keySet()) {
+            for (int i = 0; i < words.length; i++) {
                 // init P(z|d,w)
-                float[] p_dwz_dw = l1normalize(newRandomFloatArray(_K, _rnd));
-                p_dwz_d.put(w, p_dwz_dw);
+                final int offset = i * _K;
+                for (int z = 0; z < _K; z++) {
+                    p_dwz_d[offset + z] = (float) _rnd.nextDouble();
+                }
+                l1normalize(p_dwz_d, offset, _K);
 
                 // insert new labels to P(w|z)
-                if (!_p_zw.containsKey(w)) {
-                    _p_zw.put(w, newRandomFloatArray(_K, _rnd));
+                while (words[i] >= _numWords) {
+                    initWord(_numWords);
                 }
             }
         }
 
         // ensure \sum_w P(w|z) = 1
-        final double[] sums = new double[_K];
-        for (float[] p_zw_w : _p_zw.values()) {
-            MathUtils.add(p_zw_w, sums, _K);
-        }
-        for (float[] p_zw_w : _p_zw.values()) {
-            for (int z = 0; z < _K; z++) {
-                p_zw_w[z] /= sums[z];
-            }
-        }
+        normalize();
 
         this._p_dz = p_dz;
         this._p_dwz = p_dwz;
     }
 
+    private void initWord(@Nonnegative final int w) {
+        if ((w + 1) * _K > _p_zw.length) {
+            this._p_zw = Arrays.copyOf(_p_zw, Math.max((w + 1) * _K, _p_zw.length * 2));
+        }
+        final float[] p_zw = _p_zw;
+        for (int z = 0, offset = w * _K; z < _K; z++) {
+            p_zw[offset + z] = (float) _rnd.nextDouble();
+        }
+        this._numWords = w + 1;
+    }
+
     private void eStep(@Nonnegative final int d) {
-        final Map<String, float[]> p_dwz_d = _p_dwz.get(d);
-        final float[] p_dz_d = _p_dz.get(d);
+        final int[] words = _miniBatchWords[d];
+        final float[] p_dwz_d = _p_dwz[d];
+        final float[] p_dz_d = _p_dz[d];
+        final float[] p_zw = _p_zw;
 
         // update P(z|d,w) = P(z|d) * P(w|z)
-        for (final String w : _miniBatchDocs.get(d).keySet()) {
-            final float[] p_dwz_dw = p_dwz_d.get(w);
-            final float[] p_zw_w = _p_zw.get(w);
+        for (int i = 0; i < words.length; i++) {
+            final int offset = i * _K;
+            final int wOffset = words[i] * _K;
             for (int z = 0; z < _K; z++) {
-                p_dwz_dw[z] = p_dz_d[z] * p_zw_w[z];
+                p_dwz_d[offset + z] = p_dz_d[z] * p_zw[wOffset + z];
             }
-            l1normalize(p_dwz_dw);
+            l1normalize(p_dwz_d, offset, _K);
         }
     }
 
     private void mStep(@Nonnegative final int d) {
-        final Map<String, Float> doc = _miniBatchDocs.get(d);
-        final Map<String, float[]> p_dwz_d = _p_dwz.get(d);
+        final int[] words = _miniBatchWords[d];
+        final float[] counts = _miniBatchCounts[d];
+        final float[] p_dwz_d = _p_dwz[d];
 
         // update P(z|d) = n(d,w) * P(z|d,w)
-        final float[] p_dz_d = _p_dz.get(d);
-        Arrays.fill(p_dz_d, 0.f); // zero-fill w/ keeping pointer to _p_dz.get(d)
-        for (Map.Entry<String, Float> e : doc.entrySet()) {
-            final float[] p_dwz_dw = p_dwz_d.get(e.getKey());
-            final float n = e.getValue().floatValue();
+        final float[] p_dz_d = _p_dz[d];
+        Arrays.fill(p_dz_d, 0.f); // zero-fill w/ keeping pointer to _p_dz[d]
+        for (int i = 0; i < words.length; i++) {
+            final int offset = i * _K;
+            final float n = counts[i];
             for (int z = 0; z < _K; z++) {
-                p_dz_d[z] += n * p_dwz_dw[z];
+                p_dz_d[z] += n * p_dwz_d[offset + z];
             }
         }
         l1normalize(p_dz_d);
 
         // update P(w|z) = n(d,w) * P(z|d,w) + alpha * P(w|z)^(n-1)
-        final double[] sums = new double[_K];
-        for (Map.Entry<String, float[]> e : _p_zw.entrySet()) {
-            String w = e.getKey();
-            final float[] p_zw_w = e.getValue();
-
-            Float w_value = doc.get(w);
-            if (w_value != null) { // all words in the document
-                final float n = w_value.floatValue();
-                final float[] p_dwz_dw = p_dwz_d.get(w);
-
-                for (int z = 0; z < _K; z++) {
-                    p_zw_w[z] = n * p_dwz_dw[z] + _alpha * p_zw_w[z];
-                }
-            } else { // others
-                for (int z = 0; z < _K; z++) {
-                    p_zw_w[z] = _alpha * p_zw_w[z];
-                }
+        final float[] p_zw = _p_zw;
+        final int size = _numWords * _K;
+        for (int i = 0; i < size; i++) { // all words
+            p_zw[i] = _alpha * p_zw[i];
+        }
+        for (int i = 0; i < words.length; i++) { // words in the document
+            final int offset = i * _K;
+            final int wOffset = words[i] * _K;
+            final float n = counts[i];
+            for (int z = 0; z < _K; z++) {
+                p_zw[wOffset + z] += n * p_dwz_d[offset + z];
             }
-
-            MathUtils.add(p_zw_w, sums, _K);
         }
+
         // normalize to ensure \sum_w P(w|z) = 1
-        for (float[] p_zw_w : _p_zw.values()) {
+        normalize();
+    }
+
+    /**
+     * Normalizes P(w|z) to ensure \sum_w P(w|z) = 1.
+     */
+    private void normalize() {
+        final float[] p_zw = _p_zw;
+        final int size = _numWords * _K;
+
+        final double[] sums = new double[_K];
+        for (int i = 0; i < size;) {
             for (int z = 0; z < _K; z++) {
-                p_zw_w[z] = (float) (p_zw_w[z] / sums[z]);
+                sums[z] += p_zw[i++];
+            }
+        }
+        for (int i = 0; i < size;) {
+            for (int z = 0; z < _K; z++, i++) {
+                p_zw[i] = (float) (p_zw[i] / sums[z]);
             }
         }
     }
 
-    private boolean isPdzConverged(@Nonnegative final int d, @Nonnull final List<float[]> pPrev_dz,
-            @Nonnull final List<float[]> p_dz) {
-        final float[] pPrev_dz_d = pPrev_dz.get(d);
-        final float[] p_dz_d = p_dz.get(d);
-
+    private boolean isPdzConverged(@Nonnull final float[] pPrev_dz_d,
+            @Nonnull final float[] p_dz_d) {
         double diff = 0.d;
         for (int z = 0; z < _K; z++) {
             diff += Math.abs(pPrev_dz_d[z] - p_dz_d[z]);
@@ -215,16 +225,18 @@ public final class IncrementalPLSAModel extends AbstractProbabilisticTopicModel
         double numer = 0.d;
         double denom = 0.d;
 
+        final float[] p_zw = _p_zw;
         for (int d = 0; d < _miniBatchSize; d++) {
-            final float[] p_dz_d = _p_dz.get(d);
-            for (Map.Entry<String, Float> e : _miniBatchDocs.get(d).entrySet()) {
-                String w = e.getKey();
-                float w_value = e.getValue().floatValue();
+            final float[] p_dz_d = _p_dz[d];
+            final int[] words = _miniBatchWords[d];
+            final float[] counts = _miniBatchCounts[d];
+            for (int i = 0; i < words.length; i++) {
+                final float w_value = counts[i];
 
-                final float[] p_zw_w = _p_zw.get(w);
+                final int wOffset = words[i] * _K;
                 double p_dw = 0.d;
                 for (int z = 0; z < _K; z++) {
-                    p_dw += (double) p_zw_w[z] * p_dz_d[z];
+                    p_dw += (double) p_zw[wOffset + z] * p_dz_d[z];
                 }
 
                 if (p_dw == 0.d) {
@@ -244,16 +256,15 @@ public final class IncrementalPLSAModel extends AbstractProbabilisticTopicModel
         final SortedMap<Float, List<String>> res =
                 new TreeMap<Float, List<String>>(Collections.reverseOrder());
 
-        for (Map.Entry<String, float[]> e : _p_zw.entrySet()) {
-            final String w = e.getKey();
-            final float prob = e.getValue()[z];
+        for (int w = 0; w < _numWords; w++) {
+            final float prob = _p_zw[w * _K + z];
 
             List<String> words = res.get(prob);
             if (words == null) {
                 words = new ArrayList<String>();
                 res.put(prob, words);
             }
-            words.add(w);
+            words.add(getWord(w));
         }
 
         return res;
@@ -262,32 +273,27 @@ public final class IncrementalPLSAModel extends AbstractProbabilisticTopicModel
     @Nonnull
     protected float[] getTopicDistribution(@Nonnull final String[] doc) {
         train(new String[][] {doc});
-        return _p_dz.get(0);
+        return _p_dz[0];
     }
 
     @VisibleForTesting
-    float getWordScore(@Nonnull final String w, @Nonnegative final int z) {
-        return _p_zw.get(w)[z];
+    float getWordScore(@Nonnull final String word, @Nonnegative final int z) {
+        final int w = getWordId(word);
+        if (w == -1 || w >= _numWords) {
+            throw new IllegalArgumentException("Word `" + word + "` is not in the corpus.");
+        }
+        return _p_zw[w * _K + z];
     }
 
-    protected void setWordScore(@Nonnull final String w, @Nonnegative final int z,
+    protected void setWordScore(@Nonnull final String word, @Nonnegative final int z,
             final float prob) {
-        float[] prob_label = _p_zw.get(w);
-        if (prob_label == null) {
-            prob_label = newRandomFloatArray(_K, _rnd);
-            _p_zw.put(w, prob_label);
+        final int w = addWord(word);
+        while (w >= _numWords) {
+            initWord(_numWords);
         }
-        prob_label[z] = prob;
+        _p_zw[w * _K + z] = prob;
 
         // ensure \sum_w P(w|z) = 1
-        final double[] sums = new double[_K];
-        for (float[] p_zw_w : _p_zw.values()) {
-            MathUtils.add(p_zw_w, sums, _K);
-        }
-        for (float[] p_zw_w : _p_zw.values()) {
-            for (int zi = 0; zi < _K; zi++) {
-                p_zw_w[zi] /= sums[zi];
-            }
-        }
+        normalize();
     }
 }
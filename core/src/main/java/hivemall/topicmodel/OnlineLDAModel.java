@@ -23,8 +23,8 @@ import hivemall.utils.lang.ArrayUtils;
 import hivemall.utils.math.MathUtils;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
@@ -36,6 +36,17 @@ import javax.annotation.Nonnull;
 import org.apache.commons.math3.distribution.GammaDistribution;
 import org.apache.commons.math3.special.Gamma;
 
+/**
+ * Online LDA whose parameters are kept in dense float slabs indexed by word IDs.
+ *
+ * Since the M step moves lambda of words not in a mini-batch toward eta at the same rate, i.e.,
+ * <code>lambda - eta</code> is multiplied by <code>1 - rhot</code>, the decay is accumulated in
+ * <code>_logDecay</code> and applied to each word only when the word is accessed. Thus, the E
+ * and M steps, including digamma of lambda, only touch words in the current mini-batch.
+ *
+ * Documents of a mini-batch can be processed by multiple threads in the E step as they are
+ * independent of each other given lambda.
+ */
 public final class OnlineLDAModel extends AbstractProbabilisticTopicModel {
 
     private static final double SHAPE = 100.d;
@@ -75,10 +86,33 @@ public final class OnlineLDAModel extends AbstractProbabilisticTopicModel {
     private final boolean _isAutoD;
 
     // parameters
-    private List<Map<String, float[]>> _phi;
+    /** phi[d][i * K + k] for the i-th word of the d-th mini-batch document */
+    private float[][] _phi;
     private float[][] _gamma;
+    /** lambda[w * K + k] for the word ID w */
+    @Nonnull
+    private float[] _lambda;
+    /** the number of words whose lambda is initialized */
+    @Nonnegative
+    private int _numLambdas;
+    /** the log of the accumulated decay, i.e., sum of log(1 - rhot) */
+    private double _logDecay;
+    /** _logDecay already applied to lambda of each word */
+    @Nonnull
+    private double[] _lambdaDecay;
+    /** sum of lambda over all words for each topic */
     @Nonnull
-    private final Map<String, float[]> _lambda;
+    private final double[] _lambdaSum;
+
+    // words of the current mini-batch
+    @Nonnull
+    private int[] _batchWords;
+    private int _numBatchWords;
+    /** index in _batchWords for each word ID, or -1 */
+    @Nonnull
+    private int[] _batchIndex;
+    /** index in _batchWords for each word of each mini-batch document */
+    private int[][] _docBatchIndex;
 
     // random number generator
     @Nonnull
@@ -117,7 +151,14 @@ public final class OnlineLDAModel extends AbstractProbabilisticTopicModel {
         _gd.reseedRandomGenerator(1001);
 
         // initialize the parameters
-        this._lambda = new HashMap<String, float[]>(100);
+        this._lambda = new float[100 * K];
+        this._numLambdas = 0;
+        this._logDecay = 0.d;
+        this._lambdaDecay = new double[100];
+        this._lambdaSum = new double[K];
+        this._batchWords = new int[100];
+        this._batchIndex = new int[100];
+        Arrays.fill(_batchIndex, -1);
     }
 
     @Override
@@ -150,15 +191,13 @@ public final class OnlineLDAModel extends AbstractProbabilisticTopicModel {
     }
 
     private void preprocessMiniBatch(@Nonnull final String[][] miniBatch) {
-        initMiniBatch(miniBatch, _miniBatchDocs);
-
-        this._miniBatchSize = _miniBatchDocs.size();
+        initMiniBatch(miniBatch);
 
         // accumulate the number of words for each documents
         double valueSum = 0.d;
         for (int d = 0; d < _miniBatchSize; d++) {
-            for (Float n : _miniBatchDocs.get(d).values()) {
-                valueSum += n.floatValue();
+            for (float n : _miniBatchCounts[d]) {
+                valueSum += n;
             }
         }
         this._valueSum = valueSum;
@@ -167,7 +206,7 @@ public final class OnlineLDAModel extends AbstractProbabilisticTopicModel {
     }
 
     private void initParams(final boolean gammaWithRandom) {
-        final List<Map<String, float[]>> phi = new ArrayList<Map<String, float[]>>();
+        final float[][] phi = new float[_miniBatchSize][];
         final float[][] gamma = new float[_miniBatchSize][];
 
         for (int d = 0; d < _miniBatchSize; d++) {
@@ -177,12 +216,11 @@ public final class OnlineLDAModel extends AbstractProbabilisticTopicModel {
                 gamma[d] = ArrayUtils.newFloatArray(_K, 1.f);
             }
 
-            final Map<String, float[]> phi_d = new HashMap<String, float[]>();
-            phi.add(phi_d);
-            for (final String label : _miniBatchDocs.get(d).keySet()) {
-                phi_d.put(label, new float[_K]);
-                if (!_lambda.containsKey(label)) { // lambda for newly observed word
-                    _lambda.put(label, ArrayUtils.newRandomFloatArray(_K, _gd));
+            final int[] words = _miniBatchWords[d];
+            phi[d] = new float[words.length * _K];
+            for (final int w : words) {
+                while (w >= _numLambdas) { // lambda for newly observed word
+                    initLambda(_numLambdas);
                 }
             }
         }
@@ -191,63 +229,127 @@ public final class OnlineLDAModel extends AbstractProbabilisticTopicModel {
         this._gamma = gamma;
     }
 
-    private void eStep() {
-        // since lambda is invariant in the expectation step,
-        // `digamma`s of lambda values for Elogbeta are pre-computed
-        final double[] lambdaSum = new double[_K];
-        final Map<String, float[]> digamma_lambda = new HashMap<String, float[]>();
-        for (Map.Entry<String, float[]> e : _lambda.entrySet()) {
-            String label = e.getKey();
-            float[] lambda_label = e.getValue();
+    private void initLambda(@Nonnegative final int w) {
+        ensureCapacity(w + 1);
 
-            // for digamma(lambdaSum)
-            MathUtils.add(lambda_label, lambdaSum, _K);
-
-            digamma_lambda.put(label, MathUtils.digamma(lambda_label));
+        final float[] lambda = _lambda;
+        final double[] lambdaSum = _lambdaSum;
+        for (int k = 0, offset = w * _K; k < _K; k++) {
+            float lambda_k = (float) _gd.sample();
+            lambda[offset + k] = lambda_k;
+            lambdaSum[k] += lambda_k;
         }
+        _lambdaDecay[w] = _logDecay;
+        this._numLambdas = w + 1;
+    }
 
-        final double[] digamma_lambdaSum = MathUtils.digamma(lambdaSum);
-        // for each of mini-batch documents, update gamma until convergence
-        float[] gamma_d, gammaPrev_d;
-        Map<String, float[]> eLogBeta_d;
-        for (int d = 0; d < _miniBatchSize; d++) {
-            gamma_d = _gamma[d];
-            eLogBeta_d = computeElogBetaPerDoc(d, digamma_lambda, digamma_lambdaSum);
-
-            do {
-                gammaPrev_d = gamma_d.clone(); // deep copy the last gamma values
+    private void ensureCapacity(@Nonnegative final int numWords) {
+        final int capacity = _lambdaDecay.length;
+        if (numWords <= capacity) {
+            return;
+        }
+        final int newCapacity = Math.max(numWords, capacity * 2);
+        this._lambda = Arrays.copyOf(_lambda, newCapacity * _K);
+        this._lambdaDecay = Arrays.copyOf(_lambdaDecay, newCapacity);
+        this._batchIndex = Arrays.copyOf(_batchIndex, newCapacity);
+        Arrays.fill(_batchIndex, capacity, newCapacity, -1);
+    }
 
-                updatePhiPerDoc(d, eLogBeta_d);
-                updateGammaPerDoc(d);
-            } while (!checkGammaDiff(gammaPrev_d, gamma_d));
+    /**
+     * Applies the pending decay to lambda of the given word.
+     *
+     * @return the offset of lambda of the given word in <code>_lambda</code>
+     */
+    private int lambdaOffset(@Nonnegative final int w) {
+        final int offset = w * _K;
+        final double logDecay = _logDecay;
+        final double applied = _lambdaDecay[w];
+        if (applied != logDecay) {
+            final double decay = Math.exp(logDecay - applied);
+            final float[] lambda = _lambda;
+            final float eta = _eta;
+            for (int k = 0; k < _K; k++) {
+                lambda[offset + k] = (float) (eta + decay * (lambda[offset + k] - eta));
+            }
+            _lambdaDecay[w] = logDecay;
         }
+        return offset;
     }
 
+    private void eStep() {
+        // since lambda is invariant in the expectation step,
+        // Elogbeta is pre-computed for the words in the mini-batch
+        final double[] digamma_lambdaSum = MathUtils.digamma(_lambdaSum);
+        final float[] eLogBeta = computeElogBeta(digamma_lambdaSum);
+
+        // for each of mini-batch documents, update gamma until convergence;
+        // documents are independent of each other given Elogbeta
+        forEachDocument(new DocumentTask() {
+            @Override
+            public void run(final int d) {
+                final float[] gamma_d = _gamma[d];
+                float[] gammaPrev_d;
+                do {
+                    gammaPrev_d = gamma_d.clone(); // deep copy the last gamma values
+
+                    updatePhiPerDoc(d, eLogBeta);
+                    updateGammaPerDoc(d);
+                } while (!checkGammaDiff(gammaPrev_d, gamma_d));
+            }
+        });
+    }
+
+    /**
+     * Collects the words in the mini-batch into <code>_batchWords</code> and computes their
+     * Dirichlet expectation (2d) for lambda.
+     *
+     * @return Elogbeta[i * K + k] for the i-th word of <code>_batchWords</code>
+     */
     @Nonnull
-    private Map<String, float[]> computeElogBetaPerDoc(@Nonnegative final int d,
-            @Nonnull final Map<String, float[]> digamma_lambda,
-            @Nonnull final double[] digamma_lambdaSum) {
-        final Map<String, Float> doc = _miniBatchDocs.get(d);
-
-        // Dirichlet expectation (2d) for lambda
-        final Map<String, float[]> eLogBeta_d = new HashMap<String, float[]>(doc.size());
-        for (final String label : doc.keySet()) {
-            float[] eLogBeta_label = eLogBeta_d.get(label);
-            if (eLogBeta_label == null) {
-                eLogBeta_label = new float[_K];
-                eLogBeta_d.put(label, eLogBeta_label);
+    private float[] computeElogBeta(@Nonnull final double[] digamma_lambdaSum) {
+        final int[] batchIndex = _batchIndex;
+        int[] batchWords = _batchWords;
+        int numBatchWords = 0;
+
+        final int[][] docBatchIndex = new int[_miniBatchSize][];
+        for (int d = 0; d < _miniBatchSize; d++) {
+            final int[] words = _miniBatchWords[d];
+            final int[] index_d = new int[words.length];
+            for (int i = 0; i < words.length; i++) {
+                final int w = words[i];
+                int j = batchIndex[w];
+                if (j == -1) {
+                    j = numBatchWords++;
+                    if (j == batchWords.length) {
+                        batchWords = Arrays.copyOf(batchWords, j * 2);
+                    }
+                    batchWords[j] = w;
+                    batchIndex[w] = j;
+                }
+                index_d[i] = j;
             }
-            final float[] digamma_lambda_label = digamma_lambda.get(label);
+            docBatchIndex[d] = index_d;
+        }
+
+        final float[] lambda = _lambda;
+        final float[] eLogBeta = new float[numBatchWords * _K];
+        for (int j = 0; j < numBatchWords; j++) {
+            final int w = batchWords[j];
+            final int offset = lambdaOffset(w);
             for (int k = 0; k < _K; k++) {
-                eLogBeta_label[k] = (float) (digamma_lambda_label[k] - digamma_lambdaSum[k]);
+                final float digamma_lambda_k = (float) Gamma.digamma(lambda[offset + k]);
+                eLogBeta[j * _K + k] = (float) (digamma_lambda_k - digamma_lambdaSum[k]);
             }
+            batchIndex[w] = -1; // clear
         }
 
-        return eLogBeta_d;
+        this._batchWords = batchWords;
+        this._numBatchWords = numBatchWords;
+        this._docBatchIndex = docBatchIndex;
+        return eLogBeta;
     }
 
-    private void updatePhiPerDoc(@Nonnegative final int d,
-            @Nonnull final Map<String, float[]> eLogBeta_d) {
+    private void updatePhiPerDoc(@Nonnegative final int d, @Nonnull final float[] eLogBeta) {
         // Dirichlet expectation (2d) for gamma
         final float[] gamma_d = _gamma[d];
         final double digamma_gammaSum_d = Gamma.digamma(MathUtils.sum(gamma_d));
@@ -257,38 +359,38 @@ public final class OnlineLDAModel extends AbstractProbabilisticTopicModel {
         }
 
         // updating phi w/ normalization
-        final Map<String, float[]> phi_d = _phi.get(d);
-        final Map<String, Float> doc = _miniBatchDocs.get(d);
-        for (String label : doc.keySet()) {
-            final float[] phi_label = phi_d.get(label);
-            final float[] eLogBeta_label = eLogBeta_d.get(label);
+        final float[] phi_d = _phi[d];
+        final int[] index_d = _docBatchIndex[d];
+        for (int i = 0; i < index_d.length; i++) {
+            final int phiOffset = i * _K;
+            final int betaOffset = index_d[i] * _K;
 
             double normalizer = 0.d;
             for (int k = 0; k < _K; k++) {
-                float phiVal = (float) Math.exp(eLogBeta_label[k] + eLogTheta_d[k]) + 1E-20f;
-                phi_label[k] = phiVal;
+                float phiVal =
+                        (float) Math.exp(eLogBeta[betaOffset + k] + eLogTheta_d[k]) + 1E-20f;
+                phi_d[phiOffset + k] = phiVal;
                 normalizer += phiVal;
             }
 
             for (int k = 0; k < _K; k++) {
-                phi_label[k] /= normalizer;
+                phi_d[phiOffset + k] /= normalizer;
             }
         }
     }
 
     private void updateGammaPerDoc(@Nonnegative final int d) {
-        final Map<String, Float> doc = _miniBatchDocs.get(d);
-        final Map<String, float[]> phi_d = _phi.get(d);
+        final float[] counts_d = _miniBatchCounts[d];
+        final float[] phi_d = _phi[d];
 
         final float[] gamma_d = _gamma[d];
         for (int k = 0; k < _K; k++) {
             gamma_d[k] = _alpha;
         }
-        for (Map.Entry<String, Float> e : doc.entrySet()) {
-            final float[] phi_label = phi_d.get(e.getKey());
-            final float val = e.getValue().floatValue();
-            for (int k = 0; k < _K; k++) {
-                gamma_d[k] += phi_label[k] * val;
+        for (int i = 0; i < counts_d.length; i++) {
+            final float val = counts_d[i];
+            for (int k = 0, phiOffset = i * _K; k < _K; k++) {
+                gamma_d[k] += phi_d[phiOffset + k] * val;
             }
         }
     }
@@ -303,39 +405,80 @@ public final class OnlineLDAModel extends AbstractProbabilisticTopicModel {
     }
 
     private void mStep() {
-        // calculate lambdaTilde for vocabularies in the current mini-batch
-        final Map<String, float[]> lambdaTilde = new HashMap<String, float[]>();
-        for (int d = 0; d < _miniBatchSize; d++) {
-            final Map<String, float[]> phi_d = _phi.get(d);
-            for (String label : _miniBatchDocs.get(d).keySet()) {
-                float[] lambdaTilde_label = lambdaTilde.get(label);
-                if (lambdaTilde_label == null) {
-                    lambdaTilde_label = ArrayUtils.newFloatArray(_K, _eta);
-                    lambdaTilde.put(label, lambdaTilde_label);
-                }
+        final int numBatchWords = _numBatchWords;
+        final int[] batchWords = _batchWords;
 
-                final float[] phi_label = phi_d.get(label);
+        // calculate lambdaTilde for vocabularies in the current mini-batch;
+        // phi is reduced in the order of documents so that the result does not depend on threads
+        final float[] lambdaTilde = ArrayUtils.newFloatArray(numBatchWords * _K, _eta);
+        for (int d = 0; d < _miniBatchSize; d++) {
+            final float[] phi_d = _phi[d];
+            final int[] index_d = _docBatchIndex[d];
+            for (int i = 0; i < index_d.length; i++) {
+                final int tildeOffset = index_d[i] * _K;
+                final int phiOffset = i * _K;
                 for (int k = 0; k < _K; k++) {
-                    lambdaTilde_label[k] += _docRatio * phi_label[k];
+                    lambdaTilde[tildeOffset + k] += _docRatio * phi_d[phiOffset + k];
                 }
             }
         }
 
-        // update lambda for all vocabularies
-        for (Map.Entry<String, float[]> e : _lambda.entrySet()) {
-            String label = e.getKey();
-            final float[] lambda_label = e.getValue();
+        final double rhot = _rhot;
+        if (rhot >= 1.d) { // old lambda is totally forgotten
+            updateAllLambda(lambdaTilde);
+            return;
+        }
 
-            float[] lambdaTilde_label = lambdaTilde.get(label);
-            if (lambdaTilde_label == null) {
-                lambdaTilde_label = ArrayUtils.newFloatArray(_K, _eta);
+        // update lambda for vocabularies in the current mini-batch
+        final float[] lambda = _lambda;
+        final double[] tildeSum = new double[_K];
+        for (int j = 0; j < numBatchWords; j++) {
+            final int offset = lambdaOffset(batchWords[j]);
+            final int tildeOffset = j * _K;
+            for (int k = 0; k < _K; k++) {
+                final float lambdaTilde_k = lambdaTilde[tildeOffset + k];
+                lambda[offset + k] =
+                        (float) ((1.d - rhot) * lambda[offset + k] + rhot * lambdaTilde_k);
+                tildeSum[k] += lambdaTilde_k;
             }
+        }
 
+        // lambda of the other vocabularies is lazily updated toward eta
+        this._logDecay += Math.log1p(-rhot);
+        for (int j = 0; j < numBatchWords; j++) {
+            _lambdaDecay[batchWords[j]] = _logDecay;
+        }
+
+        final double etaSum = (double) _eta * (_numLambdas - numBatchWords);
+        for (int k = 0; k < _K; k++) {
+            _lambdaSum[k] = (1.d - rhot) * _lambdaSum[k] + rhot * (tildeSum[k] + etaSum);
+        }
+    }
+
+    private void updateAllLambda(@Nonnull final float[] lambdaTilde) {
+        final int[] batchIndex = _batchIndex;
+        for (int j = 0; j < _numBatchWords; j++) {
+            batchIndex[_batchWords[j]] = j;
+        }
+
+        final double rhot = _rhot;
+        final float[] lambda = _lambda;
+        final double[] lambdaSum = _lambdaSum;
+        Arrays.fill(lambdaSum, 0.d);
+        for (int w = 0; w < _numLambdas; w++) {
+            final int offset = lambdaOffset(w);
+            final int j = batchIndex[w];
             for (int k = 0; k < _K; k++) {
-                lambda_label[k] =
-                        (float) ((1.d - _rhot) * lambda_label[k] + _rhot * lambdaTilde_label[k]);
+                final float lambdaTilde_k = (j == -1) ? _eta : lambdaTilde[j * _K + k];
+                lambda[offset + k] =
+                        (float) ((1.d - rhot) * lambda[offset + k] + rhot * lambdaTilde_k);
+                lambdaSum[k] += lambda[offset + k];
             }
         }
+
+        for (int j = 0; j < _numBatchWords; j++) {
+            batchIndex[_batchWords[j]] = -1;
+        }
     }
 
     /**
@@ -359,30 +502,39 @@ public final class OnlineLDAModel extends AbstractProbabilisticTopicModel {
         }
         final double[] digamma_gammaSum = MathUtils.digamma(gammaSum);
 
-        final double[] lambdaSum = new double[_K];
-        for (float[] lambda_label : _lambda.values()) {
-            MathUtils.add(lambda_label, lambdaSum, _K);
+        // the bound covers all vocabularies; lambdaSum is recomputed to reset rounding errors
+        final float[] lambda = _lambda;
+        final double[] lambdaSum = _lambdaSum;
+        Arrays.fill(lambdaSum, 0.d);
+        for (int w = 0; w < _numLambdas; w++) {
+            final int offset = lambdaOffset(w);
+            for (int k = 0; k < _K; k++) {
+                lambdaSum[k] += lambda[offset + k];
+            }
         }
         final double[] digamma_lambdaSum = MathUtils.digamma(lambdaSum);
 
         final double logGamma_alpha = Gamma.logGamma(_alpha);
         final double logGamma_alphaSum = Gamma.logGamma(_K * _alpha);
 
+        final double[] temp = new double[_K];
         double score = 0.d;
         for (int d = 0; d < _miniBatchSize; d++) {
             final double digamma_gammaSum_d = digamma_gammaSum[d];
             final float[] gamma_d = _gamma[d];
 
             // E[log p(doc | theta, beta)]
-            for (Map.Entry<String, Float> e : _miniBatchDocs.get(d).entrySet()) {
-                final float[] lambda_label = _lambda.get(e.getKey());
+            final int[] words_d = _miniBatchWords[d];
+            final float[] counts_d = _miniBatchCounts[d];
+            for (int i = 0; i < words_d.length; i++) {
+                final int offset = words_d[i] * _K;
 
                 // logsumexp( Elogthetad + Elogbetad )
-                final double[] temp = new double[_K];
                 double max = Double.MIN_VALUE;
                 for (int k = 0; k < _K; k++) {
                     double eLogTheta_dk = Gamma.digamma(gamma_d[k]) - digamma_gammaSum_d;
-                    double eLogBeta_kw = Gamma.digamma(lambda_label[k]) - digamma_lambdaSum[k];
+                    double eLogBeta_kw =
+                            Gamma.digamma(lambda[offset + k]) - digamma_lambdaSum[k];
                     final double tempK = eLogTheta_dk + eLogBeta_kw;
                     if (tempK > max) {
                         max = tempK;
@@ -392,7 +544,7 @@ public final class OnlineLDAModel extends AbstractProbabilisticTopicModel {
                 double logsumexp = MathUtils.logsumexp(temp, max);
 
                 // sum( word count * logsumexp(...) )
-                score += e.getValue().floatValue() * logsumexp;
+                score += counts_d[i] * logsumexp;
             }
 
             // E[log p(theta | alpha) - log q(theta | gamma)]
@@ -414,20 +566,19 @@ public final class OnlineLDAModel extends AbstractProbabilisticTopicModel {
         score *= _docRatio;
 
         final double logGamma_eta = Gamma.logGamma(_eta);
-        final double logGamma_etaSum = Gamma.logGamma(_eta * _lambda.size()); // vocabulary size * eta
+        final double logGamma_etaSum = Gamma.logGamma(_eta * _numLambdas); // vocabulary size * eta
 
         // E[log p(beta | eta) - log q (beta | lambda)]
-        for (final float[] lambda_label : _lambda.values()) {
-            for (int k = 0; k < _K; k++) {
-                float lambda_label_k = lambda_label[k];
+        for (int i = 0, size = _numLambdas * _K; i < size; i++) {
+            final int k = i % _K;
+            final float lambda_label_k = lambda[i];
 
-                // sum( (eta - lambda) * Elogbeta )
-                score += (_eta - lambda_label_k)
-                        * (Gamma.digamma(lambda_label_k) - digamma_lambdaSum[k]);
+            // sum( (eta - lambda) * Elogbeta )
+            score += (_eta - lambda_label_k)
+                    * (Gamma.digamma(lambda_label_k) - digamma_lambdaSum[k]);
 
-                // sum( gammaln(lambda) - gammaln(eta) )
-                score += Gamma.logGamma(lambda_label_k) - logGamma_eta;
-            }
+            // sum( gammaln(lambda) - gammaln(eta) )
+            score += Gamma.logGamma(lambda_label_k) - logGamma_eta;
         }
         for (int k = 0; k < _K; k++) {
             // sum( gammaln(etaSum) - gammaln( lambdaSum_k )
@@ -439,30 +590,30 @@ public final class OnlineLDAModel extends AbstractProbabilisticTopicModel {
 
     @VisibleForTesting
     float getWordScore(@Nonnull final String label, @Nonnegative final int k) {
-        final float[] lambda_label = _lambda.get(label);
-        if (lambda_label == null) {
+        final int w = getWordId(label);
+        if (w == -1 || w >= _numLambdas) {
             throw new IllegalArgumentException("Word `" + label + "` is not in the corpus.");
         }
-        if (k >= lambda_label.length) {
-            throw new IllegalArgumentException(
-                "Topic index must be in [0, " + _lambda.get(label).length + "]");
+        if (k >= _K) {
+            throw new IllegalArgumentException("Topic index must be in [0, " + _K + "]");
         }
-        return lambda_label[k];
+        return _lambda[lambdaOffset(w) + k];
     }
 
     protected void setWordScore(@Nonnull final String label, @Nonnegative final int k,
             final float lambda_k) {
-        float[] lambda_label = _lambda.get(label);
-        if (lambda_label == null) {
-            lambda_label = ArrayUtils.newRandomFloatArray(_K, _gd);
-            _lambda.put(label, lambda_label);
+        final int w = addWord(label);
+        while (w >= _numLambdas) {
+            initLambda(_numLambdas);
         }
-        lambda_label[k] = lambda_k;
+        final int i = lambdaOffset(w) + k;
+        _lambdaSum[k] += lambda_k - _lambda[i];
+        _lambda[i] = lambda_k;
     }
 
     @Nonnull
     protected SortedMap<Float, List<String>> getTopicWords(@Nonnegative final int k) {
-        return getTopicWords(k, _lambda.keySet().size());
+        return getTopicWords(k, _numLambdas);
     }
 
     @Nonnull
@@ -472,8 +623,8 @@ public final class OnlineLDAModel extends AbstractProbabilisticTopicModel {
         final SortedMap<Float, List<String>> sortedLambda =
                 new TreeMap<Float, List<String>>(Collections.reverseOrder());
 
-        for (Map.Entry<String, float[]> e : _lambda.entrySet()) {
-            final float lambda_k = e.getValue()[k];
+        for (int w = 0; w < _numLambdas; w++) {
+            final float lambda_k = _lambda[lambdaOffset(w) + k];
             lambdaSum += lambda_k;
 
             List<String> labels = sortedLambda.get(lambda_k);
@@ -481,13 +632,13 @@ public final class OnlineLDAModel extends AbstractProbabilisticTopicModel {
                 labels = new ArrayList<String>();
                 sortedLambda.put(lambda_k, labels);
             }
-            labels.add(e.getKey());
+            labels.add(getWord(w));
         }
 
         final SortedMap<Float, List<String>> ret =
                 new TreeMap<Float, List<String>>(Collections.reverseOrder());
 
-        topN = Math.min(topN, _lambda.keySet().size());
+        topN = Math.min(topN, _numLambdas);
         int tt = 0;
         for (Map.Entry<Float, List<String>> e : sortedLambda.entrySet()) {
             float key = (float) (e.getKey().floatValue() / lambdaSum);
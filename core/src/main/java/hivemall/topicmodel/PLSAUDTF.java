@@ -59,6 +59,10 @@ public final class PLSAUDTF extends ProbabilisticTopicModelBaseUDTF {
         if (cl != null) {
             this.alpha = Primitives.parseFloat(cl.getOptionValue("alpha"), DEFAULT_ALPHA);
             this.delta = Primitives.parseDouble(cl.getOptionValue("delta"), DEFAULT_DELTA);
+            if (numThreads > 1) {
+                // P(w|z) is incrementally updated per document
+                throw new UDFArgumentException("'-threads' is not supported by train_plsa");
+            }
         }
 
         return cl;
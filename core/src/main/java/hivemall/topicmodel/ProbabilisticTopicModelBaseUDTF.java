@@ -69,6 +69,7 @@ public abstract class ProbabilisticTopicModelBaseUDTF extends UDTFWithOptions {
     protected int iterations;
     protected double eps;
     protected int miniBatchSize;
+    protected int numThreads;
 
     protected String[][] miniBatch;
     protected int miniBatchCount;
@@ -88,6 +89,7 @@ public abstract class ProbabilisticTopicModelBaseUDTF extends UDTFWithOptions {
         this.iterations = 10;
         this.eps = 1E-1d;
         this.miniBatchSize = 128; // if 1, truly online setting
+        this.numThreads = 1;
     }
 
     @Override
@@ -100,6 +102,9 @@ public abstract class ProbabilisticTopicModelBaseUDTF extends UDTFWithOptions {
             "Check convergence based on the difference of perplexity [default: 1E-1]");
         opts.addOption("s", "mini_batch_size", true,
             "Repeat model updating per mini-batch [default: 128]");
+        opts.addOption("threads", "num_threads", true,
+            "The number of threads to run the expectation step of a mini-batch in parallel"
+                    + " [default: 1]");
         return opts;
     }
 
@@ -118,6 +123,11 @@ public abstract class ProbabilisticTopicModelBaseUDTF extends UDTFWithOptions {
             }
             this.eps = Primitives.parseDouble(cl.getOptionValue("epsilon"), 1E-1d);
             this.miniBatchSize = Primitives.parseInt(cl.getOptionValue("mini_batch_size"), 128);
+            this.numThreads = Primitives.parseInt(cl.getOptionValue("num_threads"), 1);
+            if (numThreads < 1) {
+                throw new UDFArgumentException(
+                    "'-threads' must be greater than or equals to 1: " + numThreads);
+            }
         }
 
         return cl;
@@ -159,6 +169,7 @@ public abstract class ProbabilisticTopicModelBaseUDTF extends UDTFWithOptions {
     public void process(Object[] args) throws HiveException {
         if (model == null) {
             this.model = createModel();
+            model.setNumThreads(numThreads);
         }
 
         Preconditions.checkArgument(args.length >= 1);
@@ -283,13 +294,18 @@ public abstract class ProbabilisticTopicModelBaseUDTF extends UDTFWithOptions {
         } else if (model.getDocCount() == 0L) {
             logger.warn(
                 "model.getDocCount() is zero because no training exmples to learn. Better to revise input data.");
+            model.close();
             this.model = null;
             return;
         }
 
-        finalizeTraining();
-        forwardModel();
-        this.model = null;
+        try {
+            finalizeTraining();
+            forwardModel();
+        } finally {
+            model.close();
+            this.model = null;
+        }
     }
 
     @VisibleForTesting
@@ -21,6 +21,7 @@ package hivemall.utils.codec;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import javax.annotation.Nonnull;
 
@@ -115,6 +116,58 @@ public final class ZigZagLEB128Codec {
         return value | (b << i);
     }
 
+    public static void writeUnsignedInt(int value, @Nonnull final ByteBuffer out) {
+        while ((value & ~0x7F) != 0L) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) (value & 0x7F));
+    }
+
+    public static void writeSignedLong(final long value, @Nonnull final ByteBuffer out) {
+        writeUnsignedLong(encode(value), out);
+    }
+
+    public static void writeUnsignedLong(long value, @Nonnull final ByteBuffer out) {
+        while ((value & ~0x7FL) != 0L) {
+            out.put((byte) (((int) value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) ((int) value & 0x7F));
+    }
+
+    public static int readUnsignedInt(@Nonnull final ByteBuffer in) {
+        int value = 0;
+        int i = 0;
+        int b;
+        while (((b = in.get()) & 0x80) != 0) {
+            value |= (b & 0x7F) << i;
+            i += 7;
+            if (i > 35) {
+                throw new IllegalArgumentException("Variable length quantity is too long: " + i);
+            }
+        }
+        return value | (b << i);
+    }
+
+    public static long readSignedLong(@Nonnull final ByteBuffer in) {
+        return decode(readUnsignedLong(in));
+    }
+
+    public static long readUnsignedLong(@Nonnull final ByteBuffer in) {
+        long value = 0L;
+        int i = 0;
+        long b;
+        while (((b = in.get()) & 0x80L) != 0) {
+            value |= (b & 0x7F) << i;
+            i += 7;
+            if (i > 63) {
+                throw new IllegalArgumentException("Variable length quantity is too long: " + i);
+            }
+        }
+        return value | (b << i);
+    }
+
     @Deprecated
     public static void writeFloat(final float value, final DataOutput out) throws IOException {
         int bits = Float.floatToIntBits(value);
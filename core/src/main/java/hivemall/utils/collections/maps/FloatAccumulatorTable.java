@@ -0,0 +1,199 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.utils.collections.maps;
+
+import hivemall.utils.lang.FloatAccumulator;
+
+import java.util.Arrays;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * A reusable table that averages float values by key, i.e., a map of {@link FloatAccumulator}.
+ *
+ * Entries are appended to parallel primitive arrays and looked up through an open-addressing
+ * (linear probing) index. Thus, no object is allocated for each key and {@link #clear()} takes
+ * time proportional to the number of accumulated keys rather than the table size. INT/BIGINT keys
+ * are compared as primitive long values when <code>primitiveKey</code> is set.
+ */
+@NotThreadSafe
+public final class FloatAccumulatorTable {
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private final boolean primitiveKey;
+
+    /** entry index + 1 for each slot, 0 for an empty slot */
+    @Nonnull
+    private int[] slots;
+    private int threshold;
+
+    // entries
+    @Nonnull
+    private Object[] keys;
+    @Nullable
+    private long[] longKeys;
+    @Nonnull
+    private double[] sums;
+    @Nonnull
+    private int[] counts;
+    /** slot of each entry used to clear the index */
+    @Nonnull
+    private int[] entrySlots;
+    private int size;
+
+    public FloatAccumulatorTable(@Nonnegative int initSize, boolean primitiveKey) {
+        this.primitiveKey = primitiveKey;
+        int numSlots = 16;
+        while (numSlots * LOAD_FACTOR < initSize) {
+            numSlots <<= 1;
+        }
+        this.slots = new int[numSlots];
+        this.threshold = Math.round(numSlots * LOAD_FACTOR);
+        final int capacity = Math.max(initSize, 16);
+        this.keys = new Object[capacity];
+        this.longKeys = primitiveKey ? new long[capacity] : null;
+        this.sums = new double[capacity];
+        this.counts = new int[capacity];
+        this.entrySlots = new int[capacity];
+        this.size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Accumulates the given value for the given key.
+     *
+     * @param key Integer or Long if <code>primitiveKey</code> is set
+     */
+    public void add(@Nonnull final Object key, final float value) {
+        final long longKey;
+        final int hash;
+        if (primitiveKey) {
+            longKey = ((Number) key).longValue();
+            hash = hash(longKey);
+        } else {
+            longKey = 0L;
+            hash = mix(key.hashCode());
+        }
+
+        final int[] slots = this.slots;
+        final int mask = slots.length - 1;
+        int slot = hash & mask;
+        for (int e; (e = slots[slot]) != 0; slot = (slot + 1) & mask) {
+            final int i = e - 1;
+            if (primitiveKey ? (longKeys[i] == longKey) : key.equals(keys[i])) {
+                sums[i] += value;
+                counts[i]++;
+                return;
+            }
+        }
+
+        final int i = size;
+        if (i == keys.length) {
+            grow();
+        }
+        keys[i] = key;
+        if (primitiveKey) {
+            longKeys[i] = longKey;
+        }
+        sums[i] = value;
+        counts[i] = 1;
+        entrySlots[i] = slot;
+        slots[slot] = i + 1;
+        if (++size > threshold) {
+            rehash(slots.length << 1);
+        }
+    }
+
+    /**
+     * @param i entry index in [0, size)
+     */
+    @Nonnull
+    public Object getKey(@Nonnegative final int i) {
+        return keys[i];
+    }
+
+    /**
+     * @param i entry index in [0, size)
+     * @return the average of the accumulated values
+     */
+    public float get(@Nonnegative final int i) {
+        return (float) (sums[i] / counts[i]);
+    }
+
+    /**
+     * Removes all entries in time proportional to the number of entries.
+     */
+    public void clear() {
+        final int[] slots = this.slots;
+        final int[] entrySlots = this.entrySlots;
+        final Object[] keys = this.keys;
+        for (int i = 0; i < size; i++) {
+            slots[entrySlots[i]] = 0;
+            keys[i] = null;
+        }
+        this.size = 0;
+    }
+
+    private void grow() {
+        final int newCapacity = keys.length << 1;
+        this.keys = Arrays.copyOf(keys, newCapacity);
+        if (primitiveKey) {
+            this.longKeys = Arrays.copyOf(longKeys, newCapacity);
+        }
+        this.sums = Arrays.copyOf(sums, newCapacity);
+        this.counts = Arrays.copyOf(counts, newCapacity);
+        this.entrySlots = Arrays.copyOf(entrySlots, newCapacity);
+    }
+
+    private void rehash(final int numSlots) {
+        final int[] newSlots = new int[numSlots];
+        final int mask = numSlots - 1;
+        for (int i = 0; i < size; i++) {
+            final int hash = primitiveKey ? hash(longKeys[i]) : mix(keys[i].hashCode());
+            int slot = hash & mask;
+            while (newSlots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            newSlots[slot] = i + 1;
+            entrySlots[i] = slot;
+        }
+        this.slots = newSlots;
+        this.threshold = Math.round(numSlots * LOAD_FACTOR);
+    }
+
+    private static int hash(final long key) {
+        return mix((int) (key ^ (key >>> 32)));
+    }
+
+    private static int mix(final int h) {
+        final int x = h * 0x9E3779B9;
+        return x ^ (x >>> 16);
+    }
+
+}
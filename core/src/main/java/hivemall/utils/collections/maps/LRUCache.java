@@ -0,0 +1,177 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.utils.collections.maps;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * A least-recently-used cache bounded by the total (approximate) size of its values.
+ *
+ * The most recently put value is always kept even if its size exceeds the capacity. An optional
+ * {@link RemovalListener} is notified of evicted, replaced and cleared values, e.g., to release
+ * native resources held by them.
+ */
+@NotThreadSafe
+public final class LRUCache<K, V> {
+
+    @Nonnegative
+    private final long capacity;
+    @Nonnull
+    private final LinkedHashMap<K, Entry<V>> map;
+    @Nullable
+    private final RemovalListener<K, V> listener;
+    private long totalSize;
+
+    private long hits, misses, evictions;
+
+    /**
+     * @param capacity the maximum total size of cached values
+     */
+    public LRUCache(@Nonnegative long capacity) {
+        this(capacity, null);
+    }
+
+    /**
+     * @param capacity the maximum total size of cached values
+     * @param listener notified when a value is removed from the cache
+     */
+    public LRUCache(@Nonnegative long capacity, @Nullable RemovalListener<K, V> listener) {
+        if (capacity < 0L) {
+            throw new IllegalArgumentException("Illegal capacity: " + capacity);
+        }
+        this.capacity = capacity;
+        this.map = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true /* access order */);
+        this.listener = listener;
+        this.totalSize = 0L;
+    }
+
+    /**
+     * @return the cached value, or null if not cached
+     */
+    @Nullable
+    public V get(@Nonnull final K key) {
+        final Entry<V> e = map.get(key);
+        if (e == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return e.value;
+    }
+
+    /**
+     * @return true if the key is cached. Unlike {@link #get(Object)}, neither the access order nor
+     *         the hit/miss statistics are affected.
+     */
+    public boolean containsKey(@Nonnull final K key) {
+        return map.containsKey(key);
+    }
+
+    /**
+     * @param size the approximate size of the value
+     */
+    public void put(@Nonnull final K key, @Nonnull final V value, @Nonnegative final long size) {
+        final Entry<V> old = map.put(key, new Entry<V>(value, size));
+        if (old != null) {
+            totalSize -= old.size;
+            if (listener != null && old.value != value) {
+                listener.onRemoval(key, old.value);
+            }
+        }
+        totalSize += size;
+
+        if (totalSize > capacity) {
+            final Iterator<Map.Entry<K, Entry<V>>> itor = map.entrySet().iterator();
+            // keep the last entry, i.e., the one just put
+            for (int remaining = map.size(); remaining > 1 && totalSize > capacity; remaining--) {
+                Map.Entry<K, Entry<V>> eldest = itor.next();
+                itor.remove();
+                totalSize -= eldest.getValue().size;
+                evictions++;
+                if (listener != null) {
+                    listener.onRemoval(eldest.getKey(), eldest.getValue().value);
+                }
+            }
+        }
+    }
+
+    public int size() {
+        return map.size();
+    }
+
+    /**
+     * @return the total size of cached values
+     */
+    public long getTotalSize() {
+        return totalSize;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    public void clear() {
+        if (listener != null) {
+            for (Map.Entry<K, Entry<V>> e : map.entrySet()) {
+                listener.onRemoval(e.getKey(), e.getValue().value);
+            }
+        }
+        map.clear();
+        this.totalSize = 0L;
+    }
+
+    @Override
+    public String toString() {
+        return "LRUCache [entries=" + map.size() + ", size=" + totalSize + "/" + capacity
+                + ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + "]";
+    }
+
+    public interface RemovalListener<K, V> {
+
+        void onRemoval(@Nonnull K key, @Nonnull V value);
+
+    }
+
+    private static final class Entry<V> {
+        @Nonnull
+        final V value;
+        final long size;
+
+        Entry(@Nonnull V value, long size) {
+            this.value = value;
+            this.size = size;
+        }
+    }
+
+}
@@ -0,0 +1,269 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.utils.hadoop;
+
+import hivemall.utils.hashing.MurmurHash3;
+
+import java.nio.charset.StandardCharsets;
+
+import javax.annotation.Nonnull;
+
+import org.apache.hadoop.io.Text;
+
+/**
+ * Parses a feature of <code>feature[:value]</code> directly from the UTF-8 bytes of {@link Text}.
+ *
+ * Unlike <code>Text#toString()</code> followed by <code>indexOf</code>, <code>substring</code> and
+ * <code>Double.parseDouble</code>, nothing is allocated for integer or hashed feature indices and
+ * for plain decimal values, and only the feature name is decoded when a String is needed. The
+ * results are the same as those of the String-based parsers.
+ */
+public final class FeatureParser {
+
+    /** 10^0 to 10^22, all of which are exactly representable in double */
+    private static final double[] POW10 = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9,
+            1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+    /** 10^0 to 10^10, all of which are exactly representable in float */
+    private static final float[] POW10F =
+            {1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f};
+
+    private FeatureParser() {}
+
+    /**
+     * @return the position of the first ':' that separates a feature and its value, or -1 if the
+     *         feature has no value
+     * @throws IllegalArgumentException if the feature is empty
+     */
+    public static int indexOfValue(@Nonnull final Text t) throws IllegalArgumentException {
+        final int pos = indexOf(t.getBytes(), 0, t.getLength(), (byte) ':');
+        if (pos == 0) {
+            throw new IllegalArgumentException(
+                "Invalid feature value representation: " + t.toString());
+        }
+        return pos;
+    }
+
+    /**
+     * @param pos the position returned by {@link #indexOfValue(Text)}
+     */
+    @Nonnull
+    public static String parseFeatureAsString(@Nonnull final Text t, final int pos) {
+        final int end = (pos == -1) ? t.getLength() : pos;
+        return new String(t.getBytes(), 0, end, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param pos the position returned by {@link #indexOfValue(Text)}
+     */
+    @Nonnull
+    public static Text parseFeatureAsText(@Nonnull final Text t, final int pos) {
+        final int end = (pos == -1) ? t.getLength() : pos;
+        final Text feature = new Text();
+        feature.set(t.getBytes(), 0, end);
+        return feature;
+    }
+
+    /**
+     * @param pos the position returned by {@link #indexOfValue(Text)}
+     * @return the same value as <code>MurmurHash3.murmurhash3(String)</code> of the feature
+     */
+    public static int parseFeatureAsHash(@Nonnull final Text t, final int pos) {
+        final int end = (pos == -1) ? t.getLength() : pos;
+        return MurmurHash3.murmurhash3(t.getBytes(), 0, end);
+    }
+
+    /**
+     * @param pos the position returned by {@link #indexOfValue(Text)}
+     * @return the same value as <code>MurmurHash3.murmurhash3(String, int)</code> of the feature
+     */
+    public static int parseFeatureAsHash(@Nonnull final Text t, final int pos,
+            final int numFeatures) {
+        final int end = (pos == -1) ? t.getLength() : pos;
+        return MurmurHash3.murmurhash3(t.getBytes(), 0, end, numFeatures);
+    }
+
+    /**
+     * @param pos the position returned by {@link #indexOfValue(Text)}
+     */
+    public static int parseFeatureAsInt(@Nonnull final Text t, final int pos)
+            throws NumberFormatException {
+        final int end = (pos == -1) ? t.getLength() : pos;
+        return parseInt(t.getBytes(), 0, end);
+    }
+
+    /**
+     * @param pos the position returned by {@link #indexOfValue(Text)}
+     * @return the value of the feature, or 1.0 if the feature has no value
+     */
+    public static double parseValue(@Nonnull final Text t, final int pos)
+            throws NumberFormatException {
+        if (pos == -1) {
+            return 1.d;
+        }
+        return parseDouble(t.getBytes(), pos + 1, t.getLength());
+    }
+
+    /**
+     * @param pos the position returned by {@link #indexOfValue(Text)}
+     * @return the value of the feature, or 1.0 if the feature has no value
+     */
+    public static float parseValueAsFloat(@Nonnull final Text t, final int pos)
+            throws NumberFormatException {
+        if (pos == -1) {
+            return 1.f;
+        }
+        return parseFloat(t.getBytes(), pos + 1, t.getLength());
+    }
+
+    public static int indexOf(@Nonnull final byte[] b, final int start, final int end,
+            final byte c) {
+        for (int i = start; i < end; i++) {
+            if (b[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Parses an int in the same way as {@link Integer#parseInt(String)}.
+     */
+    public static int parseInt(@Nonnull final byte[] b, final int start, final int end)
+            throws NumberFormatException {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (b[i] == '-' || b[i] == '+')) {
+            negative = (b[i] == '-');
+            i++;
+        }
+        final int numDigits = end - i;
+        if (numDigits < 1 || numDigits > 9) {// may overflow
+            return Integer.parseInt(toString(b, start, end));
+        }
+        int result = 0;
+        for (; i < end; i++) {
+            final int d = b[i] - '0';
+            if (d < 0 || d > 9) {
+                return Integer.parseInt(toString(b, start, end));
+            }
+            result = result * 10 + d;
+        }
+        return negative ? -result : result;
+    }
+
+    /**
+     * Parses a double in the same way as {@link Double#parseDouble(String)}.
+     *
+     * Plain decimals of up to 15 significant digits and 22 fractional digits are converted without
+     * allocation by a single correctly rounded division of exact doubles, which gives the same
+     * result as {@link Double#parseDouble(String)}. The other forms, e.g., exponents, NaN and
+     * surrounding spaces, are delegated to it.
+     */
+    public static double parseDouble(@Nonnull final byte[] b, final int start, final int end)
+            throws NumberFormatException {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (b[i] == '-' || b[i] == '+')) {
+            negative = (b[i] == '-');
+            i++;
+        }
+
+        long mantissa = 0L;
+        int significantDigits = 0;
+        int scale = 0;
+        boolean hasDigit = false, hasDot = false;
+        for (; i < end; i++) {
+            final byte c = b[i];
+            if (c >= '0' && c <= '9') {
+                if (significantDigits >= 15) {
+                    return Double.parseDouble(toString(b, start, end));
+                }
+                mantissa = mantissa * 10L + (c - '0');
+                if (mantissa != 0L) {
+                    significantDigits++;
+                }
+                if (hasDot) {
+                    scale++;
+                }
+                hasDigit = true;
+            } else if (c == '.' && !hasDot) {
+                hasDot = true;
+            } else {
+                return Double.parseDouble(toString(b, start, end));
+            }
+        }
+        if (!hasDigit || scale >= POW10.length) {
+            return Double.parseDouble(toString(b, start, end));
+        }
+
+        final double v = (scale == 0) ? (double) mantissa : mantissa / POW10[scale];
+        return negative ? -v : v;
+    }
+
+    /**
+     * Parses a float in the same way as {@link Float#parseFloat(String)}, converting plain decimals
+     * of up to 7 significant digits and 10 fractional digits without allocation.
+     */
+    public static float parseFloat(@Nonnull final byte[] b, final int start, final int end)
+            throws NumberFormatException {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (b[i] == '-' || b[i] == '+')) {
+            negative = (b[i] == '-');
+            i++;
+        }
+
+        int mantissa = 0;
+        int significantDigits = 0;
+        int scale = 0;
+        boolean hasDigit = false, hasDot = false;
+        for (; i < end; i++) {
+            final byte c = b[i];
+            if (c >= '0' && c <= '9') {
+                if (significantDigits >= 7) {
+                    return Float.parseFloat(toString(b, start, end));
+                }
+                mantissa = mantissa * 10 + (c - '0');
+                if (mantissa != 0) {
+                    significantDigits++;
+                }
+                if (hasDot) {
+                    scale++;
+                }
+                hasDigit = true;
+            } else if (c == '.' && !hasDot) {
+                hasDot = true;
+            } else {
+                return Float.parseFloat(toString(b, start, end));
+            }
+        }
+        if (!hasDigit || scale >= POW10F.length) {
+            return Float.parseFloat(toString(b, start, end));
+        }
+
+        final float v = (scale == 0) ? (float) mantissa : mantissa / POW10F[scale];
+        return negative ? -v : v;
+    }
+
+    @Nonnull
+    private static String toString(@Nonnull final byte[] b, final int start, final int end) {
+        return new String(b, start, end - start, StandardCharsets.UTF_8);
+    }
+
+}
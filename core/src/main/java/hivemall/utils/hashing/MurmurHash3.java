@@ -45,6 +45,28 @@ public final class MurmurHash3 {
         return r;
     }
 
+    /**
+     * @return hash value of the UTF-8 bytes in range from 0 to 2^24 (16777216), which is the same
+     *         value as {@link #murmurhash3(String)} of the decoded string.
+     */
+    public static int murmurhash3(final byte[] data, final int offset, final int len) {
+        final int h = murmurhash3_x86_32(data, offset, len, 0x9747b28c);
+        int r = MathUtils.moduloPowerOfTwo(h, DEFAULT_NUM_FEATURES);
+        if (r < 0) {
+            r += DEFAULT_NUM_FEATURES;
+        }
+        return r;
+    }
+
+    public static int murmurhash3(final byte[] data, final int offset, final int len,
+            final int numFeatures) {
+        int r = murmurhash3_x86_32(data, offset, len, 0x9747b28c) % numFeatures;
+        if (r < 0) {
+            r += numFeatures;
+        }
+        return r;
+    }
+
     public static int murmurhash3_x86_32(final String data) {
         return murmurhash3_x86_32(data, 0x9747b28c);
     }
@@ -53,6 +75,62 @@ public final class MurmurHash3 {
         return murmurhash3_x86_32(data, 0, data.length(), seed);
     }
 
+    public static int murmurhash3_x86_32(final byte[] data, final int offset, final int len) {
+        return murmurhash3_x86_32(data, offset, len, 0x9747b28c);
+    }
+
+    /** Returns the MurmurHash3_x86_32 hash of the given bytes. */
+    public static int murmurhash3_x86_32(final byte[] data, final int offset, final int len,
+            final int seed) {
+        final int c1 = 0xcc9e2d51;
+        final int c2 = 0x1b873593;
+
+        int h1 = seed;
+        final int roundedEnd = offset + (len & 0xfffffffc); // round down to 4 byte block
+
+        for (int i = offset; i < roundedEnd; i += 4) {
+            // little endian load order
+            int k1 = (data[i] & 0xff) | ((data[i + 1] & 0xff) << 8)
+                    | ((data[i + 2] & 0xff) << 16) | (data[i + 3] << 24);
+            k1 *= c1;
+            k1 = (k1 << 15) | (k1 >>> 17); // ROTL32(k1,15);
+            k1 *= c2;
+
+            h1 ^= k1;
+            h1 = (h1 << 13) | (h1 >>> 19); // ROTL32(h1,13);
+            h1 = h1 * 5 + 0xe6546b64;
+        }
+
+        // tail
+        int k1 = 0;
+        switch (len & 0x03) {
+            case 3:
+                k1 = (data[roundedEnd + 2] & 0xff) << 16;
+                // fallthrough
+            case 2:
+                k1 |= (data[roundedEnd + 1] & 0xff) << 8;
+                // fallthrough
+            case 1:
+                k1 |= (data[roundedEnd] & 0xff);
+                k1 *= c1;
+                k1 = (k1 << 15) | (k1 >>> 17); // ROTL32(k1,15);
+                k1 *= c2;
+                h1 ^= k1;
+        }
+
+        // finalization
+        h1 ^= len;
+
+        // fmix(h1);
+        h1 ^= h1 >>> 16;
+        h1 *= 0x85ebca6b;
+        h1 ^= h1 >>> 13;
+        h1 *= 0xc2b2ae35;
+        h1 ^= h1 >>> 16;
+
+        return h1;
+    }
+
     /** Returns the MurmurHash3_x86_32 hash. */
     public static int murmurhash3_x86_32(final CharSequence data, final int offset, final int len,
             final int seed) {
@@ -0,0 +1,427 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.utils.io;
+
+import hivemall.utils.codec.ZigZagLEB128Codec;
+import hivemall.utils.lang.NumberUtils;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A buffer to record training examples for iterative training.
+ *
+ * Each record is prefixed by its length and its fields are written in a compact form, i.e.,
+ * integers in LEB128 (optionally ZigZag encoded) and strings as indices of an in-memory
+ * dictionary. Records are kept in a block buffer that is spilled to a temporary file when full.
+ * The spilled file is memory-mapped once and shared by the following iterations, so that no
+ * explicit read is issued for each iteration.
+ *
+ * <pre>
+ * ReplayBuffer buf = new ReplayBuffer("hivemall_example", 1024 * 1024);
+ * buf.writeVInt(...); buf.writeString(...); buf.endRecord(); // for each training example
+ *
+ * buf.rewind(); // for each iteration
+ * for (ReplayBuffer.Reader block; (block = buf.nextBlock()) != null;) {
+ *     while (block.next()) {
+ *         block.readVInt(); block.readString(); ...
+ *     }
+ * }
+ * buf.close();
+ * </pre>
+ */
+@NotThreadSafe
+public final class ReplayBuffer implements Closeable {
+    private static final Log logger = LogFactory.getLog(ReplayBuffer.class);
+
+    /** The maximum size of a memory-mapped region */
+    private static final int MAX_MAPPED_SIZE = 256 * 1024 * 1024; // 256 MiB
+
+    @Nonnull
+    private final String filePrefix;
+
+    /** complete records to be spilled */
+    @Nonnull
+    private final ByteBuffer block;
+    /** the record being written */
+    @Nonnull
+    private ByteBuffer record;
+    private long numRecords;
+
+    // string dictionary
+    @Nonnull
+    private final Object2IntOpenHashMap<String> stringIds;
+    @Nonnull
+    private final ArrayList<String> strings;
+
+    // spilled blocks
+    @Nullable
+    private NioStatefulSegment file;
+    @Nonnull
+    private long[] blockOffsets;
+    private int numBlocks;
+
+    // replay
+    @Nullable
+    private ByteBuffer[] regions;
+    private int nextRegion;
+
+    public ReplayBuffer(@Nonnull String filePrefix, @Nonnegative int blockSize) {
+        this.filePrefix = filePrefix;
+        this.block = ByteBuffer.allocate(blockSize);
+        this.record = ByteBuffer.allocate(256);
+        this.numRecords = 0L;
+        this.stringIds = new Object2IntOpenHashMap<String>();
+        stringIds.defaultReturnValue(-1);
+        this.strings = new ArrayList<String>();
+        this.blockOffsets = new long[16];
+        this.numBlocks = 0;
+        this.nextRegion = 0;
+    }
+
+    public long getNumRecords() {
+        return numRecords;
+    }
+
+    /**
+     * @return true if records are spilled to a temporary file
+     */
+    public boolean isSpilled() {
+        return file != null;
+    }
+
+    @Nullable
+    public File getFile() {
+        return (file == null) ? null : file.getFile();
+    }
+
+    // ------------------------------------------------------------
+    // write
+
+    public void writeByte(final byte v) {
+        ensureRecordCapacity(1);
+        record.put(v);
+    }
+
+    public void writeFloat(final float v) {
+        ensureRecordCapacity(4);
+        record.putFloat(v);
+    }
+
+    public void writeDouble(final double v) {
+        ensureRecordCapacity(8);
+        record.putDouble(v);
+    }
+
+    /**
+     * Writes an unsigned int in LEB128.
+     */
+    public void writeVInt(final int v) {
+        ensureRecordCapacity(5);
+        ZigZagLEB128Codec.writeUnsignedInt(v, record);
+    }
+
+    /**
+     * Writes an unsigned long in LEB128.
+     */
+    public void writeVLong(final long v) {
+        ensureRecordCapacity(10);
+        ZigZagLEB128Codec.writeUnsignedLong(v, record);
+    }
+
+    /**
+     * Writes a signed long in ZigZag LEB128. Suitable for deltas.
+     */
+    public void writeZigZagVLong(final long v) {
+        ensureRecordCapacity(10);
+        ZigZagLEB128Codec.writeSignedLong(v, record);
+    }
+
+    /**
+     * Writes the dictionary index of a string.
+     */
+    public void writeString(@Nonnull final String s) {
+        int id = stringIds.getInt(s);
+        if (id == -1) {
+            id = strings.size();
+            strings.add(s);
+            stringIds.put(s, id);
+        }
+        writeVInt(id);
+    }
+
+    private void ensureRecordCapacity(final int bytes) {
+        if (record.remaining() < bytes) {
+            int newCapacity = Math.max(record.capacity() * 2, record.position() + bytes);
+            ByteBuffer newRecord = ByteBuffer.allocate(newCapacity);
+            record.flip();
+            newRecord.put(record);
+            this.record = newRecord;
+        }
+    }
+
+    /**
+     * Finishes the record being written.
+     */
+    public void endRecord() throws IOException {
+        if (regions != null) {
+            throw new IllegalStateException("Cannot write a record after replay");
+        }
+
+        final ByteBuffer record = this.record;
+        record.flip();
+        final int recordBytes = record.remaining();
+        final int requiredBytes = 5 + recordBytes;
+        if (block.remaining() < requiredBytes) {
+            spill();
+            if (block.remaining() < requiredBytes) {// a large record is spilled as a block
+                ByteBuffer large = ByteBuffer.allocate(requiredBytes);
+                ZigZagLEB128Codec.writeUnsignedInt(recordBytes, large);
+                large.put(record);
+                large.flip();
+                spill(large);
+                record.clear();
+                numRecords++;
+                return;
+            }
+        }
+        ZigZagLEB128Codec.writeUnsignedInt(recordBytes, block);
+        block.put(record);
+        record.clear();
+        numRecords++;
+    }
+
+    private void spill() throws IOException {
+        if (block.position() == 0) {
+            return;
+        }
+        block.flip();
+        spill(block);
+        block.clear();
+    }
+
+    private void spill(@Nonnull final ByteBuffer src) throws IOException {
+        NioStatefulSegment dst = file;
+        if (dst == null) {
+            File tmpFile = File.createTempFile(filePrefix, ".sgmt");
+            tmpFile.deleteOnExit();
+            if (!tmpFile.canWrite()) {
+                throw new IOException("Cannot write a temporary file: " + tmpFile.getAbsolutePath());
+            }
+            logger.info("Record training examples to a file: " + tmpFile.getAbsolutePath());
+            this.file = dst = new NioStatefulSegment(tmpFile, false);
+        }
+
+        if (numBlocks == blockOffsets.length) {
+            this.blockOffsets = Arrays.copyOf(blockOffsets, numBlocks * 2);
+        }
+        blockOffsets[numBlocks++] = dst.getPosition();
+        dst.write(src);
+    }
+
+    // ------------------------------------------------------------
+    // replay
+
+    /**
+     * Starts (another) replay of the recorded records.
+     */
+    public void rewind() throws IOException {
+        if (regions == null) {
+            this.regions = prepareRegions();
+        }
+        this.nextRegion = 0;
+    }
+
+    @Nonnull
+    private ByteBuffer[] prepareRegions() throws IOException {
+        final NioStatefulSegment file = this.file;
+        if (file == null) {// on memory
+            block.flip();
+            return new ByteBuffer[] {block.asReadOnlyBuffer()};
+        }
+
+        spill();
+        file.flush();
+        final long fileSize = file.getPosition();
+        if (logger.isInfoEnabled()) {
+            logger.info("Wrote " + numRecords + " records to a temporary file: "
+                    + file.getFile().getAbsolutePath() + " ("
+                    + NumberUtils.prettySize(fileSize) + ")");
+        }
+
+        // map consecutive blocks as a region
+        final List<ByteBuffer> regions = new ArrayList<ByteBuffer>();
+        for (int i = 0; i < numBlocks;) {
+            final long start = blockOffsets[i];
+            long end = (i + 1 < numBlocks) ? blockOffsets[i + 1] : fileSize;
+            for (i++; i < numBlocks; i++) {
+                long next = (i + 1 < numBlocks) ? blockOffsets[i + 1] : fileSize;
+                if (next - start > MAX_MAPPED_SIZE) {
+                    break;
+                }
+                end = next;
+            }
+            regions.add(file.mapForRead(start, end - start));
+        }
+        return regions.toArray(new ByteBuffer[regions.size()]);
+    }
+
+    /**
+     * @return a reader of the next block of records, or null if all records are read
+     */
+    @Nullable
+    public Reader nextBlock() {
+        final ByteBuffer[] regions = this.regions;
+        if (regions == null) {
+            throw new IllegalStateException("rewind() should be called before reading records");
+        }
+        if (nextRegion >= regions.length) {
+            return null;
+        }
+        return new Reader(regions[nextRegion++].duplicate(), strings);
+    }
+
+    /**
+     * Releases resources and deletes the temporary file.
+     */
+    @Override
+    public void close() throws IOException {
+        this.regions = null;
+        strings.clear();
+        stringIds.clear();
+        final NioStatefulSegment file = this.file;
+        if (file != null) {
+            this.file = null;
+            file.close(true);
+        }
+    }
+
+    /**
+     * A reader of complete records in a block. Readers returned by {@link #split(int)} can be used
+     * by different threads.
+     */
+    @NotThreadSafe
+    public static final class Reader {
+
+        @Nonnull
+        private final ByteBuffer buf;
+        @Nonnull
+        private final List<String> strings;
+        /** the end position of the current record */
+        private int recordEnd;
+
+        Reader(@Nonnull ByteBuffer buf, @Nonnull List<String> strings) {
+            this.buf = buf;
+            this.strings = strings;
+            this.recordEnd = buf.position();
+        }
+
+        /**
+         * Moves to the next record.
+         *
+         * @return false if no more record exists
+         */
+        public boolean next() {
+            final ByteBuffer buf = this.buf;
+            buf.position(recordEnd);
+            if (!buf.hasRemaining()) {
+                return false;
+            }
+            int recordBytes = ZigZagLEB128Codec.readUnsignedInt(buf);
+            this.recordEnd = buf.position() + recordBytes;
+            return true;
+        }
+
+        public byte readByte() {
+            return buf.get();
+        }
+
+        public float readFloat() {
+            return buf.getFloat();
+        }
+
+        public double readDouble() {
+            return buf.getDouble();
+        }
+
+        public int readVInt() {
+            return ZigZagLEB128Codec.readUnsignedInt(buf);
+        }
+
+        public long readVLong() {
+            return ZigZagLEB128Codec.readUnsignedLong(buf);
+        }
+
+        public long readZigZagVLong() {
+            return ZigZagLEB128Codec.readSignedLong(buf);
+        }
+
+        @Nonnull
+        public String readString() {
+            return strings.get(ZigZagLEB128Codec.readUnsignedInt(buf));
+        }
+
+        /**
+         * Splits the remaining records of this reader into at most <code>n</code> readers of
+         * almost the same size.
+         */
+        @Nonnull
+        public Reader[] split(@Nonnegative final int n) {
+            final ByteBuffer buf = this.buf;
+            final int start = recordEnd;
+            final int end = buf.limit();
+            final int chunkBytes = (end - start) / n + 1;
+
+            final List<Reader> readers = new ArrayList<Reader>(n);
+            final ByteBuffer scan = buf.duplicate();
+            int from = start;
+            while (from < end) {
+                int to = from;
+                while (to < end && to - from < chunkBytes) {
+                    scan.position(to);
+                    int recordBytes = ZigZagLEB128Codec.readUnsignedInt(scan);
+                    to = scan.position() + recordBytes;
+                }
+                ByteBuffer chunk = buf.duplicate();
+                chunk.limit(to);
+                chunk.position(from);
+                readers.add(new Reader(chunk, strings));
+                from = to;
+            }
+            this.recordEnd = end;
+            return readers.toArray(new Reader[readers.size()]);
+        }
+
+    }
+
+}
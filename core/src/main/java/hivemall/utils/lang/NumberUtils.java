@@ -59,6 +59,43 @@ public final class NumberUtils {
         return parseInt(s);
     }
 
+    /**
+     * Parses a long value that may have a suffix of k, m, or g.
+     *
+     * @throws NumberFormatException if the value is invalid or out of the range of long
+     */
+    public static long parseLong(String s) {
+        int endIndex = s.length() - 1;
+        char last = s.charAt(endIndex);
+        if (Character.isLetter(last)) {
+            String numstr = s.substring(0, endIndex);
+            long l = Long.parseLong(numstr);
+            final long unit;
+            switch (last) {
+                case 'k':
+                case 'K':
+                    unit = 1000L;
+                    break;
+                case 'm':
+                case 'M':
+                    unit = 1000000L;
+                    break;
+                case 'g':
+                case 'G':
+                    unit = 1000000000L;
+                    break;
+                default:
+                    throw new NumberFormatException("Invalid number format: " + s);
+            }
+            if (l > Long.MAX_VALUE / unit || l < Long.MIN_VALUE / unit) {
+                throw new NumberFormatException("Out of range: " + s);
+            }
+            return l * unit;
+        } else {
+            return Long.parseLong(s);
+        }
+    }
+
     public static String formatNumber(final long number) {
         DecimalFormat f = new DecimalFormat("#,###");
         return f.format(number);
@@ -453,6 +453,27 @@ public final class MathUtils {
         return arr;
     }
 
+    /**
+     * L1-normalizes <code>arr[offset, offset + length)</code> in place. The range is left as it
+     * is if its L1 norm is zero.
+     */
+    public static void l1normalize(@Nonnull final float[] arr, final int offset,
+            final int length) {
+        final int end = offset + length;
+        double sum = 0.d;
+        for (int i = offset; i < end; i++) {
+            sum += Math.abs(arr[i]);
+        }
+        if (sum == 0.d) {
+            return;
+        }
+        // floating point multiplication is faster than division
+        final double multiplier = 1.d / sum;
+        for (int i = offset; i < end; i++) {
+            arr[i] *= multiplier;
+        }
+    }
+
     public static float clip(final float v, final float min, final float max) {
         return Math.max(Math.min(v, max), min);
     }
@@ -443,6 +443,58 @@ public class GeneralClassifierUDTFTest {
             udtf.getCumulativeLoss() < 1300);
     }
 
+    @Test(expected = UDFArgumentException.class)
+    public void testThreadsWithoutDenseModel() throws Exception {
+        GeneralClassifierUDTF udtf = new GeneralClassifierUDTF();
+        ObjectInspector intOI = PrimitiveObjectInspectorFactory.javaIntObjectInspector;
+        ObjectInspector stringOI = PrimitiveObjectInspectorFactory.javaStringObjectInspector;
+        ListObjectInspector stringListOI =
+                ObjectInspectorFactory.getStandardListObjectInspector(stringOI);
+        ObjectInspector params = ObjectInspectorUtils.getConstantObjectInspector(
+            PrimitiveObjectInspectorFactory.javaStringObjectInspector, "-threads 2");
+
+        udtf.initialize(new ObjectInspector[] {stringListOI, intOI, params});
+    }
+
+    @Test
+    public void testHogwild() throws IOException, HiveException {
+        String[] optimizers = new String[] {"SGD", "Adam"};
+        for (String opt : optimizers) {
+            String options = "-loss logloss -opt " + opt
+                    + " -reg l1 -lambda 0.0001 -iter 10 -cv_rate 0.00005 -dense -threads 4";
+            GeneralClassifierUDTF udtf = new GeneralClassifierUDTF();
+
+            ListObjectInspector stringListOI =
+                    ObjectInspectorFactory.getStandardListObjectInspector(
+                        PrimitiveObjectInspectorFactory.javaStringObjectInspector);
+            ObjectInspector params = ObjectInspectorUtils.getConstantObjectInspector(
+                PrimitiveObjectInspectorFactory.javaStringObjectInspector, options);
+
+            udtf.initialize(new ObjectInspector[] {stringListOI,
+                    PrimitiveObjectInspectorFactory.javaIntObjectInspector, params});
+
+            BufferedReader reader = readFile("adam_test_10000.tsv.gz");
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                StringTokenizer tokenizer = new StringTokenizer(line, " ");
+
+                String featureLine = tokenizer.nextToken();
+                List<String> X = Arrays.asList(featureLine.split(","));
+
+                String labelLine = tokenizer.nextToken();
+                Integer y = Integer.valueOf(labelLine);
+
+                udtf.process(new Object[] {X, y});
+            }
+
+            udtf.finalizeTraining();
+
+            println(opt + " cumulative loss: " + udtf.getCumulativeLoss());
+            Assert.assertTrue(
+                "CumulativeLoss is expected to be less than 1300: " + udtf.getCumulativeLoss(),
+                udtf.getCumulativeLoss() < 1300);
+        }
+    }
+
     @Test
     public void testMomentum() throws IOException, HiveException {
         String filePath = "adam_test_10000.tsv.gz";
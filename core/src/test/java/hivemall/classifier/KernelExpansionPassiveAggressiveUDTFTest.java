@@ -20,6 +20,7 @@ package hivemall.classifier;
 
 import hivemall.TestUtils;
 import hivemall.model.FeatureValue;
+import hivemall.utils.lang.mutable.MutableInt;
 import hivemall.utils.math.MathUtils;
 
 import java.io.BufferedReader;
@@ -35,6 +36,7 @@ import java.util.zip.GZIPInputStream;
 import javax.annotation.Nonnull;
 
 import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.Collector;
 import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
@@ -75,6 +77,53 @@ public class KernelExpansionPassiveAggressiveUDTFTest {
         news20.close();
     }
 
+    @Test
+    public void testNews20Budgeted() throws IOException, ParseException, HiveException {
+        final int maxTerms = 20000;
+        for (String evict : new String[] {"abs", "lru"}) {
+            KernelExpansionPassiveAggressiveUDTF udtf = new KernelExpansionPassiveAggressiveUDTF();
+            ObjectInspector intOI = PrimitiveObjectInspectorFactory.javaIntObjectInspector;
+            ObjectInspector stringOI = PrimitiveObjectInspectorFactory.javaStringObjectInspector;
+            ListObjectInspector stringListOI =
+                    ObjectInspectorFactory.getStandardListObjectInspector(stringOI);
+            ObjectInspector params = ObjectInspectorUtils.getConstantObjectInspector(
+                PrimitiveObjectInspectorFactory.javaStringObjectInspector,
+                "-max_terms " + maxTerms + " -evict " + evict);
+            udtf.initialize(new ObjectInspector[] {stringListOI, intOI, params});
+
+            final MutableInt numRows = new MutableInt(0);
+            udtf.setCollector(new Collector() {
+                public void collect(Object input) throws HiveException {
+                    numRows.incr();
+                }
+            });
+
+            BufferedReader news20 = readFile("news20-small.binary.gz");
+            ArrayList<String> words = new ArrayList<String>();
+            String line = news20.readLine();
+            while (line != null) {
+                StringTokenizer tokens = new StringTokenizer(line, " ");
+                int label = Integer.parseInt(tokens.nextToken());
+                while (tokens.hasMoreTokens()) {
+                    words.add(tokens.nextToken());
+                }
+                Assert.assertFalse(words.isEmpty());
+                udtf.process(new Object[] {words, label});
+
+                words.clear();
+                line = news20.readLine();
+            }
+            news20.close();
+
+            Assert.assertTrue(evict, Math.abs(udtf.getLoss()) < 0.25f);
+
+            udtf.close();
+            // w0 and the terms
+            Assert.assertTrue(evict, numRows.getValue() > 1);
+            Assert.assertTrue(evict, numRows.getValue() <= maxTerms + 1);
+        }
+    }
+
     public void test_a9a() throws IOException, ParseException, HiveException {
         KernelExpansionPassiveAggressiveUDTF udtf = new KernelExpansionPassiveAggressiveUDTF();
         ObjectInspector intOI = PrimitiveObjectInspectorFactory.javaIntObjectInspector;
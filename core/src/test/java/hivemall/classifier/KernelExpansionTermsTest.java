@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.classifier;
+
+import hivemall.classifier.KernelExpansionTerms.EvictionPolicy;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class KernelExpansionTermsTest {
+
+    @Test
+    public void testUnbounded() {
+        KernelExpansionTerms terms = new KernelExpansionTerms(-1, EvictionPolicy.abs);
+        Assert.assertEquals(-1, terms.getFeature(3));
+
+        terms.addFeature(3, 1.f, 2.f);
+        terms.addFeature(3, 0.5f, 0.5f);
+        terms.addPair(3, 4.f); // the same int as the feature, but a different term
+        for (int i = 100; i < 50000; i++) {
+            terms.addPair(i, 1.f);
+        }
+        Assert.assertEquals(1 + 1 + (50000 - 100), terms.size());
+        Assert.assertEquals(0L, terms.getNumEvicted());
+
+        int slot = terms.getFeature(3);
+        Assert.assertEquals(1.5f, terms.w1(slot), 0.f);
+        Assert.assertEquals(2.5f, terms.w2(slot), 0.f);
+        Assert.assertTrue(terms.isFeatureTerm(slot));
+        Assert.assertFalse(terms.isPairTerm(slot));
+        Assert.assertEquals(3, terms.getKey(slot));
+
+        int pair = terms.getPair(3);
+        Assert.assertNotEquals(slot, pair);
+        Assert.assertEquals(4.f, terms.w1(pair), 0.f);
+        Assert.assertTrue(terms.isPairTerm(pair));
+        Assert.assertEquals(-1, terms.getFeature(100));
+    }
+
+    @Test
+    public void testEvictLeastAbsoluteWeight() {
+        KernelExpansionTerms terms = new KernelExpansionTerms(100, EvictionPolicy.abs);
+        for (int i = 1; i <= 100; i++) {
+            // alternate the signs to check the absolute weights are compared
+            terms.addPair(i, (i % 2 == 0) ? i : -i);
+        }
+        Assert.assertEquals(100, terms.size());
+        Assert.assertEquals(0L, terms.getNumEvicted());
+
+        terms.addFeature(1000, 0.1f, -200.f);
+        Assert.assertEquals(91, terms.size());
+        Assert.assertEquals(10L, terms.getNumEvicted());
+        for (int i = 1; i <= 10; i++) {
+            Assert.assertEquals(-1, terms.getPair(i));
+        }
+        for (int i = 11; i <= 100; i++) {
+            Assert.assertEquals(i, Math.abs(terms.w1(terms.getPair(i))), 0.f);
+        }
+        int slot = terms.getFeature(1000);
+        Assert.assertEquals(-200.f, terms.w2(slot), 0.f);
+
+        // freed slots are reused
+        Assert.assertEquals(100, terms.numSlots());
+        for (int i = 2000; i < 2009; i++) {
+            terms.addPair(i, 1000.f);
+        }
+        Assert.assertEquals(100, terms.size());
+        Assert.assertEquals(100, terms.numSlots());
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUpdated() {
+        KernelExpansionTerms terms = new KernelExpansionTerms(20, EvictionPolicy.lru);
+        for (int i = 1; i <= 20; i++) {
+            terms.tick();
+            terms.addFeature(i, 1000.f, 1000.f);
+        }
+        // update the oldest ones
+        terms.tick();
+        terms.addFeature(1, 1.f, 1.f);
+        terms.addFeature(2, 1.f, 1.f);
+
+        terms.tick();
+        terms.addPair(1, 0.f);
+        Assert.assertEquals(19, terms.size());
+        Assert.assertEquals(2L, terms.getNumEvicted());
+        Assert.assertEquals(1001.f, terms.w1(terms.getFeature(1)), 0.f);
+        Assert.assertEquals(1001.f, terms.w1(terms.getFeature(2)), 0.f);
+        Assert.assertEquals(-1, terms.getFeature(3));
+        Assert.assertEquals(-1, terms.getFeature(4));
+        Assert.assertNotEquals(-1, terms.getFeature(5));
+        Assert.assertNotEquals(-1, terms.getPair(1));
+    }
+
+    @Test
+    public void testEvictionPolicy() {
+        Assert.assertEquals(EvictionPolicy.abs, EvictionPolicy.resolve("abs"));
+        Assert.assertEquals(EvictionPolicy.lru, EvictionPolicy.resolve("LRU"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsupportedEvictionPolicy() {
+        EvictionPolicy.resolve("lfu");
+    }
+
+}
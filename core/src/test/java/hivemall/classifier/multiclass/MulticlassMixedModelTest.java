@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.classifier.multiclass;
+
+import hivemall.mix.MixedWeight;
+import hivemall.model.ModelUpdateHandler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MulticlassMixedModelTest {
+
+    @Test
+    public void testMixPerLabel() {
+        final MulticlassWeightMatrix model = new MulticlassWeightMatrix(false, 16);
+        final int a = model.addLabel("a");
+        final int b = model.addLabel("b");
+        final MulticlassMixedModel mixedA = new MulticlassMixedModel(model, a);
+        final MulticlassMixedModel mixedB = new MulticlassMixedModel(model, b);
+        final RecordingHandler handlerA = new RecordingHandler(2);
+        final RecordingHandler handlerB = new RecordingHandler(2);
+        mixedA.configureMix(handlerA, false);
+        mixedB.configureMix(handlerB, false);
+        model.configureMix(new MulticlassWeightMatrix.UpdateHandler() {
+            @Override
+            public void onUpdate(int row, int label) {
+                (label == a ? mixedA : mixedB).onUpdate(row);
+            }
+        });
+
+        final int row = model.addRow("f1");
+        model.set(row, a, 1.f); // first update
+        Assert.assertEquals(0, model.getClock(row, a));
+        Assert.assertEquals(0, model.getDeltaUpdates(row, a));
+        model.set(row, a, 2.f);
+        Assert.assertEquals(1, model.getClock(row, a));
+        Assert.assertEquals(1, model.getDeltaUpdates(row, a));
+        Assert.assertTrue(handlerA.sent.isEmpty());
+        model.set(row, a, 3.f);
+        Assert.assertEquals(2, model.getClock(row, a));
+        // sent and reset
+        Assert.assertEquals(1, handlerA.sent.size());
+        Assert.assertEquals("f1:3.0", handlerA.sent.get(0));
+        Assert.assertEquals(0, model.getDeltaUpdates(row, a));
+
+        // the other label is in another session
+        model.set(row, b, -1.f);
+        Assert.assertTrue(handlerB.sent.isEmpty());
+        Assert.assertEquals(0, model.getClock(row, b));
+
+        // mixed weights are written only to its label
+        mixedA.set("f1", 10.f, 1.f, (short) 5);
+        Assert.assertEquals(10.f, model.getWeight(row, a), 0.f);
+        Assert.assertEquals(-1.f, model.getWeight(row, b), 0.f);
+        Assert.assertEquals(5, model.getClock(row, a));
+        Assert.assertEquals(1L, mixedA.getNumMixed());
+        Assert.assertEquals(0L, mixedB.getNumMixed());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testMixUnknownFeature() {
+        MulticlassWeightMatrix model = new MulticlassWeightMatrix(false, 16);
+        MulticlassMixedModel mixed = new MulticlassMixedModel(model, model.addLabel("a"));
+        mixed.set("f1", 1.f, 1.f, (short) 1);
+    }
+
+    private static final class RecordingHandler implements ModelUpdateHandler {
+        private final int threshold;
+        private final List<String> sent = new ArrayList<String>();
+
+        RecordingHandler(int threshold) {
+            this.threshold = threshold;
+        }
+
+        @Override
+        public boolean onUpdate(@Nonnull Object feature, float weight, float covar, short clock,
+                int deltaUpdates) {
+            if (deltaUpdates < threshold) {
+                return false;
+            }
+            sent.add(feature + ":" + weight);
+            return true;
+        }
+
+        @Override
+        public void sendCancelRequest(@Nonnull Object feature, @Nonnull MixedWeight mixed) {}
+    }
+
+}
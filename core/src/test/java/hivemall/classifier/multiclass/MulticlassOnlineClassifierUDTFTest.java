@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.classifier.multiclass;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.Collector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.FloatWritable;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MulticlassOnlineClassifierUDTFTest {
+
+    private static final Object[][] STRING_ROWS = new Object[][] {
+            {Arrays.asList("1:1.0", "2:0.5", "3"), 1}, {Arrays.asList("2:1.0", "4:2.0"), 2},
+            {Arrays.asList("1:0.5", "5"), 3}, {Arrays.asList("3:1.5", "4:0.5"), 2},
+            {Arrays.asList("1:1.0", "5:1.0"), 1}};
+
+    private static final Object[][] INT_ROWS = new Object[][] {{Arrays.asList(1, 2, 3), 1},
+            {Arrays.asList(2, 4), 2}, {Arrays.asList(1, 5), 3}, {Arrays.asList(3, 4), 2},
+            {Arrays.asList(1, 5), 1}};
+
+    @Test
+    public void testDenseModelWithStringFeatures() throws HiveException {
+        ObjectInspector featureOI = PrimitiveObjectInspectorFactory.javaStringObjectInspector;
+
+        Map<String, Float> sparse =
+                train(new MulticlassPassiveAggressiveUDTF(), featureOI, null, STRING_ROWS);
+        Map<String, Float> dense =
+                train(new MulticlassPassiveAggressiveUDTF(), featureOI, "-dense", STRING_ROWS);
+        Assert.assertFalse(dense.isEmpty());
+        Assert.assertEquals(sparse, dense);
+
+        // with covariances
+        sparse = train(new MulticlassAROWClassifierUDTF(), featureOI, null, STRING_ROWS);
+        dense = train(new MulticlassAROWClassifierUDTF(), featureOI, "-dense -dims 64",
+            STRING_ROWS);
+        Assert.assertFalse(dense.isEmpty());
+        Assert.assertEquals(sparse, dense);
+    }
+
+    @Test
+    public void testDenseModelWithIntFeatures() throws HiveException {
+        ObjectInspector featureOI = PrimitiveObjectInspectorFactory.javaIntObjectInspector;
+
+        Map<String, Float> sparse =
+                train(new MulticlassPassiveAggressiveUDTF(), featureOI, null, INT_ROWS);
+        Map<String, Float> dense =
+                train(new MulticlassPassiveAggressiveUDTF(), featureOI, "-dense", INT_ROWS);
+        Assert.assertFalse(dense.isEmpty());
+        Assert.assertEquals(sparse, dense);
+    }
+
+    /**
+     * @return weights keyed by "label/feature"
+     */
+    @Nonnull
+    private static Map<String, Float> train(@Nonnull final MulticlassOnlineClassifierUDTF udtf,
+            @Nonnull final ObjectInspector featureOI, final String options,
+            @Nonnull final Object[][] rows) throws HiveException {
+        ObjectInspector featuresOI = ObjectInspectorFactory.getStandardListObjectInspector(featureOI);
+        ObjectInspector labelOI = PrimitiveObjectInspectorFactory.javaIntObjectInspector;
+        if (options == null) {
+            udtf.initialize(new ObjectInspector[] {featuresOI, labelOI});
+        } else {
+            udtf.initialize(new ObjectInspector[] {featuresOI, labelOI,
+                    ObjectInspectorUtils.getConstantObjectInspector(
+                        PrimitiveObjectInspectorFactory.javaStringObjectInspector, options)});
+        }
+        final boolean dense = options != null && options.contains("-dense");
+
+        final Map<String, Float> weights = new HashMap<String, Float>();
+        udtf.setCollector(new Collector() {
+            public void collect(Object input) throws HiveException {
+                Object[] row = (Object[]) input;
+                if (dense) {
+                    Assert.assertTrue(row[1] instanceof Integer);
+                }
+                String key = row[0] + "/" + row[1];
+                Assert.assertNull(key, weights.put(key, ((FloatWritable) row[2]).get()));
+            }
+        });
+
+        for (Object[] row : rows) {
+            udtf.process(new Object[] {row[0], row[1]});
+        }
+        udtf.close();
+        return weights;
+    }
+
+}
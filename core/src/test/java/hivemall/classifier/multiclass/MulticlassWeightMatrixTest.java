@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.classifier.multiclass;
+
+import hivemall.model.FeatureValue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.hadoop.io.Text;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MulticlassWeightMatrixTest {
+
+    @Test
+    public void testLabelsAndRows() {
+        MulticlassWeightMatrix model = new MulticlassWeightMatrix(true, 4);
+        Assert.assertTrue(model.isEmpty());
+        Assert.assertEquals(-1, model.getLabelIndex("a"));
+        Assert.assertEquals(0, model.addLabel("a"));
+        Assert.assertEquals(1, model.addLabel("b"));
+        Assert.assertEquals(0, model.addLabel("a"));
+        Assert.assertEquals(2, model.numLabels());
+        Assert.assertEquals("b", model.getLabel(1));
+
+        Assert.assertEquals(-1, model.getRow("f1"));
+        int row = model.addRow("f1");
+        Assert.assertEquals(row, model.getRow("f1"));
+        Assert.assertEquals(row, model.addRow("f1"));
+        Assert.assertEquals("f1", model.getFeature(row));
+
+        // defaults of missing entries
+        Assert.assertEquals(0.f, model.getWeight(row, 1), 0.f);
+        Assert.assertEquals(1.f, model.getCovariance(row, 1), 0.f);
+        Assert.assertFalse(model.isTouched(row, 1));
+
+        model.set(row, 1, 0.5f, 0.25f);
+        Assert.assertEquals(0.5f, model.getWeight(row, 1), 0.f);
+        Assert.assertEquals(0.25f, model.getCovariance(row, 1), 0.f);
+        Assert.assertTrue(model.isTouched(row, 1));
+        Assert.assertFalse(model.isTouched(row, 0));
+        Assert.assertEquals(1.f, model.getCovariance(row, 0), 0.f);
+
+        // labels added after the row was allocated
+        for (int i = 0; i < 100; i++) {
+            model.addLabel("label" + i);
+        }
+        Assert.assertEquals(0.f, model.getWeight(row, 101), 0.f);
+        Assert.assertEquals(1.f, model.getCovariance(row, 101), 0.f);
+        model.set(row, 101, 2.f, 0.5f);
+        Assert.assertTrue(model.isTouched(row, 101));
+        Assert.assertEquals(0.5f, model.getWeight(row, 1), 0.f);
+        Assert.assertEquals(1.f, model.getCovariance(row, 50), 0.f);
+
+        model.load(row, 50, 3.f, 0.75f);
+        Assert.assertEquals(3.f, model.getWeight(row, 50), 0.f);
+        Assert.assertFalse(model.isTouched(row, 50));
+    }
+
+    @Test
+    public void testIntFeature() {
+        MulticlassWeightMatrix model = new MulticlassWeightMatrix(false, true, 4);
+        int label = model.addLabel("a");
+        int row = model.addRow(new Text("1"));
+        Assert.assertEquals(row, model.addRow(Integer.valueOf(1)));
+        Assert.assertEquals(row, model.getRow("1"));
+        Assert.assertEquals(Integer.valueOf(1), model.getFeature(row));
+        model.set(row, label, 2.f);
+
+        float[] scores = new float[1];
+        model.scores(new FeatureValue[] {new FeatureValue(new Text("1"), 0.5f)}, scores);
+        Assert.assertEquals(1.f, scores[0], 0.f);
+    }
+
+    @Test
+    public void testScoresAndVariances() {
+        final Random rnd = new Random(43L);
+        final int numLabels = 150, numFeatures = 300;
+
+        MulticlassWeightMatrix model = new MulticlassWeightMatrix(true, 16);
+        // reference implementation of a model for each label
+        final Map<String, float[]>[] expected = newModels(numLabels);
+        for (int i = 0; i < 5000; i++) {
+            int label = model.addLabel(Integer.valueOf(rnd.nextInt(numLabels)));
+            Object labelObj = model.getLabel(label);
+            String feature = "f" + rnd.nextInt(numFeatures);
+            int row = model.addRow(feature);
+            float w = rnd.nextFloat() - 0.5f, cov = rnd.nextFloat();
+            model.set(row, label, w, cov);
+            expected[((Integer) labelObj).intValue()].put(feature, new float[] {w, cov});
+        }
+
+        final float[] scores = new float[model.numLabels()];
+        final float[] variances = new float[model.numLabels()];
+        for (int n = 0; n < 20; n++) {
+            FeatureValue[] x = new FeatureValue[10];
+            for (int i = 0; i < x.length; i++) {
+                if (i == 3) {
+                    continue; // null feature
+                }
+                // include unknown features
+                x[i] = new FeatureValue("f" + rnd.nextInt(numFeatures + 20), rnd.nextFloat());
+            }
+            model.scoresAndVariances(x, scores, variances);
+            final float[] scores2 = new float[model.numLabels()];
+            model.scores(x, scores2);
+
+            for (int j = 0; j < model.numLabels(); j++) {
+                Map<String, float[]> m = expected[((Integer) model.getLabel(j)).intValue()];
+                float score = 0.f, variance = 0.f;
+                for (FeatureValue f : x) {
+                    if (f == null) {
+                        continue;
+                    }
+                    float v = f.getValueAsFloat();
+                    float[] e = m.get(f.getFeature());
+                    if (e == null) {
+                        variance += 1.f * v * v;
+                    } else {
+                        score += e[0] * v;
+                        variance += e[1] * v * v;
+                    }
+                }
+                Assert.assertEquals(score, scores[j], 1E-5f);
+                Assert.assertEquals(score, scores2[j], 1E-5f);
+                Assert.assertEquals(variance, variances[j], 1E-5f);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, float[]>[] newModels(final int numLabels) {
+        final Map<String, float[]>[] models = new Map[numLabels];
+        for (int i = 0; i < numLabels; i++) {
+            models[i] = new HashMap<String, float[]>();
+        }
+        return models;
+    }
+
+}
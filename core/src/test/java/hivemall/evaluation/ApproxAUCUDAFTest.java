@@ -0,0 +1,175 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.evaluation;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import javax.annotation.Nonnull;
+
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.AggregationBuffer;
+import org.apache.hadoop.hive.ql.udf.generic.SimpleGenericUDAFParameterInfo;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ApproxAUCUDAFTest {
+
+    @Test
+    public void testExactWithDistinctBins() throws Exception {
+        // every score falls into its own bin, so the result is exact
+        final double[] scores = new double[] {0.8, 0.7, 0.5, 0.3, 0.2};
+        final int[] labels = new int[] {1, 1, 0, 1, 0};
+
+        Assert.assertEquals(5.d / 6.d, evaluate(scores, labels, "-bins 10"), 1E-15d);
+        Assert.assertEquals(0.d, evaluate(scores, labels, "-bins 10 -error"), 0.d);
+    }
+
+    @Test
+    public void testTies() throws Exception {
+        final double[] scores = new double[] {0.5, 0.5};
+        final int[] labels = new int[] {1, 0};
+
+        Assert.assertEquals(0.5d, evaluate(scores, labels, "-bins 10"), 0.d);
+        Assert.assertEquals(0.5d, evaluate(scores, labels, "-bins 10 -error"), 0.d);
+    }
+
+    @Test
+    public void testRocWithinErrorBound() throws Exception {
+        final Random rnd = new Random(43L);
+        final int n = 5000;
+        final double[] scores = new double[n];
+        final int[] labels = new int[n];
+        for (int i = 0; i < n; i++) {
+            labels[i] = rnd.nextInt(2);
+            double score = rnd.nextGaussian() * 0.2d + 0.4d + 0.2d * labels[i];
+            scores[i] = Math.min(1.d, Math.max(0.d, score));
+        }
+
+        double exact = 0.d;
+        long numPos = 0L, numNeg = 0L;
+        for (int i = 0; i < n; i++) {
+            if (labels[i] == 1) {
+                numPos++;
+                for (int j = 0; j < n; j++) {
+                    if (labels[j] == 0) {
+                        if (scores[i] > scores[j]) {
+                            exact += 1.d;
+                        } else if (scores[i] == scores[j]) {
+                            exact += 0.5d;
+                        }
+                    }
+                }
+            } else {
+                numNeg++;
+            }
+        }
+        exact /= (double) numPos * numNeg;
+
+        double approx = evaluate(scores, labels, "-bins 100");
+        double bound = evaluate(scores, labels, "-bins 100 -error");
+        Assert.assertTrue(bound > 0.d && bound < 0.01d);
+        Assert.assertEquals(exact, approx, bound);
+    }
+
+    @Test
+    public void testPrWithinErrorBound() throws Exception {
+        final Random rnd = new Random(31L);
+        final int n = 5000;
+        final double[] scores = new double[n];
+        final int[] labels = new int[n];
+        for (int i = 0; i < n; i++) {
+            labels[i] = (rnd.nextDouble() < 0.2d) ? 1 : 0;
+            double score = rnd.nextGaussian() * 0.2d + 0.4d + 0.2d * labels[i];
+            scores[i] = Math.min(1.d, Math.max(0.d, score));
+        }
+
+        // average precision over distinct scores
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return Double.compare(scores[o2], scores[o1]);
+            }
+        });
+        double exact = 0.d;
+        long tp = 0L;
+        for (int r = 0; r < n; r++) {
+            if (labels[order[r]] == 1) {
+                tp++;
+                exact += (double) tp / (r + 1);
+            }
+        }
+        exact /= tp;
+
+        double approx = evaluate(scores, labels, "-bins 1000 -pr");
+        double bound = evaluate(scores, labels, "-bins 1000 -pr -error");
+        Assert.assertTrue(bound > 0.d && bound < 0.05d);
+        Assert.assertEquals(exact, approx, bound);
+    }
+
+    private static double evaluate(@Nonnull final double[] scores, @Nonnull final int[] labels,
+            @Nonnull final String options) throws Exception {
+        ObjectInspector[] inputOIs = new ObjectInspector[] {
+                PrimitiveObjectInspectorFactory.javaDoubleObjectInspector,
+                PrimitiveObjectInspectorFactory.javaIntObjectInspector,
+                ObjectInspectorUtils.getConstantObjectInspector(
+                    PrimitiveObjectInspectorFactory.javaStringObjectInspector, options)};
+
+        ApproxAUCUDAF udaf = new ApproxAUCUDAF();
+        // two mappers
+        GenericUDAFEvaluator map1 =
+                udaf.getEvaluator(new SimpleGenericUDAFParameterInfo(inputOIs, false, false));
+        GenericUDAFEvaluator map2 =
+                udaf.getEvaluator(new SimpleGenericUDAFParameterInfo(inputOIs, false, false));
+        ObjectInspector partialOI = map1.init(GenericUDAFEvaluator.Mode.PARTIAL1, inputOIs);
+        map2.init(GenericUDAFEvaluator.Mode.PARTIAL1, inputOIs);
+        AggregationBuffer buf1 = map1.getNewAggregationBuffer();
+        AggregationBuffer buf2 = map2.getNewAggregationBuffer();
+        for (int i = 0; i < scores.length; i++) {
+            if (i % 2 == 0) {
+                map1.iterate(buf1, new Object[] {scores[i], labels[i], options});
+            } else {
+                map2.iterate(buf2, new Object[] {scores[i], labels[i], options});
+            }
+        }
+        Object partial1 = map1.terminatePartial(buf1);
+        Object partial2 = map2.terminatePartial(buf2);
+
+        // one reducer
+        GenericUDAFEvaluator reducer =
+                udaf.getEvaluator(new SimpleGenericUDAFParameterInfo(inputOIs, false, false));
+        reducer.init(GenericUDAFEvaluator.Mode.FINAL, new ObjectInspector[] {partialOI});
+        AggregationBuffer buf = reducer.getNewAggregationBuffer();
+        reducer.merge(buf, partial1);
+        reducer.merge(buf, partial2);
+        DoubleWritable result = (DoubleWritable) reducer.terminate(buf);
+        Assert.assertNotNull(result);
+        return result.get();
+    }
+
+}
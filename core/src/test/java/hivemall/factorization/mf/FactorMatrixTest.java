@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.factorization.mf;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FactorMatrixTest {
+
+    @Test
+    public void testRowsAcrossChunks() {
+        final int dims = 3;
+        // 2 rows per chunk
+        FactorMatrix matrix = new FactorMatrix(dims, false, 16, 7);
+
+        for (int id = 100; id < 110; id++) {
+            Assert.assertEquals(-1, matrix.getRow(id));
+            int row = matrix.addRow(id);
+            Assert.assertEquals(id - 100, row);
+            for (int k = 0; k < dims; k++) {
+                Assert.assertEquals(0.f, matrix.get(row, k), 0.f);
+                matrix.set(row, k, id * 10 + k);
+            }
+        }
+        Assert.assertEquals(10, matrix.size());
+        Assert.assertFalse(matrix.hasSumOfSquaredGradients());
+
+        float[] probe = new float[dims];
+        for (int id = 100; id < 110; id++) {
+            int row = matrix.getRow(id);
+            matrix.copyTo(row, probe);
+            Assert.assertArrayEquals(new float[] {id * 10, id * 10 + 1, id * 10 + 2}, probe, 0.f);
+        }
+    }
+
+    @Test
+    public void testSumOfSquaredGradients() {
+        FactorMatrix matrix = new FactorMatrix(1, true, 16, 4);
+        for (int id = 0; id < 10; id++) {
+            int row = matrix.addRow(id);
+            matrix.set(row, 0, id);
+            matrix.setSumOfSquaredGradients(row, 0, id * 0.5d);
+        }
+        for (int id = 0; id < 10; id++) {
+            int row = matrix.getRow(id);
+            Assert.assertEquals(id, matrix.get(row, 0), 0.f);
+            Assert.assertEquals(id * 0.5d, matrix.getSumOfSquaredGradients(row, 0), 0.d);
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testNoSumOfSquaredGradients() {
+        FactorMatrix matrix = new FactorMatrix(2, false, 16);
+        int row = matrix.addRow(1);
+        matrix.getSumOfSquaredGradients(row, 0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testDuplicateRow() {
+        FactorMatrix matrix = new FactorMatrix(2, false, 16);
+        matrix.addRow(1);
+        matrix.addRow(1);
+    }
+
+}
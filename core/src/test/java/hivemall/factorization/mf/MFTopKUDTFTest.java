@@ -0,0 +1,150 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.factorization.mf;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.Collector;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.IntWritable;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MFTopKUDTFTest {
+
+    @Test
+    public void testTopK() throws HiveException, IOException {
+        final int factors = 4, numItems = 50, numUsers = 10, k = 5;
+        final float mu = 3.f;
+        final Random rnd = new Random(43L);
+
+        final float[][] Qi = new float[numItems][factors];
+        final float[] Bi = new float[numItems];
+        File file = File.createTempFile("mf_topk", ".tsv");
+        file.deleteOnExit();
+        PrintWriter writer = new PrintWriter(file, "UTF-8");
+        for (int i = 0; i < numItems; i++) {
+            StringBuilder buf = new StringBuilder();
+            for (int f = 0; f < factors; f++) {
+                Qi[i][f] = rnd.nextFloat();
+                if (f != 0) {
+                    buf.append(',');
+                }
+                buf.append(Qi[i][f]);
+            }
+            Bi[i] = rnd.nextFloat() - 0.5f;
+            writer.println((100 + i) + "\t" + buf + '\t' + Bi[i]);
+        }
+        writer.println("999\t\\N\t\\N"); // index only used for a user
+        writer.close();
+
+        MFTopKUDTF udtf = new MFTopKUDTF();
+        udtf.initialize(new ObjectInspector[] {
+                ObjectInspectorUtils.getConstantObjectInspector(
+                    PrimitiveObjectInspectorFactory.javaStringObjectInspector,
+                    file.getAbsolutePath()),
+                PrimitiveObjectInspectorFactory.javaIntObjectInspector,
+                ObjectInspectorFactory.getStandardListObjectInspector(
+                    PrimitiveObjectInspectorFactory.javaFloatObjectInspector),
+                PrimitiveObjectInspectorFactory.javaFloatObjectInspector,
+                ObjectInspectorUtils.getConstantObjectInspector(
+                    PrimitiveObjectInspectorFactory.javaStringObjectInspector,
+                    "-k " + k + " -mu " + mu + " -user_block 3 -item_block 7")});
+
+        final List<Object[]> results = new ArrayList<Object[]>();
+        udtf.setCollector(new Collector() {
+            @Override
+            public void collect(Object input) throws HiveException {
+                Object[] row = (Object[]) input;
+                results.add(new Object[] {((IntWritable) row[0]).get(),
+                        ((IntWritable) row[1]).get(), ((IntWritable) row[2]).get(),
+                        ((DoubleWritable) row[3]).get()});
+            }
+        });
+
+        final float[][] Pu = new float[numUsers][factors];
+        final float[] Bu = new float[numUsers];
+        for (int u = 0; u < numUsers; u++) {
+            List<Float> pu = new ArrayList<Float>();
+            for (int f = 0; f < factors; f++) {
+                Pu[u][f] = rnd.nextFloat() - 0.5f;
+                pu.add(Pu[u][f]);
+            }
+            Bu[u] = rnd.nextFloat();
+            udtf.process(new Object[] {null, u, pu, Bu[u], null});
+        }
+        udtf.close();
+
+        Assert.assertEquals(numUsers * k, results.size());
+        for (int u = 0; u < numUsers; u++) {
+            final double[] scores = new double[numItems];
+            List<Integer> items = new ArrayList<Integer>();
+            for (int i = 0; i < numItems; i++) {
+                double score = mu + Bu[u] + Bi[i];
+                for (int f = 0; f < factors; f++) {
+                    score += Pu[u][f] * Qi[i][f];
+                }
+                scores[i] = score;
+                items.add(i);
+            }
+            Collections.sort(items, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer o1, Integer o2) {
+                    return Double.compare(scores[o2], scores[o1]);
+                }
+            });
+
+            for (int r = 0; r < k; r++) {
+                Object[] row = results.get(u * k + r);
+                int expectedItem = items.get(r).intValue();
+                Assert.assertEquals(Arrays.toString(row), u, row[0]);
+                Assert.assertEquals(Arrays.toString(row), r + 1, row[1]);
+                Assert.assertEquals(Arrays.toString(row), 100 + expectedItem, row[2]);
+                Assert.assertEquals(scores[expectedItem], ((Double) row[3]).doubleValue(), 1E-5d);
+            }
+        }
+    }
+
+    @Test(expected = HiveException.class)
+    public void testMissingFile() throws HiveException {
+        MFTopKUDTF udtf = new MFTopKUDTF();
+        udtf.initialize(new ObjectInspector[] {
+                ObjectInspectorUtils.getConstantObjectInspector(
+                    PrimitiveObjectInspectorFactory.javaStringObjectInspector,
+                    "/path/to/non_existing_file"),
+                PrimitiveObjectInspectorFactory.javaIntObjectInspector,
+                ObjectInspectorFactory.getStandardListObjectInspector(
+                    PrimitiveObjectInspectorFactory.javaFloatObjectInspector)});
+        udtf.process(new Object[] {null, 1, Arrays.asList(1.f, 2.f)});
+    }
+
+}
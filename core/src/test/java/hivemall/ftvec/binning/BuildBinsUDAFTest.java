@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.ftvec.binning;
+
+import hivemall.utils.lang.ArrayUtils;
+import hivemall.utils.math.MathUtils;
+
+import java.util.List;
+import java.util.Random;
+
+import javax.annotation.Nonnull;
+
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.AggregationBuffer;
+import org.apache.hadoop.hive.ql.udf.generic.SimpleGenericUDAFParameterInfo;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.BooleanWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BuildBinsUDAFTest {
+
+    @Test
+    public void testBinBoundaries() throws Exception {
+        final int n = 100000;
+        final int[] perm = ArrayUtils.shuffle(MathUtils.permutation(n), new Random(43L));
+        final double[] values = new double[n];
+        for (int i = 0; i < n; i++) {
+            values[i] = perm[i] + 1;
+        }
+
+        List<DoubleWritable> bins = evaluate(values, 4, false);
+        Assert.assertEquals(5, bins.size());
+        Assert.assertEquals(Double.NEGATIVE_INFINITY, bins.get(0).get(), 0.d);
+        Assert.assertEquals(0.25d * n, bins.get(1).get(), 0.01d * n);
+        Assert.assertEquals(0.5d * n, bins.get(2).get(), 0.01d * n);
+        Assert.assertEquals(0.75d * n, bins.get(3).get(), 0.01d * n);
+        Assert.assertEquals(Double.POSITIVE_INFINITY, bins.get(4).get(), 0.d);
+
+        // compactions are seeded, so build_bins is deterministic
+        Assert.assertEquals(bins, evaluate(values, 4, false));
+    }
+
+    @Test
+    public void testAutoShrink() throws Exception {
+        final double[] values = new double[1000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (i < 900) ? 0.d : i;
+        }
+
+        // all the quantiles are zero
+        List<DoubleWritable> bins = evaluate(values, 4, true);
+        Assert.assertEquals(3, bins.size());
+        Assert.assertEquals(Double.NEGATIVE_INFINITY, bins.get(0).get(), 0.d);
+        Assert.assertEquals(0.d, bins.get(1).get(), 0.d);
+        Assert.assertEquals(Double.POSITIVE_INFINITY, bins.get(2).get(), 0.d);
+    }
+
+    @Test(expected = HiveException.class)
+    public void testRepeatedQuantiles() throws Exception {
+        final double[] values = new double[1000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (i < 900) ? 0.d : i;
+        }
+        evaluate(values, 4, false);
+    }
+
+    /**
+     * Feeds the values to two mappers and merges their partials in a reducer.
+     */
+    @SuppressWarnings("unchecked")
+    @Nonnull
+    private static List<DoubleWritable> evaluate(@Nonnull final double[] values, final int nBins,
+            final boolean autoShrink) throws Exception {
+        final ObjectInspector[] inputOIs = new ObjectInspector[] {
+                PrimitiveObjectInspectorFactory.javaDoubleObjectInspector,
+                PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+                    TypeInfoFactory.intTypeInfo, new IntWritable(nBins)),
+                PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+                    TypeInfoFactory.booleanTypeInfo, new BooleanWritable(autoShrink))};
+
+        BuildBinsUDAF udaf = new BuildBinsUDAF();
+        GenericUDAFEvaluator map1 =
+                udaf.getEvaluator(new SimpleGenericUDAFParameterInfo(inputOIs, false, false));
+        GenericUDAFEvaluator map2 =
+                udaf.getEvaluator(new SimpleGenericUDAFParameterInfo(inputOIs, false, false));
+        ObjectInspector partialOI = map1.init(GenericUDAFEvaluator.Mode.PARTIAL1, inputOIs);
+        map2.init(GenericUDAFEvaluator.Mode.PARTIAL1, inputOIs);
+        AggregationBuffer buf1 = map1.getNewAggregationBuffer();
+        AggregationBuffer buf2 = map2.getNewAggregationBuffer();
+        for (int i = 0; i < values.length; i++) {
+            Object[] parameters = new Object[] {values[i], nBins, autoShrink};
+            if (i % 2 == 0) {
+                map1.iterate(buf1, parameters);
+            } else {
+                map2.iterate(buf2, parameters);
+            }
+        }
+        Object partial1 = map1.terminatePartial(buf1);
+        Object partial2 = map2.terminatePartial(buf2);
+
+        GenericUDAFEvaluator reducer =
+                udaf.getEvaluator(new SimpleGenericUDAFParameterInfo(inputOIs, false, false));
+        reducer.init(GenericUDAFEvaluator.Mode.FINAL, new ObjectInspector[] {partialOI});
+        AggregationBuffer buf = reducer.getNewAggregationBuffer();
+        reducer.merge(buf, partial1);
+        reducer.merge(buf, partial2);
+        Object result = reducer.terminate(buf);
+        Assert.assertNotNull(result);
+        return (List<DoubleWritable>) result;
+    }
+
+}
@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.knn.ann;
+
+import hivemall.knn.ann.HNSWIndex.Metric;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HNSWIndexTest {
+
+    private static final int DIMS = 500;
+    private static final int NNZ = 20;
+
+    @Test
+    public void testNormalize() {
+        int[] idx = new int[] {5, -3, 5, 2};
+        float[] val = new float[] {1.f, 2.f, 3.f, 4.f};
+        int len = HNSWIndex.normalize(idx, val, idx.length);
+        Assert.assertEquals(3, len);
+        Assert.assertArrayEquals(new int[] {-3, 2, 5}, Arrays.copyOf(idx, len));
+        Assert.assertArrayEquals(new float[] {2.f, 4.f, 4.f}, Arrays.copyOf(val, len), 0.f);
+    }
+
+    @Test
+    public void testCosineRecall() {
+        testRecall(Metric.cosine);
+    }
+
+    @Test
+    public void testEuclidRecall() {
+        testRecall(Metric.euclid);
+    }
+
+    private static void testRecall(final Metric metric) {
+        final Random rnd = new Random(43L);
+        final int n = 3000, k = 10, numQueries = 50;
+
+        HNSWIndex.Builder builder = new HNSWIndex.Builder(metric, 16, 100, 31L);
+        final int[][] indices = new int[n][];
+        final float[][] values = new float[n][];
+        for (int i = 0; i < n; i++) {
+            int[] idx = new int[NNZ];
+            float[] val = new float[NNZ];
+            int len = randomVector(rnd, idx, val);
+            indices[i] = Arrays.copyOf(idx, len);
+            values[i] = Arrays.copyOf(val, len);
+            builder.add(i, idx, val, len);
+        }
+
+        // go through the serialized forms of partial aggregates and of the index
+        byte[] vectors = builder.serializeVectors();
+        HNSWIndex.Builder merged = new HNSWIndex.Builder(metric, 16, 100, 31L);
+        merged.addVectors(vectors, vectors.length);
+        Assert.assertEquals(n, merged.size());
+        byte[] bytes = merged.build().serialize();
+        HNSWIndex index = HNSWIndex.deserialize(bytes, bytes.length);
+        Assert.assertEquals(n, index.size());
+        Assert.assertEquals(metric, index.getMetric());
+        Assert.assertEquals(index.getUid(), HNSWIndex.peekUid(bytes, bytes.length));
+
+        final long[] neighbors = new long[k];
+        final double[] distances = new double[k];
+        int hits = 0;
+        for (int q = 0; q < numQueries; q++) {
+            int[] idx = new int[NNZ];
+            float[] val = new float[NNZ];
+            int len = randomVector(rnd, idx, val);
+            idx[0] = DIMS + 1; // unknown to the index
+            len = HNSWIndex.normalize(idx, val, len);
+
+            final double[] exact = new double[n];
+            Integer[] order = new Integer[n];
+            for (int i = 0; i < n; i++) {
+                exact[i] = distance(metric, idx, val, len, indices[i], values[i]);
+                order[i] = i;
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer o1, Integer o2) {
+                    return Double.compare(exact[o1], exact[o2]);
+                }
+            });
+            Set<Long> truth = new HashSet<Long>();
+            for (int i = 0; i < k; i++) {
+                truth.add(Long.valueOf(order[i]));
+            }
+
+            int found = index.search(idx, val, len, k, 64, neighbors, distances);
+            Assert.assertEquals(k, found);
+            for (int i = 0; i < found; i++) {
+                if (i > 0) {
+                    Assert.assertTrue(distances[i - 1] <= distances[i]);
+                }
+                Assert.assertEquals(exact[(int) neighbors[i]], distances[i], 1E-5d);
+                if (truth.contains(neighbors[i])) {
+                    hits++;
+                }
+            }
+        }
+        double recall = (double) hits / (numQueries * k);
+        Assert.assertTrue("recall: " + recall, recall >= 0.95d);
+    }
+
+    private static int randomVector(final Random rnd, final int[] idx, final float[] val) {
+        // clustered so that neighbors share features
+        final int cluster = rnd.nextInt(10);
+        for (int j = 0; j < NNZ; j++) {
+            idx[j] = (cluster * 50 + rnd.nextInt(100)) % DIMS;
+            val[j] = rnd.nextFloat();
+        }
+        return HNSWIndex.normalize(idx, val, NNZ);
+    }
+
+    private static double distance(Metric metric, int[] idx1, float[] val1, int len1, int[] idx2,
+            float[] val2) {
+        double dot = 0.d, sq1 = 0.d, sq2 = 0.d;
+        for (int i = 0; i < len1; i++) {
+            sq1 += val1[i] * val1[i];
+            int j = Arrays.binarySearch(idx2, idx1[i]);
+            if (j >= 0) {
+                dot += val1[i] * val2[j];
+            }
+        }
+        for (float v : val2) {
+            sq2 += v * v;
+        }
+        if (metric == Metric.cosine) {
+            return 1.d - dot / Math.sqrt(sq1 * sq2);
+        } else {
+            return Math.sqrt(Math.max(0.d, sq1 + sq2 - 2.d * dot));
+        }
+    }
+
+}
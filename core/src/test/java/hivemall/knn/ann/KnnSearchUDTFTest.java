@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.knn.ann;
+
+import hivemall.knn.similarity.CosineSimilarityUDF;
+import hivemall.utils.lang.PrivilegedAccessor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.Collector;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.AggregationBuffer;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class KnnSearchUDTFTest {
+
+    private static final List<List<String>> DOCS = Arrays.asList(
+        Arrays.asList("apple:1.0", "orange:2.0", "banana:1.0", "kuwi:0"),
+        Arrays.asList("apple:1.0", "orange:0", "banana:2.0", "kuwi:1.0"),
+        Arrays.asList("apple:2.0", "orange:0", "banana:2.0", "kuwi:1.0"),
+        Arrays.asList("lemon:1.0", "grape:1.0"));
+
+    @Test
+    public void testIndexAndSearch() throws HiveException {
+        final BytesWritable index = buildIndex("-distance cosine -seed 43");
+
+        KnnSearchUDTF udtf = new KnnSearchUDTF();
+        udtf.initialize(new ObjectInspector[] {
+                PrimitiveObjectInspectorFactory.writableBinaryObjectInspector,
+                PrimitiveObjectInspectorFactory.javaIntObjectInspector,
+                ObjectInspectorFactory.getStandardListObjectInspector(
+                    PrimitiveObjectInspectorFactory.javaStringObjectInspector),
+                ObjectInspectorUtils.getConstantObjectInspector(
+                    PrimitiveObjectInspectorFactory.javaStringObjectInspector, "-k 2")});
+
+        final List<Object[]> results = new ArrayList<Object[]>();
+        udtf.setCollector(new Collector() {
+            @Override
+            public void collect(Object input) throws HiveException {
+                Object[] row = (Object[]) input;
+                results.add(new Object[] {row[0], ((IntWritable) row[1]).get(),
+                        ((LongWritable) row[2]).get(), ((DoubleWritable) row[3]).get()});
+            }
+        });
+
+        // doc 1 is the closest to itself, then doc 3 (cf. cosine_similarity)
+        udtf.process(new Object[] {index, 1, DOCS.get(0)});
+        udtf.close();
+
+        Assert.assertEquals(2, results.size());
+        Assert.assertEquals(1, results.get(0)[0]);
+        Assert.assertEquals(1, results.get(0)[1]);
+        Assert.assertEquals(1L, results.get(0)[2]);
+        Assert.assertEquals(0.d, (Double) results.get(0)[3], 1E-6d);
+        Assert.assertEquals(2, results.get(1)[1]);
+        Assert.assertEquals(3L, results.get(1)[2]);
+        Assert.assertEquals(
+            1.d - CosineSimilarityUDF.cosineSimilarity(DOCS.get(0), DOCS.get(2)),
+            (Double) results.get(1)[3], 1E-5d);
+    }
+
+    @Test
+    public void testEfOption() throws Exception {
+        Assert.assertEquals(64, getEf("-k 2"));
+        Assert.assertEquals(100, getEf("-k 100"));
+        // a smaller ef than the default is honored as long as it is no less than k
+        Assert.assertEquals(16, getEf("-k 2 -ef 16"));
+        Assert.assertEquals(32, getEf("-k 32 -ef 16"));
+    }
+
+    private static int getEf(String options) throws Exception {
+        KnnSearchUDTF udtf = new KnnSearchUDTF();
+        udtf.processOptions(new ObjectInspector[] {
+                PrimitiveObjectInspectorFactory.writableBinaryObjectInspector,
+                PrimitiveObjectInspectorFactory.javaIntObjectInspector,
+                ObjectInspectorFactory.getStandardListObjectInspector(
+                    PrimitiveObjectInspectorFactory.javaStringObjectInspector),
+                ObjectInspectorUtils.getConstantObjectInspector(
+                    PrimitiveObjectInspectorFactory.javaStringObjectInspector, options)});
+        return ((Integer) PrivilegedAccessor.getValue(udtf, "ef")).intValue();
+    }
+
+    private static BytesWritable buildIndex(String options) throws HiveException {
+        TypeInfo[] typeInfos = new TypeInfo[] {TypeInfoFactory.intTypeInfo,
+                TypeInfoFactory.getListTypeInfo(TypeInfoFactory.stringTypeInfo),
+                TypeInfoFactory.stringTypeInfo};
+        ObjectInspector[] inputOIs = new ObjectInspector[] {
+                PrimitiveObjectInspectorFactory.javaIntObjectInspector,
+                ObjectInspectorFactory.getStandardListObjectInspector(
+                    PrimitiveObjectInspectorFactory.javaStringObjectInspector),
+                ObjectInspectorUtils.getConstantObjectInspector(
+                    PrimitiveObjectInspectorFactory.javaStringObjectInspector, options)};
+
+        KnnIndexUDAF udaf = new KnnIndexUDAF();
+        // two mappers
+        GenericUDAFEvaluator map1 = udaf.getEvaluator(typeInfos);
+        GenericUDAFEvaluator map2 = udaf.getEvaluator(typeInfos);
+        ObjectInspector partialOI = map1.init(GenericUDAFEvaluator.Mode.PARTIAL1, inputOIs);
+        map2.init(GenericUDAFEvaluator.Mode.PARTIAL1, inputOIs);
+        AggregationBuffer buf1 = map1.getNewAggregationBuffer();
+        AggregationBuffer buf2 = map2.getNewAggregationBuffer();
+        for (int i = 0; i < DOCS.size(); i++) {
+            GenericUDAFEvaluator mapper = (i % 2 == 0) ? map1 : map2;
+            AggregationBuffer buf = (i % 2 == 0) ? buf1 : buf2;
+            mapper.iterate(buf, new Object[] {i + 1, DOCS.get(i), options});
+        }
+        Object partial1 = map1.terminatePartial(buf1);
+        Object partial2 = map2.terminatePartial(buf2);
+
+        // one reducer
+        GenericUDAFEvaluator reducer = udaf.getEvaluator(typeInfos);
+        reducer.init(GenericUDAFEvaluator.Mode.FINAL, new ObjectInspector[] {partialOI});
+        AggregationBuffer buf = reducer.getNewAggregationBuffer();
+        reducer.merge(buf, partial1);
+        reducer.merge(buf, partial2);
+        BytesWritable index = (BytesWritable) reducer.terminate(buf);
+        Assert.assertNotNull(index);
+        return index;
+    }
+
+}
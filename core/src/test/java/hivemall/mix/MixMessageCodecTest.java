@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.mix;
+
+import hivemall.mix.MixMessage.MixEventName;
+import hivemall.utils.lang.StringUtils;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MixMessageCodecTest {
+
+    @Test
+    public void testMessage() {
+        EmbeddedChannel client = new EmbeddedChannel(new MixMessageEncoder());
+        EmbeddedChannel server = new EmbeddedChannel(new MixMessageDecoder());
+
+        MixMessage msg = new MixMessage(MixEventName.argminKLD, new Text("f1"), 1.5f, 0.5f,
+            (short) 3, 7);
+        msg.setGroupID("group1");
+        Assert.assertTrue(client.writeOutbound(msg));
+        transfer(client, server);
+
+        MixMessage decoded = (MixMessage) server.readInbound();
+        assertEquals(msg, decoded);
+        Assert.assertEquals("group1", decoded.getGroupID());
+    }
+
+    @Test
+    public void testBatch() {
+        EmbeddedChannel client = new EmbeddedChannel(new MixMessageEncoder());
+        EmbeddedChannel server = new EmbeddedChannel(new MixMessageDecoder());
+
+        Object[] features = new Object[] {Integer.valueOf(-1), new Text("f2"), "f3",
+                new IntWritable(4), new LongWritable(Long.MAX_VALUE)};
+        MixMessageBatch batch = new MixMessageBatch("group1", features.length);
+        for (int i = 0; i < features.length; i++) {
+            batch.add(new MixMessage(MixEventName.average, features[i], i, 0.f, (short) i,
+                i + 1, i % 2 == 0));
+        }
+        Assert.assertTrue(batch.isFull());
+        Assert.assertTrue(client.writeOutbound(batch));
+        transfer(client, server);
+
+        MixMessageBatch decoded = (MixMessageBatch) server.readInbound();
+        Assert.assertEquals("group1", decoded.getGroupID());
+        Assert.assertEquals(features.length, decoded.size());
+        for (int i = 0; i < features.length; i++) {
+            assertEquals(batch.get(i), decoded.get(i));
+        }
+    }
+
+    @Test
+    public void testGroupIDSentOnce() {
+        EmbeddedChannel client = new EmbeddedChannel(new MixMessageEncoder());
+        EmbeddedChannel server = new EmbeddedChannel(new MixMessageDecoder());
+
+        MixMessageBatch batch1 = new MixMessageBatch("a_long_long_group_id", 1);
+        batch1.add(new MixMessage(MixEventName.average, Integer.valueOf(1), 1.f, (short) 1, 1));
+        MixMessageBatch batch2 = new MixMessageBatch("a_long_long_group_id", 1);
+        batch2.add(new MixMessage(MixEventName.average, Integer.valueOf(2), 2.f, (short) 1, 1));
+        client.writeOutbound(batch1, batch2);
+
+        ByteBuf frame1 = (ByteBuf) client.readOutbound();
+        ByteBuf frame2 = (ByteBuf) client.readOutbound();
+        // the group ID is omitted in the 2nd frame
+        Assert.assertEquals(StringUtils.getBytes("a_long_long_group_id").length,
+            frame1.readableBytes() - frame2.readableBytes());
+        server.writeInbound(frame1, frame2);
+
+        Assert.assertEquals("a_long_long_group_id",
+            ((MixMessageBatch) server.readInbound()).getGroupID());
+        MixMessageBatch decoded = (MixMessageBatch) server.readInbound();
+        Assert.assertEquals("a_long_long_group_id", decoded.getGroupID());
+        Assert.assertEquals(Integer.valueOf(2), decoded.get(0).getFeature());
+    }
+
+    @Test
+    public void testLargeBatch() {
+        EmbeddedChannel client = new EmbeddedChannel(new MixMessageEncoder());
+        EmbeddedChannel server = new EmbeddedChannel(new MixMessageDecoder());
+
+        final int size = 100000;
+        final StringBuilder buf = new StringBuilder();
+        for (int i = 0; i < 30; i++) {
+            buf.append('x');
+        }
+        final String prefix = buf.toString();
+        MixMessageBatch batch = new MixMessageBatch("group1", size);
+        for (int i = 0; i < size; i++) {
+            batch.add(new MixMessage(MixEventName.average, prefix + i, i, (short) 0, 1));
+        }
+        client.writeOutbound(batch);
+        transfer(client, server);
+
+        int i = 0;
+        int frames = 0;
+        for (MixMessageBatch decoded; (decoded = server.readInbound()) != null; frames++) {
+            Assert.assertEquals("group1", decoded.getGroupID());
+            for (int j = 0; j < decoded.size(); j++, i++) {
+                Assert.assertEquals(prefix + i, decoded.get(j).getFeature());
+            }
+        }
+        Assert.assertEquals(size, i);
+        Assert.assertTrue("frames: " + frames, frames > 1);
+    }
+
+    private static void transfer(EmbeddedChannel src, EmbeddedChannel dst) {
+        for (Object out; (out = src.readOutbound()) != null;) {
+            dst.writeInbound(out);
+        }
+    }
+
+    private static void assertEquals(MixMessage expected, MixMessage actual) {
+        Assert.assertEquals(expected.getEvent(), actual.getEvent());
+        Assert.assertEquals(expected.getFeature(), actual.getFeature());
+        Assert.assertEquals(expected.getWeight(), actual.getWeight(), 0.f);
+        Assert.assertEquals(expected.getCovariance(), actual.getCovariance(), 0.f);
+        Assert.assertEquals(expected.getClock(), actual.getClock());
+        Assert.assertEquals(expected.getDeltaUpdates(), actual.getDeltaUpdates());
+        Assert.assertEquals(expected.isCancelRequest(), actual.isCancelRequest());
+    }
+
+}
@@ -21,6 +21,7 @@ package hivemall.model;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 
+import org.apache.hadoop.io.Text;
 import org.junit.Test;
 
 public class FeatureValueTest {
@@ -59,4 +60,30 @@ public class FeatureValueTest {
         FeatureValue.parse("ad_url:xxxxx");
     }
 
+    @Test
+    public void testParseText() {
+        String[] features = {"ad_url|891572", "891572", "ad_url:0.5", "日本語:-1.5e-3"};
+        for (String f : features) {
+            FeatureValue expected = FeatureValue.parse(f, false);
+            FeatureValue actual = FeatureValue.parse(new Text(f), false);
+            assertEquals(expected.getFeature(), actual.getFeature());
+            assertEquals(expected.getValue(), actual.getValue(), 0.d);
+
+            expected = FeatureValue.parse(f, true);
+            actual = FeatureValue.parse(new Text(f), true);
+            assertEquals(expected.getFeature(), actual.getFeature());
+            assertEquals(expected.getValue(), actual.getValue(), 0.d);
+
+            expected = FeatureValue.parseFeatureAsString(f);
+            actual = FeatureValue.parseFeatureAsString(new Text(f));
+            assertEquals(expected.getFeature(), actual.getFeature());
+            assertEquals(expected.getValue(), actual.getValue(), 0.d);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseTextExpectingIllegalArgumentException() {
+        FeatureValue.parse(new Text("ad_url:xxxxx"));
+    }
+
 }
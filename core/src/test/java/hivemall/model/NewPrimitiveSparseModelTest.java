@@ -0,0 +1,165 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import hivemall.mix.MixedWeight;
+import hivemall.model.WeightValue.WeightValueWithCovar;
+import hivemall.utils.collections.IMapIterator;
+
+import java.util.Random;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Test;
+
+public class NewPrimitiveSparseModelTest {
+
+    @Test
+    public void testIntFeatures() {
+        final NewPrimitiveSparseModel model1 = new NewPrimitiveSparseModel(16, true);
+        final NewSparseModel model2 = new NewSparseModel(16);
+
+        final Random rand = new Random(43L);
+        for (int t = 0; t < 100000; t++) {
+            Integer i = Integer.valueOf(rand.nextInt(1 << 16));
+            if (rand.nextInt(10) == 0) {
+                model1.delete(i);
+                model2.delete(i);
+            } else {
+                float f = rand.nextFloat();
+                model1.setWeight(i, f);
+                model2.setWeight(i, f);
+            }
+        }
+
+        assertEquals(model2.size(), model1.size());
+
+        int numEntries = 0;
+        final WeightValue probe = new WeightValue();
+        final IMapIterator<Object, IWeightValue> itor = model1.entries();
+        while (itor.next() != -1) {
+            Object k = itor.getKey();
+            assertTrue(k instanceof Integer);
+            assertTrue(model2.contains(k));
+            itor.getValue(probe);
+            assertTrue(probe.isTouched());
+            assertEquals(model2.getWeight(k), probe.get(), 0.f);
+            numEntries++;
+        }
+        assertEquals(model2.size(), numEntries);
+    }
+
+    @Test
+    public void testLongFeaturesWithCovar() {
+        final NewPrimitiveSparseModel model = new NewPrimitiveSparseModel(16, true, false);
+
+        final long f1 = Long.MAX_VALUE;
+        final long f2 = -1L;
+        model.set(f1, new WeightValueWithCovar(0.5f, 0.3f));
+        model.setWeight(f2, 2.f);
+
+        assertEquals(2, model.size());
+        assertEquals(0.5f, model.getWeight(f1), 0.f);
+        assertEquals(0.3f, model.getCovariance(f1), 0.f);
+        assertEquals(2.f, model.getWeight(f2), 0.f);
+        assertEquals(1.f, model.getCovariance(f2), 0.f);
+        assertEquals(0.f, model.getWeight(3L), 0.f);
+        assertEquals(1.f, model.getCovariance(3L), 0.f);
+
+        IWeightValue w = model.get(f1);
+        assertEquals(0.5f, w.get(), 0.f);
+        assertEquals(0.3f, w.getCovariance(), 0.f);
+
+        model.delete(f1);
+        assertFalse(model.contains(f1));
+        assertEquals(1, model.size());
+
+        IMapIterator<Object, IWeightValue> itor = model.entries();
+        assertTrue(itor.next() != -1);
+        assertEquals(Long.valueOf(f2), itor.getKey());
+        assertEquals(-1, itor.next());
+    }
+
+    @Test
+    public void testClock() {
+        final NewPrimitiveSparseModel model = new NewPrimitiveSparseModel(16, false, true);
+        model.configureClock();
+        assertTrue(model.hasClock());
+
+        model.set(1, new WeightValue(1.f));
+        model.set(1, new WeightValue(2.f));
+        model.set(1, new WeightValue(3.f));
+        assertEquals(3.f, model.getWeight(1), 0.f);
+
+        // reset by a mixed weight
+        model.set(1, 4.f, 1.f, (short) 10);
+        assertEquals(4.f, model.getWeight(1), 0.f);
+        assertEquals(1L, model.getNumMixed());
+    }
+
+    @Test
+    public void testClockSameAsNewSparseModel() {
+        final NewPrimitiveSparseModel model1 = new NewPrimitiveSparseModel(16, false, true);
+        model1.configureClock();
+        final ClockRecorder recorder = new ClockRecorder();
+        model1.configureMix(recorder, false);
+        final NewSparseModel model2 = new NewSparseModel(16);
+        model2.configureClock();
+
+        // {feature, touched}: an untouched value is not notified to the handler, so it is
+        // checked through the clock of the next touched update
+        final int[][] sequence = {{1, 1}, {1, 1}, {2, 0}, {2, 1}, {1, 0}, {1, 1}, {3, 1},
+                {2, 1}, {3, 0}, {3, 1}};
+        for (int[] step : sequence) {
+            Integer f = Integer.valueOf(step[0]);
+            WeightValue value = new WeightValue(step[0] * 0.5f, step[1] == 1);
+            model1.set(f, value);
+            model2.set(f, value);
+            if (!value.isTouched()) {
+                continue;
+            }
+
+            IWeightValue expected = model2.get(f);
+            assertEquals(expected.getClock(), recorder.clock);
+            assertEquals(expected.getDeltaUpdates(), recorder.deltaUpdates);
+        }
+    }
+
+    private static final class ClockRecorder implements ModelUpdateHandler {
+
+        short clock;
+        int deltaUpdates;
+
+        @Override
+        public boolean onUpdate(@Nonnull Object feature, float weight, float covar, short clock,
+                int deltaUpdates) {
+            this.clock = clock;
+            this.deltaUpdates = deltaUpdates;
+            return false;
+        }
+
+        @Override
+        public void sendCancelRequest(@Nonnull Object feature, @Nonnull MixedWeight mixed) {}
+
+    }
+
+}
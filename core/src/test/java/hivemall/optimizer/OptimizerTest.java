@@ -18,6 +18,7 @@
  */
 package hivemall.optimizer;
 
+import hivemall.model.IWeightValue;
 import hivemall.optimizer.Optimizer.OptimizerBase;
 
 import java.util.HashMap;
@@ -153,6 +154,72 @@ public final class OptimizerTest {
         }
     }
 
+    @Test
+    public void testSparseOptimizerState() {
+        final String[] optimizers = new String[] {"Momentum", "Nesterov", "AdaGrad", "RMSprop",
+                "RMSpropGraves", "AdaDelta", "Adam", "Nadam", "Eve", "AdamHD"};
+        for (final String optimizer : optimizers) {
+            final Map<String, String> options = new HashMap<String, String>();
+            options.put("optimizer", optimizer);
+            assertSameUpdates(options);
+        }
+        final Map<String, String> options = new HashMap<String, String>();
+        options.put("optimizer", "AdaGrad");
+        options.put("regularization", "RDA");
+        assertSameUpdates(options);
+    }
+
+    @Test
+    public void testSparseOptimizerStateRemove() {
+        final Map<String, String> options = new HashMap<String, String>();
+        options.put("optimizer", "AdaGrad");
+        final OptimizerBase optimizer =
+                (OptimizerBase) SparseOptimizerFactory.create(16, options);
+        final SparseOptimizerState state = new SparseOptimizerState(optimizer, 4);
+
+        for (int i = 0; i < 100; i++) {
+            IWeightValue auxWeight = state.load(Integer.valueOf(i), 1.f);
+            Assert.assertEquals(0.f, auxWeight.getSumOfSquaredGradients(), 0.f);
+            auxWeight.setSumOfSquaredGradients(i + 1.f);
+            state.store(auxWeight);
+            state.remove(Integer.valueOf(i));
+        }
+        // the freed row is reused
+        Assert.assertEquals(1, state.getNumRows());
+
+        IWeightValue auxWeight = state.load(Long.valueOf(1000L), 1.f);
+        auxWeight.setSumOfSquaredGradients(3.f);
+        state.store(auxWeight);
+        Assert.assertEquals(0.f,
+            state.load(Integer.valueOf(1), 1.f).getSumOfSquaredGradients(), 0.f);
+        Assert.assertEquals(3.f,
+            state.load(Long.valueOf(1000L), 1.f).getSumOfSquaredGradients(), 0.f);
+        Assert.assertEquals(2, state.getNumRows());
+    }
+
+    private static void assertSameUpdates(final Map<String, String> options) {
+        final int dims = 100;
+        // primitive keys are stored in columns while string keys are stored in a map
+        final Optimizer intOptimizer =
+                SparseOptimizerFactory.create(16, new HashMap<String, String>(options));
+        final Optimizer strOptimizer =
+                SparseOptimizerFactory.create(16, new HashMap<String, String>(options));
+        final float[] intWeights = new float[dims];
+        final float[] strWeights = new float[dims];
+        final Random rnd = new Random(43L);
+        for (int i = 0; i < 10000; i++) {
+            int index = rnd.nextInt(dims);
+            float gradient = rnd.nextFloat() - 0.5f;
+            intOptimizer.proceedStep();
+            strOptimizer.proceedStep();
+            intWeights[index] = intOptimizer.update(Integer.valueOf(index), intWeights[index],
+                0.f, gradient);
+            strWeights[index] = strOptimizer.update(String.valueOf(index), strWeights[index],
+                0.f, gradient);
+        }
+        Assert.assertArrayEquals(strWeights, intWeights, 0.f);
+    }
+
     @Test
     public void testSGDOptimizer() {
         final Map<String, String> options = new HashMap<String, String>();
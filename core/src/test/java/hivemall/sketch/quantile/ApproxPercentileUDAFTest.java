@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.sketch.quantile;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.AggregationBuffer;
+import org.apache.hadoop.hive.ql.udf.generic.SimpleGenericUDAFParameterInfo;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ApproxPercentileUDAFTest {
+
+    @Test
+    public void testSinglePercentile() throws Exception {
+        ObjectInspector[] inputOIs = new ObjectInspector[] {
+                PrimitiveObjectInspectorFactory.javaIntObjectInspector,
+                PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+                    TypeInfoFactory.doubleTypeInfo, new DoubleWritable(0.5d))};
+
+        // few enough to be retained without compaction
+        Object result = evaluate(inputOIs, 100);
+        Assert.assertEquals(50.d, ((DoubleWritable) result).get(), 0.d);
+    }
+
+    @Test
+    public void testMultiplePercentiles() throws Exception {
+        ObjectInspector[] inputOIs = new ObjectInspector[] {
+                PrimitiveObjectInspectorFactory.javaIntObjectInspector,
+                ObjectInspectorFactory.getStandardConstantListObjectInspector(
+                    PrimitiveObjectInspectorFactory.writableDoubleObjectInspector,
+                    Arrays.asList(new DoubleWritable(0.d), new DoubleWritable(0.25d),
+                        new DoubleWritable(0.75d), new DoubleWritable(1.d))),
+                ObjectInspectorUtils.getConstantObjectInspector(
+                    PrimitiveObjectInspectorFactory.javaStringObjectInspector, "-k 64")};
+
+        final int n = 100000;
+        @SuppressWarnings("unchecked")
+        List<DoubleWritable> result = (List<DoubleWritable>) evaluate(inputOIs, n);
+        Assert.assertEquals(4, result.size());
+        Assert.assertEquals(1.d, result.get(0).get(), 0.d);
+        Assert.assertEquals(0.25d * n, result.get(1).get(), 0.05d * n);
+        Assert.assertEquals(0.75d * n, result.get(2).get(), 0.05d * n);
+        Assert.assertEquals(n, result.get(3).get(), 0.d);
+    }
+
+    /**
+     * Feeds 1..n to two mappers and merges their partials in a reducer.
+     */
+    private static Object evaluate(@Nonnull final ObjectInspector[] inputOIs, final int n)
+            throws Exception {
+        ApproxPercentileUDAF udaf = new ApproxPercentileUDAF();
+        GenericUDAFEvaluator map1 =
+                udaf.getEvaluator(new SimpleGenericUDAFParameterInfo(inputOIs, false, false));
+        GenericUDAFEvaluator map2 =
+                udaf.getEvaluator(new SimpleGenericUDAFParameterInfo(inputOIs, false, false));
+        ObjectInspector partialOI = map1.init(GenericUDAFEvaluator.Mode.PARTIAL1, inputOIs);
+        map2.init(GenericUDAFEvaluator.Mode.PARTIAL1, inputOIs);
+        AggregationBuffer buf1 = map1.getNewAggregationBuffer();
+        AggregationBuffer buf2 = map2.getNewAggregationBuffer();
+        for (int i = 1; i <= n; i++) {
+            if (i % 2 == 0) {
+                map1.iterate(buf1, new Object[] {i, null, null});
+            } else {
+                map2.iterate(buf2, new Object[] {i, null, null});
+            }
+        }
+        Object partial1 = map1.terminatePartial(buf1);
+        Object partial2 = map2.terminatePartial(buf2);
+
+        GenericUDAFEvaluator reducer =
+                udaf.getEvaluator(new SimpleGenericUDAFParameterInfo(inputOIs, false, false));
+        reducer.init(GenericUDAFEvaluator.Mode.FINAL, new ObjectInspector[] {partialOI});
+        AggregationBuffer buf = reducer.getNewAggregationBuffer();
+        reducer.merge(buf, partial1);
+        reducer.merge(buf, partial2);
+        Object result = reducer.terminate(buf);
+        Assert.assertNotNull(result);
+        return result;
+    }
+
+}
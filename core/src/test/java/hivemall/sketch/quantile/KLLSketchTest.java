@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.sketch.quantile;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class KLLSketchTest {
+
+    @Test
+    public void testExactWhileSmall() {
+        KLLSketch sketch = new KLLSketch(200, new Random(43L));
+        for (int i = 100; i >= 1; i--) {
+            sketch.update(i);
+        }
+        Assert.assertEquals(100L, sketch.getN());
+        Assert.assertEquals(100, sketch.getNumRetained());
+        Assert.assertEquals(1.d, sketch.getMin(), 0.d);
+        Assert.assertEquals(100.d, sketch.getMax(), 0.d);
+        Assert.assertEquals(1.d, sketch.quantile(0.d), 0.d);
+        Assert.assertEquals(25.d, sketch.quantile(0.25d), 0.d);
+        Assert.assertEquals(50.d, sketch.quantile(0.5d), 0.d);
+        Assert.assertEquals(100.d, sketch.quantile(1.d), 0.d);
+        Assert.assertEquals(0.1d, sketch.rank(11.d), 0.d);
+    }
+
+    @Test
+    public void testEmpty() {
+        KLLSketch sketch = new KLLSketch();
+        sketch.update(Double.NaN);
+        Assert.assertTrue(sketch.isEmpty());
+        Assert.assertTrue(Double.isNaN(sketch.quantile(0.5d)));
+
+        KLLSketch copy = KLLSketch.deserialize(sketch.serialize());
+        Assert.assertTrue(copy.isEmpty());
+    }
+
+    @Test
+    public void testMergedRankError() {
+        final Random rnd = new Random(43L);
+        final int parts = 8, perPart = 100000;
+        final double[] all = new double[parts * perPart];
+
+        KLLSketch merged = new KLLSketch(200, new Random(31L));
+        for (int p = 0; p < parts; p++) {
+            KLLSketch sketch = new KLLSketch(200, new Random(p));
+            for (int i = 0; i < perPart; i++) {
+                double v = rnd.nextGaussian() * (p + 1);
+                all[p * perPart + i] = v;
+                sketch.update(v);
+            }
+            // go through the serialized form as partial aggregates do
+            merged.merge(KLLSketch.deserialize(sketch.serialize()));
+        }
+        Assert.assertEquals(all.length, merged.getN());
+        Assert.assertTrue(merged.toString(), merged.getNumRetained() < 3 * 200);
+
+        Arrays.sort(all);
+        Assert.assertEquals(all[0], merged.getMin(), 0.d);
+        Assert.assertEquals(all[all.length - 1], merged.getMax(), 0.d);
+
+        final double[] phis = new double[99];
+        for (int i = 0; i < phis.length; i++) {
+            phis[i] = (i + 1) / 100.d;
+        }
+        final double[] values = merged.quantiles(phis);
+        for (int i = 0; i < phis.length; i++) {
+            int pos = Arrays.binarySearch(all, values[i]);
+            Assert.assertTrue(pos >= 0);
+            double rank = (double) pos / all.length;
+            Assert.assertEquals(phis[i], rank, 0.0165d);
+        }
+    }
+
+    @Test
+    public void testDeterministicOffsets() {
+        // equal-sized partials as evenly split inputs of mappers
+        final int parts = 8, perPart = 50000;
+        final double[] all = new double[parts * perPart];
+        final KLLSketch merged1 = mergeUniformPartials(parts, perPart, all);
+        final KLLSketch merged2 = mergeUniformPartials(parts, perPart, all);
+        Assert.assertArrayEquals(merged1.serialize(), merged2.serialize());
+
+        Arrays.sort(all);
+        for (int i = 1; i < 100; i++) {
+            double phi = i / 100.d;
+            int pos = Arrays.binarySearch(all, merged1.quantile(phi));
+            Assert.assertTrue(pos >= 0);
+            Assert.assertEquals(phi, (double) pos / all.length, 0.0165d);
+        }
+    }
+
+    private static KLLSketch mergeUniformPartials(final int parts, final int perPart,
+            final double[] all) {
+        final Random rnd = new Random(43L);
+        KLLSketch merged = null;
+        for (int p = 0; p < parts; p++) {
+            KLLSketch sketch = new KLLSketch(200);
+            for (int i = 0; i < perPart; i++) {
+                double v = rnd.nextDouble();
+                all[p * perPart + i] = v;
+                sketch.update(v);
+            }
+            KLLSketch partial = KLLSketch.deserialize(sketch.serialize());
+            if (merged == null) {
+                merged = partial;
+            } else {
+                merged.merge(partial);
+            }
+        }
+        return merged;
+    }
+
+    @Test
+    public void testSerialize() {
+        KLLSketch sketch = new KLLSketch(16, new Random(43L));
+        for (int i = 0; i < 1000; i++) {
+            sketch.update(i);
+        }
+        KLLSketch copy = KLLSketch.deserialize(sketch.serialize());
+        Assert.assertEquals(sketch.getK(), copy.getK());
+        Assert.assertEquals(sketch.getN(), copy.getN());
+        Assert.assertEquals(sketch.getNumRetained(), copy.getNumRetained());
+        Assert.assertEquals(sketch.getMin(), copy.getMin(), 0.d);
+        Assert.assertEquals(sketch.getMax(), copy.getMax(), 0.d);
+        for (int i = 0; i <= 10; i++) {
+            Assert.assertEquals(sketch.quantile(i / 10.d), copy.quantile(i / 10.d), 0.d);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIllegalSerializedForm() {
+        KLLSketch.deserialize(new byte[] {0, 0, 0, 8, 1});
+    }
+
+}
@@ -22,6 +22,8 @@ import matrix4j.matrix.Matrix;
 import matrix4j.matrix.builders.CSRMatrixBuilder;
 import matrix4j.matrix.dense.RowMajorDenseMatrix2d;
 import hivemall.smile.tools.TreeExportUDF.Evaluator;
+import hivemall.smile.utils.FeatureBins;
+import hivemall.smile.utils.SmileTaskExecutor;
 import hivemall.smile.tools.TreeExportUDF.OutputType;
 import hivemall.utils.codec.Base91;
 import hivemall.utils.random.RandomNumberGeneratorFactory;
@@ -30,6 +32,7 @@ import smile.validation.LOOCV;
 
 import java.io.IOException;
 import java.text.ParseException;
+import java.util.Random;
 
 import javax.annotation.Nonnull;
 
@@ -126,6 +129,79 @@ public class RegressionTreeTest {
         Assert.assertTrue("MSE = " + (rss / n), (rss / n) < 42);
     }
 
+    @Test
+    public void testHistogramDense() {
+        assertHistogramSameAsExact(true);
+    }
+
+    @Test
+    public void testHistogramSparse() {
+        assertHistogramSameAsExact(false);
+    }
+
+    private static void assertHistogramSameAsExact(final boolean dense) {
+        // bins are exact when the number of distinct values does not exceed the number of bins
+        final Random rnd = new Random(43L);
+        final int numRows = 1000, numCols = 5;
+        final double[][] x = new double[numRows][numCols];
+        final double[] y = new double[numRows];
+        final int[] samples = new int[numRows];
+        for (int i = 0; i < numRows; i++) {
+            for (int j = 0; j < numCols; j++) {
+                x[i][j] = rnd.nextInt(20) - 5;
+            }
+            y[i] = x[i][0] * x[i][0] - 3.d * x[i][2] + rnd.nextGaussian();
+            samples[rnd.nextInt(numRows)]++;
+        }
+        final Matrix matrix = matrix(x, dense);
+        final RoaringBitmap attrs = new RoaringBitmap();
+        final FeatureBins bins = FeatureBins.build(attrs, matrix, 32);
+
+        for (int maxLeafs : new int[] {16, Integer.MAX_VALUE}) {
+            RegressionTree exact = new RegressionTree(attrs, matrix, y, numCols, 6, maxLeafs, 5, 1,
+                samples, null, RandomNumberGeneratorFactory.createPRNG(31L), null, null, null);
+            RegressionTree hist = new RegressionTree(attrs, matrix, y, numCols, 6, maxLeafs, 5, 1,
+                samples, null, RandomNumberGeneratorFactory.createPRNG(31L), null, bins, null);
+            // thresholds may differ between values that are not sampled
+            for (int i = 0; i < numRows; i++) {
+                if (samples[i] != 0) {
+                    Assert.assertEquals(exact.predict(x[i]), hist.predict(x[i]), 1E-8d);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testParallelSplitFinding() {
+        final Random rnd = new Random(43L);
+        final int numRows = 20000, numCols = 8;
+        final double[][] x = new double[numRows][numCols];
+        final double[] y = new double[numRows];
+        for (int i = 0; i < numRows; i++) {
+            for (int j = 0; j < numCols; j++) {
+                x[i][j] = rnd.nextGaussian();
+            }
+            y[i] = x[i][0] * x[i][1] - 2.d * x[i][3] + rnd.nextGaussian();
+        }
+        final Matrix matrix = matrix(x, true);
+        final RoaringBitmap attrs = new RoaringBitmap();
+        final FeatureBins bins = FeatureBins.build(attrs, matrix, 64);
+
+        final SmileTaskExecutor executor = new SmileTaskExecutor(3);
+        try {
+            for (FeatureBins b : new FeatureBins[] {null, bins}) {
+                RegressionTree expected = new RegressionTree(attrs, matrix, y, 4, 8, 64, 5, 1,
+                    null, null, RandomNumberGeneratorFactory.createPRNG(31L), null, b, null);
+                RegressionTree actual = new RegressionTree(attrs, matrix, y, 4, 8, 64, 5, 1, null,
+                    null, RandomNumberGeneratorFactory.createPRNG(31L), null, b, executor);
+                Assert.assertEquals(expected.predictJsCodegen(new String[0]),
+                    actual.predictJsCodegen(new String[0]));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
     @Test
     public void testSerPredict() throws HiveException {
 
@@ -0,0 +1,204 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.smile.tools;
+
+import hivemall.smile.classification.DecisionTree;
+import hivemall.smile.classification.PredictionHandler;
+import hivemall.smile.regression.RegressionTree;
+import hivemall.utils.codec.Base91;
+import hivemall.utils.lang.ArrayUtils;
+import matrix4j.matrix.dense.RowMajorDenseMatrix2d;
+import matrix4j.vector.DenseVector;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDF.DeferredJavaObject;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDF.DeferredObject;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ForestPredictUDFTest {
+
+    @Test
+    public void testClassification() throws HiveException, IOException {
+        final Random rnd = new Random(43L);
+        final double[][] x = randomX(rnd, 300);
+        final int[] y = new int[x.length];
+        for (int i = 0; i < x.length; i++) {
+            y[i] = (x[i][0] + x[i][1] > 1.d) ? 2 : (x[i][2] > 0.5d ? 1 : 0);
+        }
+
+        final int numTrees = 5;
+        final DecisionTree.Node[] trees = new DecisionTree.Node[numTrees];
+        final List<Text> models = new ArrayList<Text>();
+        final List<Double> weights = new ArrayList<Double>();
+        for (int t = 0; t < numTrees; t++) {
+            final double[][] sampledX = new double[x.length][];
+            final int[] sampledY = new int[x.length];
+            for (int i = 0; i < x.length; i++) {
+                int j = rnd.nextInt(x.length);
+                sampledX[i] = x[j];
+                sampledY[i] = y[j];
+            }
+            DecisionTree tree =
+                    new DecisionTree(null, new RowMajorDenseMatrix2d(sampledX, 3), sampledY, 5);
+            byte[] b = tree.serialize(true);
+            trees[t] = DecisionTree.deserialize(b, b.length, true);
+            // mix the legacy and flat formats
+            byte[] model = (t % 2 == 0) ? b : tree.flatten().serialize();
+            models.add(new Text(Base91.encode(model)));
+            weights.add(Double.valueOf(t + 1));
+        }
+
+        ForestPredictUDF udf = new ForestPredictUDF();
+        udf.initialize(new ObjectInspector[] {
+                ObjectInspectorFactory.getStandardListObjectInspector(
+                    PrimitiveObjectInspectorFactory.writableStringObjectInspector),
+                ObjectInspectorFactory.getStandardListObjectInspector(
+                    PrimitiveObjectInspectorFactory.javaDoubleObjectInspector),
+                ObjectInspectorFactory.getStandardListObjectInspector(
+                    PrimitiveObjectInspectorFactory.javaDoubleObjectInspector),
+                ObjectInspectorUtils.getConstantObjectInspector(
+                    PrimitiveObjectInspectorFactory.javaStringObjectInspector,
+                    "-classification")});
+
+        ForestPredictUDF.Forest forest = null;
+        for (double[] row : randomX(rnd, 100)) {
+            // a new array of the same models for each row
+            Object[] result = (Object[]) udf.evaluate(new DeferredObject[] {
+                    new DeferredJavaObject(new ArrayList<Text>(models)),
+                    new DeferredJavaObject(weights),
+                    new DeferredJavaObject(ArrayUtils.toList(row))});
+            if (forest == null) {
+                forest = udf.getForest();
+            } else {
+                Assert.assertSame(forest, udf.getForest());
+            }
+
+            final double[] expected = new double[3];
+            for (int t = 0; t < numTrees; t++) {
+                final double w = t + 1;
+                trees[t].predict(new DenseVector(row), new PredictionHandler() {
+                    @Override
+                    public void visitLeaf(int output, double[] posteriori) {
+                        expected[output] += posteriori[output] * w;
+                    }
+                });
+            }
+            int label = smile.math.Math.whichMax(expected);
+            smile.math.Math.unitize1(expected);
+            Assert.assertEquals(label, ((IntWritable) result[0]).get());
+            Assert.assertEquals(expected[label], ((DoubleWritable) result[1]).get(), 1E-10d);
+            @SuppressWarnings("unchecked")
+            List<DoubleWritable> probabilities = (List<DoubleWritable>) result[2];
+            for (int k = 0; k < 3; k++) {
+                Assert.assertEquals(expected[k], probabilities.get(k).get(), 1E-10d);
+            }
+        }
+
+        // another forest
+        udf.evaluate(new DeferredObject[] {new DeferredJavaObject(models.subList(0, 2)),
+                new DeferredJavaObject(weights.subList(0, 2)),
+                new DeferredJavaObject(ArrayUtils.toList(x[0]))});
+        Assert.assertNotSame(forest, udf.getForest());
+        Assert.assertEquals(2, udf.getForest().trees.length);
+        udf.close();
+    }
+
+    @Test
+    public void testRegressionFromFile() throws HiveException, IOException {
+        final Random rnd = new Random(43L);
+        final double[][] x = randomX(rnd, 300);
+        final double[] y = new double[x.length];
+        for (int i = 0; i < x.length; i++) {
+            y[i] = x[i][0] * 2.d - x[i][1];
+        }
+
+        final int numTrees = 4;
+        final RegressionTree[] trees = new RegressionTree[numTrees];
+        File file = File.createTempFile("forest_predict", ".tsv");
+        file.deleteOnExit();
+        PrintWriter writer = new PrintWriter(file, "UTF-8");
+        for (int t = 0; t < numTrees; t++) {
+            trees[t] = new RegressionTree(null, new RowMajorDenseMatrix2d(x, 3), y, 5 + t * 5);
+            byte[] b = (t % 2 == 0) ? trees[t].serialize(true) : trees[t].flatten().serialize();
+            writer.println("model" + t + '\t' + new String(Base91.encode(b), "UTF-8"));
+        }
+        writer.close();
+
+        ForestPredictUDF udf = new ForestPredictUDF();
+        udf.initialize(new ObjectInspector[] {
+                ObjectInspectorUtils.getConstantObjectInspector(
+                    PrimitiveObjectInspectorFactory.javaStringObjectInspector,
+                    file.getAbsolutePath()),
+                ObjectInspectorFactory.getStandardListObjectInspector(
+                    PrimitiveObjectInspectorFactory.javaDoubleObjectInspector)});
+
+        for (double[] row : randomX(rnd, 100)) {
+            DoubleWritable result = (DoubleWritable) udf.evaluate(
+                new DeferredObject[] {new DeferredJavaObject(null),
+                        new DeferredJavaObject(ArrayUtils.toList(row))});
+            double expected = 0.d;
+            for (RegressionTree tree : trees) {
+                expected += tree.predict(row);
+            }
+            expected /= numTrees;
+            Assert.assertEquals(expected, result.get(), 1E-10d);
+        }
+        Assert.assertEquals(numTrees, udf.getForest().trees.length);
+        udf.close();
+    }
+
+    @Test(expected = HiveException.class)
+    public void testMissingFile() throws HiveException, IOException {
+        ForestPredictUDF udf = new ForestPredictUDF();
+        udf.initialize(new ObjectInspector[] {
+                ObjectInspectorUtils.getConstantObjectInspector(
+                    PrimitiveObjectInspectorFactory.javaStringObjectInspector,
+                    "/path/to/non_existing_file"),
+                ObjectInspectorFactory.getStandardListObjectInspector(
+                    PrimitiveObjectInspectorFactory.javaDoubleObjectInspector)});
+        udf.evaluate(new DeferredObject[] {new DeferredJavaObject(null),
+                new DeferredJavaObject(Arrays.asList(1.d, 2.d, 3.d))});
+        udf.close();
+    }
+
+    private static double[][] randomX(final Random rnd, final int rows) {
+        final double[][] x = new double[rows][];
+        for (int i = 0; i < rows; i++) {
+            x[i] = new double[] {rnd.nextDouble(), rnd.nextDouble(), rnd.nextDouble()};
+        }
+        return x;
+    }
+
+}
@@ -24,6 +24,7 @@ import hivemall.smile.classification.DecisionTree;
 import hivemall.smile.regression.RegressionTree;
 import hivemall.smile.utils.SmileExtUtils;
 import hivemall.utils.codec.Base91;
+import hivemall.utils.collections.maps.LRUCache;
 import hivemall.utils.lang.ArrayUtils;
 import smile.data.AttributeDataset;
 import smile.data.parser.ArffParser;
@@ -37,6 +38,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.text.ParseException;
+import java.util.Random;
 
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDF.DeferredJavaObject;
@@ -155,6 +157,96 @@ public class TreePredictUDFTest {
         }
     }
 
+    @Test
+    public void testModelCache() throws HiveException, IOException {
+        final Random rnd = new Random(43L);
+        final int numModels = 10;
+        final int numRows = 1000;
+        final double[][] x = new double[numRows][];
+        final double[] y = new double[numRows];
+        for (int i = 0; i < numRows; i++) {
+            x[i] = new double[] {rnd.nextDouble(), rnd.nextDouble(), rnd.nextDouble()};
+            y[i] = x[i][0] * 3.d - x[i][1] + rnd.nextGaussian() * 0.1d;
+        }
+
+        final RegressionTree[] trees = new RegressionTree[numModels];
+        final Text[] models = new Text[numModels];
+        for (int m = 0; m < numModels; m++) {
+            double[][] trainx = new double[numRows / 2][];
+            double[] trainy = new double[numRows / 2];
+            for (int i = 0; i < trainx.length; i++) {
+                int r = rnd.nextInt(numRows);
+                trainx[i] = x[r];
+                trainy[i] = y[r];
+            }
+            trees[m] = new RegressionTree(null, new RowMajorDenseMatrix2d(trainx, 3), trainy, 20);
+            models[m] = new Text(Base91.encode(trees[m].serialize(true)));
+        }
+
+        TreePredictUDF udf = new TreePredictUDF();
+        udf.initialize(
+            new ObjectInspector[] {PrimitiveObjectInspectorFactory.javaStringObjectInspector,
+                    PrimitiveObjectInspectorFactory.writableStringObjectInspector,
+                    ObjectInspectorFactory.getStandardListObjectInspector(
+                        PrimitiveObjectInspectorFactory.javaDoubleObjectInspector),
+                    ObjectInspectorUtils.getConstantObjectInspector(
+                        PrimitiveObjectInspectorFactory.javaStringObjectInspector,
+                        "-cache_size 1m")});
+
+        // rows are not clustered by model
+        for (int i = 0; i < numRows; i++) {
+            int m = i % numModels;
+            DeferredObject[] arguments = new DeferredObject[] {
+                    new DeferredJavaObject("model_id#" + m), new DeferredJavaObject(models[m]),
+                    new DeferredJavaObject(ArrayUtils.toList(x[i]))};
+            DoubleWritable result = (DoubleWritable) udf.evaluate(arguments);
+            Assert.assertEquals(trees[m].predict(x[i]), result.get(), 1E-10d);
+        }
+
+        LRUCache<String, ?> cache = udf.getModelCache();
+        Assert.assertNotNull(cache);
+        Assert.assertEquals(numModels, cache.size());
+        Assert.assertEquals(numModels, cache.getMisses());
+        Assert.assertEquals(numRows - numModels, cache.getHits());
+        udf.close();
+    }
+
+    @Test
+    public void testFlatTree() throws HiveException, IOException {
+        final Random rnd = new Random(43L);
+        final double[][] x = new double[500][];
+        final int[] y = new int[x.length];
+        for (int i = 0; i < x.length; i++) {
+            x[i] = new double[] {rnd.nextDouble(), rnd.nextDouble(), rnd.nextDouble()};
+            y[i] = (x[i][0] + x[i][1] > 1.d) ? 1 : 0;
+        }
+        DecisionTree tree = new DecisionTree(null, new RowMajorDenseMatrix2d(x, 3), y, 2);
+        Text legacyModel = new Text(Base91.encode(tree.serialize(true)));
+        Text flatModel = new Text(Base91.encode(tree.flatten().serialize()));
+
+        TreePredictUDF udf = new TreePredictUDF();
+        udf.initialize(
+            new ObjectInspector[] {PrimitiveObjectInspectorFactory.javaStringObjectInspector,
+                    PrimitiveObjectInspectorFactory.writableStringObjectInspector,
+                    ObjectInspectorFactory.getStandardListObjectInspector(
+                        PrimitiveObjectInspectorFactory.javaDoubleObjectInspector),
+                    ObjectInspectorUtils.getConstantObjectInspector(
+                        PrimitiveObjectInspectorFactory.javaBooleanObjectInspector, true)});
+        for (double[] row : x) {
+            Object[] legacy = (Object[]) udf.evaluate(new DeferredObject[] {
+                    new DeferredJavaObject("legacy"), new DeferredJavaObject(legacyModel),
+                    new DeferredJavaObject(ArrayUtils.toList(row))});
+            Assert.assertEquals(tree.predict(row), ((IntWritable) legacy[0]).get());
+            Object legacyPosteriori = legacy[1];
+            Object[] flat = (Object[]) udf.evaluate(new DeferredObject[] {
+                    new DeferredJavaObject("flat"), new DeferredJavaObject(flatModel),
+                    new DeferredJavaObject(ArrayUtils.toList(row))});
+            Assert.assertEquals(tree.predict(row), ((IntWritable) flat[0]).get());
+            Assert.assertEquals(legacyPosteriori, flat[1]);
+        }
+        udf.close();
+    }
+
     private static <T> double rmse(RegressionTree regression, double[][] x, double[] y) {
         final int n = x.length;
         final double[] predictions = new double[n];
@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.smile.utils;
+
+import hivemall.smile.utils.FeatureBins.Histogram;
+import matrix4j.matrix.Matrix;
+import matrix4j.matrix.builders.CSRMatrixBuilder;
+import matrix4j.matrix.dense.RowMajorDenseMatrix2d;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.roaringbitmap.RoaringBitmap;
+
+public class FeatureBinsTest {
+
+    @Test
+    public void testQuantiles() {
+        Assert.assertArrayEquals(new double[] {1.5d, 2.5d},
+            FeatureBins.quantiles(new double[] {1, 1, 2, 3, 3, 3}, 4), 0.d);
+        Assert.assertArrayEquals(new double[0], FeatureBins.quantiles(new double[] {5, 5}, 4),
+            0.d);
+
+        double[] sorted = new double[1000];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = i;
+        }
+        double[] cuts = FeatureBins.quantiles(sorted, 10);
+        Assert.assertEquals(9, cuts.length);
+        for (int b = 0; b < cuts.length; b++) {
+            Assert.assertEquals(100 * (b + 1) - 0.5d, cuts[b], 0.d);
+        }
+    }
+
+    @Test
+    public void testByteCodesDense() {
+        assertBins(true, 16);
+    }
+
+    @Test
+    public void testShortCodesSparse() {
+        assertBins(false, 1000);
+    }
+
+    private static void assertBins(final boolean dense, final int maxBins) {
+        final Random rnd = new Random(43L);
+        final int numRows = 2000, numCols = 4;
+        final double[][] data = new double[numRows][numCols];
+        final double[] y = new double[numRows];
+        final int[] samples = new int[numRows];
+        final int[] rows = new int[numRows];
+        for (int i = 0; i < numRows; i++) {
+            data[i][0] = rnd.nextGaussian();
+            data[i][1] = rnd.nextInt(3);
+            data[i][2] = rnd.nextBoolean() ? Double.NaN : rnd.nextDouble();
+            data[i][3] = rnd.nextInt(5);
+            y[i] = rnd.nextDouble();
+            samples[i] = rnd.nextInt(3);
+            rows[i] = i;
+        }
+        final Matrix x;
+        if (dense) {
+            x = new RowMajorDenseMatrix2d(data, numCols);
+        } else {
+            CSRMatrixBuilder builder = new CSRMatrixBuilder(1024);
+            for (int i = 0; i < numRows; i++) {
+                builder.nextRow(data[i]);
+            }
+            x = builder.buildMatrix();
+        }
+
+        final FeatureBins bins = FeatureBins.build(RoaringBitmap.bitmapOf(3), x, maxBins);
+        Assert.assertEquals(numRows, bins.numRows());
+        Assert.assertTrue(bins.isBinned(0));
+        Assert.assertFalse(bins.isBinned(3));
+        Assert.assertTrue(bins.numBins(0) <= maxBins + 1);
+        // zeros are not stored in a sparse matrix
+        Assert.assertEquals(dense ? (3 + 1) : (2 + 1), bins.numBins(1));
+
+        for (int j = 0; j < 3; j++) {
+            final int missing = bins.numBins(j) - 1;
+            for (int i = 0; i < numRows; i++) {
+                final double v = x.get(i, j, Double.NaN);
+                final int bin = bins.bin(i, j);
+                if (Double.isNaN(v)) {
+                    Assert.assertEquals(missing, bin);
+                    continue;
+                }
+                Assert.assertTrue(bin < missing);
+                // the split after bin b is consistent with the test x <= threshold(j, b)
+                for (int b = 0; b < missing - 1; b++) {
+                    Assert.assertEquals(bin <= b, v <= bins.threshold(j, b));
+                }
+            }
+
+            Histogram parent = bins.histogram(j, rows, 0, numRows, samples, y);
+            Histogram left = bins.histogram(j, rows, 0, numRows / 3, samples, y);
+            Histogram right = bins.histogram(j, rows, numRows / 3, numRows, samples, y);
+            Histogram derived = parent.subtract(left);
+            Assert.assertArrayEquals(right.count, derived.count);
+            Assert.assertArrayEquals(right.sum, derived.sum, 1E-8d);
+        }
+    }
+
+}
@@ -0,0 +1,133 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.smile.utils;
+
+import hivemall.smile.classification.DecisionTree;
+import hivemall.smile.classification.PredictionHandler;
+import hivemall.smile.regression.RegressionTree;
+import matrix4j.matrix.dense.RowMajorDenseMatrix2d;
+import matrix4j.vector.DenseVector;
+import matrix4j.vector.Vector;
+
+import java.util.Random;
+
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.junit.Assert;
+import org.junit.Test;
+import org.roaringbitmap.RoaringBitmap;
+
+public class FlatTreeTest {
+
+    @Test
+    public void testClassification() throws HiveException {
+        final Random rnd = new Random(43L);
+        final double[][] x = randomX(rnd, 500);
+        final int[] y = new int[x.length];
+        for (int i = 0; i < x.length; i++) {
+            y[i] = (x[i][0] + x[i][2] > 1.d) ? 2 : (x[i][1] > 0.5d ? 1 : 0);
+        }
+        RoaringBitmap attrs = RoaringBitmap.bitmapOf(2);
+        DecisionTree tree = new DecisionTree(attrs, new RowMajorDenseMatrix2d(x, 3), y, 2);
+
+        byte[] b = tree.serialize(true);
+        final DecisionTree.Node node = DecisionTree.deserialize(b, b.length, true);
+        final FlatTree flat = tree.flatten();
+        Assert.assertTrue(flat.isClassification());
+        Assert.assertTrue(flat.numBranches() > 0);
+        Assert.assertEquals(flat.numBranches() + 1, flat.numLeaves());
+
+        byte[] flatBytes = flat.serialize();
+        Assert.assertTrue(FlatTree.isFlatTree(flatBytes, flatBytes.length));
+        Assert.assertFalse(FlatTree.isFlatTree(b, b.length));
+        Assert.assertTrue(flatBytes.length < b.length);
+        final FlatTree deserialized = FlatTree.deserialize(flatBytes, flatBytes.length);
+
+        final double[][] testX = randomX(rnd, 200);
+        for (double[] row : testX) {
+            final Vector v = new DenseVector(row);
+            node.predict(v, new PredictionHandler() {
+                @Override
+                public void visitLeaf(int output, double[] posteriori) {
+                    for (FlatTree t : new FlatTree[] {flat, deserialized}) {
+                        int leaf = t.predictLeaf(v);
+                        Assert.assertEquals(output, t.getLabel(leaf));
+                        Assert.assertArrayEquals(posteriori, t.getPosteriori(leaf), 0.d);
+                    }
+                }
+            });
+        }
+    }
+
+    @Test
+    public void testRegression() throws HiveException {
+        final Random rnd = new Random(43L);
+        final double[][] x = randomX(rnd, 500);
+        final double[] y = new double[x.length];
+        for (int i = 0; i < x.length; i++) {
+            y[i] = x[i][0] * 2.d - x[i][1] + x[i][2];
+        }
+        RoaringBitmap attrs = RoaringBitmap.bitmapOf(2);
+        RegressionTree tree = new RegressionTree(attrs, new RowMajorDenseMatrix2d(x, 3), y, 50);
+
+        byte[] b = tree.serialize(true);
+        FlatTree flat = tree.flatten();
+        Assert.assertFalse(flat.isClassification());
+        byte[] flatBytes = flat.serialize();
+        Assert.assertTrue(flatBytes.length < b.length);
+        FlatTree deserialized = FlatTree.deserialize(flatBytes, flatBytes.length);
+
+        for (double[] row : randomX(rnd, 200)) {
+            Vector v = new DenseVector(row);
+            double expected = tree.predict(v);
+            Assert.assertEquals(expected, flat.predict(v), 0.d);
+            Assert.assertEquals(expected, deserialized.predict(v), 0.d);
+        }
+    }
+
+    @Test
+    public void testSingleLeaf() throws HiveException {
+        FlatTree.Builder builder = new FlatTree.Builder(false);
+        builder.addLeaf(3.d);
+        FlatTree flat = builder.build();
+        byte[] b = flat.serialize();
+        flat = FlatTree.deserialize(b, b.length);
+        Assert.assertEquals(0, flat.numBranches());
+        Assert.assertEquals(3.d, flat.predict(new DenseVector(new double[] {1.d})), 0.d);
+    }
+
+    @Test(expected = HiveException.class)
+    public void testLegacyDeserializerRejectsFlatTree() throws HiveException {
+        FlatTree.Builder builder = new FlatTree.Builder(false);
+        builder.addLeaf(3.d);
+        byte[] b = builder.build().serialize();
+        RegressionTree.deserialize(b, b.length, true);
+    }
+
+    /**
+     * @return rows of two quantitative features and a nominal feature
+     */
+    private static double[][] randomX(final Random rnd, final int rows) {
+        final double[][] x = new double[rows][];
+        for (int i = 0; i < rows; i++) {
+            x[i] = new double[] {rnd.nextDouble(), rnd.nextDouble(), rnd.nextInt(3)};
+        }
+        return x;
+    }
+
+}
@@ -18,9 +18,21 @@
  */
 package hivemall.smile.utils;
 
+import hivemall.utils.collections.arrays.SparseIntArray;
+import hivemall.utils.function.Consumer;
+import matrix4j.matrix.Matrix;
+import matrix4j.matrix.builders.CSRMatrixBuilder;
+import matrix4j.matrix.dense.RowMajorDenseMatrix2d;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.annotation.Nonnull;
+
 import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
 import org.junit.Assert;
 import org.junit.Test;
+import org.roaringbitmap.RoaringBitmap;
 
 public class SmileExtUtilsTest {
 
@@ -37,4 +49,75 @@ public class SmileExtUtilsTest {
         Assert.assertTrue(SmileExtUtils.resolveAttributes("Q,Q,3,Q").isEmpty());
     }
 
+    @Test
+    public void testSortPresortedDense() {
+        assertPresortedOrder(true);
+    }
+
+    @Test
+    public void testSortPresortedSparse() {
+        assertPresortedOrder(false);
+    }
+
+    private static void assertPresortedOrder(final boolean dense) {
+        final Random rnd = new Random(43L);
+        final int numRows = 500, numCols = 8;
+        final double[][] data = new double[numRows][numCols];
+        for (int i = 0; i < numRows; i++) {
+            for (int j = 0; j < numCols; j++) {
+                data[i][j] = (j % 2 == 0 || rnd.nextBoolean()) ? rnd.nextDouble() : 0.d;
+            }
+        }
+        final Matrix x;
+        if (dense) {
+            x = new RowMajorDenseMatrix2d(data, numCols);
+        } else {
+            CSRMatrixBuilder builder = new CSRMatrixBuilder(1024);
+            for (int i = 0; i < numRows; i++) {
+                builder.nextRow(data[i]);
+            }
+            x = builder.buildMatrix();
+        }
+        final RoaringBitmap nominalAttrs = RoaringBitmap.bitmapOf(1);
+
+        final VariableOrder presorted = SmileExtUtils.sort(nominalAttrs, x);
+        final int[][] expectedAll = toArrays(presorted, numCols);
+        for (int iter = 0; iter < 3; iter++) {
+            final int[] samples = new int[numRows];
+            for (int i = 0; i < numRows; i++) {
+                samples[rnd.nextInt(numRows)]++;
+            }
+            int[][] expected = toArrays(SmileExtUtils.sort(nominalAttrs, x, samples), numCols);
+            int[][] actual = toArrays(presorted.sample(samples), numCols);
+            for (int j = 0; j < numCols; j++) {
+                if (expected[j] == null) {
+                    Assert.assertNull(actual[j]);
+                    continue;
+                }
+                // rows of the same value may be ordered differently
+                Assert.assertEquals(expected[j].length, actual[j].length);
+                for (int k = 0; k < expected[j].length; k++) {
+                    Assert.assertEquals(data[expected[j][k]][j], data[actual[j][k]][j], 0.d);
+                }
+                Arrays.sort(expected[j]);
+                Arrays.sort(actual[j]);
+                Assert.assertArrayEquals("column " + j, expected[j], actual[j]);
+            }
+            // the shared order is not modified
+            Assert.assertArrayEquals(expectedAll, toArrays(presorted, numCols));
+        }
+    }
+
+    @Nonnull
+    private static int[][] toArrays(@Nonnull final VariableOrder order, final int numCols) {
+        final int[][] cols = new int[numCols][];
+        order.eachRow(new Consumer() {
+            @Override
+            public void accept(int j, SparseIntArray rowPtrs) {
+                cols[j] = Arrays.copyOf(rowPtrs.values(), rowPtrs.size());
+            }
+        });
+        return cols;
+    }
+
 }
@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.smile.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SmileTaskExecutorTest {
+
+    @Test
+    public void testNestedTasks() throws Exception {
+        final SmileTaskExecutor executor = new SmileTaskExecutor(2);
+        Assert.assertEquals(2, executor.getNumThreads());
+        try {
+            List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+            for (int i = 0; i < 4; i++) {
+                final int base = i * 10;
+                tasks.add(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        // nested tasks are run in this thread
+                        Assert.assertEquals(1, executor.getNumThreads());
+                        List<Callable<Integer>> nested = new ArrayList<Callable<Integer>>();
+                        for (int j = 0; j < 3; j++) {
+                            final int v = base + j;
+                            nested.add(new Callable<Integer>() {
+                                @Override
+                                public Integer call() {
+                                    return v;
+                                }
+                            });
+                        }
+                        int sum = 0;
+                        for (int v : executor.run(nested)) {
+                            sum += v;
+                        }
+                        return sum;
+                    }
+                });
+            }
+            List<Integer> results = executor.run(tasks);
+            Assert.assertEquals(4, results.size());
+            for (int i = 0; i < 4; i++) {
+                Assert.assertEquals(i * 30 + 3, results.get(i).intValue());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+}
@@ -115,6 +115,61 @@ public class OnlineLDAModelTest {
             model.getWordScore("avocados", k2) > model.getWordScore("healthy", k2));
     }
 
+    @Test
+    public void testLazyLambdaDecay() {
+        final int K = 2;
+        final float eta = 1.f / K;
+        final double tau0 = 64.d, kappa = 0.7d;
+        OnlineLDAModel model = new OnlineLDAModel(K, 1.f / K, eta, 2, tau0, kappa, 1E-5d);
+
+        model.train(new String[][] {{"apples:1", "oranges:2"}, {"apples:3", "flu:1"}});
+        final float[] before = new float[K];
+        for (int k = 0; k < K; k++) {
+            before[k] = model.getWordScore("apples", k);
+        }
+
+        // `apples` does not appear in the following mini-batches
+        double decay = 1.d;
+        for (int t = 1; t <= 3; t++) {
+            model.train(new String[][] {{"colds:1", "flu:2"}, {"oranges:1", "flu:1"}});
+            decay *= 1.d - Math.pow(tau0 + t, -kappa);
+        }
+
+        for (int k = 0; k < K; k++) {
+            float expected = (float) (eta + decay * (before[k] - eta));
+            Assert.assertEquals(expected, model.getWordScore("apples", k), 1E-4f);
+        }
+    }
+
+    @Test
+    public void testMultiThreadedEStep() {
+        final int K = 3;
+        OnlineLDAModel single = new OnlineLDAModel(K, 1.f / K, 1.f / K, 100, 64, 0.7, 1E-5d);
+        OnlineLDAModel multi = new OnlineLDAModel(K, 1.f / K, 1.f / K, 100, 64, 0.7, 1E-5d);
+        multi.setNumThreads(4);
+
+        String[][] miniBatch = new String[][] {{"fruits:1", "healthy:1", "vegetables:1"},
+                {"apples:1", "avocados:1", "colds:1", "flu:1", "like:2", "oranges:1"},
+                {"flu:3", "colds:2", "healthy:1"}, {"apples:2", "oranges:1", "like:1"},
+                {"vegetables:2", "avocados:1"}};
+        for (int i = 0; i < 5; i++) {
+            single.train(miniBatch);
+            multi.train(miniBatch);
+        }
+        Assert.assertEquals(single.computePerplexity(), multi.computePerplexity(), 0.f);
+
+        for (String[] doc : miniBatch) {
+            for (String wc : doc) {
+                String word = wc.substring(0, wc.indexOf(':'));
+                for (int k = 0; k < K; k++) {
+                    Assert.assertEquals(single.getWordScore(word, k),
+                        multi.getWordScore(word, k), 0.f);
+                }
+            }
+        }
+        multi.close();
+    }
+
     @Test
     public void testPerplexity() {
         int K = 2;
@@ -22,6 +22,7 @@ import hivemall.utils.io.FastByteArrayOutputStream;
 
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -77,4 +78,27 @@ public class ZigZagLEB128CodecTest {
         out.close();
     }
 
+    @Test
+    public void testByteBuffer() {
+        final ByteBuffer buf = ByteBuffer.allocate(1024);
+        final long[] longs = new long[] {0L, 1L, -1L, 127L, 128L, Long.MAX_VALUE, Long.MIN_VALUE};
+        final int[] ints = new int[] {0, 1, 127, 128, 16384, Integer.MAX_VALUE, -1};
+        for (long v : longs) {
+            ZigZagLEB128Codec.writeSignedLong(v, buf);
+            ZigZagLEB128Codec.writeUnsignedLong(v, buf);
+        }
+        for (int v : ints) {
+            ZigZagLEB128Codec.writeUnsignedInt(v, buf);
+        }
+        buf.flip();
+        for (long v : longs) {
+            Assert.assertEquals(v, ZigZagLEB128Codec.readSignedLong(buf));
+            Assert.assertEquals(v, ZigZagLEB128Codec.readUnsignedLong(buf));
+        }
+        for (int v : ints) {
+            Assert.assertEquals(v, ZigZagLEB128Codec.readUnsignedInt(buf));
+        }
+        Assert.assertFalse(buf.hasRemaining());
+    }
+
 }
@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.utils.collections.maps;
+
+import hivemall.utils.lang.FloatAccumulator;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Compares accumulating mini-batch gradients in a {@link FloatAccumulatorTable} with the
+ * <code>HashMap&lt;Object, FloatAccumulator&gt;</code> used before. Not a part of the unit tests;
+ * run {@link #main(String[])} explicitly.
+ */
+public final class FloatAccumulatorTableBenchmark {
+
+    private static final int NUM_FEATURES = 100;
+    private static final int NUM_BATCHES = 50;
+    private static final int NUM_TRIALS = 5;
+
+    private FloatAccumulatorTableBenchmark() {}
+
+    public static void main(String[] args) {
+        final int[] batchSizes = {1000, 2000, 5000, 10000};
+        for (int batchSize : batchSizes) {
+            final Integer[][] batches = generateBatches(batchSize);
+            // warm up
+            double expected = accumulateByMap(batches);
+            double actual = accumulateByTable(batches);
+            if (Math.abs(expected - actual) > 1E-5d * Math.abs(expected)) {
+                throw new IllegalStateException(
+                    "Accumulated values differ: " + expected + " and " + actual);
+            }
+
+            long elapsedTimeForMap = 0L, elapsedTimeForTable = 0L;
+            for (int trial = 0; trial < NUM_TRIALS; trial++) {
+                long startTime = System.nanoTime();
+                accumulateByMap(batches);
+                elapsedTimeForMap += System.nanoTime() - startTime;
+
+                startTime = System.nanoTime();
+                accumulateByTable(batches);
+                elapsedTimeForTable += System.nanoTime() - startTime;
+            }
+            System.out.println(String.format(
+                "mini_batch=%d: map %.2f ms, table %.2f ms per %d batches", batchSize,
+                elapsedTimeForMap / 1E6d / NUM_TRIALS, elapsedTimeForTable / 1E6d / NUM_TRIALS,
+                NUM_BATCHES));
+        }
+    }
+
+    @Nonnull
+    private static Integer[][] generateBatches(final int batchSize) {
+        final Integer[][] batches = new Integer[NUM_BATCHES][];
+        final Random rnd = new Random(43L);
+        for (int b = 0; b < NUM_BATCHES; b++) {
+            Integer[] features = new Integer[batchSize * NUM_FEATURES];
+            for (int i = 0; i < features.length; i++) {
+                features[i] = Integer.valueOf(rnd.nextInt(1 << 24));
+            }
+            batches[b] = features;
+        }
+        return batches;
+    }
+
+    private static double accumulateByMap(@Nonnull final Integer[][] batches) {
+        final Map<Object, FloatAccumulator> accumulated =
+                new HashMap<Object, FloatAccumulator>(1024);
+        double sum = 0.d;
+        for (Integer[] features : batches) {
+            for (Integer feature : features) {
+                FloatAccumulator acc = accumulated.get(feature);
+                if (acc == null) {
+                    acc = new FloatAccumulator(1.f);
+                    accumulated.put(feature, acc);
+                } else {
+                    acc.add(1.f);
+                }
+            }
+            for (Map.Entry<Object, FloatAccumulator> e : accumulated.entrySet()) {
+                sum += e.getValue().get();
+            }
+            accumulated.clear();
+        }
+        return sum;
+    }
+
+    private static double accumulateByTable(@Nonnull final Integer[][] batches) {
+        final FloatAccumulatorTable accumulated = new FloatAccumulatorTable(1024, true);
+        double sum = 0.d;
+        for (Integer[] features : batches) {
+            for (Integer feature : features) {
+                accumulated.add(feature, 1.f);
+            }
+            for (int i = 0, size = accumulated.size(); i < size; i++) {
+                sum += accumulated.get(i);
+            }
+            accumulated.clear();
+        }
+        return sum;
+    }
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.utils.collections.maps;
+
+import hivemall.utils.lang.FloatAccumulator;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FloatAccumulatorTableTest {
+
+    @Test
+    public void testPrimitiveKeys() {
+        assertSameAsMap(true, 1 << 16);
+    }
+
+    @Test
+    public void testObjectKeys() {
+        assertSameAsMap(false, 1 << 16);
+    }
+
+    private static void assertSameAsMap(final boolean primitiveKey, final int dims) {
+        final FloatAccumulatorTable table = new FloatAccumulatorTable(16, primitiveKey);
+        final Map<Object, FloatAccumulator> map = new HashMap<Object, FloatAccumulator>();
+
+        final Random rnd = new Random(43L);
+        for (int batch = 0; batch < 10; batch++) {
+            for (int i = 0; i < 100000; i++) {
+                int k = rnd.nextInt(dims);
+                Object key = primitiveKey ? Integer.valueOf(k) : Integer.toString(k);
+                float v = rnd.nextFloat();
+                table.add(key, v);
+                FloatAccumulator acc = map.get(key);
+                if (acc == null) {
+                    map.put(key, new FloatAccumulator(v));
+                } else {
+                    acc.add(v);
+                }
+            }
+
+            Assert.assertEquals(map.size(), table.size());
+            for (int i = 0; i < table.size(); i++) {
+                FloatAccumulator acc = map.get(table.getKey(i));
+                Assert.assertNotNull(acc);
+                Assert.assertEquals(acc.get(), table.get(i), 0.f);
+            }
+
+            table.clear();
+            map.clear();
+            Assert.assertTrue(table.isEmpty());
+        }
+    }
+
+    @Test
+    public void testLongKeys() {
+        final FloatAccumulatorTable table = new FloatAccumulatorTable(4, true);
+        table.add(Long.MAX_VALUE, 1.f);
+        table.add(Long.MIN_VALUE, 2.f);
+        table.add(Long.MAX_VALUE, 3.f);
+        table.add(-1L, 4.f);
+
+        Assert.assertEquals(3, table.size());
+        Assert.assertEquals(Long.MAX_VALUE, table.getKey(0));
+        Assert.assertEquals(2.f, table.get(0), 0.f);
+        Assert.assertEquals(Long.MIN_VALUE, table.getKey(1));
+        Assert.assertEquals(2.f, table.get(1), 0.f);
+        Assert.assertEquals(-1L, table.getKey(2));
+        Assert.assertEquals(4.f, table.get(2), 0.f);
+
+        table.clear();
+        table.add(-1L, 5.f);
+        Assert.assertEquals(1, table.size());
+        Assert.assertEquals(5.f, table.get(0), 0.f);
+    }
+
+}
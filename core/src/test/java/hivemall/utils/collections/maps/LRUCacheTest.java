@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.utils.collections.maps;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LRUCacheTest {
+
+    @Test
+    public void testEviction() {
+        LRUCache<String, Integer> cache = new LRUCache<String, Integer>(10L);
+        cache.put("a", 1, 4L);
+        cache.put("b", 2, 4L);
+        Assert.assertEquals(Integer.valueOf(1), cache.get("a")); // b is the eldest
+        cache.put("c", 3, 4L);
+
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals(8L, cache.getTotalSize());
+        Assert.assertNull(cache.get("b"));
+        Assert.assertEquals(Integer.valueOf(1), cache.get("a"));
+        Assert.assertEquals(Integer.valueOf(3), cache.get("c"));
+        Assert.assertEquals(3L, cache.getHits());
+        Assert.assertEquals(1L, cache.getMisses());
+        Assert.assertEquals(1L, cache.getEvictions());
+    }
+
+    @Test
+    public void testContainsKey() {
+        LRUCache<String, Integer> cache = new LRUCache<String, Integer>(8L);
+        cache.put("a", 1, 4L);
+        cache.put("b", 2, 4L);
+        Assert.assertTrue(cache.containsKey("a")); // does not make a the most recently used
+        Assert.assertFalse(cache.containsKey("c"));
+        cache.put("c", 3, 4L);
+        Assert.assertFalse(cache.containsKey("a"));
+        Assert.assertTrue(cache.containsKey("b"));
+        Assert.assertEquals(0L, cache.getHits());
+        Assert.assertEquals(0L, cache.getMisses());
+    }
+
+    @Test
+    public void testReplace() {
+        LRUCache<String, Integer> cache = new LRUCache<String, Integer>(10L);
+        cache.put("a", 1, 4L);
+        cache.put("a", 2, 6L);
+        Assert.assertEquals(1, cache.size());
+        Assert.assertEquals(6L, cache.getTotalSize());
+        Assert.assertEquals(Integer.valueOf(2), cache.get("a"));
+    }
+
+    @Test
+    public void testKeepLastEntry() {
+        LRUCache<String, Integer> cache = new LRUCache<String, Integer>(0L);
+        cache.put("a", 1, 4L);
+        Assert.assertEquals(Integer.valueOf(1), cache.get("a"));
+        cache.put("b", 2, 100L);
+        Assert.assertEquals(1, cache.size());
+        Assert.assertNull(cache.get("a"));
+        Assert.assertEquals(Integer.valueOf(2), cache.get("b"));
+
+        cache.clear();
+        Assert.assertEquals(0, cache.size());
+        Assert.assertEquals(0L, cache.getTotalSize());
+    }
+
+    @Test
+    public void testRemovalListener() {
+        final List<String> removed = new ArrayList<String>();
+        LRUCache<String, Integer> cache =
+                new LRUCache<String, Integer>(2L, new LRUCache.RemovalListener<String, Integer>() {
+                    @Override
+                    public void onRemoval(String key, Integer value) {
+                        removed.add(key + "=" + value);
+                    }
+                });
+        cache.put("a", 1, 1L);
+        cache.put("b", 2, 1L);
+        cache.put("a", 3, 1L); // replaced
+        cache.put("c", 4, 1L); // evicts b
+        Assert.assertEquals(2, removed.size());
+        Assert.assertEquals("a=1", removed.get(0));
+        Assert.assertEquals("b=2", removed.get(1));
+
+        cache.clear();
+        Assert.assertEquals(4, removed.size());
+        Assert.assertTrue(removed.contains("a=3"));
+        Assert.assertTrue(removed.contains("c=4"));
+    }
+
+}
@@ -0,0 +1,164 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.utils.hadoop;
+
+import hivemall.utils.hashing.MurmurHash3;
+
+import java.util.Random;
+
+import org.apache.hadoop.io.Text;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FeatureParserTest {
+
+    @Test
+    public void testParseFeature() {
+        Text t = new Text("ad_url:0.25");
+        int pos = FeatureParser.indexOfValue(t);
+        Assert.assertEquals(6, pos);
+        Assert.assertEquals("ad_url", FeatureParser.parseFeatureAsString(t, pos));
+        Assert.assertEquals(new Text("ad_url"), FeatureParser.parseFeatureAsText(t, pos));
+        Assert.assertEquals(MurmurHash3.murmurhash3("ad_url"),
+            FeatureParser.parseFeatureAsHash(t, pos));
+        Assert.assertEquals(MurmurHash3.murmurhash3("ad_url", 1024),
+            FeatureParser.parseFeatureAsHash(t, pos, 1024));
+        Assert.assertEquals(0.25d, FeatureParser.parseValue(t, pos), 0.d);
+        Assert.assertEquals(0.25f, FeatureParser.parseValueAsFloat(t, pos), 0.f);
+
+        t = new Text("123");
+        pos = FeatureParser.indexOfValue(t);
+        Assert.assertEquals(-1, pos);
+        Assert.assertEquals(123, FeatureParser.parseFeatureAsInt(t, pos));
+        Assert.assertEquals(1.d, FeatureParser.parseValue(t, pos), 0.d);
+
+        t = new Text("日本語:-3");
+        pos = FeatureParser.indexOfValue(t);
+        Assert.assertEquals("日本語", FeatureParser.parseFeatureAsString(t, pos));
+        Assert.assertEquals(MurmurHash3.murmurhash3("日本語"),
+            FeatureParser.parseFeatureAsHash(t, pos));
+        Assert.assertEquals(-3.d, FeatureParser.parseValue(t, pos), 0.d);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmptyFeature() {
+        FeatureParser.indexOfValue(new Text(":1.0"));
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void testEmptyValue() {
+        Text t = new Text("ad_url:");
+        FeatureParser.parseValue(t, FeatureParser.indexOfValue(t));
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void testInvalidValue() {
+        Text t = new Text("ad_url:xxxxx");
+        FeatureParser.parseValue(t, FeatureParser.indexOfValue(t));
+    }
+
+    @Test
+    public void testParseInt() {
+        String[] inputs = {"0", "7", "-7", "+7", "000123", "999999999", "2147483647",
+                "-2147483648"};
+        for (String s : inputs) {
+            byte[] b = s.getBytes();
+            Assert.assertEquals(s, Integer.parseInt(s), FeatureParser.parseInt(b, 0, b.length));
+        }
+        String[] invalids = {"", "-", "1.0", "2147483648", "1a", " 1"};
+        for (String s : invalids) {
+            byte[] b = s.getBytes();
+            try {
+                FeatureParser.parseInt(b, 0, b.length);
+                Assert.fail(s);
+            } catch (NumberFormatException e) {
+                ;
+            }
+        }
+    }
+
+    @Test
+    public void testParseDoubleSpecialForms() {
+        String[] inputs = {"0", "-0", "-0.0", "1.", ".5", "+.5", "3.14159", "1e-3", "1E10",
+                "NaN", "-Infinity", " 2.5 ", "1d", "0.1000000000000000055511151231257827",
+                "123456789012345678", "0.00000000000000000000000001"};
+        for (String s : inputs) {
+            byte[] b = s.getBytes();
+            Assert.assertEquals(s, Double.doubleToLongBits(Double.parseDouble(s)),
+                Double.doubleToLongBits(FeatureParser.parseDouble(b, 0, b.length)));
+            Assert.assertEquals(s, Float.floatToIntBits(Float.parseFloat(s)),
+                Float.floatToIntBits(FeatureParser.parseFloat(b, 0, b.length)));
+        }
+        String[] invalids = {"", ".", "-", "1..0", "1-0", "abc"};
+        for (String s : invalids) {
+            byte[] b = s.getBytes();
+            try {
+                FeatureParser.parseDouble(b, 0, b.length);
+                Assert.fail(s);
+            } catch (NumberFormatException e) {
+                ;
+            }
+            try {
+                FeatureParser.parseFloat(b, 0, b.length);
+                Assert.fail(s);
+            } catch (NumberFormatException e) {
+                ;
+            }
+        }
+    }
+
+    @Test
+    public void testParseDoubleRandom() {
+        Random rnd = new Random(43L);
+        for (int i = 0; i < 100000; i++) {
+            final String s;
+            switch (i % 4) {
+                case 0:
+                    s = Double.toString(rnd.nextDouble());
+                    break;
+                case 1:
+                    s = Float.toString(rnd.nextFloat() * 1000.f);
+                    break;
+                case 2: {
+                    // decimals of random length
+                    StringBuilder buf = new StringBuilder();
+                    if (rnd.nextBoolean()) {
+                        buf.append('-');
+                    }
+                    buf.append(rnd.nextInt(100000));
+                    buf.append('.');
+                    for (int j = rnd.nextInt(20); j >= 0; j--) {
+                        buf.append(rnd.nextInt(10));
+                    }
+                    s = buf.toString();
+                    break;
+                }
+                default:
+                    s = Integer.toString(rnd.nextInt());
+                    break;
+            }
+            byte[] b = s.getBytes();
+            Assert.assertEquals(s, Double.doubleToLongBits(Double.parseDouble(s)),
+                Double.doubleToLongBits(FeatureParser.parseDouble(b, 0, b.length)));
+            Assert.assertEquals(s, Float.floatToIntBits(Float.parseFloat(s)),
+                Float.floatToIntBits(FeatureParser.parseFloat(b, 0, b.length)));
+        }
+    }
+
+}
@@ -18,6 +18,7 @@
  */
 package hivemall.utils.hashing;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Random;
 
 import org.junit.Test;
@@ -35,4 +36,24 @@ public class MurmurHash3Test {
         }
     }
 
+    @Test
+    public void testMurmurhash3Bytes() {
+        Random rand = new Random(43L);
+        String[] words = {"", "a", "ab", "abc", "abcd", "abcde", "日本語", "ä", "\uD83D\uDE00x"};
+        for (String s : words) {
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            Assert.assertEquals(s, MurmurHash3.murmurhash3_x86_32(s),
+                MurmurHash3.murmurhash3_x86_32(b, 0, b.length));
+            Assert.assertEquals(s, MurmurHash3.murmurhash3(s),
+                MurmurHash3.murmurhash3(b, 0, b.length));
+        }
+        for (int i = 0; i < 100; i++) {
+            String s = "f" + Integer.toHexString(rand.nextInt()) + ":0.5";
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            int pos = s.indexOf(':');
+            Assert.assertEquals(MurmurHash3.murmurhash3(s.substring(0, pos), 1000),
+                MurmurHash3.murmurhash3(b, 0, pos, 1000));
+        }
+    }
+
 }
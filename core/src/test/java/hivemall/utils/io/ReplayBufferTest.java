@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.utils.io;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ReplayBufferTest {
+
+    @Test
+    public void testOnMemory() throws IOException {
+        ReplayBuffer buf = new ReplayBuffer("hivemall_test", 1024 * 1024);
+        writeRecords(buf, 1000, 1);
+        Assert.assertFalse(buf.isSpilled());
+        Assert.assertEquals(1000L, buf.getNumRecords());
+
+        for (int iter = 0; iter < 3; iter++) {
+            buf.rewind();
+            Assert.assertEquals(1000, readRecords(buf, 1));
+        }
+        buf.close();
+    }
+
+    @Test
+    public void testSpilled() throws IOException {
+        ReplayBuffer buf = new ReplayBuffer("hivemall_test", 256);
+        writeRecords(buf, 10000, 1);
+        Assert.assertTrue(buf.isSpilled());
+        File file = buf.getFile();
+        Assert.assertNotNull(file);
+        Assert.assertTrue(file.exists());
+
+        for (int iter = 0; iter < 3; iter++) {
+            buf.rewind();
+            Assert.assertEquals(10000, readRecords(buf, 1));
+        }
+        buf.close();
+        Assert.assertFalse(file.exists());
+    }
+
+    @Test
+    public void testLargeRecords() throws IOException {
+        ReplayBuffer buf = new ReplayBuffer("hivemall_test", 64);
+        writeRecords(buf, 100, 50);
+        Assert.assertTrue(buf.isSpilled());
+
+        buf.rewind();
+        Assert.assertEquals(100, readRecords(buf, 50));
+        buf.close();
+    }
+
+    @Test
+    public void testSplit() throws IOException {
+        ReplayBuffer buf = new ReplayBuffer("hivemall_test", 1024 * 1024);
+        writeRecords(buf, 1001, 1);
+
+        buf.rewind();
+        ReplayBuffer.Reader block = buf.nextBlock();
+        Assert.assertNotNull(block);
+        ReplayBuffer.Reader[] readers = block.split(4);
+        Assert.assertEquals(4, readers.length);
+        Assert.assertFalse(block.next());
+
+        int i = 0;
+        for (ReplayBuffer.Reader reader : readers) {
+            while (reader.next()) {
+                assertRecord(reader, i++, 1);
+            }
+        }
+        Assert.assertEquals(1001, i);
+        Assert.assertNull(buf.nextBlock());
+        buf.close();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testWriteAfterReplay() throws IOException {
+        ReplayBuffer buf = new ReplayBuffer("hivemall_test", 1024);
+        writeRecords(buf, 1, 1);
+        buf.rewind();
+        try {
+            writeRecords(buf, 1, 1);
+        } finally {
+            buf.close();
+        }
+    }
+
+    private static void writeRecords(final ReplayBuffer buf, final int numRecords,
+            final int repeat) throws IOException {
+        for (int i = 0; i < numRecords; i++) {
+            for (int j = 0; j < repeat; j++) {
+                buf.writeVInt(i);
+                buf.writeVLong(Long.MAX_VALUE - i);
+                buf.writeZigZagVLong(-i);
+                buf.writeString("f" + (i % 10));
+                buf.writeFloat(i / 2.f);
+                buf.writeDouble(-i / 3.d);
+                buf.writeByte((byte) i);
+            }
+            buf.endRecord();
+        }
+    }
+
+    private static int readRecords(final ReplayBuffer buf, final int repeat) {
+        int i = 0;
+        for (ReplayBuffer.Reader block; (block = buf.nextBlock()) != null;) {
+            while (block.next()) {
+                assertRecord(block, i++, repeat);
+            }
+        }
+        return i;
+    }
+
+    private static void assertRecord(final ReplayBuffer.Reader reader, final int i,
+            final int repeat) {
+        for (int j = 0; j < repeat; j++) {
+            Assert.assertEquals(i, reader.readVInt());
+            Assert.assertEquals(Long.MAX_VALUE - i, reader.readVLong());
+            Assert.assertEquals(-i, reader.readZigZagVLong());
+            Assert.assertEquals("f" + (i % 10), reader.readString());
+            Assert.assertEquals(i / 2.f, reader.readFloat(), 0.f);
+            Assert.assertEquals(-i / 3.d, reader.readDouble(), 0.d);
+            Assert.assertEquals((byte) i, reader.readByte());
+        }
+    }
+
+}
@@ -44,6 +44,26 @@ public class NumberUtilsTest {
         assertEquals(2000, NumberUtils.parseInt(s7));
     }
 
+    @Test
+    public void testParseLong() {
+        assertEquals(100L, NumberUtils.parseLong("100"));
+        assertEquals(2000L, NumberUtils.parseLong("2K"));
+        assertEquals(1000000L, NumberUtils.parseLong("1m"));
+        assertEquals(3000000000L, NumberUtils.parseLong("3g"));
+        assertEquals(10000000000000L, NumberUtils.parseLong("10000g"));
+        assertEquals(-5000L, NumberUtils.parseLong("-5k"));
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void testParseLongOverflow() {
+        NumberUtils.parseLong("10000000000000g");
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void testParseLongInvalidSuffix() {
+        NumberUtils.parseLong("10x");
+    }
+
     @Test
     public void testIsFiniteDouble() {
         assertTrue(NumberUtils.isFinite(Double.MAX_VALUE));
@@ -20,22 +20,25 @@ package hivemall.mix.server;
 
 import hivemall.mix.MixMessage;
 import hivemall.mix.MixMessage.MixEventName;
-import hivemall.mix.store.PartialArgminKLD;
-import hivemall.mix.store.PartialAverage;
+import hivemall.mix.MixMessageBatch;
 import hivemall.mix.store.PartialResult;
+import hivemall.mix.store.PartialResultTable;
 import hivemall.mix.store.SessionObject;
 import hivemall.mix.store.SessionStore;
 import io.netty.channel.ChannelHandler.Sharable;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
 
-import java.util.concurrent.ConcurrentMap;
-
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
+/**
+ * Handles {@link MixMessage}s and {@link MixMessageBatch}es. Responses are written without flush
+ * and flushed at once when the messages of a read are consumed.
+ */
 @Sharable
-public final class MixServerHandler extends SimpleChannelInboundHandler<MixMessage> {
+public final class MixServerHandler extends SimpleChannelInboundHandler<Object> {
 
     @Nonnull
     private final SessionStore sessionStore;
@@ -51,12 +54,44 @@ public final class MixServerHandler extends SimpleChannelInboundHandler<MixMessa
     }
 
     @Override
-    protected void channelRead0(ChannelHandlerContext ctx, MixMessage msg) throws Exception {
+    public boolean acceptInboundMessage(Object msg) throws Exception {
+        return msg instanceof MixMessage || msg instanceof MixMessageBatch;
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof MixMessageBatch) {
+            handleBatch(ctx, (MixMessageBatch) msg);
+        } else {
+            handleMessage(ctx, (MixMessage) msg);
+        }
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+        ctx.flush();
+        super.channelReadComplete(ctx);
+    }
+
+    private void handleBatch(@Nonnull ChannelHandlerContext ctx, @Nonnull MixMessageBatch batch) {
+        final int size = batch.size();
+        if (size == 0) {
+            return;
+        }
+        SessionObject session = getSession(batch.getGroupID(), size);
+        for (int i = 0; i < size; i++) {
+            MixMessage msg = batch.get(i);
+            PartialResult partial = getPartialResult(msg, session);
+            mix(ctx, msg, partial, session);
+        }
+    }
+
+    private void handleMessage(@Nonnull ChannelHandlerContext ctx, @Nonnull MixMessage msg) {
         final MixEventName event = msg.getEvent();
         switch (event) {
             case average:
             case argminKLD: {
-                SessionObject session = getSession(msg);
+                SessionObject session = getSession(msg.getGroupID(), 1);
                 PartialResult partial = getPartialResult(msg, session);
                 mix(ctx, msg, partial, session);
                 break;
@@ -79,41 +114,20 @@ public final class MixServerHandler extends SimpleChannelInboundHandler<MixMessa
     }
 
     @Nonnull
-    private SessionObject getSession(@Nonnull MixMessage msg) {
-        String groupID = msg.getGroupID();
+    private SessionObject getSession(@Nullable String groupID, @Nonnegative int numRequests) {
         if (groupID == null) {
             throw new IllegalStateException("JobID is not set in the request message");
         }
         SessionObject session = sessionStore.get(groupID);
-        session.incrRequest();
+        session.incrRequest(numRequests);
         return session;
     }
 
     @Nonnull
-    private PartialResult getPartialResult(@Nonnull MixMessage msg,
+    private static PartialResult getPartialResult(@Nonnull MixMessage msg,
             @Nonnull SessionObject session) {
-        final ConcurrentMap<Object, PartialResult> map = session.get();
-
-        Object feature = msg.getFeature();
-        PartialResult partial = map.get(feature);
-        if (partial == null) {
-            final MixEventName event = msg.getEvent();
-            switch (event) {
-                case average:
-                    partial = new PartialAverage();
-                    break;
-                case argminKLD:
-                    partial = new PartialArgminKLD();
-                    break;
-                default:
-                    throw new IllegalStateException("Unexpected event: " + event);
-            }
-            PartialResult existing = map.putIfAbsent(feature, partial);
-            if (existing != null) {
-                partial = existing;
-            }
-        }
-        return partial;
+        PartialResultTable partials = session.get();
+        return partials.get(msg.getFeature(), msg.getEvent());
     }
 
     private void mix(final ChannelHandlerContext ctx, final MixMessage requestMsg,
@@ -155,7 +169,7 @@ public final class MixServerHandler extends SimpleChannelInboundHandler<MixMessa
 
         if (responseMsg != null) {
             session.incrResponse();
-            ctx.writeAndFlush(responseMsg);
+            ctx.write(responseMsg); // flushed in channelReadComplete
         }
     }
 
@@ -22,6 +22,7 @@ import hivemall.utils.lock.Lock;
 import hivemall.utils.lock.TTASLock;
 
 import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
 import javax.annotation.concurrent.GuardedBy;
 
 public abstract class PartialResult {
@@ -32,8 +33,15 @@ public abstract class PartialResult {
     protected short globalClock;
 
     public PartialResult() {
+        this(new TTASLock());
+    }
+
+    /**
+     * @param lock a lock that may be shared with other partial results
+     */
+    protected PartialResult(@Nonnull Lock lock) {
         this.globalClock = 0;
-        this.lock = new TTASLock();
+        this.lock = lock;
     }
 
     public final void lock() {
@@ -54,7 +62,7 @@ public abstract class PartialResult {
 
     public abstract float getCovariance(float scale);
 
-    public final short getClock() {
+    public short getClock() {
         return globalClock;
     }
 
@@ -68,6 +76,7 @@ public abstract class PartialResult {
     // Label 'l' and 'g' represent local and global clocks, respectively.
     // In this case, it returns a minimum value, l...g or g...l.
     public final int diffClock(final short localClock) {
+        final short globalClock = getClock();
         short tempValue1 = globalClock;
         tempValue1 -= localClock;
         short tempValue2 = localClock;
@@ -0,0 +1,375 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.mix.store;
+
+import hivemall.mix.MixMessage.MixEventName;
+import hivemall.utils.lock.TTASLock;
+
+import java.util.Arrays;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+
+/**
+ * Partial results of a session sharded by the hash of features.
+ *
+ * Each shard is guarded by its own lock and keeps the partial results in parallel primitive arrays
+ * indexed through an open-addressing (linear probing) table, so that no object is allocated for
+ * each feature. INT/BIGINT features (i.e., Integer, Long, IntWritable and LongWritable) are
+ * compared as primitive long values; note that features of these types are thus identified by
+ * their values. Other features (e.g., Text) are compared by {@link Object#equals(Object)}.
+ */
+@ThreadSafe
+public final class PartialResultTable {
+    private static final int NUM_SHARDS = 256; // must be a power of two
+    private static final int SHARD_BITS = Integer.numberOfTrailingZeros(NUM_SHARDS);
+    private static final int INITIAL_SHARD_SIZE = 64;
+    private static final float LOAD_FACTOR = 0.5f;
+
+    @Nonnull
+    private final Shard[] shards;
+
+    public PartialResultTable() {
+        final Shard[] shards = new Shard[NUM_SHARDS];
+        for (int i = 0; i < NUM_SHARDS; i++) {
+            shards[i] = new Shard(INITIAL_SHARD_SIZE);
+        }
+        this.shards = shards;
+    }
+
+    /**
+     * @return a partial result of the given feature that is guarded by the lock of a shard
+     */
+    @Nonnull
+    public PartialResult get(@Nonnull final Object feature, @Nonnull final MixEventName event) {
+        final boolean argminKLD;
+        switch (event) {
+            case average:
+                argminKLD = false;
+                break;
+            case argminKLD:
+                argminKLD = true;
+                break;
+            default:
+                throw new IllegalStateException("Unexpected event: " + event);
+        }
+
+        final long longKey;
+        final Object objKey;
+        final int hash;
+        if (feature instanceof Integer) {
+            longKey = ((Integer) feature).intValue();
+            objKey = null;
+            hash = hash(longKey);
+        } else if (feature instanceof IntWritable) {
+            longKey = ((IntWritable) feature).get();
+            objKey = null;
+            hash = hash(longKey);
+        } else if (feature instanceof LongWritable) {
+            longKey = ((LongWritable) feature).get();
+            objKey = null;
+            hash = hash(longKey);
+        } else if (feature instanceof Long) {
+            longKey = ((Long) feature).longValue();
+            objKey = null;
+            hash = hash(longKey);
+        } else {
+            longKey = 0L;
+            objKey = feature;
+            hash = mix(feature.hashCode());
+        }
+
+        final Shard shard = shards[hash >>> (32 - SHARD_BITS)];
+        final int i;
+        shard.lock.lock();
+        try {
+            i = shard.findOrInsert(hash, longKey, objKey, argminKLD);
+        } finally {
+            shard.lock.unlock();
+        }
+        return argminKLD ? new ArgminKLDEntry(shard, i) : new AverageEntry(shard, i);
+    }
+
+    /**
+     * @return the number of features
+     */
+    public long size() {
+        long size = 0L;
+        for (Shard shard : shards) {
+            shard.lock.lock();
+            try {
+                size += shard.size;
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+        return size;
+    }
+
+    private static int hash(final long key) {
+        return mix((int) (key ^ (key >>> 32)));
+    }
+
+    private static int mix(final int h) {
+        final int x = h * 0x9E3779B9;
+        return x ^ (x >>> 16);
+    }
+
+    private static final class Shard {
+
+        @Nonnull
+        final TTASLock lock;
+
+        /** entry index + 1 for each slot, 0 for an empty slot */
+        @GuardedBy("lock")
+        private int[] slots;
+        @GuardedBy("lock")
+        private int threshold;
+
+        // entries that are never removed and thus an entry index is stable
+        @GuardedBy("lock")
+        private long[] longKeys;
+        /** allocated when a non-primitive feature is inserted */
+        @GuardedBy("lock")
+        @Nullable
+        private Object[] objKeys;
+        @GuardedBy("lock")
+        private int[] hashes;
+        /** sum of scaled weights for average, or sum of mean/covar for argminKLD */
+        @GuardedBy("lock")
+        double[] sums;
+        /** total updates for average. Allocated on the first use. */
+        @GuardedBy("lock")
+        @Nullable
+        int[] updates;
+        /** sum of 1/covar for argminKLD. Allocated on the first use. */
+        @GuardedBy("lock")
+        @Nullable
+        float[] sumInvCovars;
+        @GuardedBy("lock")
+        short[] clocks;
+        @GuardedBy("lock")
+        private int size;
+
+        Shard(@Nonnegative int initSize) {
+            this.lock = new TTASLock();
+            int numSlots = 16;
+            while (numSlots * LOAD_FACTOR < initSize) {
+                numSlots <<= 1;
+            }
+            this.slots = new int[numSlots];
+            this.threshold = Math.round(numSlots * LOAD_FACTOR);
+            this.longKeys = new long[initSize];
+            this.hashes = new int[initSize];
+            this.sums = new double[initSize];
+            this.clocks = new short[initSize];
+            this.size = 0;
+        }
+
+        /**
+         * @return entry index of the given key
+         */
+        int findOrInsert(final int hash, final long longKey, @Nullable final Object objKey,
+                final boolean argminKLD) {
+            if (argminKLD) {
+                if (sumInvCovars == null) {
+                    this.sumInvCovars = new float[longKeys.length];
+                }
+            } else if (updates == null) {
+                this.updates = new int[longKeys.length];
+            }
+
+            final int[] slots = this.slots;
+            final int mask = slots.length - 1;
+            int slot = hash & mask;
+            for (int e; (e = slots[slot]) != 0; slot = (slot + 1) & mask) {
+                final int i = e - 1;
+                if (hashes[i] != hash) {
+                    continue;
+                }
+                if (objKey == null) {
+                    if (longKeys[i] == longKey && (objKeys == null || objKeys[i] == null)) {
+                        return i;
+                    }
+                } else if (objKeys != null && objKey.equals(objKeys[i])) {
+                    return i;
+                }
+            }
+
+            final int i = size;
+            if (i == longKeys.length) {
+                grow();
+            }
+            if (objKey != null) {
+                if (objKeys == null) {
+                    this.objKeys = new Object[longKeys.length];
+                }
+                objKeys[i] = objKey;
+            }
+            longKeys[i] = longKey;
+            hashes[i] = hash;
+            slots[slot] = i + 1;
+            if (++size > threshold) {
+                rehash(slots.length << 1);
+            }
+            return i;
+        }
+
+        private void grow() {
+            final int newCapacity = longKeys.length << 1;
+            this.longKeys = Arrays.copyOf(longKeys, newCapacity);
+            if (objKeys != null) {
+                this.objKeys = Arrays.copyOf(objKeys, newCapacity);
+            }
+            this.hashes = Arrays.copyOf(hashes, newCapacity);
+            this.sums = Arrays.copyOf(sums, newCapacity);
+            if (updates != null) {
+                this.updates = Arrays.copyOf(updates, newCapacity);
+            }
+            if (sumInvCovars != null) {
+                this.sumInvCovars = Arrays.copyOf(sumInvCovars, newCapacity);
+            }
+            this.clocks = Arrays.copyOf(clocks, newCapacity);
+        }
+
+        private void rehash(final int numSlots) {
+            final int[] newSlots = new int[numSlots];
+            final int mask = numSlots - 1;
+            for (int i = 0; i < size; i++) {
+                int slot = hashes[i] & mask;
+                while (newSlots[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                newSlots[slot] = i + 1;
+            }
+            this.slots = newSlots;
+            this.threshold = Math.round(numSlots * LOAD_FACTOR);
+        }
+
+    }
+
+    /**
+     * A view of an entry of a shard. Arrays of the shard are read at each access because they are
+     * replaced when the shard grows.
+     */
+    private abstract static class Entry extends PartialResult {
+
+        @Nonnull
+        protected final Shard shard;
+        protected final int index;
+
+        Entry(@Nonnull Shard shard, int index) {
+            super(shard.lock);
+            this.shard = shard;
+            this.index = index;
+        }
+
+        @Override
+        public final short getClock() {
+            return shard.clocks[index];
+        }
+
+        protected final void incrEntryClock(final int deltaUpdates) {
+            shard.clocks[index] += deltaUpdates;
+        }
+
+    }
+
+    /**
+     * @see PartialAverage
+     */
+    private static final class AverageEntry extends Entry {
+
+        AverageEntry(@Nonnull Shard shard, int index) {
+            super(shard, index);
+        }
+
+        @Override
+        public float getCovariance(float scale) {
+            return 1.f;
+        }
+
+        @Override
+        public void add(float localWeight, float covar, @Nonnegative int deltaUpdates,
+                float scale) {
+            assert (deltaUpdates > 0) : deltaUpdates;
+            shard.sums[index] += ((localWeight / scale) * deltaUpdates);
+            shard.updates[index] += deltaUpdates; // note deltaUpdates is in range (0,127]
+            incrEntryClock(deltaUpdates);
+        }
+
+        @Override
+        public void subtract(float localWeight, float covar, @Nonnegative int deltaUpdates,
+                float scale) {
+            assert (deltaUpdates > 0) : deltaUpdates;
+            shard.sums[index] -= ((localWeight / scale) * deltaUpdates);
+            shard.updates[index] -= deltaUpdates;
+        }
+
+        @Override
+        public float getWeight(float scale) {
+            return (float) (shard.sums[index] / shard.updates[index]) * scale;
+        }
+
+    }
+
+    /**
+     * @see PartialArgminKLD
+     */
+    private static final class ArgminKLDEntry extends Entry {
+
+        ArgminKLDEntry(@Nonnull Shard shard, int index) {
+            super(shard, index);
+        }
+
+        @Override
+        public float getCovariance(float scale) {
+            return 1.f / (shard.sumInvCovars[index] * scale);
+        }
+
+        @Override
+        public void add(float localWeight, float covar, @Nonnegative int deltaUpdates,
+                float scale) {
+            assert (deltaUpdates > 0) : deltaUpdates;
+            shard.sums[index] += (localWeight / covar) / scale;
+            shard.sumInvCovars[index] += (1.f / covar) / scale;
+            incrEntryClock(deltaUpdates);
+        }
+
+        @Override
+        public void subtract(float localWeight, float covar, @Nonnegative int deltaUpdates,
+                float scale) {
+            shard.sums[index] -= (localWeight / covar) / scale;
+            shard.sumInvCovars[index] -= (1.f / covar) / scale;
+        }
+
+        @Override
+        public float getWeight(float scale) {
+            return (float) (shard.sums[index] / shard.sumInvCovars[index]);
+        }
+
+    }
+
+}
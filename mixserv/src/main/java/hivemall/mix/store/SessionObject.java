@@ -18,9 +18,9 @@
  */
 package hivemall.mix.store;
 
-import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicLong;
 
+import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 import javax.annotation.concurrent.ThreadSafe;
 
@@ -28,13 +28,13 @@ import javax.annotation.concurrent.ThreadSafe;
 public final class SessionObject {
 
     @Nonnull
-    private final ConcurrentMap<Object, PartialResult> object;
+    private final PartialResultTable object;
     private volatile long lastAccessed; // being accessed by multiple threads
 
     private final AtomicLong num_requests;
     private final AtomicLong num_responses;
 
-    public SessionObject(@Nonnull ConcurrentMap<Object, PartialResult> obj) {
+    public SessionObject(@Nonnull PartialResultTable obj) {
         if (obj == null) {
             throw new IllegalArgumentException("obj is null");
         }
@@ -44,7 +44,7 @@ public final class SessionObject {
     }
 
     @Nonnull
-    public ConcurrentMap<Object, PartialResult> get() {
+    public PartialResultTable get() {
         return object;
     }
 
@@ -60,6 +60,11 @@ public final class SessionObject {
         num_requests.getAndIncrement();
     }
 
+    public void incrRequest(@Nonnegative int numRequests) {
+        this.lastAccessed = System.currentTimeMillis();
+        num_requests.getAndAdd(numRequests);
+    }
+
     public void incrResponse() {
         num_responses.getAndIncrement();
     }
@@ -77,7 +82,7 @@ public final class SessionObject {
         long responses = num_responses.get();
         float percentage = ((float) ((double) responses / requests)) * 100.f;
         return "#requests: " + requests + ", #responses: " + responses + " ("
-                + String.format("%,.2f", percentage) + "%)";
+                + String.format("%,.2f", percentage) + "%), #features: " + object.size();
     }
 
 }
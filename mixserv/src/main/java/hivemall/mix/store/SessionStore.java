@@ -33,7 +33,6 @@ import org.apache.commons.logging.LogFactory;
 
 @ThreadSafe
 public final class SessionStore {
-    private static final int EXPECTED_MODEL_SIZE = 4194305; /* 2^22+1=4194304+1=4194305 */
     private static final Log logger = LogFactory.getLog(SessionStore.class);
 
     private final ConcurrentMap<String, SessionObject> sessions;
@@ -51,9 +50,7 @@ public final class SessionStore {
     public SessionObject get(@Nonnull String groupID) {
         SessionObject sessionObj = sessions.get(groupID);
         if (sessionObj == null) {
-            ConcurrentMap<Object, PartialResult> map =
-                    new ConcurrentHashMap<Object, PartialResult>(EXPECTED_MODEL_SIZE);
-            sessionObj = new SessionObject(map);
+            sessionObj = new SessionObject(new PartialResultTable());
             SessionObject existing = sessions.putIfAbsent(groupID, sessionObj);
             if (existing != null) {
                 sessionObj = existing;
@@ -21,12 +21,14 @@ package hivemall.mix.server;
 import static org.mockito.Mockito.mock;
 import hivemall.mix.MixMessage;
 import hivemall.mix.MixMessage.MixEventName;
+import hivemall.mix.MixMessageBatch;
 import hivemall.mix.store.PartialAverage;
 import hivemall.mix.store.PartialResult;
 import hivemall.mix.store.SessionObject;
 import hivemall.mix.store.SessionStore;
 import hivemall.test.HivemallTestBase;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.embedded.EmbeddedChannel;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
@@ -84,6 +86,31 @@ public final class MixServerHandlerTest extends HivemallTestBase {
         mixMethod.invoke(handler, ctx, msg4, acc, sessionObj);
     }
 
+    @Test
+    public void testBatch() {
+        SessionStore session = new SessionStore();
+        MixServerHandler handler = new MixServerHandler(session, 2, 1.0f);
+        EmbeddedChannel ch = new EmbeddedChannel(handler);
+
+        MixMessageBatch batch = new MixMessageBatch("dummy", 10);
+        for (int i = 0; i < 10; i++) {
+            Integer feature = Integer.valueOf(i % 2);
+            batch.add(new MixMessage(MixEventName.average, feature, i, (short) 0, 1));
+        }
+        ch.writeInbound(batch);
+
+        SessionObject sessionObj = session.get("dummy");
+        Assert.assertEquals(10L, sessionObj.getRequests());
+        Assert.assertEquals(6L, sessionObj.getResponses()); // 3rd and later requests of a feature
+
+        for (long i = 0; i < sessionObj.getResponses(); i++) {
+            MixMessage response = (MixMessage) ch.readOutbound();
+            Assert.assertNotNull(response);
+            Assert.assertEquals(0, response.getDeltaUpdates());
+        }
+        Assert.assertNull(ch.readOutbound());
+    }
+
     private static class CauseMatcher extends TypeSafeMatcher<Throwable> {
 
         private final Class<? extends Throwable> type;
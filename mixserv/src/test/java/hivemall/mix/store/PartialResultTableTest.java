@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.mix.store;
+
+import hivemall.mix.MixMessage.MixEventName;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PartialResultTableTest {
+
+    @Test
+    public void testAverage() {
+        assertSameAsPartialResults(MixEventName.average);
+    }
+
+    @Test
+    public void testArgminKLD() {
+        assertSameAsPartialResults(MixEventName.argminKLD);
+    }
+
+    private static void assertSameAsPartialResults(final MixEventName event) {
+        final PartialResultTable table = new PartialResultTable();
+        final Map<Object, PartialResult> expected = new HashMap<Object, PartialResult>();
+
+        final Random rnd = new Random(43L);
+        for (int i = 0; i < 200000; i++) {
+            final Object feature = randomFeature(rnd, 10000);
+            PartialResult partial = expected.get(feature);
+            if (partial == null) {
+                partial = (event == MixEventName.average) ? new PartialAverage()
+                        : new PartialArgminKLD();
+                expected.put(feature, partial);
+            }
+            float weight = rnd.nextFloat();
+            float covar = 0.5f + rnd.nextFloat();
+            int deltaUpdates = 1 + rnd.nextInt(Byte.MAX_VALUE);
+            short clock = (short) rnd.nextInt();
+
+            PartialResult actual = table.get(feature, event);
+            actual.lock();
+            try {
+                Assert.assertEquals(partial.diffClock(clock), actual.diffClock(clock));
+                partial.add(weight, covar, deltaUpdates, 1.f);
+                actual.add(weight, covar, deltaUpdates, 1.f);
+                if (i % 10 == 9) {// cancel a request
+                    partial.add(weight, covar, deltaUpdates, 1.f);
+                    actual.add(weight, covar, deltaUpdates, 1.f);
+                    partial.subtract(weight, covar, deltaUpdates, 1.f);
+                    actual.subtract(weight, covar, deltaUpdates, 1.f);
+                }
+                Assert.assertEquals(partial.getClock(), actual.getClock());
+                Assert.assertEquals(partial.getWeight(1.f), actual.getWeight(1.f), 1E-5f);
+                Assert.assertEquals(partial.getCovariance(1.f), actual.getCovariance(1.f), 1E-5f);
+            } finally {
+                actual.unlock();
+            }
+        }
+        Assert.assertEquals(expected.size(), table.size());
+    }
+
+    @Test
+    public void testFeatureTypes() {
+        final PartialResultTable table = new PartialResultTable();
+        table.get(Integer.valueOf(1), MixEventName.average).add(1.f, 1.f, 1, 1.f);
+        table.get(new IntWritable(1), MixEventName.average).add(3.f, 1.f, 1, 1.f);
+        table.get(new LongWritable(1L), MixEventName.average).add(5.f, 1.f, 1, 1.f);
+        table.get(new Text("1"), MixEventName.average).add(7.f, 1.f, 1, 1.f);
+        table.get("1", MixEventName.average).add(9.f, 1.f, 1, 1.f);
+        table.get(new Text("1"), MixEventName.average).add(11.f, 1.f, 1, 1.f);
+
+        Assert.assertEquals(3L, table.size());
+        Assert.assertEquals(3.f, table.get(Long.valueOf(1L), MixEventName.average).getWeight(1.f),
+            0.f);
+        Assert.assertEquals(9.f, table.get(new Text("1"), MixEventName.average).getWeight(1.f),
+            0.f);
+        Assert.assertEquals(9.f, table.get("1", MixEventName.average).getWeight(1.f), 0.f);
+    }
+
+    @Test
+    public void testConcurrentUpdates() throws Exception {
+        final PartialResultTable table = new PartialResultTable();
+        final int numThreads = 4;
+        final int numFeatures = 50000;
+        final AtomicInteger seed = new AtomicInteger(31);
+
+        ExecutorService exec = Executors.newFixedThreadPool(numThreads);
+        Future<?>[] futures = new Future<?>[numThreads];
+        for (int t = 0; t < numThreads; t++) {
+            futures[t] = exec.submit(new Runnable() {
+                @Override
+                public void run() {
+                    Random rnd = new Random(seed.getAndIncrement());
+                    for (int i = 0; i < 200000; i++) {
+                        PartialResult partial = table.get(Integer.valueOf(rnd.nextInt(numFeatures)),
+                            MixEventName.average);
+                        partial.lock();
+                        try {
+                            partial.add(1.f, 1.f, 1, 1.f);
+                        } finally {
+                            partial.unlock();
+                        }
+                    }
+                }
+            });
+        }
+        for (Future<?> f : futures) {
+            f.get();
+        }
+        exec.shutdown();
+
+        Assert.assertEquals(numFeatures, table.size());
+        long totalUpdates = 0L;
+        for (int i = 0; i < numFeatures; i++) {
+            PartialResult partial = table.get(Integer.valueOf(i), MixEventName.average);
+            Assert.assertEquals(1.f, partial.getWeight(1.f), 1E-6f);
+            totalUpdates += partial.getClock();
+        }
+        Assert.assertEquals(numThreads * 200000L, totalUpdates);
+    }
+
+    private static Object randomFeature(final Random rnd, final int dims) {
+        final int k = rnd.nextInt(dims);
+        switch (k % 4) {
+            case 0:
+                return Integer.valueOf(k);
+            case 1:
+                return new LongWritable(Long.MAX_VALUE - k);
+            case 2:
+                return new Text("f" + k);
+            default:
+                return "s" + k;
+        }
+    }
+
+}
@@ -21,6 +21,7 @@ package hivemall.xgboost;
 import hivemall.UDTFWithOptions;
 import hivemall.utils.collections.lists.FloatArrayList;
 import hivemall.utils.collections.lists.IntArrayList;
+import hivemall.utils.collections.maps.LRUCache;
 import hivemall.utils.hadoop.HiveUtils;
 import hivemall.utils.hadoop.WritableUtils;
 import hivemall.utils.lang.Primitives;
@@ -32,10 +33,9 @@ import ml.dmlc.xgboost4j.java.DMatrix;
 import ml.dmlc.xgboost4j.java.XGBoostError;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Objects;
 
 import javax.annotation.Nonnull;
@@ -43,6 +43,8 @@ import javax.annotation.Nullable;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.Options;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.hive.ql.exec.Description;
 import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
@@ -57,6 +59,8 @@ import org.apache.hadoop.hive.serde2.objectinspector.primitive.StringObjectInspe
 import org.apache.hadoop.io.FloatWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapred.Counters.Counter;
+import org.apache.hadoop.mapred.Reporter;
 
 //@formatter:off
 @Description(name = "xgboost_batch_predict",
@@ -76,6 +80,7 @@ import org.apache.hadoop.io.Writable;
                 "group by rowid;")
 //@formatter:on
 public final class XGBoostBatchPredictUDTF extends UDTFWithOptions {
+    private static final Log logger = LogFactory.getLog(XGBoostBatchPredictUDTF.class);
 
     // For input parameters
     private PrimitiveObjectInspector rowIdOI;
@@ -87,10 +92,25 @@ public final class XGBoostBatchPredictUDTF extends UDTFWithOptions {
     private StringObjectInspector modelOI;
 
     // For input buffer
-    private transient Map<String, Booster> mapToModel;
-    private transient Map<String, List<LabeledPointWithRowId>> rowBuffer;
+    /** boosters holding native memory, released on eviction */
+    private transient LRUCache<String, Booster> boosterCache;
+    /** pending rows by model ID, which are kept independently of boosterCache */
+    private transient Map<String, RowBatch> rowBuffer;
 
     private int _batchSize;
+    private int _maxModels;
+
+    // For metrics
+    private transient long _numBatches;
+    private transient long _numPredicted;
+    @Nullable
+    private transient Counter _cacheHitCounter;
+    @Nullable
+    private transient Counter _cacheMissCounter;
+    @Nullable
+    private transient Counter _batchCounter;
+    @Nullable
+    private transient Counter _predictedRowCounter;
 
     @Nonnull
     protected transient final Object[] _forwardObj;
@@ -109,12 +129,16 @@ public final class XGBoostBatchPredictUDTF extends UDTFWithOptions {
     protected Options getOptions() {
         Options opts = new Options();
         opts.addOption("batch_size", true, "Number of rows to predict together [default: 128]");
+        opts.addOption("max_models", true,
+            "Maximum number of boosters kept in memory. Least recently used boosters are released"
+                    + " while their pending rows are kept until a batch is filled [default: 16]");
         return opts;
     }
 
     @Override
     protected CommandLine processOptions(ObjectInspector[] argOIs) throws UDFArgumentException {
         int batchSize = 128;
+        int maxModels = 16;
         CommandLine cl = null;
         if (argOIs.length >= 5) {
             String rawArgs = HiveUtils.getConstString(argOIs, 4);
@@ -123,8 +147,13 @@ public final class XGBoostBatchPredictUDTF extends UDTFWithOptions {
             if (batchSize < 1) {
                 throw new UDFArgumentException("batch_size must be greater than 0: " + batchSize);
             }
+            maxModels = Primitives.parseInt(cl.getOptionValue("max_models"), maxModels);
+            if (maxModels < 1) {
+                throw new UDFArgumentException("max_models must be greater than 0: " + maxModels);
+            }
         }
         this._batchSize = batchSize;
+        this._maxModels = maxModels;
         return cl;
     }
 
@@ -173,9 +202,8 @@ public final class XGBoostBatchPredictUDTF extends UDTFWithOptions {
 
     @Override
     public void process(Object[] args) throws HiveException {
-        if (mapToModel == null) {
-            this.mapToModel = new HashMap<String, Booster>();
-            this.rowBuffer = new HashMap<String, List<LabeledPointWithRowId>>();
+        if (boosterCache == null) {
+            init();
         }
         if (args[1] == null) {
             return;
@@ -183,25 +211,80 @@ public final class XGBoostBatchPredictUDTF extends UDTFWithOptions {
 
         String modelId =
                 PrimitiveObjectInspectorUtils.getString(nonNullArgument(args, 2), modelIdOI);
-        Booster model = mapToModel.get(modelId);
-        if (model == null) {
-            Text arg3 = modelOI.getPrimitiveWritableObject(nonNullArgument(args, 3));
-            model = XGBoostUtils.deserializeBooster(arg3);
-            mapToModel.put(modelId, model);
-        }
-
-        List<LabeledPointWithRowId> rowBatch = rowBuffer.get(modelId);
+        Text model = modelOI.getPrimitiveWritableObject(nonNullArgument(args, 3));
+        RowBatch rowBatch = rowBuffer.get(modelId);
         if (rowBatch == null) {
-            rowBatch = new ArrayList<LabeledPointWithRowId>(_batchSize);
+            rowBatch = new RowBatch(_batchSize);
             rowBuffer.put(modelId, rowBatch);
         }
         LabeledPointWithRowId row = parseRow(args);
-        rowBatch.add(row);
-        if (rowBatch.size() >= _batchSize) {
-            predictAndFlush(model, rowBatch);
+        rowBatch.rows.add(row);
+        if (rowBatch.rows.size() >= _batchSize) {
+            predictAndFlush(modelId, rowBatch, model);
+        } else if (rowBatch.model == null && !boosterCache.containsKey(modelId)) {
+            // keep a copy of the model to predict the pending rows at close()
+            rowBatch.model = new Text(model);
+        }
+    }
+
+    private void init() {
+        this.boosterCache = new LRUCache<String, Booster>(_maxModels,
+            new LRUCache.RemovalListener<String, Booster>() {
+                @Override
+                public void onRemoval(String modelId, Booster booster) {
+                    try {
+                        keepModelIfPending(modelId, booster);
+                    } finally {
+                        XGBoostUtils.close(booster);
+                    }
+                }
+            });
+        this.rowBuffer = new LinkedHashMap<String, RowBatch>();
+
+        final Reporter reporter = getReporter();
+        if (reporter != null) {
+            final String group = "hivemall.xgboost.XGBoostBatchPredict$Counter";
+            this._cacheHitCounter = reporter.getCounter(group, "Booster cache hits");
+            this._cacheMissCounter = reporter.getCounter(group, "Booster cache misses");
+            this._batchCounter = reporter.getCounter(group, "Number of predicted batches");
+            this._predictedRowCounter = reporter.getCounter(group, "Number of predicted rows");
+        }
+    }
+
+    /**
+     * Keeps the model of an evicted booster that still has pending rows, so that the rows can be
+     * predicted at close() without the model argument.
+     */
+    private void keepModelIfPending(@Nonnull final String modelId,
+            @Nonnull final Booster booster) {
+        final RowBatch rowBatch = rowBuffer.get(modelId);
+        if (rowBatch == null || rowBatch.rows.isEmpty() || rowBatch.model != null) {
+            return;
+        }
+        try {
+            rowBatch.model = XGBoostUtils.serializeBooster(booster);
+        } catch (HiveException e) {
+            throw new IllegalStateException("Failed to keep the model of " + modelId, e);
         }
     }
 
+    @Nonnull
+    private Booster getBooster(@Nonnull final String modelId, @Nullable final Text model)
+            throws HiveException {
+        Booster booster = boosterCache.get(modelId);
+        if (booster == null) {
+            if (model == null) {
+                throw new HiveException("Model is not found for the pending rows of " + modelId);
+            }
+            incrCounter(_cacheMissCounter, 1);
+            booster = XGBoostUtils.deserializeBooster(model);
+            boosterCache.put(modelId, booster, 1L);
+        } else {
+            incrCounter(_cacheHitCounter, 1);
+        }
+        return booster;
+    }
+
     @Nonnull
     private LabeledPointWithRowId parseRow(@Nonnull Object[] args) throws UDFArgumentException {
         final Writable rowId = HiveUtils.copyToWritable(nonNullArgument(args, 0), rowIdOI);
@@ -272,25 +355,50 @@ public final class XGBoostBatchPredictUDTF extends UDTFWithOptions {
 
     @Override
     public void close() throws HiveException {
-        for (Entry<String, List<LabeledPointWithRowId>> e : rowBuffer.entrySet()) {
-            String modelId = e.getKey();
-            List<LabeledPointWithRowId> rowBatch = e.getValue();
-            if (rowBatch.isEmpty()) {
-                continue;
+        if (boosterCache == null) {
+            return;
+        }
+        try {
+            for (Map.Entry<String, RowBatch> e : rowBuffer.entrySet()) {
+                RowBatch rowBatch = e.getValue();
+                predictAndFlush(e.getKey(), rowBatch, rowBatch.model);
             }
-            final Booster model = Objects.requireNonNull(mapToModel.get(modelId));
-            try {
-                predictAndFlush(model, rowBatch);
-            } finally {
-                XGBoostUtils.close(model);
+        } finally {
+            if (logger.isInfoEnabled()) {
+                logger.info("Predicted " + _numPredicted + " rows in " + _numBatches
+                        + " batches (average batch fill: "
+                        + String.format("%.1f%%", getAverageBatchFill() * 100.d) + "), "
+                        + boosterCache);
             }
+            rowBuffer.clear(); // no need to keep models of unpredicted rows
+            boosterCache.clear(); // release native memory
+            this.boosterCache = null;
+            this.rowBuffer = null;
+        }
+    }
+
+    /**
+     * @return the average number of rows in a batch divided by batch_size
+     */
+    private double getAverageBatchFill() {
+        if (_numBatches == 0L) {
+            return 0.d;
         }
-        this.rowBuffer = null;
-        this.mapToModel = null;
+        return (double) _numPredicted / _numBatches / _batchSize;
     }
 
-    private void predictAndFlush(@Nonnull final Booster model,
-            @Nonnull final List<LabeledPointWithRowId> rowBatch) throws HiveException {
+    /**
+     * @param serializedModel the model to load the booster if it is not cached
+     */
+    private void predictAndFlush(@Nonnull final String modelId, @Nonnull final RowBatch batch,
+            @Nullable final Text serializedModel) throws HiveException {
+        final List<LabeledPointWithRowId> rowBatch = batch.rows;
+        if (rowBatch.isEmpty()) {
+            return;
+        }
+        final Booster model = getBooster(modelId, serializedModel);
+        batch.model = null; // the booster is cached now
+
         DMatrix testData = null;
         final float[][] predicted;
         try {
@@ -301,6 +409,11 @@ public final class XGBoostBatchPredictUDTF extends UDTFWithOptions {
         } finally {
             XGBoostUtils.close(testData);
         }
+        _numBatches++;
+        _numPredicted += rowBatch.size();
+        incrCounter(_batchCounter, 1);
+        incrCounter(_predictedRowCounter, rowBatch.size());
+
         forwardPredicted(rowBatch, predicted);
         rowBatch.clear();
     }
@@ -329,6 +442,22 @@ public final class XGBoostBatchPredictUDTF extends UDTFWithOptions {
         }
     }
 
+    /**
+     * Pending rows of a model, which is reused across batches. A serialized model is held only
+     * while the booster of pending rows is not cached, so that the booster can be restored when
+     * the rows are predicted at close().
+     */
+    private static final class RowBatch {
+        @Nullable
+        Text model;
+        @Nonnull
+        final List<LabeledPointWithRowId> rows;
+
+        RowBatch(int batchSize) {
+            this.rows = new ArrayList<LabeledPointWithRowId>(batchSize);
+        }
+    }
+
     public static final class LabeledPointWithRowId extends LabeledPoint {
         private static final long serialVersionUID = -7150841669515184648L;
 
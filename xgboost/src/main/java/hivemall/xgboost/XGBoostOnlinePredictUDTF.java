@@ -18,14 +18,15 @@
  */
 package hivemall.xgboost;
 
-import biz.k11i.xgboost.Predictor;
-import biz.k11i.xgboost.util.FVec;
 import hivemall.UDTFWithOptions;
+import hivemall.utils.hadoop.FeatureParser;
 import hivemall.utils.hadoop.HiveUtils;
 import hivemall.utils.hadoop.WritableUtils;
+import hivemall.xgboost.utils.XGBoostPredictor;
 import hivemall.xgboost.utils.XGBoostUtils;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -80,7 +81,13 @@ public class XGBoostOnlinePredictUDTF extends UDTFWithOptions {
 
     // For input buffer
     @Nullable
-    private transient Map<String, Predictor> mapToModel;
+    private transient Map<String, XGBoostPredictor> mapToModel;
+    /** reused feature values where NaN represents a missing value */
+    @Nonnull
+    private transient float[] _row = new float[0];
+    /** indices set in <code>_row</code> by sparse features */
+    @Nonnull
+    private transient int[] _rowIndices = new int[0];
 
     @Nonnull
     protected transient final Object[] _forwardObj;
@@ -158,7 +165,7 @@ public class XGBoostOnlinePredictUDTF extends UDTFWithOptions {
     @Override
     public void process(Object[] args) throws HiveException {
         if (mapToModel == null) {
-            this.mapToModel = new HashMap<String, Predictor>();
+            this.mapToModel = new HashMap<String, XGBoostPredictor>();
         }
         if (args[1] == null) {// features is null
             return;
@@ -166,68 +173,123 @@ public class XGBoostOnlinePredictUDTF extends UDTFWithOptions {
 
         String modelId =
                 PrimitiveObjectInspectorUtils.getString(nonNullArgument(args, 2), modelIdOI);
-        Predictor model = mapToModel.get(modelId);
+        XGBoostPredictor model = mapToModel.get(modelId);
         if (model == null) {
             Text arg3 = modelOI.getPrimitiveWritableObject(nonNullArgument(args, 3));
-            model = XGBoostUtils.loadPredictor(arg3);
+            model = XGBoostUtils.loadXGBoostPredictor(arg3);
             mapToModel.put(modelId, model);
         }
 
         Writable rowId = HiveUtils.copyToWritable(nonNullArgument(args, 0), rowIdOI);
-        FVec features = denseFeatures ? parseDenseFeatures(args[1])
-                : parseSparseFeatures(featureListOI.getList(args[1]));
-
-        predictAndForward(model, rowId, features);
+        if (denseFeatures) {
+            float[] row = parseDenseFeatures(args[1]);
+            predictAndForward(model, rowId, row);
+        } else {
+            int numIndices = parseSparseFeatures(featureListOI.getList(args[1]), model);
+            try {
+                predictAndForward(model, rowId, _row);
+            } finally {
+                clearSparseFeatures(numIndices);
+            }
+        }
     }
 
     @Nonnull
-    private FVec parseDenseFeatures(@Nonnull Object argObj) throws UDFArgumentException {
+    private float[] parseDenseFeatures(@Nonnull Object argObj) throws UDFArgumentException {
         final int length = featureListOI.getListLength(argObj);
-        final double[] values = new double[length];
+        float[] row = _row;
+        if (row.length != length) {
+            this._row = row = new float[length];
+        }
         for (int i = 0; i < length; i++) {
             final Object o = featureListOI.getListElement(argObj, i);
-            final double v;
+            final float v;
             if (o == null) {
-                v = Double.NaN;
+                v = Float.NaN;
             } else {
-                v = PrimitiveObjectInspectorUtils.getDouble(o, featureElemOI);
+                v = (float) PrimitiveObjectInspectorUtils.getDouble(o, featureElemOI);
             }
-            values[i] = v;
-
+            row[i] = v;
         }
-        return FVec.Transformer.fromArray(values, false);
+        return row;
     }
 
-    @Nonnull
-    private static FVec parseSparseFeatures(@Nonnull final List<?> featureList)
-            throws UDFArgumentException {
-        final Map<Integer, Double> map = new HashMap<>((int) (featureList.size() * 1.5));
+    /**
+     * Sets sparse features to <code>_row</code> that holds NaN for missing values.
+     *
+     * @return the number of indices set, which should be cleared by
+     *         {@link #clearSparseFeatures(int)} after prediction
+     */
+    private int parseSparseFeatures(@Nonnull final List<?> featureList,
+            @Nonnull final XGBoostPredictor model) throws UDFArgumentException {
+        float[] row = _row;
+        if (row.length < model.getNumFeatures()) {
+            final int oldLength = row.length;
+            this._row = row = Arrays.copyOf(row, model.getNumFeatures());
+            Arrays.fill(row, oldLength, row.length, Float.NaN);
+        }
+        int[] indices = _rowIndices;
+        if (indices.length < featureList.size()) {
+            this._rowIndices = indices = new int[featureList.size()];
+        }
+
+        int numIndices = 0;
         for (Object f : featureList) {
             if (f == null) {
                 continue;
             }
-            String str = f.toString();
-            final int pos = str.indexOf(':');
-            if (pos < 1) {
-                throw new UDFArgumentException("Invalid feature format: " + str);
-            }
             final int index;
-            final double value;
-            try {
-                index = Integer.parseInt(str.substring(0, pos));
-                value = Double.parseDouble(str.substring(pos + 1));
-            } catch (NumberFormatException e) {
-                throw new UDFArgumentException("Failed to parse a feature value: " + str);
+            final float value;
+            if (f instanceof Text) {
+                final Text t = (Text) f;
+                final byte[] b = t.getBytes();
+                final int pos = FeatureParser.indexOf(b, 0, t.getLength(), (byte) ':');
+                if (pos < 1) {
+                    clearSparseFeatures(numIndices);
+                    throw new UDFArgumentException("Invalid feature format: " + t);
+                }
+                try {
+                    index = FeatureParser.parseInt(b, 0, pos);
+                    value = FeatureParser.parseFloat(b, pos + 1, t.getLength());
+                } catch (NumberFormatException e) {
+                    clearSparseFeatures(numIndices);
+                    throw new UDFArgumentException("Failed to parse a feature value: " + t);
+                }
+            } else {
+                String str = f.toString();
+                final int pos = str.indexOf(':');
+                if (pos < 1) {
+                    clearSparseFeatures(numIndices);
+                    throw new UDFArgumentException("Invalid feature format: " + str);
+                }
+                try {
+                    index = Integer.parseInt(str.substring(0, pos));
+                    value = Float.parseFloat(str.substring(pos + 1));
+                } catch (NumberFormatException e) {
+                    clearSparseFeatures(numIndices);
+                    throw new UDFArgumentException("Failed to parse a feature value: " + str);
+                }
+            }
+            if (index < 0 || index >= row.length) {
+                continue; // never used by the model
             }
-            map.put(index, value);
+            row[index] = value;
+            indices[numIndices++] = index;
         }
+        return numIndices;
+    }
 
-        return FVec.Transformer.fromMap(map);
+    private void clearSparseFeatures(final int numIndices) {
+        final float[] row = _row;
+        final int[] indices = _rowIndices;
+        for (int i = 0; i < numIndices; i++) {
+            row[indices[i]] = Float.NaN;
+        }
     }
 
-    private void predictAndForward(@Nonnull final Predictor model, @Nonnull final Writable rowId,
-            @Nonnull final FVec features) throws HiveException {
-        double[] predicted = model.predict(features);
+    private void predictAndForward(@Nonnull final XGBoostPredictor model,
+            @Nonnull final Writable rowId, @Nonnull final float[] row) throws HiveException {
+        double[] predicted = model.predict(row);
         // predicted[0] has
         //    - probability ("binary:logistic")
         //    - class label ("multi:softmax")
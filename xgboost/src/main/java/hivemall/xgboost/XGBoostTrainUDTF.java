@@ -279,12 +279,6 @@ public class XGBoostTrainUDTF extends UDTFWithOptions {
                     + " - Ranking:\n {rank:pairwise, rank:ndcg, rank:map}\n"
                     + " - Other:\n {count:poisson, survival:cox}");
         }
-        if (objective.equals("reg:squarederror")) {
-            // reg:linear is deprecated synonym of reg:squarederror
-            // however, reg:squarederror is not supported in xgboost-predictor yet
-            // https://github.com/dmlc/xgboost/pull/4267
-            objective = "reg:linear";
-        }
         final String booster = cl.getOptionValue("booster", "gbtree");
 
         int numRound = Primitives.parseInt(cl.getOptionValue("num_round"), 10);
@@ -500,8 +494,12 @@ public class XGBoostTrainUDTF extends UDTFWithOptions {
                 if (o == null) {
                     continue;
                 }
-                String fv = o.toString();
-                builder.nextColumn(fv);
+                if (o instanceof Text) {
+                    builder.nextColumn((Text) o);
+                } else {
+                    String fv = o.toString();
+                    builder.nextColumn(fv);
+                }
             }
         }
         builder.nextRow();
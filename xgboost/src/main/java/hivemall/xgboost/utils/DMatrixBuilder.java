@@ -18,12 +18,15 @@
  */
 package hivemall.xgboost.utils;
 
+import hivemall.utils.hadoop.FeatureParser;
 import ml.dmlc.xgboost4j.java.DMatrix;
 import ml.dmlc.xgboost4j.java.XGBoostError;
 
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 
+import org.apache.hadoop.io.Text;
+
 public abstract class DMatrixBuilder {
 
     public DMatrixBuilder() {}
@@ -103,6 +106,25 @@ public abstract class DMatrixBuilder {
         return nextColumn(colIndex, value);
     }
 
+    /**
+     * Same as {@link #nextColumn(String)} but parses the feature directly from the bytes of the
+     * text.
+     *
+     * @throws IllegalArgumentException
+     * @throws NumberFormatException
+     */
+    @Nonnull
+    public DMatrixBuilder nextColumn(@Nonnull final Text col) {
+        final int pos = FeatureParser.indexOfValue(col);
+        final int colIndex = FeatureParser.parseFeatureAsInt(col, pos);
+        if (colIndex < 0) {
+            throw new IllegalArgumentException(
+                "Col index MUST be greater than or equals to 0: " + colIndex);
+        }
+        final float value = FeatureParser.parseValueAsFloat(col, pos);
+        return nextColumn(colIndex, value);
+    }
+
     @Nonnull
     public abstract DMatrix buildMatrix(@Nonnull float[] labels) throws XGBoostError;
 
@@ -0,0 +1,496 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.xgboost.utils;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A pure-Java evaluator of xgboost models serialized by <code>Booster#toByteArray()</code>.
+ *
+ * All the trees of a gbtree/dart model are flattened into parallel primitive arrays, so that no
+ * object is allocated for each node nor for each prediction. A row is given as a float array in
+ * which a missing value is represented by NaN, and values beyond the array are also treated as
+ * missing.
+ *
+ * @link https://github.com/dmlc/xgboost/blob/release_0.90/src/learner.cc
+ */
+@ThreadSafe
+public final class XGBoostPredictor {
+
+    /** sizeof(LearnerModelParam) */
+    private static final int LEARNER_PARAM_BYTES = 136;
+    /** sizeof(GBTreeModelParam) */
+    private static final int GBTREE_PARAM_BYTES = 160;
+    /** sizeof(GBLinearModelParam) */
+    private static final int GBLINEAR_PARAM_BYTES = 136;
+    /** sizeof(TreeParam) */
+    private static final int TREE_PARAM_BYTES = 148;
+    /** sizeof(RTreeNodeStat) */
+    private static final int NODE_STAT_BYTES = 16;
+
+    private static final int DEFAULT_LEFT_MASK = 0x80000000;
+    private static final int SPLIT_INDEX_MASK = 0x7fffffff;
+
+    enum Objective {
+        identity, logistic, exp, softmax, softprob, hinge;
+
+        @Nonnull
+        static Objective resolve(@Nonnull final String name) throws IOException {
+            switch (name) {
+                case "reg:linear":
+                case "reg:squarederror":
+                case "binary:logitraw":
+                case "rank:pairwise":
+                case "rank:ndcg":
+                case "rank:map":
+                    return identity;
+                case "reg:logistic":
+                case "binary:logistic":
+                    return logistic;
+                case "count:poisson":
+                case "reg:gamma":
+                case "reg:tweedie":
+                case "survival:cox":
+                    return exp;
+                case "multi:softmax":
+                    return softmax;
+                case "multi:softprob":
+                    return softprob;
+                case "binary:hinge":
+                    return hinge;
+                default:
+                    throw new IOException("Unsupported objective: " + name);
+            }
+        }
+    }
+
+    @Nonnull
+    private final String objectiveName;
+    @Nonnull
+    private final Objective objective;
+    @Nonnull
+    private final String boosterName;
+    private final float baseMargin;
+    @Nonnegative
+    private final int numFeatures;
+    @Nonnegative
+    private final int numGroups;
+
+    // -----------------------------------------
+    // gbtree/dart: trees are laid out one after another in the node arrays
+
+    /** root node of each tree */
+    @Nullable
+    private final int[] treeRoots;
+    /** output group of each tree */
+    @Nullable
+    private final int[] treeGroups;
+    /** weight of each tree for dart, otherwise null */
+    @Nullable
+    private final float[] treeWeights;
+    /** absolute index of the left child, or -1 for a leaf */
+    @Nullable
+    private final int[] leftChildren;
+    @Nullable
+    private final int[] rightChildren;
+    /** split feature index with the default-left flag in the sign bit */
+    @Nullable
+    private final int[] splitIndices;
+    /** split condition for an inner node and leaf value for a leaf */
+    @Nullable
+    private final float[] values;
+
+    // -----------------------------------------
+    // gblinear
+
+    /** weight[feature * numGroups + group] followed by the bias of each group */
+    @Nullable
+    private final float[] linearWeights;
+
+    private XGBoostPredictor(@Nonnull String objectiveName, @Nonnull String boosterName,
+            float baseMargin, int numFeatures, int numGroups, @Nullable int[] treeRoots,
+            @Nullable int[] treeGroups, @Nullable float[] treeWeights,
+            @Nullable int[] leftChildren, @Nullable int[] rightChildren,
+            @Nullable int[] splitIndices, @Nullable float[] values,
+            @Nullable float[] linearWeights) throws IOException {
+        this.objectiveName = objectiveName;
+        this.objective = Objective.resolve(objectiveName);
+        this.boosterName = boosterName;
+        this.baseMargin = baseMargin;
+        this.numFeatures = numFeatures;
+        this.numGroups = numGroups;
+        this.treeRoots = treeRoots;
+        this.treeGroups = treeGroups;
+        this.treeWeights = treeWeights;
+        this.leftChildren = leftChildren;
+        this.rightChildren = rightChildren;
+        this.splitIndices = splitIndices;
+        this.values = values;
+        this.linearWeights = linearWeights;
+    }
+
+    @Nonnull
+    public String getObjective() {
+        return objectiveName;
+    }
+
+    @Nonnull
+    public String getBooster() {
+        return boosterName;
+    }
+
+    /**
+     * @return the number of features, i.e., the max feature index + 1, of the model
+     */
+    @Nonnegative
+    public int getNumFeatures() {
+        return numFeatures;
+    }
+
+    /**
+     * @return the length of the array returned by {@link #predict(float[])}
+     */
+    @Nonnegative
+    public int getNumOutputs() {
+        return (objective == Objective.softmax) ? 1 : numGroups;
+    }
+
+    /**
+     * @param row feature values where NaN represents a missing value
+     * @return the transformed prediction, e.g., probabilities for "binary:logistic" and
+     *         "multi:softprob" and a class label for "multi:softmax"
+     */
+    @Nonnull
+    public double[] predict(@Nonnull final float[] row) {
+        final double[] out = new double[getNumOutputs()];
+        predict(row, out);
+        return out;
+    }
+
+    /**
+     * @param out an array of length {@link #getNumOutputs()} to store the prediction
+     */
+    public void predict(@Nonnull final float[] row, @Nonnull final double[] out) {
+        final int numGroups = this.numGroups;
+        if (numGroups == 1) {
+            out[0] = transform(predictMargin(row, 0));
+            return;
+        }
+
+        final float[] margins = new float[numGroups];
+        for (int k = 0; k < numGroups; k++) {
+            margins[k] = predictMargin(row, k);
+        }
+        if (objective == Objective.softmax) {
+            int argmax = 0;
+            for (int k = 1; k < numGroups; k++) {
+                if (margins[k] > margins[argmax]) {
+                    argmax = k;
+                }
+            }
+            out[0] = argmax;
+        } else if (objective == Objective.softprob) {
+            softmax(margins, out);
+        } else {
+            for (int k = 0; k < numGroups; k++) {
+                out[k] = transform(margins[k]);
+            }
+        }
+    }
+
+    /**
+     * @return the untransformed margin of the given output group
+     */
+    public float predictMargin(@Nonnull final float[] row, @Nonnegative final int group) {
+        if (linearWeights != null) {
+            return predictLinear(row, group);
+        }
+
+        final int[] treeRoots = this.treeRoots, treeGroups = this.treeGroups;
+        final float[] treeWeights = this.treeWeights;
+        float sum = baseMargin;
+        for (int t = 0; t < treeRoots.length; t++) {
+            if (treeGroups[t] != group) {
+                continue;
+            }
+            float leaf = values[getLeaf(treeRoots[t], row)];
+            if (treeWeights != null) {
+                leaf *= treeWeights[t];
+            }
+            sum += leaf;
+        }
+        return sum;
+    }
+
+    private int getLeaf(final int root, @Nonnull final float[] row) {
+        final int[] leftChildren = this.leftChildren, rightChildren = this.rightChildren;
+        final int[] splitIndices = this.splitIndices;
+        final float[] values = this.values;
+
+        int node = root;
+        for (int left; (left = leftChildren[node]) != -1;) {
+            final int split = splitIndices[node];
+            final int feature = split & SPLIT_INDEX_MASK;
+            final float v = (feature < row.length) ? row[feature] : Float.NaN;
+            if (Float.isNaN(v)) {
+                node = ((split & DEFAULT_LEFT_MASK) != 0) ? left : rightChildren[node];
+            } else {
+                node = (v < values[node]) ? left : rightChildren[node];
+            }
+        }
+        return node;
+    }
+
+    private float predictLinear(@Nonnull final float[] row, @Nonnegative final int group) {
+        final float[] weights = this.linearWeights;
+        final int numGroups = this.numGroups;
+        float sum = baseMargin + weights[numFeatures * numGroups + group];
+        for (int i = 0, size = Math.min(row.length, numFeatures); i < size; i++) {
+            final float v = row[i];
+            if (!Float.isNaN(v)) {
+                sum += v * weights[i * numGroups + group];
+            }
+        }
+        return sum;
+    }
+
+    private double transform(final float margin) {
+        switch (objective) {
+            case logistic:
+                return 1.f / (1.f + (float) Math.exp(-margin));
+            case exp:
+                return (float) Math.exp(margin);
+            case hinge:
+                return (margin > 0.f) ? 1.d : 0.d;
+            default:
+                return margin;
+        }
+    }
+
+    private static void softmax(@Nonnull final float[] margins, @Nonnull final double[] out) {
+        float max = margins[0];
+        for (int k = 1; k < margins.length; k++) {
+            max = Math.max(max, margins[k]);
+        }
+        float sum = 0.f;
+        for (int k = 0; k < margins.length; k++) {
+            float e = (float) Math.exp(margins[k] - max);
+            out[k] = e;
+            sum += e;
+        }
+        for (int k = 0; k < margins.length; k++) {
+            out[k] = (float) out[k] / sum;
+        }
+    }
+
+    // -----------------------------------------
+    // deserialization
+
+    @Nonnull
+    public static XGBoostPredictor load(@Nonnull final byte[] model) throws IOException {
+        return load(model, 0, model.length);
+    }
+
+    @Nonnull
+    public static XGBoostPredictor load(@Nonnull final byte[] model, final int offset,
+            final int length) throws IOException {
+        final ByteBuffer buf = ByteBuffer.wrap(model, offset, length);
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            return load(buf);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Unexpected end of an xgboost model", e);
+        }
+    }
+
+    @Nonnull
+    private static XGBoostPredictor load(@Nonnull final ByteBuffer buf) throws IOException {
+        // skip the "binf" header of old model files
+        if (buf.remaining() >= 4 && buf.get(buf.position()) == 'b'
+                && buf.get(buf.position() + 1) == 'i' && buf.get(buf.position() + 2) == 'n'
+                && buf.get(buf.position() + 3) == 'f') {
+            skip(buf, 4);
+        }
+
+        // LearnerModelParam
+        final int start = buf.position();
+        final float baseScore = buf.getFloat(); // stored as a margin
+        final int numFeatures = buf.getInt();
+        buf.position(start + LEARNER_PARAM_BYTES);
+
+        final String objective = readString(buf);
+        final String booster = readString(buf);
+        if ("gblinear".equals(booster)) {
+            return loadLinear(buf, objective, booster, baseScore);
+        } else if ("gbtree".equals(booster) || "dart".equals(booster)) {
+            return loadTrees(buf, objective, booster, baseScore, numFeatures);
+        } else {
+            throw new IOException("Unsupported booster: " + booster);
+        }
+    }
+
+    @Nonnull
+    private static XGBoostPredictor loadTrees(@Nonnull final ByteBuffer buf,
+            @Nonnull final String objective, @Nonnull final String booster,
+            final float baseMargin, final int numFeatures) throws IOException {
+        // GBTreeModelParam
+        final int start = buf.position();
+        final int numTrees = buf.getInt();
+        skip(buf, 4 + 4 + 4 + 8); // num_roots, num_feature, pad_32bit, num_pbuffer_deprecated
+        final int numGroups = Math.max(buf.getInt(), 1);
+        buf.position(start + GBTREE_PARAM_BYTES);
+
+        final int[] treeRoots = new int[numTrees];
+        int[] leftChildren = new int[Math.max(numTrees, 16)];
+        int[] rightChildren = new int[leftChildren.length];
+        int[] splitIndices = new int[leftChildren.length];
+        float[] values = new float[leftChildren.length];
+        int totalNodes = 0;
+        for (int t = 0; t < numTrees; t++) {
+            // TreeParam
+            final int treeStart = buf.position();
+            skip(buf, 4); // num_roots
+            final int numNodes = buf.getInt();
+            skip(buf, 4 + 4 + 4); // num_deleted, max_depth, num_feature
+            final int sizeLeafVector = buf.getInt();
+            buf.position(treeStart + TREE_PARAM_BYTES);
+            if (numNodes <= 0) {
+                throw new IOException("Invalid number of tree nodes: " + numNodes);
+            }
+
+            final int required = totalNodes + numNodes;
+            if (required > values.length) {
+                final int newSize = Math.max(required, values.length * 2);
+                leftChildren = Arrays.copyOf(leftChildren, newSize);
+                rightChildren = Arrays.copyOf(rightChildren, newSize);
+                splitIndices = Arrays.copyOf(splitIndices, newSize);
+                values = Arrays.copyOf(values, newSize);
+            }
+
+            // Node {int parent; int cleft; int cright; unsigned sindex; float info;}
+            treeRoots[t] = totalNodes;
+            for (int i = totalNodes; i < required; i++) {
+                skip(buf, 4); // parent
+                final int left = buf.getInt();
+                final int right = buf.getInt();
+                leftChildren[i] = (left == -1) ? -1 : totalNodes + left;
+                rightChildren[i] = (right == -1) ? -1 : totalNodes + right;
+                splitIndices[i] = buf.getInt();
+                values[i] = buf.getFloat();
+            }
+            skip(buf, NODE_STAT_BYTES * numNodes);
+            if (sizeLeafVector != 0) {// leaf vectors of old models
+                skip(buf, 4 * readSize(buf));
+            }
+            totalNodes = required;
+        }
+
+        final int[] treeGroups = new int[numTrees];
+        for (int t = 0; t < numTrees; t++) {
+            treeGroups[t] = buf.getInt();
+        }
+
+        float[] treeWeights = null;
+        if ("dart".equals(booster) && numTrees != 0) {
+            final int size = readSize(buf);
+            if (size != numTrees) {
+                throw new IOException(
+                    "Invalid number of dart weights: " + size + ", expected " + numTrees);
+            }
+            treeWeights = new float[size];
+            for (int t = 0; t < size; t++) {
+                treeWeights[t] = buf.getFloat();
+            }
+        }
+
+        return new XGBoostPredictor(objective, booster, baseMargin, numFeatures, numGroups,
+            treeRoots, treeGroups, treeWeights, Arrays.copyOf(leftChildren, totalNodes),
+            Arrays.copyOf(rightChildren, totalNodes), Arrays.copyOf(splitIndices, totalNodes),
+            Arrays.copyOf(values, totalNodes), null);
+    }
+
+    @Nonnull
+    private static XGBoostPredictor loadLinear(@Nonnull final ByteBuffer buf,
+            @Nonnull final String objective, @Nonnull final String booster,
+            final float baseMargin) throws IOException {
+        // GBLinearModelParam, whose num_feature determines the layout of the weights
+        final int start = buf.position();
+        final int numFeatures = buf.getInt();
+        final int numGroups = Math.max(buf.getInt(), 1);
+        buf.position(start + GBLINEAR_PARAM_BYTES);
+
+        final int size = readSize(buf);
+        if (size != (numFeatures + 1) * numGroups) {
+            throw new IOException("Invalid number of linear weights: " + size);
+        }
+        final float[] weights = new float[size];
+        for (int i = 0; i < size; i++) {
+            weights[i] = buf.getFloat();
+        }
+        return new XGBoostPredictor(objective, booster, baseMargin, numFeatures, numGroups, null,
+            null, null, null, null, null, null, weights);
+    }
+
+    /**
+     * Reads a std::string written by dmlc::Stream, i.e., a uint64 length followed by bytes.
+     */
+    @Nonnull
+    private static String readString(@Nonnull final ByteBuffer buf) throws IOException {
+        long len = buf.getLong();
+        if (len >= 0xffffffffL || len < 0L) {// backward compatibility of old models
+            skip(buf, 4);
+            len = len >>> 32;
+        }
+        if (len > buf.remaining()) {
+            throw new IOException("Invalid string length: " + len);
+        }
+        final byte[] b = new byte[(int) len];
+        buf.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the uint64 size of a std::vector written by dmlc::Stream.
+     */
+    private static int readSize(@Nonnull final ByteBuffer buf) throws IOException {
+        final long size = buf.getLong();
+        if (size < 0L || size > Integer.MAX_VALUE) {
+            throw new IOException("Invalid vector size: " + size);
+        }
+        return (int) size;
+    }
+
+    private static void skip(@Nonnull final ByteBuffer buf, final int bytes) throws IOException {
+        if (bytes > buf.remaining()) {
+            throw new IOException("Unexpected end of an xgboost model");
+        }
+        buf.position(buf.position() + bytes);
+    }
+
+}
@@ -18,7 +18,6 @@
  */
 package hivemall;
 
-import biz.k11i.xgboost.util.FVec;
 import hivemall.utils.collections.lists.FloatArrayList;
 import hivemall.utils.io.IOUtils;
 import hivemall.utils.lang.ArrayUtils;
@@ -26,7 +25,6 @@ import hivemall.utils.math.MathUtils;
 import hivemall.xgboost.utils.DMatrixBuilder;
 import hivemall.xgboost.utils.DenseDMatrixBuilder;
 import hivemall.xgboost.utils.SparseDMatrixBuilder;
-import hivemall.xgboost.utils.XGBoostUtils;
 import ml.dmlc.xgboost4j.java.DMatrix;
 
 import java.io.BufferedReader;
@@ -265,7 +263,10 @@ public abstract class TestBase {
 
         public abstract DMatrix loadDatasetAsDMatrix() throws Exception;
 
-        public abstract List<FVec> loadDatasetAsListOfFVec() throws Exception;
+        /**
+         * @return rows of features that hold NaN for missing values
+         */
+        public abstract List<float[]> loadDatasetAsListOfRows() throws Exception;
 
     }
 
@@ -322,14 +323,29 @@ public abstract class TestBase {
         }
 
         @Override
-        public List<FVec> loadDatasetAsListOfFVec() throws Exception {
-            final List<FVec> dataset = new ArrayList<>();
+        public List<float[]> loadDatasetAsListOfRows() throws Exception {
+            final List<float[]> dataset = new ArrayList<>();
 
             RowProcessor proc = new RowProcessor() {
                 @Override
                 public void handleRow(String[] splitted) throws Exception {
-                    FVec fv = XGBoostUtils.parseRowAsFVec(splitted, 1, splitted.length);
-                    dataset.add(fv);
+                    final int numFeatures = splitted.length - 1;
+                    final int[] indices = new int[numFeatures];
+                    final float[] values = new float[numFeatures];
+                    int maxIndex = -1;
+                    for (int i = 0; i < numFeatures; i++) {
+                        String f = splitted[i + 1];
+                        int pos = f.indexOf(':');
+                        indices[i] = Integer.parseInt(f.substring(0, pos));
+                        values[i] = Float.parseFloat(f.substring(pos + 1));
+                        maxIndex = Math.max(maxIndex, indices[i]);
+                    }
+                    final float[] row = new float[maxIndex + 1];
+                    Arrays.fill(row, Float.NaN);
+                    for (int i = 0; i < numFeatures; i++) {
+                        row[indices[i]] = values[i];
+                    }
+                    dataset.add(row);
                 }
 
             };
@@ -412,8 +428,8 @@ public abstract class TestBase {
         }
 
         @Override
-        public List<FVec> loadDatasetAsListOfFVec() throws Exception {
-            final List<FVec> dataset = new ArrayList<>();
+        public List<float[]> loadDatasetAsListOfRows() throws Exception {
+            final List<float[]> dataset = new ArrayList<>();
 
             RowProcessor proc = new RowProcessor() {
                 @Override
@@ -424,14 +440,13 @@ public abstract class TestBase {
                     }
                     features[33] = splitted[33].equals("?") ? 0.f : Float.parseFloat(splitted[33]);
 
-                    FVec fv = FVec.Transformer.fromArray(features, false);
-                    dataset.add(fv);
+                    dataset.add(features);
                 }
 
             };
             parse(proc);
 
-            return slice(dataset, sliceIndex, FVec.class);
+            return slice(dataset, sliceIndex, float[].class);
         }
 
     }
@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.xgboost;
+
+import hivemall.utils.collections.maps.LRUCache;
+import hivemall.utils.lang.PrivilegedAccessor;
+import hivemall.xgboost.utils.XGBoostUtils;
+import ml.dmlc.xgboost4j.java.Booster;
+import ml.dmlc.xgboost4j.java.DMatrix;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.Collector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class XGBoostBatchPredictUDTFTest {
+
+    @Test
+    public void testEvictionWithInterleavedModels() throws Exception {
+        final Map<String, Booster> boosters = new HashMap<String, Booster>();
+        boosters.put("A", train(false));
+        boosters.put("B", train(true));
+        final Map<String, Text> models = new HashMap<String, Text>();
+        for (Map.Entry<String, Booster> e : boosters.entrySet()) {
+            models.put(e.getKey(), XGBoostUtils.serializeBooster(e.getValue()));
+        }
+
+        XGBoostBatchPredictUDTF udtf = new XGBoostBatchPredictUDTF();
+        udtf.initialize(new ObjectInspector[] {
+                PrimitiveObjectInspectorFactory.javaIntObjectInspector,
+                ObjectInspectorFactory.getStandardListObjectInspector(
+                    PrimitiveObjectInspectorFactory.javaDoubleObjectInspector),
+                PrimitiveObjectInspectorFactory.javaStringObjectInspector,
+                PrimitiveObjectInspectorFactory.writableStringObjectInspector,
+                ObjectInspectorUtils.getConstantObjectInspector(
+                    PrimitiveObjectInspectorFactory.javaStringObjectInspector,
+                    "-batch_size 4 -max_models 1")});
+        final Map<Integer, Float> actuals = new HashMap<Integer, Float>();
+        udtf.setCollector(new Collector() {
+            @Override
+            public void collect(Object input) throws HiveException {
+                Object[] forwarded = (Object[]) input;
+                int rowId = ((IntWritable) forwarded[0]).get();
+                @SuppressWarnings("unchecked")
+                List<FloatWritable> predicted = (List<FloatWritable>) forwarded[1];
+                Assert.assertEquals(1, predicted.size());
+                Assert.assertNull(actuals.put(rowId, predicted.get(0).get()));
+            }
+        });
+
+        // A is flushed and cached, then evicted by B while a row of A is pending
+        final String[] modelIds =
+                new String[] {"A", "A", "A", "A", "A", "B", "B", "B", "B", "A", "B", "A", "B"};
+        Booster cachedA = null;
+        for (int i = 0; i < modelIds.length; i++) {
+            String modelId = modelIds[i];
+            udtf.process(new Object[] {i, Arrays.asList(Double.valueOf(i % 10)), modelId,
+                    models.get(modelId)});
+            if (i == 3) {
+                Assert.assertEquals(4, actuals.size());
+                cachedA = getBoosterCache(udtf).get("A");
+                Assert.assertNotNull(cachedA);
+            } else if (i == 8) {
+                Assert.assertEquals(8, actuals.size());
+                Assert.assertNull(getBoosterCache(udtf).get("A"));
+                Assert.assertEquals(0L, PrivilegedAccessor.getValue(cachedA, "handle"));
+            }
+        }
+        // the pending rows of A and B are predicted after their boosters were evicted
+        udtf.close();
+
+        Assert.assertEquals(modelIds.length, actuals.size());
+        for (int i = 0; i < modelIds.length; i++) {
+            float expected = predict(boosters.get(modelIds[i]), i % 10);
+            Assert.assertEquals("rowid " + i, expected, actuals.get(i).floatValue(), 1E-5f);
+        }
+        for (Booster booster : boosters.values()) {
+            XGBoostUtils.close(booster);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Nonnull
+    private static LRUCache<String, Booster> getBoosterCache(@Nonnull XGBoostBatchPredictUDTF udtf)
+            throws Exception {
+        return (LRUCache<String, Booster>) PrivilegedAccessor.getValue(udtf, "boosterCache");
+    }
+
+    /**
+     * Trains y = x, or y = 10 - x if reversed, for x in [0, 10).
+     */
+    @Nonnull
+    private static Booster train(final boolean reversed) throws Exception {
+        final float[] data = new float[10];
+        final float[] labels = new float[10];
+        for (int i = 0; i < 10; i++) {
+            data[i] = i;
+            labels[i] = reversed ? 10.f - i : i;
+        }
+        DMatrix dtrain = new DMatrix(data, 10, 1, Float.NaN);
+        try {
+            dtrain.setLabel(labels);
+            Map<String, Object> params = new HashMap<String, Object>();
+            params.put("objective", "reg:linear");
+            params.put("eta", 1.0);
+            params.put("max_depth", 4);
+            params.put("min_child_weight", 0);
+            params.put("silent", 1);
+            Booster booster = XGBoostUtils.createBooster(dtrain, params);
+            for (int iter = 0; iter < 5; iter++) {
+                booster.update(dtrain, iter);
+            }
+            return booster;
+        } finally {
+            XGBoostUtils.close(dtrain);
+        }
+    }
+
+    private static float predict(@Nonnull Booster booster, final float x) throws Exception {
+        DMatrix dtest = new DMatrix(new float[] {x}, 1, 1, Float.NaN);
+        try {
+            return booster.predict(dtest)[0][0];
+        } finally {
+            XGBoostUtils.close(dtest);
+        }
+    }
+
+}
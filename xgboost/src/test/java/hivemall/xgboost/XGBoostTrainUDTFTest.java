@@ -18,13 +18,11 @@
  */
 package hivemall.xgboost;
 
-import biz.k11i.xgboost.Predictor;
-import biz.k11i.xgboost.util.FVec;
 import hivemall.TestBase;
 import hivemall.TestUtils;
-import hivemall.utils.lang.PrivilegedAccessor;
 import hivemall.utils.lang.mutable.MutableObject;
 import hivemall.utils.math.MathUtils;
+import hivemall.xgboost.utils.XGBoostPredictor;
 import hivemall.xgboost.utils.XGBoostUtils;
 import ml.dmlc.xgboost4j.java.Booster;
 import ml.dmlc.xgboost4j.java.DMatrix;
@@ -168,42 +166,32 @@ public class XGBoostTrainUDTFTest extends TestBase {
                     XGBoostUtils.close(booster);
                 }
 
-                Predictor predictor = XGBoostUtils.loadPredictor(modelStr);
-                final String gbmName, objName;
-                try {
-                    gbmName = (String) PrivilegedAccessor.getValue(predictor, "name_gbm");
-                    objName = (String) PrivilegedAccessor.getValue(predictor, "name_obj");
-                } catch (Exception e) {
-                    throw new HiveException(e);
-                }
-                Assert.assertEquals(udtf.params.get("booster"), gbmName);
-                Assert.assertEquals(udtf.params.get("objective"), objName);
+                XGBoostPredictor predictor = XGBoostUtils.loadXGBoostPredictor(modelStr);
+                Assert.assertEquals(udtf.params.get("booster"), predictor.getBooster());
+                Assert.assertEquals(udtf.params.get("objective"), predictor.getObjective());
 
-                final List<FVec> fvList;
+                final List<float[]> rows;
                 try {
-                    fvList = testDataset.loadDatasetAsListOfFVec();
+                    rows = testDataset.loadDatasetAsListOfRows();
                 } catch (Exception e) {
                     throw new HiveException(e);
                 }
-                Assert.assertEquals(expecteds.length, fvList.size());
+                Assert.assertEquals(expecteds.length, rows.size());
                 int mismatches = 0;
                 for (int i = 0; i < expecteds.length; i++) {
                     float[] expected = expecteds[i];
-                    FVec fv = fvList.get(i);
-                    double[] actual = predictor.predict(fv);
+                    double[] actual = predictor.predict(rows.get(i));
                     Assert.assertEquals(expected.length, actual.length);
-                    if (!objName.startsWith("reg:")) {
-                        for (int j = 0; j < expected.length; j++) {
-                            if (!MathUtils.equals(expected[j], actual[j], 1e-5d)) {
-                                mismatches++;
-                                break;
-                            }
+                    for (int j = 0; j < expected.length; j++) {
+                        if (!MathUtils.equals(expected[j], actual[j], 1e-5d)) {
+                            mismatches++;
+                            break;
                         }
                     }
                     metric.next(actual, testLabels[i]);
                 }
                 Assert.assertTrue(
-                    "Too many mismatches in prediction result between xgboost4j and xgboost-predictor: "
+                    "Too many mismatches in prediction result between xgboost4j and XGBoostPredictor: "
                             + mismatches,
                     mismatches <= 2);
             }
@@ -0,0 +1,257 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.xgboost.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class XGBoostPredictorTest {
+
+    private static final float NaN = Float.NaN;
+
+    @Test
+    public void testGBTree() throws IOException {
+        // f0 < 0.5 (missing goes right) ? (f1 < 2 (missing goes left) ? 0.1 : 0.2) : 0.3
+        ModelWriter writer = new ModelWriter(0.f, 2, "reg:linear", "gbtree");
+        writer.gbtreeParam(2, 1);
+        writer.tree(new int[][] {{1, 2, 0, 0}, {3, 4, 1, 1}, {-1, -1, 0, 0}, {-1, -1, 0, 0},
+                {-1, -1, 0, 0}}, new float[] {0.5f, 2.f, 0.3f, 0.1f, 0.2f});
+        writer.tree(new int[][] {{-1, -1, 0, 0}}, new float[] {1.f});
+        writer.treeInfo(0, 0);
+
+        XGBoostPredictor predictor = XGBoostPredictor.load(writer.toByteArray());
+        Assert.assertEquals("reg:linear", predictor.getObjective());
+        Assert.assertEquals("gbtree", predictor.getBooster());
+        Assert.assertEquals(2, predictor.getNumFeatures());
+        Assert.assertEquals(1, predictor.getNumOutputs());
+
+        Assert.assertEquals(1.1d, predictor.predict(new float[] {0.f, 1.f})[0], 1E-6d);
+        Assert.assertEquals(1.2d, predictor.predict(new float[] {0.f, 2.f})[0], 1E-6d);
+        Assert.assertEquals(1.3d, predictor.predict(new float[] {0.5f, 1.f})[0], 1E-6d);
+        // missing values
+        Assert.assertEquals(1.3d, predictor.predict(new float[] {NaN, 1.f})[0], 1E-6d);
+        Assert.assertEquals(1.1d, predictor.predict(new float[] {0.f, NaN})[0], 1E-6d);
+        Assert.assertEquals(1.1d, predictor.predict(new float[] {0.f})[0], 1E-6d);
+        Assert.assertEquals(1.3d, predictor.predict(new float[0])[0], 1E-6d);
+    }
+
+    @Test
+    public void testBinaryLogistic() throws IOException {
+        ModelWriter writer = new ModelWriter(0.5f, 1, "binary:logistic", "gbtree");
+        writer.gbtreeParam(1, 1);
+        writer.tree(new int[][] {{1, 2, 0, 0}, {-1, -1, 0, 0}, {-1, -1, 0, 0}},
+            new float[] {1.f, -1.f, 1.f});
+        writer.treeInfo(0);
+
+        XGBoostPredictor predictor = XGBoostPredictor.load(writer.toByteArray());
+        Assert.assertEquals(1.d / (1.d + Math.exp(-(0.5d - 1.d))),
+            predictor.predict(new float[] {0.f})[0], 1E-6d);
+        Assert.assertEquals(1.d / (1.d + Math.exp(-(0.5d + 1.d))),
+            predictor.predict(new float[] {2.f})[0], 1E-6d);
+        Assert.assertEquals(0.5f - 1.f, predictor.predictMargin(new float[] {0.f}, 0), 1E-6f);
+    }
+
+    @Test
+    public void testMultiClass() throws IOException {
+        final float[][] leaves = {{0.1f, 0.9f, 0.5f}, {0.7f, 0.2f, 0.3f}};
+        for (String objective : new String[] {"multi:softprob", "multi:softmax"}) {
+            ModelWriter writer = new ModelWriter(0.f, 1, objective, "gbtree");
+            writer.gbtreeParam(6, 3);
+            for (int k = 0; k < 3; k++) {
+                writer.tree(new int[][] {{1, 2, 0, 0}, {-1, -1, 0, 0}, {-1, -1, 0, 0}},
+                    new float[] {0.f, leaves[0][k], leaves[1][k]});
+            }
+            for (int k = 0; k < 3; k++) {
+                writer.tree(new int[][] {{-1, -1, 0, 0}}, new float[] {0.f});
+            }
+            writer.treeInfo(0, 1, 2, 0, 1, 2);
+
+            XGBoostPredictor predictor = XGBoostPredictor.load(writer.toByteArray());
+            if (objective.equals("multi:softmax")) {
+                Assert.assertEquals(1, predictor.getNumOutputs());
+                Assert.assertArrayEquals(new double[] {1.d},
+                    predictor.predict(new float[] {-1.f}), 0.d);
+                Assert.assertArrayEquals(new double[] {0.d},
+                    predictor.predict(new float[] {1.f}), 0.d);
+            } else {
+                Assert.assertEquals(3, predictor.getNumOutputs());
+                double[] actual = predictor.predict(new float[] {-1.f});
+                double z = Math.exp(0.1d) + Math.exp(0.9d) + Math.exp(0.5d);
+                Assert.assertArrayEquals(new double[] {Math.exp(0.1d) / z, Math.exp(0.9d) / z,
+                        Math.exp(0.5d) / z}, actual, 1E-6d);
+            }
+        }
+    }
+
+    @Test
+    public void testDart() throws IOException {
+        ModelWriter writer = new ModelWriter(0.f, 1, "reg:linear", "dart");
+        writer.gbtreeParam(2, 1);
+        writer.tree(new int[][] {{-1, -1, 0, 0}}, new float[] {1.f});
+        writer.tree(new int[][] {{-1, -1, 0, 0}}, new float[] {2.f});
+        writer.treeInfo(0, 0);
+        writer.floats(0.5f, 0.25f);
+
+        XGBoostPredictor predictor = XGBoostPredictor.load(writer.toByteArray());
+        Assert.assertEquals("dart", predictor.getBooster());
+        Assert.assertEquals(1.d, predictor.predict(new float[] {0.f})[0], 1E-6d);
+    }
+
+    @Test
+    public void testGBLinear() throws IOException {
+        ModelWriter writer = new ModelWriter(0.5f, 2, "reg:linear", "gblinear");
+        writer.gblinearParam(2, 2);
+        // w[feature * 2 + group] followed by bias[group]
+        writer.floats(1.f, 2.f, 3.f, 4.f, 0.1f, 0.2f);
+
+        XGBoostPredictor predictor = XGBoostPredictor.load(writer.toByteArray());
+        Assert.assertEquals(2, predictor.getNumOutputs());
+        Assert.assertArrayEquals(new double[] {0.5d + 0.1d + 1.d + 6.d, 0.5d + 0.2d + 2.d + 8.d},
+            predictor.predict(new float[] {1.f, 2.f}), 1E-5d);
+        Assert.assertArrayEquals(new double[] {0.5d + 0.1d + 1.d, 0.5d + 0.2d + 2.d},
+            predictor.predict(new float[] {1.f, NaN, 100.f}), 1E-5d);
+    }
+
+    @Test
+    public void testGBLinearFewerFeaturesThanLearner() throws IOException {
+        // the weights are laid out by num_feature of gblinear, not of the learner
+        ModelWriter writer = new ModelWriter(0.f, 3, "reg:linear", "gblinear");
+        writer.gblinearParam(2, 1);
+        writer.floats(1.f, 2.f, 0.5f);
+
+        XGBoostPredictor predictor = XGBoostPredictor.load(writer.toByteArray());
+        Assert.assertEquals(2, predictor.getNumFeatures());
+        Assert.assertEquals(0.5d + 1.d + 4.d, predictor.predict(new float[] {1.f, 2.f})[0],
+            1E-5d);
+        Assert.assertEquals(0.5d + 1.d + 4.d,
+            predictor.predict(new float[] {1.f, 2.f, 100.f})[0], 1E-5d);
+    }
+
+    @Test
+    public void testBinfHeader() throws IOException {
+        ModelWriter writer = new ModelWriter(0.f, 1, "reg:linear", "gbtree");
+        writer.gbtreeParam(1, 1);
+        writer.tree(new int[][] {{-1, -1, 0, 0}}, new float[] {3.f});
+        writer.treeInfo(0);
+        byte[] model = writer.toByteArray();
+
+        byte[] withHeader = new byte[model.length + 4];
+        System.arraycopy("binf".getBytes(StandardCharsets.US_ASCII), 0, withHeader, 0, 4);
+        System.arraycopy(model, 0, withHeader, 4, model.length);
+        XGBoostPredictor predictor = XGBoostPredictor.load(withHeader);
+        Assert.assertEquals(3.d, predictor.predict(new float[0])[0], 0.d);
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnsupportedObjective() throws IOException {
+        ModelWriter writer = new ModelWriter(0.f, 1, "reg:unknown", "gbtree");
+        writer.gbtreeParam(0, 1);
+        XGBoostPredictor.load(writer.toByteArray());
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncatedModel() throws IOException {
+        ModelWriter writer = new ModelWriter(0.f, 1, "reg:linear", "gbtree");
+        writer.gbtreeParam(1, 1);
+        writer.tree(new int[][] {{1, 2, 0, 0}, {-1, -1, 0, 0}, {-1, -1, 0, 0}},
+            new float[] {0.f, 1.f, 2.f});
+        byte[] model = writer.toByteArray();
+        XGBoostPredictor.load(Arrays.copyOf(model, model.length - 10));
+    }
+
+    /**
+     * Writes a model in the binary format of xgboost 0.90.
+     */
+    private static final class ModelWriter {
+
+        @Nonnull
+        private final ByteBuffer buf;
+
+        ModelWriter(float baseScore, int numFeatures, @Nonnull String objective,
+                @Nonnull String booster) {
+            this.buf = ByteBuffer.allocate(4096).order(ByteOrder.LITTLE_ENDIAN);
+            buf.putFloat(baseScore);
+            buf.putInt(numFeatures);
+            buf.position(136);
+            string(objective);
+            string(booster);
+        }
+
+        void gbtreeParam(int numTrees, int numGroups) {
+            final int start = buf.position();
+            buf.putInt(numTrees).putInt(1).putInt(0).putInt(0).putLong(0L).putInt(numGroups);
+            buf.position(start + 160);
+        }
+
+        void gblinearParam(int numFeatures, int numGroups) {
+            final int start = buf.position();
+            buf.putInt(numFeatures).putInt(numGroups);
+            buf.position(start + 136);
+        }
+
+        /**
+         * @param nodes {left, right, feature, defaultLeft} of each node
+         */
+        void tree(@Nonnull int[][] nodes, @Nonnull float[] values) {
+            final int start = buf.position();
+            buf.putInt(1).putInt(nodes.length);
+            buf.position(start + 148);
+            for (int i = 0; i < nodes.length; i++) {
+                int[] node = nodes[i];
+                buf.putInt(-1).putInt(node[0]).putInt(node[1]);
+                buf.putInt(node[2] | (node[3] != 0 ? 0x80000000 : 0));
+                buf.putFloat(values[i]);
+            }
+            buf.position(buf.position() + 16 * nodes.length);
+        }
+
+        void treeInfo(int... groups) {
+            for (int g : groups) {
+                buf.putInt(g);
+            }
+        }
+
+        void floats(float... values) {
+            buf.putLong(values.length);
+            for (float v : values) {
+                buf.putFloat(v);
+            }
+        }
+
+        private void string(@Nonnull String s) {
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            buf.putLong(b.length);
+            buf.put(b);
+        }
+
+        @Nonnull
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf.array(), buf.position());
+        }
+    }
+
+}